@@ -0,0 +1,88 @@
+package com.sandrew.benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sandrew.logic.BatchUploadReport;
+import com.sandrew.logic.FileUploader;
+
+/**
+ * Throughput of the batch upload of a directory for several batch sizes. The files are sent to a topic without
+ * subscriber, so the broker drops them as soon as they are committed and does not slow the producer down.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchUploadBenchmark {
+
+    private static final int FILE_COUNT = 100;
+
+    private static final long BATCH_INTERVAL_MILLIS = 60000L;
+
+    @Param({ "vm", "tcp" })
+    private String transport;
+
+    @Param({ "1", "10", "100" })
+    private int batchSize;
+
+    private final List<File> files = new ArrayList<>();
+
+    private File directory;
+
+    private EmbeddedBroker broker;
+
+    private FileUploader uploader;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.directory = Files.createTempDirectory("batch-benchmark").toFile();
+        final byte[] content = Documents.SMALL.create();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            final File file = new File(this.directory, "order-" + i + ".xml");
+            Files.write(file.toPath(), content);
+            this.files.add(file);
+        }
+        this.broker = new EmbeddedBroker(this.transport);
+        this.uploader = new FileUploader(this.broker.getUri(), null, null, "benchmark.batch", true);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.uploader.close();
+        this.broker.close();
+        for (final File file : this.files) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(this.directory.toPath());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILE_COUNT)
+    public BatchUploadReport uploadFiles() {
+        final BatchUploadReport report = this.uploader.uploadFiles(this.files, this.batchSize, BATCH_INTERVAL_MILLIS);
+        if (!report.getFailedFiles().isEmpty()) {
+            throw new IllegalStateException(report.toString());
+        }
+        return report;
+    }
+}
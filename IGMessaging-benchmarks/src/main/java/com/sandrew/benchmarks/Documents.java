@@ -0,0 +1,66 @@
+package com.sandrew.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Order documents used by the benchmarks.
+ */
+public enum Documents {
+
+    /**
+     * The sample file of the application: a single order.
+     */
+    SMALL {
+
+        @Override
+        byte[] create() throws IOException {
+            try (final InputStream stream = Documents.class.getResourceAsStream("/interview-test-orders-1.xml")) {
+                return ByteStreams.toByteArray(stream);
+            }
+        }
+    },
+
+    /**
+     * Ten thousand orders in a single document, about 1.7 MB.
+     */
+    LARGE {
+
+        @Override
+        byte[] create() throws IOException {
+            return orders(10000);
+        }
+    };
+
+    /**
+     * Creates the content of the document.
+     *
+     * @return The document.
+     * @throws IOException
+     *             If the document cannot be read.
+     */
+    abstract byte[] create() throws IOException;
+
+    /**
+     * Creates a document holding several orders.
+     *
+     * @param count
+     *            Number of orders.
+     * @return The document.
+     */
+    static byte[] orders(final int count) {
+        final StringBuilder builder = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n<Orders>");
+        for (int i = 0; i < count; i++) {
+            builder.append("<Order><accont>AX").append(i % 1000).append("</accont><SubmittedAt>")
+                            .append(1507060723641L + i).append("</SubmittedAt><ReceivedAt>")
+                            .append(1507060723642L + i).append("</ReceivedAt><market>VOD.L</market><action>")
+                            .append(i % 2 == 0 ? "BUY" : "SELL").append("</action><size>").append(100 + i)
+                            .append("</size></Order>");
+        }
+        builder.append("</Orders>");
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,63 @@
+package com.sandrew.benchmarks;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.activemq.broker.BrokerService;
+
+import com.sandrew.logic.ConnectionPools;
+
+/**
+ * Non persistent broker running in the benchmark JVM, reached either in memory or over the loopback interface.
+ */
+final class EmbeddedBroker implements AutoCloseable {
+
+    private static final AtomicInteger BROKER_COUNT = new AtomicInteger();
+
+    private final BrokerService broker = new BrokerService();
+
+    private final URI uri;
+
+    /**
+     * Starts the broker.
+     *
+     * @param transport
+     *            "vm" to connect in memory, "tcp" to connect through an ephemeral port on localhost.
+     * @throws Exception
+     *             If the broker cannot be started.
+     */
+    EmbeddedBroker(final String transport) throws Exception {
+        final String name = "benchmark-" + BROKER_COUNT.incrementAndGet();
+        this.broker.setBrokerName(name);
+        this.broker.setPersistent(false);
+        this.broker.setUseJmx(false);
+        this.broker.setAdvisorySupport(false);
+        if ("tcp".equals(transport)) {
+            this.broker.addConnector("tcp://localhost:0");
+            this.broker.start();
+            this.uri = this.broker.getTransportConnectors().get(0).getConnectUri();
+        } else if ("vm".equals(transport)) {
+            this.broker.start();
+            this.uri = new URI("vm://" + name + "?create=false");
+        } else {
+            throw new IllegalArgumentException("Unknown transport " + transport);
+        }
+    }
+
+    /**
+     * @return the URI to connect to the broker
+     */
+    URI getUri() {
+        return this.uri;
+    }
+
+    /**
+     * Closes the pooled connections and stops the broker.
+     */
+    @Override
+    public void close() throws Exception {
+        ConnectionPools.shutdown();
+        this.broker.stop();
+        this.broker.waitUntilStopped();
+    }
+}
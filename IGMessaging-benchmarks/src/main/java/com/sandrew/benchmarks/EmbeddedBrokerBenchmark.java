@@ -0,0 +1,134 @@
+package com.sandrew.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sandrew.broker.EmbeddedBroker;
+import com.sandrew.broker.EmbeddedBrokerProperties;
+import com.sandrew.broker.EmbeddedBrokerProperties.Persistence;
+import com.sandrew.logic.ConnectionPools;
+import com.sandrew.logic.FileUploader;
+
+/**
+ * Latency of a persistent order sent to the broker embedded in the application and consumed back, over vm://, with
+ * and without the copy of the message on send, and over tcp://localhost, for both stores. The percentiles are
+ * reported along with the mean.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmbeddedBrokerBenchmark {
+
+    private static final String QUEUE = "benchmark.embedded";
+
+    @Param({ "vm", "vm-copy", "tcp" })
+    private String transport;
+
+    @Param({ "MEMORY", "KAHADB" })
+    private Persistence persistence;
+
+    private byte[] content;
+
+    private Path dataDirectory;
+
+    private EmbeddedBroker broker;
+
+    private FileUploader uploader;
+
+    private Connection consumerConnection;
+
+    private final BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+
+    @Setup
+    public void setUp() throws Exception {
+        this.content = Documents.SMALL.create();
+        this.dataDirectory = Files.createTempDirectory("embedded-broker-benchmark");
+        final EmbeddedBrokerProperties properties = new EmbeddedBrokerProperties();
+        properties.setName("benchmark-embedded");
+        properties.setPersistence(this.persistence);
+        properties.setDataDirectory(this.dataDirectory.toString());
+        properties.setCopyMessageOnSend("vm-copy".equals(this.transport));
+        if ("tcp".equals(this.transport)) {
+            properties.setTcpConnector("tcp://localhost:0");
+        }
+        this.broker = new EmbeddedBroker(properties);
+        this.broker.start();
+        final URI uri = "tcp".equals(this.transport) ? this.broker.getTcpUri() : this.broker.getVmUri();
+
+        this.uploader = new FileUploader(uri, null, null, QUEUE, false);
+        this.consumerConnection = new ActiveMQConnectionFactory(uri).createConnection();
+        final Session session = this.consumerConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        session.createConsumer(session.createQueue(QUEUE)).setMessageListener(new MessageListener() {
+
+            @Override
+            public void onMessage(final Message message) {
+                EmbeddedBrokerBenchmark.this.received.add(message);
+            }
+        });
+        this.consumerConnection.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.consumerConnection.close();
+        this.uploader.close();
+        ConnectionPools.shutdown();
+        this.broker.close();
+        deleteRecursively(this.dataDirectory);
+    }
+
+    @Benchmark
+    public Message sendAndConsume() throws Exception {
+        this.uploader.uploadStream(new ByteArrayInputStream(this.content));
+        return this.received.take();
+    }
+
+    private static void deleteRecursively(final Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes)
+                            throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
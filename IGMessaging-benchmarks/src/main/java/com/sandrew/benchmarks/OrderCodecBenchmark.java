@@ -0,0 +1,147 @@
+package com.sandrew.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sandrew.logic.FileUploader;
+import com.sandrew.logic.Order;
+import com.sandrew.logic.OrderCodec;
+import com.sandrew.logic.PayloadSink;
+
+/**
+ * Cost of the binary encoding of the orders against their XML serialisation, without any broker. The sizes of both
+ * payloads are reported as secondary results of {@link #payloadSizes(PayloadSizes)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderCodecBenchmark {
+
+    @Param({ "SMALL", "LARGE" })
+    private Documents document;
+
+    private byte[] content;
+
+    private String serialized;
+
+    private int serializedLength;
+
+    private byte[] binary;
+
+    private final Order order = new Order();
+
+    private final LastPayload sink = new LastPayload();
+
+    private FileUploader uploader;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.content = this.document.create();
+        // Serialising does not connect to the broker
+        this.uploader = new FileUploader(new URI("vm://codec?create=false"), null, null, "benchmark", false);
+        this.serialized = this.uploader.serializeFile(new ByteArrayInputStream(this.content)).toString();
+        this.serializedLength = this.serialized.getBytes(StandardCharsets.UTF_8).length;
+        this.binary = this.encode();
+    }
+
+    /**
+     * Encodes the document as {@link #encodeBinary()} does, to report the sizes of both payloads. JMH sums the
+     * secondary results of all the iterations, hence a single one.
+     */
+    @Benchmark
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public byte[] payloadSizes(final PayloadSizes sizes) throws Exception {
+        final byte[] payload = this.encode();
+        sizes.xmlBytes = this.serializedLength;
+        sizes.binaryBytes = payload.length;
+        return payload;
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() throws Exception {
+        return this.encode();
+    }
+
+    @Benchmark
+    public String deserialiseXml() throws Exception {
+        return this.uploader.deserialiseFile(this.serialized).toString();
+    }
+
+    @Benchmark
+    public long decodeBinary() {
+        final ByteBuffer buffer = ByteBuffer.wrap(this.binary);
+        OrderCodec.readHeader(buffer);
+        long checksum = 0;
+        while (buffer.hasRemaining()) {
+            OrderCodec.decode(buffer, this.order);
+            checksum += this.order.getSize() + this.order.getAccount().length();
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public String binaryToXml() {
+        return OrderCodec.toXml(ByteBuffer.wrap(this.binary));
+    }
+
+    private byte[] encode() throws Exception {
+        OrderCodec.encodeXml(new ByteArrayInputStream(this.content), false, this.sink);
+        return this.sink.bytes;
+    }
+
+    /**
+     * Sizes of the payloads of the document, in bytes. JMH reports the public fields of the state as secondary results
+     * of the benchmarks using it.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PayloadSizes {
+
+        public long xmlBytes;
+
+        public long binaryBytes;
+    }
+
+    /**
+     * Keeps the bytes of the last payload handed over, encoded in UTF-8 for a text payload.
+     */
+    private static final class LastPayload implements PayloadSink {
+
+        private byte[] bytes;
+
+        @Override
+        public void accept(final String payload) {
+            this.bytes = payload.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void acceptRaw(final byte[] document) {
+            this.bytes = document;
+        }
+
+        @Override
+        public void acceptBinary(final byte[] orders) {
+            this.bytes = orders;
+        }
+    }
+}
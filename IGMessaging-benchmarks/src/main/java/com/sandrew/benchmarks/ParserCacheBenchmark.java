@@ -0,0 +1,67 @@
+package com.sandrew.benchmarks;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import com.sandrew.logic.FileReceiver;
+import com.sandrew.logic.SerializationMode;
+import com.sun.org.apache.xml.internal.serialize.OutputFormat;
+import com.sun.org.apache.xml.internal.serialize.XMLSerializer;
+
+/**
+ * Per message cost of the DOM deserialisation of the receiver, with the cached parsers against a new factory and
+ * builder for each message as it used to be done.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ParserCacheBenchmark {
+
+    private String message;
+
+    private FileReceiver receiver;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.message = new String(Documents.SMALL.create(), "UTF-8");
+        // Deserialising does not connect to the broker
+        this.receiver = new FileReceiver(new URI("vm://parser-cache?create=false"), null, null, "benchmark", false);
+        this.receiver.setSerializationMode(SerializationMode.DOM);
+    }
+
+    @Benchmark
+    public String cachedParser() throws Exception {
+        return this.receiver.deserialiseFile(this.message).toString();
+    }
+
+    @Benchmark
+    public String newParserPerMessage() throws Exception {
+        final Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                        .parse(new InputSource(new StringReader(this.message)));
+        final StringWriter out = new StringWriter();
+        new XMLSerializer(out, new OutputFormat(doc)).serialize(doc);
+        return out.toString();
+    }
+}
@@ -0,0 +1,82 @@
+package com.sandrew.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sandrew.logic.FileHandler;
+import com.sandrew.logic.FileReceiver;
+import com.sandrew.logic.FileUploader;
+
+/**
+ * End to end latency of a document: uploaded to an embedded broker, then received and deserialised by a continuous
+ * receiver.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+
+    private static final String QUEUE = "benchmark.pipeline";
+
+    @Param({ "vm", "tcp" })
+    private String transport;
+
+    @Param({ "SMALL", "LARGE" })
+    private Documents document;
+
+    private byte[] content;
+
+    private EmbeddedBroker broker;
+
+    private FileUploader uploader;
+
+    private FileReceiver receiver;
+
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+    @Setup
+    public void setUp() throws Exception {
+        this.content = this.document.create();
+        this.broker = new EmbeddedBroker(this.transport);
+        this.uploader = new FileUploader(this.broker.getUri(), null, null, QUEUE, false);
+        this.receiver = new FileReceiver(this.broker.getUri(), null, null, QUEUE, false);
+        this.receiver.start(new FileHandler() {
+
+            @Override
+            public void handle(final String file) {
+                PipelineBenchmark.this.received.add(file);
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.receiver.stop();
+        this.uploader.close();
+        this.broker.close();
+    }
+
+    @Benchmark
+    public String sendAndReceive() throws Exception {
+        this.uploader.uploadStream(new ByteArrayInputStream(this.content));
+        return this.received.take();
+    }
+}
@@ -0,0 +1,63 @@
+package com.sandrew.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sandrew.logic.FileUploader;
+import com.sandrew.logic.SerializationMode;
+
+/**
+ * Cost of the serialisation of an order document, without any broker.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({ "SMALL", "LARGE" })
+    private Documents document;
+
+    @Param({ "STREAMING", "DOM" })
+    private SerializationMode mode;
+
+    private byte[] content;
+
+    private String serialized;
+
+    private FileUploader uploader;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.content = this.document.create();
+        // Serialising does not connect to the broker
+        this.uploader = new FileUploader(new URI("vm://serialization?create=false"), null, null, "benchmark", false);
+        this.uploader.setSerializationMode(this.mode);
+        this.serialized = this.uploader.serializeFile(new ByteArrayInputStream(this.content)).toString();
+    }
+
+    @Benchmark
+    public String serialize() throws Exception {
+        return this.uploader.serializeFile(new ByteArrayInputStream(this.content)).toString();
+    }
+
+    @Benchmark
+    public String deserialise() throws Exception {
+        return this.uploader.deserialiseFile(this.serialized).toString();
+    }
+}
@@ -0,0 +1,137 @@
+package com.sandrew.broker;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+import org.apache.activemq.broker.region.policy.PolicyMap;
+import org.apache.activemq.store.kahadb.KahaDBPersistenceAdapter;
+import org.apache.activemq.usage.SystemUsage;
+import org.apache.commons.lang.StringUtils;
+
+import com.sandrew.broker.EmbeddedBrokerProperties.Persistence;
+
+/**
+ * ActiveMQ broker running in the JVM of the application, so that an edge site needs no broker of its own. The
+ * uploaders of the application reach it through its vm:// URI: the messages are handed over in memory, without being
+ * marshalled, and are not even copied unless configured otherwise. Remote clients can reach it through a TCP
+ * connector.
+ */
+public final class EmbeddedBroker implements AutoCloseable {
+
+    private static final long BYTES_PER_MEGABYTE = 1024L * 1024L;
+
+    private final BrokerService broker = new BrokerService();
+
+    private final URI vmUri;
+
+    /**
+     * Configures the broker, without starting it.
+     *
+     * @param properties
+     *            The configuration of the broker.
+     * @throws Exception
+     *             If the TCP connector cannot be created.
+     */
+    public EmbeddedBroker(final EmbeddedBrokerProperties properties) throws Exception {
+        this.broker.setBrokerName(properties.getName());
+        this.broker.setUseJmx(false);
+        this.broker.setUseShutdownHook(false);
+        this.broker.setDataDirectoryFile(new File(properties.getDataDirectory()));
+        if (properties.getPersistence() == Persistence.KAHADB) {
+            final KahaDBPersistenceAdapter store = new KahaDBPersistenceAdapter();
+            store.setDirectory(new File(properties.getDataDirectory(), "kahadb"));
+            store.setJournalMaxFileLength((int) (properties.getJournalMaxFileLengthMb() * BYTES_PER_MEGABYTE));
+            store.setJournalDiskSyncStrategy(properties.getJournalDiskSyncStrategy().name());
+            store.setJournalDiskSyncInterval(properties.getJournalDiskSyncIntervalMillis());
+            store.setIndexCacheSize(properties.getIndexCacheSize());
+            this.broker.setPersistenceAdapter(store);
+        } else {
+            this.broker.setPersistent(false);
+        }
+
+        final SystemUsage usage = this.broker.getSystemUsage();
+        usage.getMemoryUsage().setLimit(properties.getMemoryLimitMb() * BYTES_PER_MEGABYTE);
+        usage.getStoreUsage().setLimit(properties.getStoreLimitMb() * BYTES_PER_MEGABYTE);
+        usage.getTempUsage().setLimit(properties.getTempLimitMb() * BYTES_PER_MEGABYTE);
+        final PolicyEntry policy = new PolicyEntry();
+        policy.setProducerFlowControl(properties.isProducerFlowControl());
+        if (properties.getDestinationMemoryLimitMb() > 0) {
+            policy.setMemoryLimit(properties.getDestinationMemoryLimitMb() * BYTES_PER_MEGABYTE);
+        }
+        final PolicyMap policies = new PolicyMap();
+        policies.setDefaultEntry(policy);
+        this.broker.setDestinationPolicy(policies);
+
+        if (StringUtils.isNotBlank(properties.getTcpConnector())) {
+            this.broker.addConnector(properties.getTcpConnector().trim());
+        }
+        this.vmUri = createVmUri(properties);
+    }
+
+    /**
+     * Starts the broker and waits until it is started.
+     *
+     * @throws Exception
+     *             If the broker cannot be started, for instance if its store is locked by another broker.
+     */
+    public void start() throws Exception {
+        this.broker.start();
+        this.broker.waitUntilStarted();
+    }
+
+    /**
+     * @return the URI to reach the broker from the JVM
+     */
+    public URI getVmUri() {
+        return this.vmUri;
+    }
+
+    /**
+     * @return the URI to reach the broker remotely once started, null if it has no TCP connector
+     */
+    public URI getTcpUri() {
+        if (this.broker.getTransportConnectors().isEmpty()) {
+            return null;
+        }
+        try {
+            return this.broker.getTransportConnectors().get(0).getConnectUri();
+        } catch (IOException | URISyntaxException e) {
+            throw new IllegalStateException("The TCP connector has no URI", e);
+        }
+    }
+
+    /**
+     * Stops the broker and waits until it is stopped. The clients connected over vm:// lose their connections. If the
+     * calling thread is interrupted, the broker goes on stopping in the background and the interruption is kept.
+     *
+     * @throws IOException
+     *             If the broker fails to stop.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.broker.stop();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final Exception e) {
+            throw new IOException("Failed to stop the embedded broker " + this.broker.getBrokerName(), e);
+        }
+        // Waiting spins on an interrupted thread
+        if (!Thread.currentThread().isInterrupted()) {
+            this.broker.waitUntilStopped();
+        }
+    }
+
+    private static URI createVmUri(final EmbeddedBrokerProperties properties) throws URISyntaxException {
+        // The broker is never created on the fly by a client, whatever its configuration
+        final StringBuilder uri = new StringBuilder("vm://").append(properties.getName()).append("?create=false");
+        if (!properties.isCopyMessageOnSend()) {
+            uri.append("&jms.copyMessageOnSend=false");
+        }
+        return new URI(uri.toString());
+    }
+}
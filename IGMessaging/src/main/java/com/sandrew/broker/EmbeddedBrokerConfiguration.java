@@ -0,0 +1,24 @@
+package com.sandrew.broker;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Starts a broker with the application when broker.embedded.enabled is true, and stops it with the application. The
+ * beans using it inject it, so that Spring stops them first: the uploader registry closes its uploaders while the
+ * broker still acknowledges their messages.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "broker.embedded", name = "enabled", havingValue = "true")
+@EnableConfigurationProperties(EmbeddedBrokerProperties.class)
+public class EmbeddedBrokerConfiguration {
+
+    @Bean(destroyMethod = "close")
+    public EmbeddedBroker embeddedBroker(final EmbeddedBrokerProperties properties) throws Exception {
+        final EmbeddedBroker broker = new EmbeddedBroker(properties);
+        broker.start();
+        return broker;
+    }
+}
@@ -0,0 +1,302 @@
+package com.sandrew.broker;
+
+import org.apache.activemq.store.kahadb.disk.journal.Journal.JournalDiskSyncStrategy;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration of the broker embedded in the application, read from the broker.embedded.* properties.
+ */
+@ConfigurationProperties(prefix = "broker.embedded")
+public class EmbeddedBrokerProperties {
+
+    /**
+     * Store of the persistent messages.
+     */
+    public enum Persistence {
+
+        /**
+         * The messages are kept in memory and lost when the broker stops.
+         */
+        MEMORY,
+
+        /**
+         * The messages are written to a KahaDB journal.
+         */
+        KAHADB
+    }
+
+    private static final int DEFAULT_JOURNAL_MAX_FILE_LENGTH_MB = 32;
+
+    private static final long DEFAULT_JOURNAL_DISK_SYNC_INTERVAL_MILLIS = 1000L;
+
+    private static final int DEFAULT_INDEX_CACHE_SIZE = 10_000;
+
+    private static final int DEFAULT_MEMORY_LIMIT_MB = 64;
+
+    private static final int DEFAULT_STORE_LIMIT_MB = 10 * 1024;
+
+    private static final int DEFAULT_TEMP_LIMIT_MB = 5 * 1024;
+
+    private boolean enabled = false;
+
+    private String name = "igmessaging";
+
+    private Persistence persistence = Persistence.KAHADB;
+
+    private String dataDirectory = "broker-data";
+
+    private int journalMaxFileLengthMb = DEFAULT_JOURNAL_MAX_FILE_LENGTH_MB;
+
+    private JournalDiskSyncStrategy journalDiskSyncStrategy = JournalDiskSyncStrategy.ALWAYS;
+
+    private long journalDiskSyncIntervalMillis = DEFAULT_JOURNAL_DISK_SYNC_INTERVAL_MILLIS;
+
+    private int indexCacheSize = DEFAULT_INDEX_CACHE_SIZE;
+
+    private int memoryLimitMb = DEFAULT_MEMORY_LIMIT_MB;
+
+    private int destinationMemoryLimitMb = 0;
+
+    private int storeLimitMb = DEFAULT_STORE_LIMIT_MB;
+
+    private int tempLimitMb = DEFAULT_TEMP_LIMIT_MB;
+
+    private boolean producerFlowControl = true;
+
+    private String tcpConnector = null;
+
+    private boolean copyMessageOnSend = false;
+
+    /**
+     * @return true if the broker is started with the application
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * @param enabled
+     *            true to start the broker with the application, false to connect to external brokers only, which is the
+     *            default behaviour
+     */
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the name of the broker, used by the vm:// URI
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @param name
+     *            the name of the broker, used by the vm:// URI
+     */
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return how the persistent messages are stored
+     */
+    public Persistence getPersistence() {
+        return this.persistence;
+    }
+
+    /**
+     * @param persistence
+     *            how the persistent messages are stored
+     */
+    public void setPersistence(final Persistence persistence) {
+        this.persistence = persistence;
+    }
+
+    /**
+     * @return the directory of the KahaDB store
+     */
+    public String getDataDirectory() {
+        return this.dataDirectory;
+    }
+
+    /**
+     * @param dataDirectory
+     *            the directory of the KahaDB store
+     */
+    public void setDataDirectory(final String dataDirectory) {
+        this.dataDirectory = dataDirectory;
+    }
+
+    /**
+     * @return the size of the journal files, in megabytes
+     */
+    public int getJournalMaxFileLengthMb() {
+        return this.journalMaxFileLengthMb;
+    }
+
+    /**
+     * @param journalMaxFileLengthMb
+     *            the size of the journal files, in megabytes
+     */
+    public void setJournalMaxFileLengthMb(final int journalMaxFileLengthMb) {
+        this.journalMaxFileLengthMb = journalMaxFileLengthMb;
+    }
+
+    /**
+     * @return when the journal is synced to the disk
+     */
+    public JournalDiskSyncStrategy getJournalDiskSyncStrategy() {
+        return this.journalDiskSyncStrategy;
+    }
+
+    /**
+     * @param journalDiskSyncStrategy
+     *            when the journal is synced to the disk: ALWAYS before a persistent send returns, which is the default
+     *            behaviour, PERIODIC every sync interval, at the risk of losing the last messages on a power cut, or
+     *            NEVER
+     */
+    public void setJournalDiskSyncStrategy(final JournalDiskSyncStrategy journalDiskSyncStrategy) {
+        this.journalDiskSyncStrategy = journalDiskSyncStrategy;
+    }
+
+    /**
+     * @return the interval between two syncs of the journal with the PERIODIC strategy
+     */
+    public long getJournalDiskSyncIntervalMillis() {
+        return this.journalDiskSyncIntervalMillis;
+    }
+
+    /**
+     * @param journalDiskSyncIntervalMillis
+     *            the interval between two syncs of the journal with the PERIODIC strategy
+     */
+    public void setJournalDiskSyncIntervalMillis(final long journalDiskSyncIntervalMillis) {
+        this.journalDiskSyncIntervalMillis = journalDiskSyncIntervalMillis;
+    }
+
+    /**
+     * @return the number of index pages cached in memory
+     */
+    public int getIndexCacheSize() {
+        return this.indexCacheSize;
+    }
+
+    /**
+     * @param indexCacheSize
+     *            the number of index pages cached in memory
+     */
+    public void setIndexCacheSize(final int indexCacheSize) {
+        this.indexCacheSize = indexCacheSize;
+    }
+
+    /**
+     * @return the memory holding the messages waiting for consumers, in megabytes
+     */
+    public int getMemoryLimitMb() {
+        return this.memoryLimitMb;
+    }
+
+    /**
+     * @param memoryLimitMb
+     *            the memory holding the messages waiting for consumers, in megabytes
+     */
+    public void setMemoryLimitMb(final int memoryLimitMb) {
+        this.memoryLimitMb = memoryLimitMb;
+    }
+
+    /**
+     * @return the memory limit of each destination in megabytes, zero if the destinations share the memory of the
+     *         broker
+     */
+    public int getDestinationMemoryLimitMb() {
+        return this.destinationMemoryLimitMb;
+    }
+
+    /**
+     * @param destinationMemoryLimitMb
+     *            the memory limit of each destination in megabytes, zero to share the memory of the broker, which is
+     *            the default behaviour
+     */
+    public void setDestinationMemoryLimitMb(final int destinationMemoryLimitMb) {
+        this.destinationMemoryLimitMb = destinationMemoryLimitMb;
+    }
+
+    /**
+     * @return the disk space of the persistent messages, in megabytes
+     */
+    public int getStoreLimitMb() {
+        return this.storeLimitMb;
+    }
+
+    /**
+     * @param storeLimitMb
+     *            the disk space of the persistent messages, in megabytes
+     */
+    public void setStoreLimitMb(final int storeLimitMb) {
+        this.storeLimitMb = storeLimitMb;
+    }
+
+    /**
+     * @return the disk space of the non persistent messages spooled out of memory, in megabytes
+     */
+    public int getTempLimitMb() {
+        return this.tempLimitMb;
+    }
+
+    /**
+     * @param tempLimitMb
+     *            the disk space of the non persistent messages spooled out of memory, in megabytes
+     */
+    public void setTempLimitMb(final int tempLimitMb) {
+        this.tempLimitMb = tempLimitMb;
+    }
+
+    /**
+     * @return true if the producers are slowed down once the memory limit is reached
+     */
+    public boolean isProducerFlowControl() {
+        return this.producerFlowControl;
+    }
+
+    /**
+     * @param producerFlowControl
+     *            true to slow the producers down once the memory limit is reached, which is the default behaviour,
+     *            false to spool the non persistent messages to the temporary store instead
+     */
+    public void setProducerFlowControl(final boolean producerFlowControl) {
+        this.producerFlowControl = producerFlowControl;
+    }
+
+    /**
+     * @return the URI the broker listens to for remote clients, blank if it is only reached in the JVM
+     */
+    public String getTcpConnector() {
+        return this.tcpConnector;
+    }
+
+    /**
+     * @param tcpConnector
+     *            the URI the broker listens to for remote clients, such as tcp://0.0.0.0:61616. Blank to reach the
+     *            broker in the JVM only, which is the default behaviour.
+     */
+    public void setTcpConnector(final String tcpConnector) {
+        this.tcpConnector = tcpConnector;
+    }
+
+    /**
+     * @return true if the vm:// connections copy each message sent
+     */
+    public boolean isCopyMessageOnSend() {
+        return this.copyMessageOnSend;
+    }
+
+    /**
+     * @param copyMessageOnSend
+     *            true to copy each message sent over the vm:// connections, false to hand the message itself to the
+     *            broker, which is the default behaviour: the uploaders never modify a message once sent
+     */
+    public void setCopyMessageOnSend(final boolean copyMessageOnSend) {
+        this.copyMessageOnSend = copyMessageOnSend;
+    }
+}
@@ -0,0 +1,23 @@
+package com.sandrew.daemon;
+
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Import;
+
+import com.sandrew.broker.EmbeddedBrokerConfiguration;
+import com.sandrew.metrics.LatencyConfiguration;
+import com.sandrew.metrics.PipelineMetricsConfiguration;
+
+/**
+ * Entry point of the headless ingestion daemon, uploading the files dropped into the watched directories.
+ */
+@SpringBootApplication
+@EnableConfigurationProperties(IngestionProperties.class)
+@Import({ LatencyConfiguration.class, PipelineMetricsConfiguration.class, EmbeddedBrokerConfiguration.class })
+public class Application {
+
+    public static void main(final String[] args) {
+        new SpringApplicationBuilder(Application.class).web(false).run(args);
+    }
+}
@@ -0,0 +1,521 @@
+package com.sandrew.daemon;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jms.JMSException;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sandrew.broker.EmbeddedBroker;
+import com.sandrew.logic.BatchUploadReport;
+import com.sandrew.logic.DedupCache;
+import com.sandrew.logic.FileUploader;
+import com.sandrew.logic.OrderRouter;
+import com.sandrew.logic.Outbox;
+import com.sandrew.logic.PipelineLatencies;
+import com.sandrew.logic.PipelineMetrics;
+
+/**
+ * Uploads the XML files dropped into the watched directories. The directories are listed once at startup, then only
+ * the files reported by the watch service are picked up, so a burst of files costs one event per file and never a
+ * listing of the directory, unless the watch service reports that it has lost events. The files are queued and
+ * uploaded by a pool of workers, each of them committing the files it has taken in a single transaction. The uploaded
+ * files are moved to the done directory and the others to the failed directory, both inside their watched directory.
+ * <p>
+ * Only the files with the XML extension are taken, so the producers should write the files under another name, such
+ * as a .tmp or .part suffix, and rename them once complete. The files written in place are only taken once they have
+ * not been modified for the quiet period.
+ */
+@Component
+public class DirectoryIngester {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryIngester.class);
+
+    private static final String XML_EXTENSION = ".xml";
+
+    private static final long POLL_TIMEOUT_MILLIS = 500L;
+
+    private static final long REQUEUE_RETRY_MILLIS = 100L;
+
+    private static final long REPORT_INTERVAL_SECONDS = 10L;
+
+    private static final long STOP_TIMEOUT_SECONDS = 30L;
+
+    private final IngestionProperties properties;
+
+    private final FileUploader uploader;
+
+    private final BlockingQueue<Path> queue;
+
+    /**
+     * Files queued or being uploaded, so that a file reported twice is uploaded once.
+     */
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+
+    private final ExecutorService workers;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder uploadedFiles = new LongAdder();
+
+    private final LongAdder failedFiles = new LongAdder();
+
+    private WatchService watchService;
+
+    private Thread watcher;
+
+    private Outbox outbox;
+
+    private volatile boolean running;
+
+    private long reportedFiles;
+
+    /**
+     * Configures the ingester.
+     *
+     * @param properties
+     *            The configuration of the daemon.
+     * @param latencies
+     *            The histograms where the latencies of the uploads are recorded.
+     * @param metrics
+     *            The counters of the uploads.
+     * @param embeddedBroker
+     *            The broker embedded in the daemon, if it is enabled, used when no broker URI is configured.
+     * @throws URISyntaxException
+     *             If the URI to the broker is not well formatted.
+     * @throws IllegalArgumentException
+     *             If the destination is blank or null, or the routing rules are malformed, or there is no broker.
+     */
+    public DirectoryIngester(final IngestionProperties properties, final PipelineLatencies latencies,
+                    final PipelineMetrics metrics, final ObjectProvider<EmbeddedBroker> embeddedBroker)
+                    throws URISyntaxException {
+        checkArgument(properties.getWorkers() > 0, "At least one worker is needed");
+        checkArgument(properties.getBatchSize() > 0, "A batch holds at least one file");
+        this.properties = properties;
+        final URI brokerUri;
+        if (StringUtils.isNotBlank(properties.getBrokerUri())) {
+            brokerUri = new URI(properties.getBrokerUri());
+        } else {
+            final EmbeddedBroker broker = embeddedBroker.getIfAvailable();
+            checkArgument(broker != null, "No broker, set ingest.broker-uri or broker.embedded.enabled");
+            brokerUri = broker.getVmUri();
+        }
+        this.uploader = new FileUploader(brokerUri, properties.getUserName(), properties.getPassword(),
+                        properties.getDestination(), properties.isTopic());
+        this.uploader.setSplitOrders(properties.isSplitOrders());
+        this.uploader.setGroupByAccount(properties.isGroupByAccount());
+        this.uploader.setValidateOrders(properties.isValidateOrders());
+        this.uploader.setPayloadFormat(properties.getPayloadFormat());
+        this.uploader.setLatencies(latencies);
+        this.uploader.setMetrics(metrics);
+        if (StringUtils.isNotBlank(properties.getRoutes())) {
+            this.uploader.setRouter(new OrderRouter(properties.getRoutes()));
+        }
+        if (properties.getDedupStrategy() != null) {
+            this.uploader.setDedupStrategy(properties.getDedupStrategy());
+            this.uploader.setDedupCache(new DedupCache(properties.getDedupMaxKeys(), properties.getDedupTtlMinutes(),
+                            TimeUnit.MINUTES));
+        }
+        this.queue = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+        this.workers = Executors.newFixedThreadPool(properties.getWorkers(),
+                        new ThreadFactoryBuilder().setNameFormat("ingest-worker-%d").build());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder().setNameFormat("ingest-scheduler").setDaemon(true).build());
+    }
+
+    /**
+     * Starts watching the directories and uploads the files already there.
+     *
+     * @throws IOException
+     *             If a directory cannot be watched, or its done and failed directories cannot be created, or the
+     *             outbox cannot be opened.
+     * @throws IllegalArgumentException
+     *             If there is no directory to watch.
+     */
+    @PostConstruct
+    public synchronized void start() throws IOException {
+        checkArgument(!this.properties.getDirectories().isEmpty(), "No directory to watch, set ingest.directories");
+        if (StringUtils.isNotBlank(this.properties.getOutboxDirectory())) {
+            this.outbox = new Outbox(new File(this.properties.getOutboxDirectory()));
+            this.uploader.setOutbox(this.outbox);
+            LOGGER.info("Appending to the outbox {}, {} record(s) pending", this.outbox.getDirectory(),
+                            this.outbox.getPendingRecords());
+        }
+        this.watchService = FileSystems.getDefault().newWatchService();
+        final List<Path> directories = new ArrayList<>();
+        for (final String name : this.properties.getDirectories()) {
+            final Path directory = Paths.get(name).toAbsolutePath();
+            Files.createDirectories(directory.resolve(this.properties.getDoneDirectory()));
+            Files.createDirectories(directory.resolve(this.properties.getFailedDirectory()));
+            this.watchedDirectories.put(directory.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE),
+                            directory);
+            directories.add(directory);
+        }
+
+        this.running = true;
+        for (int i = 0; i < this.properties.getWorkers(); i++) {
+            this.workers.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    DirectoryIngester.this.work();
+                }
+            });
+        }
+        this.scheduler.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                DirectoryIngester.this.report();
+            }
+        }, REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        this.watcher = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                // The files dropped while the daemon was stopped have no event
+                for (final Path directory : directories) {
+                    DirectoryIngester.this.scan(directory);
+                }
+                DirectoryIngester.this.watch();
+            }
+        }, "ingest-watcher");
+        this.watcher.start();
+        LOGGER.info("Watching {} with {} worker(s)", directories, this.properties.getWorkers());
+    }
+
+    /**
+     * Stops watching the directories and waits for the uploads in progress. The files still queued are left in their
+     * directory and are picked up at the next start.
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        if (!this.running) {
+            return;
+        }
+        this.running = false;
+        try {
+            this.watchService.close();
+            // The watcher may be scanning a directory or waiting for room in the queue
+            this.watcher.interrupt();
+            this.watcher.join(TimeUnit.SECONDS.toMillis(STOP_TIMEOUT_SECONDS));
+            this.workers.shutdown();
+            this.workers.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (final IOException e) {
+            LOGGER.error("Failed to close the watch service", e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.scheduler.shutdownNow();
+            this.report();
+            try {
+                this.uploader.close();
+            } catch (final JMSException e) {
+                LOGGER.error("Failed to close the uploader", e);
+            }
+            this.closeOutbox();
+        }
+    }
+
+    /**
+     * Closes the outbox, the records not sent yet are sent after the next start.
+     */
+    private void closeOutbox() {
+        if (this.outbox == null) {
+            return;
+        }
+        try {
+            this.outbox.close();
+        } catch (final IOException e) {
+            LOGGER.error("Failed to close the outbox", e);
+        }
+        LOGGER.info("Outbox closed, {} record(s) pending", this.outbox.getPendingRecords());
+    }
+
+    /**
+     * @return the number of files uploaded since the start
+     */
+    public long getUploadedFiles() {
+        return this.uploadedFiles.sum();
+    }
+
+    /**
+     * @return the number of files which could not be uploaded since the start
+     */
+    public long getFailedFiles() {
+        return this.failedFiles.sum();
+    }
+
+    /**
+     * @return the number of files waiting for a worker
+     */
+    public int getQueuedFiles() {
+        return this.queue.size();
+    }
+
+    /**
+     * Queues the files reported by the watch service, until the daemon is stopped.
+     */
+    private void watch() {
+        while (this.running) {
+            final WatchKey key;
+            try {
+                key = this.watchService.take();
+            } catch (final InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            final Path directory = this.watchedDirectories.get(key);
+            for (final WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    LOGGER.warn("Events lost on {}, listing it again", directory);
+                    this.scan(directory);
+                } else {
+                    this.offer(directory.resolve((Path) event.context()));
+                }
+            }
+            if (!key.reset()) {
+                LOGGER.error("{} cannot be watched any more", directory);
+                this.watchedDirectories.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Queues the files of a directory.
+     *
+     * @param directory
+     *            The directory.
+     */
+    private void scan(final Path directory) {
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (final Path file : files) {
+                if (!this.running) {
+                    return;
+                }
+                this.offer(file);
+            }
+        } catch (final IOException e) {
+            LOGGER.error("Failed to list " + directory, e);
+        }
+    }
+
+    /**
+     * Queues a file if it is an XML file not queued yet, blocking while the queue is full. The file is left in its
+     * directory if the daemon stops meanwhile, since the workers do not empty the queue any more.
+     *
+     * @param file
+     *            The file.
+     */
+    private void offer(final Path file) {
+        final String name = file.getFileName().toString();
+        if (name.startsWith(".") || !StringUtils.endsWithIgnoreCase(name, XML_EXTENSION)
+                        || !this.inFlight.add(file)) {
+            return;
+        }
+        try {
+            while (this.running) {
+                if (this.queue.offer(file, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.inFlight.remove(file);
+    }
+
+    /**
+     * Uploads the queued files until the daemon is stopped, taking as many files as a batch can hold at once.
+     */
+    private void work() {
+        final List<Path> batch = new ArrayList<>(this.properties.getBatchSize());
+        while (this.running) {
+            try {
+                final Path file = this.queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (file == null) {
+                    continue;
+                }
+                batch.add(file);
+            } catch (final InterruptedException e) {
+                return;
+            }
+            this.queue.drainTo(batch, this.properties.getBatchSize() - 1);
+            try {
+                this.upload(batch);
+            } catch (final RuntimeException e) {
+                LOGGER.error("Failed to upload " + batch, e);
+                this.inFlight.removeAll(batch);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Uploads the files which have not been modified for the quiet period and moves them, and queues the others again
+     * once their quiet period is over.
+     *
+     * @param batch
+     *            The files to upload.
+     */
+    private void upload(final List<Path> batch) {
+        final List<File> files = new ArrayList<>(batch.size());
+        final long now = System.currentTimeMillis();
+        for (final Path file : batch) {
+            final long age;
+            try {
+                age = now - Files.getLastModifiedTime(file).toMillis();
+            } catch (final NoSuchFileException e) {
+                // Moved away before its upload
+                this.inFlight.remove(file);
+                continue;
+            } catch (final IOException e) {
+                LOGGER.error("Failed to read the modification time of " + file, e);
+                this.inFlight.remove(file);
+                continue;
+            }
+            if (age < this.properties.getQuietPeriodMillis()) {
+                this.scheduleRequeue(file, this.properties.getQuietPeriodMillis() - age);
+            } else {
+                files.add(file.toFile());
+            }
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+
+        final BatchUploadReport report = this.uploader.uploadFiles(files, this.properties.getBatchSize(),
+                        this.properties.getBatchIntervalMillis());
+        for (final File file : files) {
+            final Exception failure = report.getFailedFiles().get(file);
+            if (failure == null) {
+                this.uploadedFiles.increment();
+                this.move(file.toPath(), this.properties.getDoneDirectory());
+            } else {
+                this.failedFiles.increment();
+                LOGGER.warn("Failed to upload " + file, failure);
+                this.move(file.toPath(), this.properties.getFailedDirectory());
+            }
+            this.inFlight.remove(file.toPath());
+        }
+    }
+
+    /**
+     * Queues a file again once a delay has elapsed.
+     *
+     * @param file
+     *            The file.
+     * @param delayMillis
+     *            The delay, in milliseconds.
+     */
+    private void scheduleRequeue(final Path file, final long delayMillis) {
+        try {
+            this.scheduler.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    DirectoryIngester.this.requeue(file);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            // The daemon is stopping, the file is picked up at the next start
+            this.inFlight.remove(file);
+        }
+    }
+
+    /**
+     * Queues again a file whose quiet period is over. The scheduler must not block, since it also runs the reports
+     * and the other requeues, so the file is tried again later if the queue is full.
+     *
+     * @param file
+     *            The file.
+     */
+    private void requeue(final Path file) {
+        if (!this.queue.offer(file)) {
+            this.scheduleRequeue(file, REQUEUE_RETRY_MILLIS);
+        }
+    }
+
+    /**
+     * Moves a file into a directory of its watched directory, renaming it if a file of the same name is already there.
+     *
+     * @param file
+     *            The file.
+     * @param directoryName
+     *            The name of the directory.
+     */
+    private void move(final Path file, final String directoryName) {
+        final Path directory = file.resolveSibling(directoryName);
+        try {
+            try {
+                Files.move(file, directory.resolve(file.getFileName()));
+            } catch (final FileAlreadyExistsException e) {
+                Files.move(file, directory.resolve(file.getFileName() + "." + System.currentTimeMillis()));
+            }
+        } catch (final IOException e) {
+            LOGGER.error("Failed to move " + file + " to " + directory, e);
+        }
+    }
+
+    /**
+     * Logs the progress of the ingestion, unless nothing has happened since the last report.
+     */
+    private void report() {
+        final long handledFiles = this.getUploadedFiles() + this.getFailedFiles();
+        final Outbox journal = this.outbox;
+        // The outbox is reported while it drains, or while the broker is down
+        if ((handledFiles == this.reportedFiles) && this.queue.isEmpty()
+                        && ((journal == null) || (journal.getPendingRecords() == 0))) {
+            return;
+        }
+        this.reportedFiles = handledFiles;
+        final StringBuilder status = new StringBuilder(String.format("%d file(s) uploaded, %d failed, %d queued",
+                        this.getUploadedFiles(), this.getFailedFiles(), this.getQueuedFiles()));
+        if (journal != null) {
+            status.append(", outbox ").append(journal);
+        }
+        if (this.uploader.getDedupCache() != null) {
+            status.append(", dedup ").append(this.uploader.getDedupCache());
+        }
+        LOGGER.info(status.toString());
+    }
+}
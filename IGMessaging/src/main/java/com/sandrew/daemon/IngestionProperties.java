@@ -0,0 +1,417 @@
+package com.sandrew.daemon;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import com.sandrew.logic.DedupStrategy;
+import com.sandrew.logic.PayloadFormat;
+
+/**
+ * Configuration of the ingestion daemon, read from the ingest.* properties.
+ */
+@ConfigurationProperties(prefix = "ingest")
+public class IngestionProperties {
+
+    private static final int DEFAULT_WORKERS = 4;
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 100_000;
+
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final long DEFAULT_BATCH_INTERVAL_MILLIS = 1000L;
+
+    private static final long DEFAULT_QUIET_PERIOD_MILLIS = 500L;
+
+    private static final int DEFAULT_DEDUP_MAX_KEYS = 1_000_000;
+
+    private static final long DEFAULT_DEDUP_TTL_MINUTES = 60L;
+
+    private String brokerUri;
+
+    private String userName;
+
+    private String password;
+
+    private String destination;
+
+    private boolean topic = false;
+
+    private boolean splitOrders = false;
+
+    private PayloadFormat payloadFormat = PayloadFormat.TEXT;
+
+    private String routes;
+
+    private boolean groupByAccount = false;
+
+    private boolean validateOrders = false;
+
+    private List<String> directories = new ArrayList<>();
+
+    private String doneDirectory = "done";
+
+    private String failedDirectory = "failed";
+
+    private int workers = DEFAULT_WORKERS;
+
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private long batchIntervalMillis = DEFAULT_BATCH_INTERVAL_MILLIS;
+
+    private long quietPeriodMillis = DEFAULT_QUIET_PERIOD_MILLIS;
+
+    private String outboxDirectory;
+
+    private DedupStrategy dedupStrategy;
+
+    private int dedupMaxKeys = DEFAULT_DEDUP_MAX_KEYS;
+
+    private long dedupTtlMinutes = DEFAULT_DEDUP_TTL_MINUTES;
+
+    /**
+     * @return the URI to the broker
+     */
+    public String getBrokerUri() {
+        return this.brokerUri;
+    }
+
+    /**
+     * @param brokerUri
+     *            the URI to the broker
+     */
+    public void setBrokerUri(final String brokerUri) {
+        this.brokerUri = brokerUri;
+    }
+
+    /**
+     * @return the user name to connect to the broker
+     */
+    public String getUserName() {
+        return this.userName;
+    }
+
+    /**
+     * @param userName
+     *            the user name to connect to the broker
+     */
+    public void setUserName(final String userName) {
+        this.userName = userName;
+    }
+
+    /**
+     * @return the password linked to the user name
+     */
+    public String getPassword() {
+        return this.password;
+    }
+
+    /**
+     * @param password
+     *            the password linked to the user name
+     */
+    public void setPassword(final String password) {
+        this.password = password;
+    }
+
+    /**
+     * @return the name of the destination of the files
+     */
+    public String getDestination() {
+        return this.destination;
+    }
+
+    /**
+     * @param destination
+     *            the name of the destination of the files
+     */
+    public void setDestination(final String destination) {
+        this.destination = destination;
+    }
+
+    /**
+     * @return true if the destination is a topic, false if it is a queue
+     */
+    public boolean isTopic() {
+        return this.topic;
+    }
+
+    /**
+     * @param topic
+     *            true if the destination is a topic, false if it is a queue
+     */
+    public void setTopic(final boolean topic) {
+        this.topic = topic;
+    }
+
+    /**
+     * @return true if the orders of the files are sent one message per order
+     */
+    public boolean isSplitOrders() {
+        return this.splitOrders;
+    }
+
+    /**
+     * @param splitOrders
+     *            true to send the orders of the files one message per order
+     */
+    public void setSplitOrders(final boolean splitOrders) {
+        this.splitOrders = splitOrders;
+    }
+
+    /**
+     * @return how the files are sent to the broker
+     */
+    public PayloadFormat getPayloadFormat() {
+        return this.payloadFormat;
+    }
+
+    /**
+     * @param payloadFormat
+     *            how the files are sent to the broker
+     */
+    public void setPayloadFormat(final PayloadFormat payloadFormat) {
+        this.payloadFormat = payloadFormat;
+    }
+
+    /**
+     * @return the directories watched for new files
+     */
+    public List<String> getDirectories() {
+        return this.directories;
+    }
+
+    /**
+     * @param directories
+     *            the directories watched for new files
+     */
+    public void setDirectories(final List<String> directories) {
+        this.directories = directories;
+    }
+
+    /**
+     * @return the directory where the uploaded files are moved, relative to their watched directory
+     */
+    public String getDoneDirectory() {
+        return this.doneDirectory;
+    }
+
+    /**
+     * @param doneDirectory
+     *            the directory where the uploaded files are moved, relative to their watched directory
+     */
+    public void setDoneDirectory(final String doneDirectory) {
+        this.doneDirectory = doneDirectory;
+    }
+
+    /**
+     * @return the directory where the files which could not be uploaded are moved, relative to their watched directory
+     */
+    public String getFailedDirectory() {
+        return this.failedDirectory;
+    }
+
+    /**
+     * @param failedDirectory
+     *            the directory where the files which could not be uploaded are moved, relative to their watched
+     *            directory
+     */
+    public void setFailedDirectory(final String failedDirectory) {
+        this.failedDirectory = failedDirectory;
+    }
+
+    /**
+     * @return the number of uploads running in parallel
+     */
+    public int getWorkers() {
+        return this.workers;
+    }
+
+    /**
+     * @param workers
+     *            the number of uploads running in parallel
+     */
+    public void setWorkers(final int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * @return the number of files waiting for a worker before the watcher blocks
+     */
+    public int getQueueCapacity() {
+        return this.queueCapacity;
+    }
+
+    /**
+     * @param queueCapacity
+     *            the number of files waiting for a worker before the watcher blocks
+     */
+    public void setQueueCapacity(final int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @return the maximum number of files a worker commits at once
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * @param batchSize
+     *            the maximum number of files a worker commits at once
+     */
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the maximum time between two commits of a worker
+     */
+    public long getBatchIntervalMillis() {
+        return this.batchIntervalMillis;
+    }
+
+    /**
+     * @param batchIntervalMillis
+     *            the maximum time between two commits of a worker
+     */
+    public void setBatchIntervalMillis(final long batchIntervalMillis) {
+        this.batchIntervalMillis = batchIntervalMillis;
+    }
+
+    /**
+     * @return the time a file must stay unmodified before being uploaded
+     */
+    public long getQuietPeriodMillis() {
+        return this.quietPeriodMillis;
+    }
+
+    /**
+     * @param quietPeriodMillis
+     *            the time a file must stay unmodified before being uploaded, so that the files written in place are
+     *            not uploaded half written. The files renamed into the directory once complete are usually older.
+     */
+    public void setQuietPeriodMillis(final long quietPeriodMillis) {
+        this.quietPeriodMillis = quietPeriodMillis;
+    }
+
+    /**
+     * @return the directory of the outbox where the files are appended before being sent, null if they are sent
+     *         directly
+     */
+    public String getOutboxDirectory() {
+        return this.outboxDirectory;
+    }
+
+    /**
+     * @param outboxDirectory
+     *            the directory of the outbox where the files are appended before being sent, so that they are taken
+     *            in and moved to the done directory while the broker is down. Null to send them directly, which is
+     *            the default behaviour.
+     */
+    public void setOutboxDirectory(final String outboxDirectory) {
+        this.outboxDirectory = outboxDirectory;
+    }
+
+    /**
+     * @return the rules choosing the destination of each message from its order, null if every message is sent to the
+     *         destination
+     */
+    public String getRoutes() {
+        return this.routes;
+    }
+
+    /**
+     * @param routes
+     *            the rules choosing the destination of each message from its order, see
+     *            {@link com.sandrew.logic.OrderRouter}. Null to send every message to the destination, which is the
+     *            default behaviour.
+     */
+    public void setRoutes(final String routes) {
+        this.routes = routes;
+    }
+
+    /**
+     * @return true if each message is grouped by the account of its order
+     */
+    public boolean isGroupByAccount() {
+        return this.groupByAccount;
+    }
+
+    /**
+     * @param groupByAccount
+     *            true to group each message by the account of its order, so that the orders of an account are
+     *            consumed in sequence while the accounts are consumed in parallel, false by default
+     */
+    public void setGroupByAccount(final boolean groupByAccount) {
+        this.groupByAccount = groupByAccount;
+    }
+
+    /**
+     * @return true if the files are validated against the schema of the orders before being sent
+     */
+    public boolean isValidateOrders() {
+        return this.validateOrders;
+    }
+
+    /**
+     * @param validateOrders
+     *            true to validate the files against the schema of the orders before sending anything, so that an
+     *            invalid file is moved to the failed directory as a whole, false by default
+     */
+    public void setValidateOrders(final boolean validateOrders) {
+        this.validateOrders = validateOrders;
+    }
+
+    /**
+     * @return how the deduplication key of a payload is computed, null if the duplicates are uploaded
+     */
+    public DedupStrategy getDedupStrategy() {
+        return this.dedupStrategy;
+    }
+
+    /**
+     * @param dedupStrategy
+     *            how the deduplication key of a payload is computed. The payloads whose key has been uploaded recently
+     *            are skipped, and the key is sent with each payload for the receivers to drop the duplicates as well.
+     *            Null to upload the duplicates, which is the default behaviour.
+     */
+    public void setDedupStrategy(final DedupStrategy dedupStrategy) {
+        this.dedupStrategy = dedupStrategy;
+    }
+
+    /**
+     * @return the maximum number of deduplication keys remembered
+     */
+    public int getDedupMaxKeys() {
+        return this.dedupMaxKeys;
+    }
+
+    /**
+     * @param dedupMaxKeys
+     *            the maximum number of deduplication keys remembered, 1 million by default. A key takes 16 to 32 bytes.
+     */
+    public void setDedupMaxKeys(final int dedupMaxKeys) {
+        this.dedupMaxKeys = dedupMaxKeys;
+    }
+
+    /**
+     * @return the time a deduplication key is remembered, in minutes
+     */
+    public long getDedupTtlMinutes() {
+        return this.dedupTtlMinutes;
+    }
+
+    /**
+     * @param dedupTtlMinutes
+     *            the time a deduplication key is remembered, in minutes, unless the maximum number of keys is reached
+     *            first
+     */
+    public void setDedupTtlMinutes(final long dedupTtlMinutes) {
+        this.dedupTtlMinutes = dedupTtlMinutes;
+    }
+}
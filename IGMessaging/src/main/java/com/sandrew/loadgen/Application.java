@@ -0,0 +1,19 @@
+package com.sandrew.loadgen;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+
+/**
+ * Entry point of the load generator, measuring the capacity of the upload pipeline against an embedded broker. The
+ * application exits once the report is logged.
+ */
+@SpringBootApplication
+@EnableConfigurationProperties(LoadProperties.class)
+public class Application {
+
+    public static void main(final String[] args) {
+        System.exit(SpringApplication.exit(new SpringApplicationBuilder(Application.class).web(false).run(args)));
+    }
+}
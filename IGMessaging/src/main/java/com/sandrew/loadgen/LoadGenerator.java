@@ -0,0 +1,304 @@
+package com.sandrew.loadgen;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+import org.HdrHistogram.Histogram;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sandrew.logic.ConnectionPools;
+import com.sandrew.logic.FileUploader;
+import com.sandrew.logic.LatencySummary;
+import com.sandrew.logic.PipelineLatencies;
+import com.sandrew.logic.PipelineLatencies.Stage;
+import com.sandrew.logic.PipelineMetrics;
+
+/**
+ * Finds out how many orders per second the upload pipeline sustains, without any external service: the documents are
+ * generated up front, then uploaded through a {@link FileUploader} by several threads to a non persistent broker
+ * embedded in the JVM, either flat out or at a target rate, while a consumer drains the queue.
+ * <p>
+ * The latency of an upload is measured from the time it was due, not from the time it started, so that an upload
+ * held up by a slow one is not reported as fast: at a target rate, the uploads falling behind the schedule are sent
+ * as soon as possible and their wait counts in their latency. The report gives the throughput of the run and the
+ * percentiles of the uploads, of the stages of the pipeline and of the transit through the broker.
+ */
+@Component
+public class LoadGenerator implements CommandLineRunner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private static final String BROKER_NAME = "loadgen";
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private static final long DRAIN_POLL_MILLIS = 100L;
+
+    private final LoadProperties properties;
+
+    private final PipelineLatencies latencies = new PipelineLatencies();
+
+    private final PipelineMetrics metrics = new PipelineMetrics();
+
+    private final LongAdder consumedMessages = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * @param properties
+     *            The configuration of the load.
+     */
+    public LoadGenerator(final LoadProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Runs the load and logs the report.
+     *
+     * @param args
+     *            The command line arguments, ignored: the load is configured by the properties.
+     * @throws Exception
+     *             If the broker cannot be started or stopped, or the queue cannot be drained.
+     */
+    @Override
+    public void run(final String... args) throws Exception {
+        checkArgument(this.properties.getDocuments() > 0, "At least one document is uploaded");
+        checkArgument(this.properties.getWarmupDocuments() >= 0, "The warm up cannot be negative");
+        checkArgument(this.properties.getThreads() > 0, "At least one thread is needed");
+        checkArgument(this.properties.getDistinctDocuments() > 0, "At least one document is generated");
+        checkArgument(this.properties.getRate() >= 0, "The target rate cannot be negative");
+
+        final byte[][] documents = this.generateDocuments();
+        final BrokerService broker = new BrokerService();
+        broker.setBrokerName(BROKER_NAME);
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setAdvisorySupport(false);
+        final URI brokerUri;
+        if ("tcp".equals(this.properties.getTransport())) {
+            broker.addConnector("tcp://localhost:0");
+            broker.start();
+            brokerUri = broker.getTransportConnectors().get(0).getConnectUri();
+        } else {
+            checkArgument("vm".equals(this.properties.getTransport()), "Unknown transport %s",
+                            this.properties.getTransport());
+            broker.start();
+            brokerUri = new URI("vm://" + BROKER_NAME + "?create=false");
+        }
+        Connection consumerConnection = null;
+        final FileUploader uploader = this.createUploader(brokerUri);
+        final ExecutorService threads = Executors.newFixedThreadPool(this.properties.getThreads(),
+                        new ThreadFactoryBuilder().setNameFormat("loadgen-%d").setDaemon(true).build());
+        try {
+            if (this.properties.isConsume()) {
+                consumerConnection = this.startConsumer(brokerUri);
+            }
+            if (this.properties.getWarmupDocuments() > 0) {
+                LOGGER.info("Warming up with {} documents", this.properties.getWarmupDocuments());
+                this.upload(uploader, threads, documents, this.properties.getWarmupDocuments());
+            }
+            this.report(uploader, threads, documents);
+        } finally {
+            threads.shutdownNow();
+            uploader.close();
+            if (consumerConnection != null) {
+                consumerConnection.close();
+            }
+            ConnectionPools.shutdown();
+            broker.stop();
+            broker.waitUntilStopped();
+        }
+    }
+
+    /**
+     * Generates the distinct documents uploaded in turn, so that generating them does not weigh on the measure.
+     */
+    private byte[][] generateDocuments() {
+        final OrderDocumentGenerator generator = new OrderDocumentGenerator(this.properties.getAccounts(),
+                        this.properties.getMarkets(), this.properties.getSkew(), this.properties.getSeed());
+        final byte[][] documents = new byte[this.properties.getDistinctDocuments()][];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = generator.create(this.properties.getOrdersPerDocument());
+        }
+        return documents;
+    }
+
+    private FileUploader createUploader(final URI brokerUri) {
+        final FileUploader uploader = new FileUploader(brokerUri, null, null, this.properties.getDestination(),
+                        false);
+        uploader.setSplitOrders(this.properties.isSplitOrders());
+        uploader.setPayloadFormat(this.properties.getPayloadFormat());
+        uploader.setGroupByAccount(this.properties.isGroupByAccount());
+        uploader.setValidateOrders(this.properties.isValidateOrders());
+        uploader.setLatencies(this.latencies);
+        uploader.setMetrics(this.metrics);
+        return uploader;
+    }
+
+    /**
+     * Starts the consumer draining the queue, which records the transit of the messages through the broker.
+     */
+    private Connection startConsumer(final URI brokerUri) throws JMSException {
+        final Connection connection = new ActiveMQConnectionFactory(brokerUri).createConnection();
+        try {
+            final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            final MessageConsumer consumer = session.createConsumer(session.createQueue(
+                            this.properties.getDestination()));
+            consumer.setMessageListener(new MessageListener() {
+
+                @Override
+                public void onMessage(final Message message) {
+                    try {
+                        if (message.propertyExists(PipelineLatencies.SENT_AT_PROPERTY)) {
+                            LoadGenerator.this.latencies.recordSince(Stage.TRANSIT,
+                                            message.getLongProperty(PipelineLatencies.SENT_AT_PROPERTY));
+                        }
+                    } catch (final JMSException e) {
+                        // The message is drained anyway
+                    }
+                    LoadGenerator.this.consumedMessages.increment();
+                }
+            });
+            connection.start();
+        } catch (final JMSException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * Uploads the documents for the measure, waits for the consumer to drain them, then logs the report.
+     */
+    private void report(final FileUploader uploader, final ExecutorService threads, final byte[][] documents)
+                    throws InterruptedException, ExecutionException {
+        final long startMessages = this.metrics.getMessages();
+        final long startBytes = this.metrics.getBytes();
+        final long startConsumed = this.consumedMessages.sum();
+        this.failures.reset();
+        this.latencies.rollInterval();
+
+        final long start = System.nanoTime();
+        final Histogram uploads = this.upload(uploader, threads, documents, this.properties.getDocuments());
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        final long messages = this.metrics.getMessages() - startMessages;
+        final long drained = this.awaitDrain(startConsumed + messages) - startConsumed;
+        final double drainSeconds = (System.nanoTime() - start) / 1e9;
+        this.latencies.rollInterval();
+
+        final long documentCount = this.properties.getDocuments();
+        final long orderCount = documentCount * this.properties.getOrdersPerDocument();
+        LOGGER.info("Uploaded {} documents of {} order(s) with {} thread(s) in {} s, {}",
+                        documentCount, this.properties.getOrdersPerDocument(), this.properties.getThreads(),
+                        String.format("%.3f", seconds), this.properties.getRate() > 0
+                                        ? String.format("target %.0f documents/s", this.properties.getRate())
+                                        : "flat out");
+        LOGGER.info("Throughput: {}", String.format(
+                        "%.0f documents/s, %.0f orders/s, %.0f messages/s, %.1f MB/s of payloads, %d failure(s)",
+                        documentCount / seconds, orderCount / seconds, messages / seconds,
+                        ((this.metrics.getBytes() - startBytes) / BYTES_PER_MEGABYTE) / seconds,
+                        this.failures.sum()));
+        LOGGER.info("Upload latency: {}", new LatencySummary(uploads));
+        LOGGER.info("Stage latencies: {}", this.latencies.describeLastInterval());
+        if (this.properties.isConsume()) {
+            LOGGER.info("Consumed {} of {} messages, {} messages/s", drained, messages,
+                            String.format("%.0f", drained / drainSeconds));
+        }
+    }
+
+    /**
+     * Uploads documents with the threads, at the target rate if any.
+     *
+     * @return the latencies of the uploads, in microseconds
+     */
+    private Histogram upload(final FileUploader uploader, final ExecutorService threads, final byte[][] documents,
+                    final long count) throws InterruptedException, ExecutionException {
+        final AtomicLong nextDocument = new AtomicLong();
+        final long intervalNanos = this.properties.getRate() > 0
+                        ? (long) (TimeUnit.SECONDS.toNanos(1) / this.properties.getRate()) : 0;
+        final long start = System.nanoTime();
+        final List<Future<Histogram>> results = new ArrayList<>();
+        for (int i = 0; i < this.properties.getThreads(); i++) {
+            results.add(threads.submit(new Callable<Histogram>() {
+
+                @Override
+                public Histogram call() {
+                    final Histogram histogram = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+                    for (long document = nextDocument.getAndIncrement(); document < count;
+                                    document = nextDocument.getAndIncrement()) {
+                        long due = System.nanoTime();
+                        if (intervalNanos > 0) {
+                            due = start + (document * intervalNanos);
+                            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                                LockSupport.parkNanos(wait);
+                            }
+                        }
+                        try {
+                            uploader.uploadStream(new ByteArrayInputStream(
+                                            documents[(int) (document % documents.length)]));
+                        } catch (final Exception e) {
+                            if (LoadGenerator.this.failures.sum() == 0) {
+                                LOGGER.warn("Failed to upload a document", e);
+                            }
+                            LoadGenerator.this.failures.increment();
+                        }
+                        histogram.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due),
+                                        HIGHEST_TRACKABLE_MICROS));
+                    }
+                    return histogram;
+                }
+            }));
+        }
+        final Histogram latencies = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        for (final Future<Histogram> result : results) {
+            latencies.add(result.get());
+        }
+        return latencies;
+    }
+
+    /**
+     * Waits for the consumer to drain the messages, up to the drain timeout.
+     *
+     * @return the number of messages consumed
+     */
+    private long awaitDrain(final long expectedMessages) throws InterruptedException {
+        if (!this.properties.isConsume()) {
+            return this.consumedMessages.sum();
+        }
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(this.properties.getDrainTimeoutSeconds());
+        while ((this.consumedMessages.sum() < expectedMessages) && (System.nanoTime() < deadline)) {
+            Thread.sleep(DRAIN_POLL_MILLIS);
+        }
+        return this.consumedMessages.sum();
+    }
+}
@@ -0,0 +1,341 @@
+package com.sandrew.loadgen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import com.sandrew.logic.PayloadFormat;
+
+/**
+ * Configuration of the load generator, read from the loadgen.* properties.
+ */
+@ConfigurationProperties(prefix = "loadgen")
+public class LoadProperties {
+
+    private static final long DEFAULT_DOCUMENTS = 100_000L;
+
+    private static final long DEFAULT_WARMUP_DOCUMENTS = 10_000L;
+
+    private static final int DEFAULT_DISTINCT_DOCUMENTS = 1000;
+
+    private static final int DEFAULT_ACCOUNTS = 1000;
+
+    private static final long DEFAULT_SEED = 42L;
+
+    private static final int DEFAULT_THREADS = 4;
+
+    private static final long DEFAULT_DRAIN_TIMEOUT_SECONDS = 30L;
+
+    private long documents = DEFAULT_DOCUMENTS;
+
+    private long warmupDocuments = DEFAULT_WARMUP_DOCUMENTS;
+
+    private int ordersPerDocument = 1;
+
+    private int distinctDocuments = DEFAULT_DISTINCT_DOCUMENTS;
+
+    private int accounts = DEFAULT_ACCOUNTS;
+
+    private List<String> markets = new ArrayList<>(Arrays.asList("VOD.L", "BARC.L", "HSBA.L", "LLOY.L", "BP.L"));
+
+    private double skew = 0;
+
+    private long seed = DEFAULT_SEED;
+
+    private int threads = DEFAULT_THREADS;
+
+    private double rate = 0;
+
+    private String transport = "vm";
+
+    private String destination = "loadgen";
+
+    private boolean splitOrders = false;
+
+    private PayloadFormat payloadFormat = PayloadFormat.TEXT;
+
+    private boolean groupByAccount = false;
+
+    private boolean validateOrders = false;
+
+    private boolean consume = true;
+
+    private long drainTimeoutSeconds = DEFAULT_DRAIN_TIMEOUT_SECONDS;
+
+    /**
+     * @return the number of documents uploaded and measured
+     */
+    public long getDocuments() {
+        return this.documents;
+    }
+
+    /**
+     * @param documents
+     *            the number of documents uploaded and measured
+     */
+    public void setDocuments(final long documents) {
+        this.documents = documents;
+    }
+
+    /**
+     * @return the number of documents uploaded before the measure, to warm the JVM and the broker up
+     */
+    public long getWarmupDocuments() {
+        return this.warmupDocuments;
+    }
+
+    /**
+     * @param warmupDocuments
+     *            the number of documents uploaded before the measure, to warm the JVM and the broker up
+     */
+    public void setWarmupDocuments(final long warmupDocuments) {
+        this.warmupDocuments = warmupDocuments;
+    }
+
+    /**
+     * @return the number of orders of each document
+     */
+    public int getOrdersPerDocument() {
+        return this.ordersPerDocument;
+    }
+
+    /**
+     * @param ordersPerDocument
+     *            the number of orders of each document, one like the sample file by default
+     */
+    public void setOrdersPerDocument(final int ordersPerDocument) {
+        this.ordersPerDocument = ordersPerDocument;
+    }
+
+    /**
+     * @return the number of distinct documents generated before the run and uploaded in turn
+     */
+    public int getDistinctDocuments() {
+        return this.distinctDocuments;
+    }
+
+    /**
+     * @param distinctDocuments
+     *            the number of distinct documents generated before the run and uploaded in turn
+     */
+    public void setDistinctDocuments(final int distinctDocuments) {
+        this.distinctDocuments = distinctDocuments;
+    }
+
+    /**
+     * @return the number of distinct accounts of the orders
+     */
+    public int getAccounts() {
+        return this.accounts;
+    }
+
+    /**
+     * @param accounts
+     *            the number of distinct accounts of the orders
+     */
+    public void setAccounts(final int accounts) {
+        this.accounts = accounts;
+    }
+
+    /**
+     * @return the markets of the orders
+     */
+    public List<String> getMarkets() {
+        return this.markets;
+    }
+
+    /**
+     * @param markets
+     *            the markets of the orders
+     */
+    public void setMarkets(final List<String> markets) {
+        this.markets = markets;
+    }
+
+    /**
+     * @return the exponent of the Zipf distribution of the accounts and markets, zero if they are evenly spread
+     */
+    public double getSkew() {
+        return this.skew;
+    }
+
+    /**
+     * @param skew
+     *            the exponent of the Zipf distribution of the accounts and markets, zero to spread them evenly, which
+     *            is the default behaviour
+     */
+    public void setSkew(final double skew) {
+        this.skew = skew;
+    }
+
+    /**
+     * @return the seed of the generated documents
+     */
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * @param seed
+     *            the seed of the generated documents
+     */
+    public void setSeed(final long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return the number of threads uploading the documents
+     */
+    public int getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * @param threads
+     *            the number of threads uploading the documents
+     */
+    public void setThreads(final int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @return the target number of documents uploaded per second, zero if they are uploaded flat out
+     */
+    public double getRate() {
+        return this.rate;
+    }
+
+    /**
+     * @param rate
+     *            the target number of documents uploaded per second, zero to upload them flat out, which is the default
+     *            behaviour
+     */
+    public void setRate(final double rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * @return how the embedded broker is reached: vm in memory, tcp through the loopback interface
+     */
+    public String getTransport() {
+        return this.transport;
+    }
+
+    /**
+     * @param transport
+     *            how the embedded broker is reached: vm in memory, which is the default behaviour, tcp through the
+     *            loopback interface
+     */
+    public void setTransport(final String transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * @return the name of the queue receiving the documents
+     */
+    public String getDestination() {
+        return this.destination;
+    }
+
+    /**
+     * @param destination
+     *            the name of the queue receiving the documents
+     */
+    public void setDestination(final String destination) {
+        this.destination = destination;
+    }
+
+    /**
+     * @return true if the orders of the documents are sent one message per order
+     */
+    public boolean isSplitOrders() {
+        return this.splitOrders;
+    }
+
+    /**
+     * @param splitOrders
+     *            true to send the orders of the documents one message per order
+     */
+    public void setSplitOrders(final boolean splitOrders) {
+        this.splitOrders = splitOrders;
+    }
+
+    /**
+     * @return how the documents are sent to the broker
+     */
+    public PayloadFormat getPayloadFormat() {
+        return this.payloadFormat;
+    }
+
+    /**
+     * @param payloadFormat
+     *            how the documents are sent to the broker
+     */
+    public void setPayloadFormat(final PayloadFormat payloadFormat) {
+        this.payloadFormat = payloadFormat;
+    }
+
+    /**
+     * @return true if each message is grouped by the account of its order
+     */
+    public boolean isGroupByAccount() {
+        return this.groupByAccount;
+    }
+
+    /**
+     * @param groupByAccount
+     *            true to group each message by the account of its order
+     */
+    public void setGroupByAccount(final boolean groupByAccount) {
+        this.groupByAccount = groupByAccount;
+    }
+
+    /**
+     * @return true if the documents are validated against the schema of the orders before being sent
+     */
+    public boolean isValidateOrders() {
+        return this.validateOrders;
+    }
+
+    /**
+     * @param validateOrders
+     *            true to validate the documents against the schema of the orders before being sent
+     */
+    public void setValidateOrders(final boolean validateOrders) {
+        this.validateOrders = validateOrders;
+    }
+
+    /**
+     * @return true if the messages are drained from the queue while they are uploaded
+     */
+    public boolean isConsume() {
+        return this.consume;
+    }
+
+    /**
+     * @param consume
+     *            true to drain the messages from the queue while they are uploaded, which is the default behaviour.
+     *            Without a consumer, the broker keeps the messages in memory and its flow control slows the uploads
+     *            down once its memory limit is reached.
+     */
+    public void setConsume(final boolean consume) {
+        this.consume = consume;
+    }
+
+    /**
+     * @return how long the consumer is waited for once the documents are uploaded
+     */
+    public long getDrainTimeoutSeconds() {
+        return this.drainTimeoutSeconds;
+    }
+
+    /**
+     * @param drainTimeoutSeconds
+     *            how long the consumer is waited for once the documents are uploaded
+     */
+    public void setDrainTimeoutSeconds(final long drainTimeoutSeconds) {
+        this.drainTimeoutSeconds = drainTimeoutSeconds;
+    }
+}
@@ -0,0 +1,113 @@
+package com.sandrew.loadgen;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthesises order documents shaped like the sample file of the application: a single order as the root element, or
+ * several orders in an Orders element. The accounts and the markets are drawn from a Zipf distribution, so that a
+ * skew of zero spreads the orders evenly and a higher skew concentrates them on the first accounts and markets, as the
+ * busiest ones of a real flow. A generator is seeded, so that the same documents are generated from one run to the
+ * next, and is not thread safe.
+ */
+public final class OrderDocumentGenerator {
+
+    private static final String XML_DECLARATION = "<?xml version='1.0' encoding='UTF-8' standalone='yes'?>\n";
+
+    private static final int MAX_SIZE = 1000;
+
+    private final String[] accounts;
+
+    private final String[] markets;
+
+    private final double[] accountWeights;
+
+    private final double[] marketWeights;
+
+    private final Random random;
+
+    /**
+     * @param accountCount
+     *            Number of distinct accounts.
+     * @param markets
+     *            The markets of the orders.
+     * @param skew
+     *            Exponent of the Zipf distribution of the accounts and markets, zero for an even distribution.
+     * @param seed
+     *            Seed of the random values.
+     * @throws IllegalArgumentException
+     *             If there is no account or no market, or the skew is negative.
+     */
+    public OrderDocumentGenerator(final int accountCount, final List<String> markets, final double skew,
+                    final long seed) {
+        checkArgument(accountCount > 0, "At least one account is needed");
+        checkArgument(!markets.isEmpty(), "At least one market is needed");
+        checkArgument(skew >= 0, "The skew cannot be negative");
+        this.accounts = new String[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            this.accounts[i] = String.format("AX%03d", i + 1);
+        }
+        this.markets = markets.toArray(new String[markets.size()]);
+        this.accountWeights = cumulativeWeights(accountCount, skew);
+        this.marketWeights = cumulativeWeights(this.markets.length, skew);
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Creates a document.
+     *
+     * @param orderCount
+     *            Number of orders of the document.
+     * @return The document, encoded in UTF-8.
+     * @throws IllegalArgumentException
+     *             If the document holds no order.
+     */
+    public byte[] create(final int orderCount) {
+        checkArgument(orderCount > 0, "A document holds at least one order");
+        final StringBuilder builder = new StringBuilder(XML_DECLARATION.length() + (orderCount * 180));
+        builder.append(XML_DECLARATION);
+        if (orderCount > 1) {
+            builder.append("<Orders>");
+        }
+        final long submittedAt = System.currentTimeMillis();
+        for (int i = 0; i < orderCount; i++) {
+            builder.append("<Order><accont>").append(this.draw(this.accounts, this.accountWeights))
+                            .append("</accont><SubmittedAt>").append(submittedAt + i)
+                            .append("</SubmittedAt><ReceivedAt>").append(submittedAt + i + 1)
+                            .append("</ReceivedAt><market>").append(this.draw(this.markets, this.marketWeights))
+                            .append("</market><action>").append(this.random.nextBoolean() ? "BUY" : "SELL")
+                            .append("</action><size>").append(1 + this.random.nextInt(MAX_SIZE))
+                            .append("</size></Order>");
+        }
+        if (orderCount > 1) {
+            builder.append("</Orders>");
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Draws a value, each value having the weight of its rank.
+     */
+    private String draw(final String[] values, final double[] weights) {
+        final double point = this.random.nextDouble() * weights[weights.length - 1];
+        final int index = Arrays.binarySearch(weights, point);
+        return values[Math.min(index < 0 ? -index - 1 : index + 1, values.length - 1)];
+    }
+
+    /**
+     * @return the cumulated weights of the ranks of a Zipf distribution
+     */
+    private static double[] cumulativeWeights(final int count, final double skew) {
+        final double[] weights = new double[count];
+        double total = 0;
+        for (int rank = 0; rank < count; rank++) {
+            total += 1 / Math.pow(rank + 1, skew);
+            weights[rank] = total;
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,200 @@
+package com.sandrew.logic;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQMessageProducer;
+import org.apache.activemq.AsyncCallback;
+import org.apache.activemq.jms.pool.PooledSession;
+
+/**
+ * Sends messages without waiting for the broker to acknowledge each of them. The acknowledgements are received on the
+ * connection thread and complete the future of each message. The number of messages sent but not acknowledged yet is
+ * capped: once the window is full, sending blocks until the broker acknowledges a message. Once a send has failed, the
+ * session may be broken and the sender should be replaced.
+ */
+final class AsyncSender {
+
+    private final int maxInFlight;
+
+    private final Semaphore window;
+
+    private final Connection conn;
+
+    private final Session session;
+
+    private final ActiveMQMessageProducer producer;
+
+    /**
+     * Guarded by the session, so that no message is sent once the session is handed back to the pool.
+     */
+    private boolean closed = false;
+
+    private volatile boolean failed = false;
+
+    /**
+     * Futures of the messages sent but not acknowledged yet, failed if the sender is closed first.
+     */
+    private final Set<CompletableFuture<Void>> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Opens a session dedicated to the asynchronous sends.
+     *
+     * @param communicator
+     *            The communicator providing the pooled connection.
+     * @param maxInFlight
+     *            Maximum number of messages sent but not acknowledged yet.
+     * @throws JMSException
+     *             If there is a problem while creating either the connection or the session.
+     */
+    AsyncSender(final Communicator communicator, final int maxInFlight) throws JMSException {
+        this.maxInFlight = maxInFlight;
+        this.window = new Semaphore(maxInFlight);
+        this.conn = communicator.getConnection();
+        try {
+            this.session = this.conn.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            this.producer = (ActiveMQMessageProducer) ((PooledSession) this.session).getMessageProducer();
+        } catch (final JMSException e) {
+            this.conn.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the session used to create the messages
+     */
+    Session getSession() {
+        return this.session;
+    }
+
+    /**
+     * Sends a message, blocking while the window is full. The anonymous producer of the session sends to every
+     * destination.
+     *
+     * @param destination
+     *            The destination of the message.
+     * @param message
+     *            The message to send.
+     * @return The future completed when the broker acknowledges the message, or completed exceptionally if the broker
+     *         rejects it. It is completed on the connection thread, so the work depending on it should be run with
+     *         the asynchronous methods of the future.
+     * @throws InterruptedException
+     *             If the thread is interrupted while waiting for room in the window.
+     */
+    CompletableFuture<Void> send(final Destination destination, final Message message) throws InterruptedException {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        this.window.acquire();
+        try {
+            // A session must not be used by several threads at the same time
+            synchronized (this.session) {
+                if (this.closed) {
+                    throw new IllegalStateException("The sender is closed");
+                }
+                this.pending.add(future);
+                this.producer.send(destination, message, new AsyncCallback() {
+
+                    @Override
+                    public void onSuccess() {
+                        AsyncSender.this.pending.remove(future);
+                        AsyncSender.this.window.release();
+                        future.complete(null);
+                    }
+
+                    @Override
+                    public void onException(final JMSException exception) {
+                        AsyncSender.this.failed = true;
+                        AsyncSender.this.pending.remove(future);
+                        AsyncSender.this.window.release();
+                        future.completeExceptionally(exception);
+                    }
+                });
+            }
+        } catch (final JMSException e) {
+            this.failed = true;
+            this.pending.remove(future);
+            this.window.release();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @return true if a message could not be sent or was rejected by the broker, in which case the session may be
+     *         broken
+     */
+    boolean isFailed() {
+        return this.failed;
+    }
+
+    /**
+     * Flags the session as possibly broken, for instance when a message cannot be created.
+     */
+    void markFailed() {
+        this.failed = true;
+    }
+
+    /**
+     * @return the number of messages sent but not acknowledged yet
+     */
+    int getInFlight() {
+        return this.maxInFlight - this.window.availablePermits();
+    }
+
+    /**
+     * Waits until every message sent has been acknowledged or rejected by the broker.
+     *
+     * @param timeout
+     *            Maximum time to wait.
+     * @param unit
+     *            Unit of the timeout.
+     * @return True if no message is in flight any more, false if the timeout elapsed first.
+     * @throws InterruptedException
+     *             If the thread is interrupted while waiting.
+     */
+    boolean awaitAll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (this.window.tryAcquire(this.maxInFlight, timeout, unit)) {
+            this.window.release(this.maxInFlight);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Hands the session and the connection back to the pool. The futures of the messages still in flight are failed,
+     * since their acknowledgement may never come, and the messages sent afterwards fail.
+     *
+     * @throws JMSException
+     *             If the session or the connection cannot be closed.
+     */
+    void close() throws JMSException {
+        synchronized (this.session) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+        }
+        try {
+            this.session.close();
+        } finally {
+            try {
+                this.conn.close();
+            } finally {
+                for (final CompletableFuture<Void> future : this.pending) {
+                    future.completeExceptionally(new IllegalStateException(
+                                    "The sender was closed before the broker acknowledged the message"));
+                }
+                this.pending.clear();
+            }
+        }
+    }
+}
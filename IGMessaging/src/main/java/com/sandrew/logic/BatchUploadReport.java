@@ -0,0 +1,161 @@
+package com.sandrew.logic;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a batch upload: the statistics of every committed batch and the files which could not be uploaded.
+ */
+public final class BatchUploadReport {
+
+    private final List<Batch> batches = new ArrayList<>();
+
+    private final Map<File, Exception> failedFiles = new LinkedHashMap<>();
+
+    /**
+     * Records a committed batch.
+     *
+     * @param fileCount
+     *            Number of files sent in the batch.
+     * @param byteCount
+     *            Size of the files sent in the batch.
+     * @param elapsedNanos
+     *            Time between the first send and the commit.
+     */
+    void addBatch(final int fileCount, final long byteCount, final long elapsedNanos) {
+        this.batches.add(new Batch(fileCount, byteCount, elapsedNanos));
+    }
+
+    /**
+     * Records a file which could not be uploaded.
+     *
+     * @param file
+     *            The file.
+     * @param cause
+     *            Why it was not uploaded.
+     */
+    void addFailure(final File file, final Exception cause) {
+        this.failedFiles.put(file, cause);
+    }
+
+    /**
+     * @return the committed batches, in the order they were sent
+     */
+    public List<Batch> getBatches() {
+        return Collections.unmodifiableList(this.batches);
+    }
+
+    /**
+     * @return the files which could not be uploaded and why
+     */
+    public Map<File, Exception> getFailedFiles() {
+        return Collections.unmodifiableMap(this.failedFiles);
+    }
+
+    /**
+     * @return the number of files uploaded
+     */
+    public int getUploadedFiles() {
+        int count = 0;
+        for (final Batch batch : this.batches) {
+            count += batch.getFileCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return a one line summary of the upload
+     */
+    public String getSummary() {
+        long elapsedNanos = 0;
+        for (final Batch batch : this.batches) {
+            elapsedNanos += batch.getElapsedNanos();
+        }
+        return String.format("%d file(s) uploaded in %d batch(es) at %.1f files/s, %d file(s) failed",
+                        this.getUploadedFiles(), this.batches.size(),
+                        Batch.perSecond(this.getUploadedFiles(), elapsedNanos), this.failedFiles.size());
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(this.getSummary());
+        for (int i = 0; i < this.batches.size(); i++) {
+            builder.append(System.lineSeparator()).append("Batch ").append(i + 1).append(": ")
+                            .append(this.batches.get(i));
+        }
+        for (final Map.Entry<File, Exception> failure : this.failedFiles.entrySet()) {
+            builder.append(System.lineSeparator()).append("Failed: ").append(failure.getKey()).append(" - ")
+                            .append(failure.getValue().getMessage());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Statistics of a committed batch.
+     */
+    public static final class Batch {
+
+        private final int fileCount;
+
+        private final long byteCount;
+
+        private final long elapsedNanos;
+
+        private Batch(final int fileCount, final long byteCount, final long elapsedNanos) {
+            this.fileCount = fileCount;
+            this.byteCount = byteCount;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return the number of files sent in the batch
+         */
+        public int getFileCount() {
+            return this.fileCount;
+        }
+
+        /**
+         * @return the size of the files sent in the batch
+         */
+        public long getByteCount() {
+            return this.byteCount;
+        }
+
+        /**
+         * @return the time between the first send and the commit
+         */
+        public long getElapsedNanos() {
+            return this.elapsedNanos;
+        }
+
+        /**
+         * @return the number of files sent per second
+         */
+        public double getFilesPerSecond() {
+            return perSecond(this.fileCount, this.elapsedNanos);
+        }
+
+        /**
+         * @return the number of bytes sent per second
+         */
+        public double getBytesPerSecond() {
+            return perSecond(this.byteCount, this.elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d file(s), %d bytes in %d ms (%.1f files/s, %.0f bytes/s)", this.fileCount,
+                            this.byteCount, TimeUnit.NANOSECONDS.toMillis(this.elapsedNanos),
+                            this.getFilesPerSecond(), this.getBytesPerSecond());
+        }
+
+        private static double perSecond(final long count, final long elapsedNanos) {
+            return elapsedNanos == 0 ? 0 : (count * (double) TimeUnit.SECONDS.toNanos(1)) / elapsedNanos;
+        }
+    }
+}
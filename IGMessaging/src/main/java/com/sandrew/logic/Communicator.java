@@ -7,17 +7,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.net.URI;
 
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.Destination;
 import javax.jms.JMSException;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.jms.Session;
 import javax.xml.parsers.ParserConfigurationException;
 
-import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.activemq.command.ActiveMQQueue;
 import org.apache.activemq.command.ActiveMQTopic;
 import org.apache.commons.lang.StringUtils;
@@ -42,8 +41,11 @@ public abstract class Communicator {
 
     private final ConnectionFactory cFactory;
 
+    private SerializationMode serializationMode = SerializationMode.STREAMING;
+
     /**
-     * Configure the file uploader, i.e. the broker information.
+     * Configure the file uploader, i.e. the broker information. The connections are borrowed from a pool using the
+     * default settings.
      *
      * @param brokerUri
      *            URI to the broker.
@@ -63,7 +65,35 @@ public abstract class Communicator {
      */
     public Communicator(final URI brokerUri, final String userName, final String password, final String destinationName,
                     final boolean isTopic) {
+        this(brokerUri, userName, password, destinationName, isTopic, new PoolSettings());
+    }
+
+    /**
+     * Configure the file uploader, i.e. the broker information.
+     *
+     * @param brokerUri
+     *            URI to the broker.
+     * @param userName
+     *            User name to connect to the broker.
+     * @param password
+     *            Password linked to the user name used to connect to the broker.
+     * @param destinationName
+     *            Name of the destination of the message.
+     * @param isTopic
+     *            True if the file should be posted to a topic. It is posted to a queue otherwise, which is the default
+     *            behaviour.
+     * @param poolSettings
+     *            Tuning of the connection pool, only used if no other communicator has already connected to the same
+     *            broker with the same credentials.
+     * @throws IllegalArgumentException
+     *             If the destination is blank or null.
+     * @throws NullPointerException
+     *             If the URI to the broker or the pool settings are null;
+     */
+    public Communicator(final URI brokerUri, final String userName, final String password, final String destinationName,
+                    final boolean isTopic, final PoolSettings poolSettings) {
         checkNotNull(brokerUri);
+        checkNotNull(poolSettings);
         checkArgument(StringUtils.isNotBlank(destinationName));
 
         this.brokerUri = brokerUri;
@@ -72,16 +102,8 @@ public abstract class Communicator {
         this.destinationName = destinationName;
         this.isTopic = isTopic;
 
-        if (StringUtils.isBlank(this.userName)) {
-            this.cFactory = new ActiveMQConnectionFactory(this.brokerUri);
-        } else {
-            if (StringUtils.isBlank(this.password)) {
-                this.cFactory = new ActiveMQConnectionFactory(this.userName, StringUtils.EMPTY, this.brokerUri);
-            } else {
-                this.cFactory = new ActiveMQConnectionFactory(this.userName, this.password, this.brokerUri);
-            }
-        }
-
+        this.cFactory = ConnectionPools.getConnectionFactory(this.brokerUri, this.userName, this.password,
+                        poolSettings);
     }
 
     /**
@@ -99,9 +121,25 @@ public abstract class Communicator {
     }
 
     /**
-     * Creates a new connection.
+     * @return the serialisation mode
+     */
+    public SerializationMode getSerializationMode() {
+        return this.serializationMode;
+    }
+
+    /**
+     * @param serializationMode
+     *            the serialisation mode to set, streaming by default
+     */
+    public void setSerializationMode(final SerializationMode serializationMode) {
+        this.serializationMode = checkNotNull(serializationMode);
+    }
+
+    /**
+     * Borrows a connection from the pool of the broker. Closing the connection hands it back to the pool, along with
+     * the sessions and producers created from it.
      *
-     * @return A new connection.
+     * @return A pooled connection.
      * @throws JMSException
      *             If there is a problem while creating either the connection or the session.
      */
@@ -109,16 +147,55 @@ public abstract class Communicator {
         return this.cFactory.createConnection();
     }
 
+    /**
+     * Opens a connection of its own to the broker, outside of the pool. Closing it closes its sessions for real, so
+     * that the broker redelivers the messages they have not acknowledged.
+     *
+     * @return A new connection.
+     * @throws JMSException
+     *             If the connection cannot be created.
+     */
+    public Connection createDedicatedConnection() throws JMSException {
+        return ConnectionPools.createConnectionFactory(this.brokerUri, this.userName, this.password)
+                        .createConnection();
+    }
+
+    /**
+     * Checks that the broker can be reached with a pooled connection.
+     *
+     * @throws JMSException
+     *             If the broker cannot be reached.
+     */
+    public void checkConnection() throws JMSException {
+        final Connection conn = this.getConnection();
+        try {
+            conn.createSession(false, Session.AUTO_ACKNOWLEDGE).close();
+        } finally {
+            conn.close();
+        }
+    }
+
     /**
      * Gets the destination of the message, which can be a topic or a queue.
      *
      * @return The destination of the message.
      */
     public Destination getDestination() {
+        return this.getDestination(this.getDestinationName());
+    }
+
+    /**
+     * Gets a destination of the same kind as the destination of the messages, a topic or a queue.
+     *
+     * @param name
+     *            The name of the destination.
+     * @return The destination.
+     */
+    public Destination getDestination(final String name) {
         if (this.isTopic()) {
-            return new ActiveMQTopic(this.getDestinationName());
+            return new ActiveMQTopic(name);
         } else {
-            return new ActiveMQQueue(this.getDestinationName());
+            return new ActiveMQQueue(name);
         }
     }
 
@@ -138,17 +215,36 @@ public abstract class Communicator {
      */
     public StringWriter serializeFile(final InputStream stream)
                     throws ParserConfigurationException, SAXException, IOException {
-        final DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        final DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-        final Document doc = dBuilder.parse(stream);
-        final OutputFormat format = new OutputFormat(doc);
         final StringWriter stringOut = new StringWriter();
-        final XMLSerializer serial = new XMLSerializer(stringOut, format);
-        serial.serialize(doc);
-
+        this.serializeFile(stream, stringOut);
         return stringOut;
     }
 
+    /**
+     * Serialise a stream into a writer. It is expected that the stream is an XML file. In streaming mode the content is
+     * written as soon as it is parsed.
+     *
+     * @param stream
+     *            The stream to serialise.
+     * @param out
+     *            Where to write the serialised stream.
+     *
+     * @throws ParserConfigurationException
+     *             If the document builder cannot be created.
+     * @throws SAXException
+     *             If the file cannot be properly parsed.
+     * @throws IOException
+     *             If the file cannot be accessed.
+     */
+    public void serializeFile(final InputStream stream, final Writer out)
+                    throws ParserConfigurationException, SAXException, IOException {
+        if (this.serializationMode == SerializationMode.DOM) {
+            this.serializeDocument(ParserCache.getDocumentBuilder().parse(stream), out);
+        } else {
+            StreamingXmlSerializer.serialize(ParserCache.createStreamReader(stream), out);
+        }
+    }
+
     /**
      * Deserialise a string into an XML document.
      *
@@ -165,16 +261,30 @@ public abstract class Communicator {
      */
     public StringWriter deserialiseFile(final String xmlAsString)
                     throws ParserConfigurationException, SAXException, IOException {
-        final DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        final DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-
-        final Document doc = dBuilder.parse(new InputSource(new StringReader(xmlAsString)));
+        final StringWriter stringOut = new StringWriter();
+        if (this.serializationMode == SerializationMode.DOM) {
+            this.serializeDocument(
+                            ParserCache.getDocumentBuilder().parse(new InputSource(new StringReader(xmlAsString))),
+                            stringOut);
+        } else {
+            StreamingXmlSerializer.serialize(ParserCache.createStreamReader(new StringReader(xmlAsString)), stringOut);
+        }
+        return stringOut;
+    }
 
+    /**
+     * Serialise a DOM document.
+     *
+     * @param doc
+     *            The document to serialise.
+     * @param out
+     *            Where to write the document.
+     * @throws IOException
+     *             If the document cannot be written.
+     */
+    private void serializeDocument(final Document doc, final Writer out) throws IOException {
         final OutputFormat format = new OutputFormat(doc);
-        final StringWriter stringOut = new StringWriter();
-        final XMLSerializer serial = new XMLSerializer(stringOut, format);
+        final XMLSerializer serial = new XMLSerializer(out, format);
         serial.serialize(doc);
-
-        return stringOut;
     }
 }
@@ -0,0 +1,277 @@
+package com.sandrew.logic;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.ConnectionFactory;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.pool.PooledConnectionFactory;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Registry of the connection pools, one per broker URI and credentials. The connections, the sessions and the
+ * producers borrowed from a pool are handed back to it when closed, so that the TCP connection and the authentication
+ * to the broker are done once and reused by every upload and download. Broken connections are evicted from the pool
+ * as soon as the broker reports an exception on them, and the idle ones are checked and closed by a daemon thread.
+ * <p>
+ * An opened connection keeps the JVM alive until it is closed, either once it has been idle for the idle timeout of
+ * its pool or when the JVM shuts down. A program ending when its {@code main} method returns must therefore call
+ * {@link #shutdown()} once it is done with the brokers, otherwise it only exits once the idle connections are closed.
+ */
+public final class ConnectionPools {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPools.class);
+
+    private static final ConcurrentMap<PoolKey, IdleCheckedPool> POOLS = new ConcurrentHashMap<>();
+
+    /**
+     * Checks the idle connections instead of the evictor of commons-pool, whose thread is not a daemon.
+     */
+    private static final ScheduledExecutorService IDLE_CHECKS = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("connection-pools-idle-check").setDaemon(true).build());
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                ConnectionPools.shutdown();
+            }
+        }, "connection-pools-shutdown"));
+    }
+
+    private ConnectionPools() {
+    }
+
+    /**
+     * Gets the pooled connection factory of a broker, creating it on first use. The settings are only applied when
+     * the pool is created, the first communicator of a broker and credentials decides of the tuning.
+     *
+     * @param brokerUri
+     *            URI to the broker.
+     * @param userName
+     *            User name to connect to the broker.
+     * @param password
+     *            Password linked to the user name used to connect to the broker.
+     * @param settings
+     *            Tuning of the pool.
+     * @return The pooled connection factory.
+     */
+    public static ConnectionFactory getConnectionFactory(final URI brokerUri, final String userName,
+                    final String password, final PoolSettings settings) {
+        final PoolKey key = new PoolKey(brokerUri, userName, password);
+        IdleCheckedPool pool = POOLS.get(key);
+        if (pool == null) {
+            final IdleCheckedPool newPool = createPool(key, settings);
+            pool = POOLS.putIfAbsent(key, newPool);
+            if (pool == null) {
+                pool = newPool;
+                pool.start();
+                pool.scheduleIdleCheck(settings.getHealthCheckIntervalMillis());
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Gets the number of physical connections currently opened by all the pools.
+     *
+     * @return The number of opened connections.
+     */
+    public static int getOpenedConnections() {
+        int count = 0;
+        for (final IdleCheckedPool pool : POOLS.values()) {
+            count += pool.getNumConnections();
+        }
+        return count;
+    }
+
+    /**
+     * Gets the maximum number of physical connections all the pools can open.
+     *
+     * @return The sum of the maximum number of connections of the pools.
+     */
+    public static int getMaxConnections() {
+        int count = 0;
+        for (final IdleCheckedPool pool : POOLS.values()) {
+            count += pool.getMaxConnections();
+        }
+        return count;
+    }
+
+    /**
+     * Gets the pooled connection factories created so far, so that the brokers can be checked with the connections
+     * the communicators use.
+     *
+     * @return The factories, by broker URI prefixed with the user name if any.
+     */
+    public static Map<String, ConnectionFactory> getConnectionFactories() {
+        final Map<String, ConnectionFactory> factories = new TreeMap<>();
+        for (final Map.Entry<PoolKey, IdleCheckedPool> entry : POOLS.entrySet()) {
+            factories.put(entry.getKey().toString(), entry.getValue());
+        }
+        return factories;
+    }
+
+    /**
+     * Closes every pooled connection and forgets about the pools.
+     */
+    public static void shutdown() {
+        for (final PoolKey key : POOLS.keySet()) {
+            final IdleCheckedPool pool = POOLS.remove(key);
+            if (pool != null) {
+                pool.stop();
+            }
+        }
+    }
+
+    /**
+     * Creates a factory of plain connections, outside of any pool.
+     *
+     * @param brokerUri
+     *            URI to the broker.
+     * @param userName
+     *            User name to connect to the broker.
+     * @param password
+     *            Password linked to the user name used to connect to the broker.
+     * @return The connection factory.
+     */
+    static ActiveMQConnectionFactory createConnectionFactory(final URI brokerUri, final String userName,
+                    final String password) {
+        if (StringUtils.isBlank(userName)) {
+            return new ActiveMQConnectionFactory(brokerUri);
+        }
+        if (StringUtils.isBlank(password)) {
+            return new ActiveMQConnectionFactory(userName, StringUtils.EMPTY, brokerUri);
+        }
+        return new ActiveMQConnectionFactory(userName, password, brokerUri);
+    }
+
+    /**
+     * Creates a new pool.
+     *
+     * @param key
+     *            The broker and credentials of the pool.
+     * @param settings
+     *            Tuning of the pool.
+     * @return The pool, not started.
+     */
+    private static IdleCheckedPool createPool(final PoolKey key, final PoolSettings settings) {
+        final IdleCheckedPool pool = new IdleCheckedPool(
+                        createConnectionFactory(key.brokerUri, key.userName, key.password));
+        pool.setMaxConnections(settings.getMaxConnections());
+        pool.setMaximumActiveSessionPerConnection(settings.getMaxSessionsPerConnection());
+        pool.setIdleTimeout(settings.getIdleTimeoutMillis());
+        pool.setTimeBetweenExpirationCheckMillis(-1);
+        pool.setCreateConnectionOnStartup(false);
+        pool.setReconnectOnException(true);
+        pool.setBlockIfSessionPoolIsFull(true);
+        return pool;
+    }
+
+    /**
+     * Pool whose idle connections are checked on the daemon thread of the registry.
+     */
+    private static final class IdleCheckedPool extends PooledConnectionFactory implements Runnable {
+
+        private ScheduledFuture<?> idleCheck;
+
+        private IdleCheckedPool(final ActiveMQConnectionFactory connectionFactory) {
+            super(connectionFactory);
+        }
+
+        /**
+         * Starts checking the idle connections.
+         *
+         * @param intervalMillis
+         *            Interval between two checks, a value lower or equal to zero disables the checks.
+         */
+        private synchronized void scheduleIdleCheck(final long intervalMillis) {
+            if (intervalMillis > 0) {
+                this.idleCheck = IDLE_CHECKS.scheduleWithFixedDelay(this, intervalMillis, intervalMillis,
+                                TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Closes the connections idle for longer than the idle timeout, and the broken ones.
+         */
+        @Override
+        public void run() {
+            final GenericKeyedObjectPool<?, ?> connections = this.getConnectionsPool();
+            if (connections != null) {
+                try {
+                    connections.evict();
+                } catch (final Exception e) {
+                    LOGGER.warn("Cannot check the idle connections of a pool", e);
+                }
+            }
+        }
+
+        @Override
+        public void stop() {
+            synchronized (this) {
+                if (this.idleCheck != null) {
+                    this.idleCheck.cancel(false);
+                    this.idleCheck = null;
+                }
+            }
+            super.stop();
+        }
+    }
+
+    /**
+     * Identifies a pool.
+     */
+    private static final class PoolKey {
+
+        private final URI brokerUri;
+
+        private final String userName;
+
+        private final String password;
+
+        private PoolKey(final URI brokerUri, final String userName, final String password) {
+            this.brokerUri = brokerUri;
+            this.userName = StringUtils.defaultString(userName);
+            this.password = StringUtils.defaultString(password);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PoolKey)) {
+                return false;
+            }
+            final PoolKey other = (PoolKey) obj;
+            return this.brokerUri.equals(other.brokerUri) && this.userName.equals(other.userName)
+                            && this.password.equals(other.password);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.brokerUri, this.userName, this.password);
+        }
+
+        @Override
+        public String toString() {
+            return this.userName.isEmpty() ? this.brokerUri.toString() : this.userName + '@' + this.brokerUri;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.sandrew.logic;
+
+/**
+ * Prints the files received into the console.
+ */
+public final class ConsoleFileHandler implements FileHandler {
+
+    @Override
+    public void handle(final String file) {
+        synchronized (System.out) {
+            System.out.println("Received File:");
+            System.out.println(file);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.sandrew.logic;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.math.IntMath;
+
+/**
+ * Bounded set of the 64-bit keys seen recently, used to drop the duplicate payloads without a database. The keys are
+ * kept in a few generations of open addressing tables of primitive longs, so that a key costs between 16 and 32 bytes
+ * whatever the number of keys, and no object is allocated per key. A new generation is started when the current one
+ * is full or old enough, and the oldest generation is cleared for it: a key is forgotten after at least the time to
+ * live and at most a third longer, or earlier if the keys come in faster than the cache can hold them for that long.
+ * <p>
+ * The keys are hashes, two payloads having the same key are taken as duplicates.
+ */
+public final class DedupCache {
+
+    private static final int GENERATIONS = 4;
+
+    /**
+     * Stands for the key 0, which marks an empty slot.
+     */
+    private static final long ZERO_KEY = 0x9E3779B97F4A7C15L;
+
+    private final int maxKeys;
+
+    private final int generationCapacity;
+
+    private final long generationNanos;
+
+    private final long[][] tables;
+
+    private final int[] sizes = new int[GENERATIONS];
+
+    private final long[] generationStarts = new long[GENERATIONS];
+
+    private final int mask;
+
+    private int current;
+
+    private long lookups;
+
+    private long hits;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxKeys
+     *            Maximum number of keys held at once.
+     * @param timeToLive
+     *            Minimum time a key is remembered, unless the cache is full.
+     * @param unit
+     *            Unit of the time to live.
+     * @throws IllegalArgumentException
+     *             If the cache cannot hold a key per generation or the time to live is not strictly positive.
+     */
+    public DedupCache(final int maxKeys, final long timeToLive, final TimeUnit unit) {
+        checkArgument(maxKeys >= GENERATIONS, "The cache must hold at least %s keys", GENERATIONS);
+        checkArgument(timeToLive > 0, "The time to live must be strictly positive");
+        this.maxKeys = maxKeys;
+        this.generationCapacity = IntMath.divide(maxKeys, GENERATIONS, RoundingMode.CEILING);
+        // The tables are kept at most half full, so that the probe sequences stay short
+        final int tableSize = IntMath.ceilingPowerOfTwo(2 * this.generationCapacity);
+        this.mask = tableSize - 1;
+        this.tables = new long[GENERATIONS][tableSize];
+        this.generationNanos = unit.toNanos(timeToLive) / (GENERATIONS - 1);
+        final long now = System.nanoTime();
+        Arrays.fill(this.generationStarts, now);
+    }
+
+    /**
+     * Tells if a key has been added recently.
+     *
+     * @param key
+     *            The key.
+     * @return True if the key is in the cache.
+     */
+    public synchronized boolean contains(final long key) {
+        this.rotate(System.nanoTime());
+        this.lookups++;
+        final long stored = key == 0 ? ZERO_KEY : key;
+        for (final long[] table : this.tables) {
+            if (this.find(table, stored) >= 0) {
+                this.hits++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a key, or renews it if it is already in the cache.
+     *
+     * @param key
+     *            The key.
+     */
+    public synchronized void add(final long key) {
+        this.rotate(System.nanoTime());
+        final long stored = key == 0 ? ZERO_KEY : key;
+        final long[] table = this.tables[this.current];
+        final int slot = this.find(table, stored);
+        if (slot < 0) {
+            table[-slot - 1] = stored;
+            this.sizes[this.current]++;
+        }
+    }
+
+    /**
+     * @return the number of keys in the cache, including the expired keys of the oldest generation
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (final int generationSize : this.sizes) {
+            size += generationSize;
+        }
+        return size;
+    }
+
+    /**
+     * @return the maximum number of keys held at once
+     */
+    public int getMaxKeys() {
+        return this.maxKeys;
+    }
+
+    /**
+     * @return the number of lookups
+     */
+    public synchronized long getLookups() {
+        return this.lookups;
+    }
+
+    /**
+     * @return the number of lookups which found the key, i.e. the duplicates detected
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d key(s) of %d, %d duplicate(s) in %d lookup(s)", this.size(), this.maxKeys,
+                        this.getHits(), this.getLookups());
+    }
+
+    /**
+     * Looks a key up in a table by linear probing.
+     *
+     * @param table
+     *            The table.
+     * @param key
+     *            The key, not 0.
+     * @return The slot of the key, or minus one minus the empty slot where it belongs.
+     */
+    private int find(final long[] table, final long key) {
+        // The keys are hashes already, their bits only need folding into an index
+        int slot = (int) (key ^ (key >>> 32)) & this.mask;
+        while (true) {
+            final long slotKey = table[slot];
+            if (slotKey == key) {
+                return slot;
+            }
+            if (slotKey == 0) {
+                return -slot - 1;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+    }
+
+    /**
+     * Starts new generations while the current one is full or old enough, clearing the oldest one each time. A
+     * generation which ended on time is followed by one starting at its end rather than now, so that an idle cache
+     * catches up with all the generations it missed.
+     *
+     * @param now
+     *            The current time, from {@link System#nanoTime()}.
+     */
+    private void rotate(final long now) {
+        for (int i = 0; i < GENERATIONS; i++) {
+            final boolean full = this.sizes[this.current] >= this.generationCapacity;
+            final long end = this.generationStarts[this.current] + this.generationNanos;
+            if (!full && (now - end < 0)) {
+                return;
+            }
+            this.current = (this.current + 1) % GENERATIONS;
+            if (this.sizes[this.current] > 0) {
+                Arrays.fill(this.tables[this.current], 0L);
+                this.sizes[this.current] = 0;
+            }
+            this.generationStarts[this.current] = full ? now : end;
+        }
+        // All the generations were cleared
+        this.generationStarts[this.current] = now;
+    }
+}
@@ -0,0 +1,167 @@
+package com.sandrew.logic;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xml.sax.SAXException;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * How the deduplication key of a payload is computed. The key is sent as the {@link #PROPERTY} property of the message,
+ * the same whenever the payload is sent again, so that the receiver can drop the copies.
+ */
+public enum DedupStrategy {
+
+    /**
+     * The key is the hash of the payload, so that the same file dropped twice has the same key. Orders differing in
+     * any field, such as the time they were received, have different keys.
+     */
+    CONTENT_HASH {
+
+        @Override
+        HashCode key(final String payload) {
+            return HASHING.hashString(payload, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        HashCode key(final byte[] document) {
+            return HASHING.hashBytes(document);
+        }
+
+        @Override
+        HashCode keyOfOrders(final byte[] orders) {
+            return HASHING.hashBytes(orders);
+        }
+    },
+
+    /**
+     * The key is the hash of the account and submission time of the orders of the payload, so that an order is the
+     * same whatever its other fields and its formatting. Two orders of an account submitted in the same millisecond
+     * are taken as duplicates. The payloads holding no such field are keyed by their hash.
+     */
+    ORDER_FIELDS {
+
+        @Override
+        HashCode key(final String payload) {
+            try {
+                final HashCode key = hashOrderFields(ParserCache.createStreamReader(new StringReader(payload)));
+                return key == null ? CONTENT_HASH.key(payload) : key;
+            } catch (final SAXException e) {
+                return CONTENT_HASH.key(payload);
+            }
+        }
+
+        @Override
+        HashCode key(final byte[] document) {
+            try {
+                final HashCode key = hashOrderFields(
+                                ParserCache.createStreamReader(new ByteArrayInputStream(document)));
+                return key == null ? CONTENT_HASH.key(document) : key;
+            } catch (final SAXException e) {
+                return CONTENT_HASH.key(document);
+            }
+        }
+
+        @Override
+        HashCode keyOfOrders(final byte[] orders) {
+            // Hashed as the same orders in XML, so that an order has one key whatever the format it is sent in
+            final Hasher hasher = HASHING.newHasher();
+            final ByteBuffer buffer = ByteBuffer.wrap(orders);
+            final Order order = new Order();
+            OrderCodec.readHeader(buffer);
+            while (buffer.hasRemaining()) {
+                OrderCodec.decode(buffer, order);
+                putField(hasher, OrderCodec.ACCOUNT_ELEMENT, order.getAccount());
+                putField(hasher, OrderCodec.SUBMITTED_AT_ELEMENT, Long.toString(order.getSubmittedAt()));
+            }
+            return hasher.hash();
+        }
+    };
+
+    /**
+     * Name of the message property holding the deduplication key, as hexadecimal digits.
+     */
+    public static final String PROPERTY = "IGDedupKey";
+
+    private static final HashFunction HASHING = Hashing.murmur3_128();
+
+    /**
+     * Computes the key of a serialised payload.
+     *
+     * @param payload
+     *            The payload.
+     * @return The key.
+     */
+    abstract HashCode key(String payload);
+
+    /**
+     * Computes the key of a document sent as is.
+     *
+     * @param document
+     *            The bytes of the document.
+     * @return The key.
+     */
+    abstract HashCode key(byte[] document);
+
+    /**
+     * Computes the key of orders in binary format.
+     *
+     * @param orders
+     *            The binary payload.
+     * @return The key.
+     */
+    abstract HashCode keyOfOrders(byte[] orders);
+
+    /**
+     * Computes the key of a message property, or of any other identifier of a payload.
+     *
+     * @param id
+     *            The identifier.
+     * @return The 64-bit key for a {@link DedupCache}.
+     */
+    static long idKey(final String id) {
+        return HASHING.hashString(id, StandardCharsets.UTF_8).asLong();
+    }
+
+    private static void putField(final Hasher hasher, final String name, final CharSequence value) {
+        hasher.putString(name, StandardCharsets.UTF_8).putByte((byte) 0);
+        hasher.putString(value, StandardCharsets.UTF_8).putByte((byte) 0);
+    }
+
+    /**
+     * Hashes the account and submission time of the orders of a document, in a streaming pass.
+     *
+     * @param reader
+     *            The document.
+     * @return The hash, null if the document holds no such field or is not well formed.
+     */
+    private static HashCode hashOrderFields(final XMLStreamReader reader) {
+        final Hasher hasher = HASHING.newHasher();
+        boolean found = false;
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    final String name = reader.getLocalName();
+                    if (OrderCodec.ACCOUNT_ELEMENT.equals(name) || OrderCodec.SUBMITTED_AT_ELEMENT.equals(name)) {
+                        putField(hasher, name, reader.getElementText().trim());
+                        found = true;
+                    }
+                }
+            }
+            reader.close();
+        } catch (final XMLStreamException e) {
+            return null;
+        }
+        return found ? hasher.hash() : null;
+    }
+}
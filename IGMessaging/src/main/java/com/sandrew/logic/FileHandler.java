@@ -0,0 +1,17 @@
+package com.sandrew.logic;
+
+/**
+ * Processes the files received from the broker.
+ */
+public interface FileHandler {
+
+    /**
+     * Processes a file. When the receiver runs several consumers, this method is called concurrently.
+     *
+     * @param file
+     *            The XML file received.
+     * @throws Exception
+     *             If the file cannot be processed.
+     */
+    void handle(String file) throws Exception;
+}
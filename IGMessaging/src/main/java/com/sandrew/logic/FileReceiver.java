@@ -3,26 +3,78 @@
  */
 package com.sandrew.logic;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.net.URI;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.JMSSecurityException;
+import javax.jms.Message;
 import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
 import javax.jms.Session;
 import javax.jms.TextMessage;
 import javax.xml.parsers.ParserConfigurationException;
 
+import org.apache.activemq.ActiveMQSession;
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTopic;
+import org.apache.activemq.util.ByteSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sandrew.logic.PipelineLatencies.Stage;
+
 /**
- *
+ * Gets files from a destination, either one at a time or continuously with several concurrent consumers.
  */
 public class FileReceiver extends Communicator {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileReceiver.class);
+
+    private int consumerCount = 1;
+
+    private int prefetchSize = -1;
+
+    private int acknowledgeMode = Session.AUTO_ACKNOWLEDGE;
+
+    private Connection listeningConnection;
+
+    private final List<Session> listeningSessions = new ArrayList<>();
+
+    private ReceiverStatistics statistics;
+
+    private DedupCache dedupCache;
+
+    private PipelineLatencies latencies;
+
+    private int groupLanes = 0;
+
+    private ExecutorService[] lanes;
+
+    private GroupDispatcher dispatcher;
+
     /**
      * Configure the file receiver, i.e. the broker information.
      *
@@ -47,6 +99,119 @@ public class FileReceiver extends Communicator {
         super(brokerUri, userName, password, destinationName, isTopic);
     }
 
+    /**
+     * @return the number of concurrent consumers started by {@link #start(FileHandler)}
+     */
+    public int getConsumerCount() {
+        return this.consumerCount;
+    }
+
+    /**
+     * @param consumerCount
+     *            the number of concurrent consumers started by {@link #start(FileHandler)}, one by default
+     */
+    public void setConsumerCount(final int consumerCount) {
+        checkArgument(consumerCount > 0, "At least one consumer is needed");
+        this.consumerCount = consumerCount;
+    }
+
+    /**
+     * @return the number of messages dispatched to a consumer ahead of its processing, negative for the broker default
+     */
+    public int getPrefetchSize() {
+        return this.prefetchSize;
+    }
+
+    /**
+     * @param prefetchSize
+     *            the number of messages dispatched to a consumer ahead of its processing, negative for the broker
+     *            default
+     */
+    public void setPrefetchSize(final int prefetchSize) {
+        this.prefetchSize = prefetchSize;
+    }
+
+    /**
+     * @return the acknowledge mode of the consumers started by {@link #start(FileHandler)}
+     */
+    public int getAcknowledgeMode() {
+        return this.acknowledgeMode;
+    }
+
+    /**
+     * @param acknowledgeMode
+     *            the acknowledge mode of the consumers started by {@link #start(FileHandler)}, one of the
+     *            {@link Session} modes. A message whose handling fails is redelivered in client acknowledge and
+     *            transacted modes only, it is dropped otherwise.
+     */
+    public void setAcknowledgeMode(final int acknowledgeMode) {
+        checkArgument(acknowledgeMode >= Session.SESSION_TRANSACTED && acknowledgeMode <= Session.DUPS_OK_ACKNOWLEDGE,
+                        "Unknown acknowledge mode %s", acknowledgeMode);
+        this.acknowledgeMode = acknowledgeMode;
+    }
+
+    /**
+     * @return the cache of the keys of the messages handled, null if the duplicates are handled
+     */
+    public DedupCache getDedupCache() {
+        return this.dedupCache;
+    }
+
+    /**
+     * @param dedupCache
+     *            the cache of the keys of the messages handled by {@link #start(FileHandler)}: a message whose key is
+     *            in the cache is acknowledged without being handled. The key is the {@link DedupStrategy#PROPERTY}
+     *            property set by the uploaders with a deduplication strategy, or else the
+     *            {@link Outbox#RECORD_ID_PROPERTY} property; the messages with neither are always handled. A key is
+     *            added once its message is handled, so that a message whose handling fails is not dropped when it is
+     *            redelivered. Null to handle the duplicates, which is the default behaviour.
+     */
+    public void setDedupCache(final DedupCache dedupCache) {
+        this.dedupCache = dedupCache;
+    }
+
+    /**
+     * @return the histograms where the latencies of the messages handled are recorded, null if they are not measured
+     */
+    public PipelineLatencies getLatencies() {
+        return this.latencies;
+    }
+
+    /**
+     * @param latencies
+     *            the histograms where the latencies of the messages handled by {@link #start(FileHandler)} are
+     *            recorded: the broker transit and the end-to-end latency of the messages carrying the times set by the
+     *            uploaders measuring their latencies, and the time spent handling every message. Null to measure
+     *            nothing, which is the default behaviour.
+     */
+    public void setLatencies(final PipelineLatencies latencies) {
+        this.latencies = latencies;
+    }
+
+    /**
+     * @return the number of threads handling the groups of messages concurrently, 0 if the messages are handled by the
+     *         threads of the consumers
+     */
+    public int getGroupLanes() {
+        return this.groupLanes;
+    }
+
+    /**
+     * @param groupLanes
+     *            the number of threads handling the messages received by {@link #start(FileHandler)}, 0 to handle
+     *            them on the threads of the consumers, which is the default behaviour. Each message is handed over to
+     *            the thread chosen from its {@value FileUploader#GROUP_ID_PROPERTY} property, so that the messages of
+     *            a group, for instance the orders of an account, are handled in sequence while the groups are handled
+     *            in parallel. The messages without group are spread over the threads. Each message is acknowledged
+     *            once handled. In client acknowledge mode, a message whose handling fails is redelivered once the
+     *            receiver is restarted, since recovering the session would redeliver the messages of the other groups
+     *            as well; it is dropped in the other modes. The transacted mode is not supported.
+     */
+    public void setGroupLanes(final int groupLanes) {
+        checkArgument(groupLanes >= 0, "The number of lanes cannot be negative");
+        this.groupLanes = groupLanes;
+    }
+
     /**
      * Gets a file from a destination and prints it into the console.
      *
@@ -71,13 +236,7 @@ public class FileReceiver extends Communicator {
             conn.start();
 
             // Get the file as String
-            final TextMessage msg = (TextMessage) consumer.receive();
-            final String xmlAsString = msg.getText();
-
-            final StringWriter stringOut = this.deserialiseFile(xmlAsString);
-
-            System.out.println("Received File:");
-            System.out.println(stringOut.toString());
+            new ConsoleFileHandler().handle(this.readFile(consumer.receive()));
 
             session.close();
         } finally {
@@ -86,4 +245,523 @@ public class FileReceiver extends Communicator {
             }
         }
     }
+
+    /**
+     * Starts consuming the destination continuously. Each consumer has its own session, so the files are handled
+     * concurrently by as many threads as there are consumers, or by the lanes of their groups if
+     * {@link #setGroupLanes(int)} is set.
+     *
+     * @param handler
+     *            What to do with the files received.
+     * @throws JMSException
+     *             If there is a problem while creating either the connection, the sessions or the consumers.
+     * @throws JMSSecurityException
+     *             If the credential to the broker are not correct.
+     * @throws IllegalStateException
+     *             If the receiver is already started, or the groups are handled in parallel in transacted mode.
+     */
+    public synchronized void start(final FileHandler handler) throws JMSException {
+        checkNotNull(handler);
+        checkState(this.listeningConnection == null, "The receiver is already started");
+        checkState((this.groupLanes == 0) || (this.acknowledgeMode != Session.SESSION_TRANSACTED),
+                        "The groups cannot be handled in parallel in transacted mode");
+
+        final Destination destination = this.getConsumerDestination();
+        final ReceiverStatistics newStatistics = new ReceiverStatistics();
+        // A pooled session is handed back to the pool rather than closed, the messages the lanes have not acknowledged
+        // yet must be redelivered once the receiver stops whatever the pool does with it
+        final Connection conn = this.groupLanes > 0 ? this.createDedicatedConnection() : this.getConnection();
+        try {
+            if (this.groupLanes > 0) {
+                this.startLanes(handler, newStatistics);
+            }
+            final boolean transacted = this.acknowledgeMode == Session.SESSION_TRANSACTED;
+            // The lanes acknowledge each message once handled, whatever the order
+            final int sessionMode = this.groupLanes > 0 ? ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE
+                            : this.acknowledgeMode;
+            for (int i = 0; i < this.consumerCount; i++) {
+                final Session session = conn.createSession(transacted, sessionMode);
+                this.listeningSessions.add(session);
+                session.createConsumer(destination).setMessageListener(this.dispatcher != null ? this.dispatcher
+                                : new FileListener(session, handler, newStatistics));
+            }
+            this.listeningConnection = conn;
+            this.statistics = newStatistics;
+            conn.start();
+        } catch (final JMSException e) {
+            this.listeningConnection = conn;
+            try {
+                this.stop();
+            } catch (final JMSException stopFailure) {
+                e.addSuppressed(stopFailure);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Stops consuming the destination. The files being handled are completed before the consumers are closed. Every
+     * session is closed, and then the connection, even if closing one of them fails.
+     *
+     * @throws JMSException
+     *             If a session or the connection cannot be closed, the first failure is thrown once everything else is
+     *             closed. The messages not acknowledged are redelivered once the broker drops the connection.
+     */
+    public synchronized void stop() throws JMSException {
+        if (this.listeningConnection == null) {
+            return;
+        }
+        // The sessions must stay open while the lanes acknowledge the messages already handed over
+        this.stopLanes();
+        JMSException failure = null;
+        for (final Session session : this.listeningSessions) {
+            try {
+                session.close();
+            } catch (final JMSException e) {
+                LOGGER.error("Cannot close a consumer of {}", this.getDestinationName(), e);
+                failure = failure == null ? e : failure;
+            }
+        }
+        try {
+            this.listeningConnection.close();
+        } catch (final JMSException e) {
+            LOGGER.error("Cannot close the connection of the consumers of {}", this.getDestinationName(), e);
+            failure = failure == null ? e : failure;
+        } finally {
+            this.listeningSessions.clear();
+            this.listeningConnection = null;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return true if the receiver is consuming the destination continuously
+     */
+    public synchronized boolean isStarted() {
+        return this.listeningConnection != null;
+    }
+
+    /**
+     * @return the statistics of the last start of the receiver, null if it has never been started
+     */
+    public synchronized ReceiverStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    /**
+     * Gets the destination to consume, with the prefetch size as a consumer option.
+     *
+     * @return The destination to consume.
+     */
+    private Destination getConsumerDestination() {
+        if (this.prefetchSize < 0) {
+            return this.getDestination();
+        }
+        final String name = this.getDestinationName() + "?consumer.prefetchSize=" + this.prefetchSize;
+        if (this.isTopic()) {
+            return new ActiveMQTopic(name);
+        } else {
+            return new ActiveMQQueue(name);
+        }
+    }
+
+    /**
+     * Starts the threads handling the groups, each of them with its own listener.
+     *
+     * @param handler
+     *            What to do with the files received.
+     * @param statistics
+     *            Where to record the messages handled.
+     */
+    private void startLanes(final FileHandler handler, final ReceiverStatistics statistics) {
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("receiver-lane-%d").build();
+        this.lanes = new ExecutorService[this.groupLanes];
+        final FileListener[] listeners = new FileListener[this.groupLanes];
+        for (int i = 0; i < this.groupLanes; i++) {
+            this.lanes[i] = Executors.newSingleThreadExecutor(threadFactory);
+            listeners[i] = new FileListener(null, handler, statistics);
+        }
+        this.dispatcher = new GroupDispatcher(this.lanes, listeners);
+    }
+
+    /**
+     * Stops dispatching the messages to the threads handling the groups, and waits for them to handle the messages
+     * already dispatched. The messages received meanwhile are not acknowledged and are redelivered once the sessions
+     * are closed.
+     */
+    private void stopLanes() {
+        if (this.lanes == null) {
+            return;
+        }
+        this.dispatcher.stop();
+        for (final ExecutorService lane : this.lanes) {
+            lane.shutdown();
+        }
+        try {
+            for (final ExecutorService lane : this.lanes) {
+                lane.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.lanes = null;
+            this.dispatcher = null;
+        }
+    }
+
+    /**
+     * Reads the file carried by a message, deserialised as a string.
+     *
+     * @param message
+     *            The message.
+     * @return The file.
+     * @throws JMSException
+     *             If the message cannot be read.
+     * @throws ParserConfigurationException
+     *             If the document builder cannot be created.
+     * @throws SAXException
+     *             If the file cannot be properly parsed.
+     * @throws IOException
+     *             If the payload cannot be decompressed.
+     */
+    private String readFile(final Message message)
+                    throws JMSException, ParserConfigurationException, SAXException, IOException {
+        if (isRaw(message)) {
+            final ByteSequence document = this.readRawDocument((BytesMessage) message);
+            return this.serializeFile(
+                            new ByteArrayInputStream(document.getData(), document.getOffset(), document.getLength()))
+                            .toString();
+        }
+        if (isBinary(message)) {
+            try {
+                return OrderCodec.toXml(this.readBinaryOrders((BytesMessage) message));
+            } catch (IllegalArgumentException | BufferUnderflowException e) {
+                throw new SAXException("Malformed binary orders", e);
+            }
+        }
+        return this.deserialiseFile(this.readPayload(message)).toString();
+    }
+
+    /**
+     * Tells if a message carries a file sent in raw format.
+     *
+     * @param message
+     *            The message.
+     * @return True if the message carries the original bytes of a file.
+     * @throws JMSException
+     *             If the properties of the message cannot be read.
+     */
+    private static boolean isRaw(final Message message) throws JMSException {
+        return (message instanceof BytesMessage)
+                        && PayloadFormat.RAW.name().equals(message.getStringProperty(PayloadFormat.PROPERTY));
+    }
+
+    /**
+     * Tells if a message carries orders sent in binary format.
+     *
+     * @param message
+     *            The message.
+     * @return True if the message carries orders encoded by {@link OrderCodec}.
+     * @throws JMSException
+     *             If the properties of the message cannot be read.
+     */
+    private static boolean isBinary(final Message message) throws JMSException {
+        return (message instanceof BytesMessage)
+                        && PayloadFormat.BINARY.name().equals(message.getStringProperty(PayloadFormat.PROPERTY));
+    }
+
+    /**
+     * Gets the orders of a message carrying them in binary format, without copying them out of the message when
+     * possible.
+     *
+     * @param message
+     *            The message.
+     * @return The payload, positioned at its start.
+     * @throws JMSException
+     *             If the message cannot be read.
+     */
+    private ByteBuffer readBinaryOrders(final BytesMessage message) throws JMSException {
+        final ByteSequence payload = this.readRawDocument(message);
+        return ByteBuffer.wrap(payload.getData(), payload.getOffset(), payload.getLength());
+    }
+
+    /**
+     * Gets the bytes of a file sent in raw format, without copying them out of the message when possible.
+     *
+     * @param message
+     *            The message.
+     * @return The bytes of the file.
+     * @throws JMSException
+     *             If the message cannot be read.
+     */
+    private ByteSequence readRawDocument(final BytesMessage message) throws JMSException {
+        if ((message instanceof ActiveMQBytesMessage) && !((ActiveMQBytesMessage) message).isCompressed()) {
+            return ((ActiveMQBytesMessage) message).getContent();
+        }
+        final byte[] document = new byte[(int) message.getBodyLength()];
+        message.readBytes(document);
+        return new ByteSequence(document);
+    }
+
+    /**
+     * Reads the payload of a message, decompressing it if the uploader has compressed it.
+     *
+     * @param message
+     *            The message.
+     * @return The payload.
+     * @throws JMSException
+     *             If the message cannot be read, or is a bytes message without codec.
+     * @throws IOException
+     *             If the payload cannot be decompressed.
+     */
+    private String readPayload(final Message message) throws JMSException, IOException {
+        if (!(message instanceof BytesMessage)) {
+            return ((TextMessage) message).getText();
+        }
+        final BytesMessage bytesMessage = (BytesMessage) message;
+        final String codec = bytesMessage.getStringProperty(PayloadCompression.PROPERTY);
+        if (codec == null) {
+            throw new JMSException("Bytes message without " + PayloadCompression.PROPERTY + " property");
+        }
+        final byte[] compressed = new byte[(int) bytesMessage.getBodyLength()];
+        bytesMessage.readBytes(compressed);
+        return PayloadCompression.valueOf(codec).decompress(compressed);
+    }
+
+    /**
+     * Reads the deduplication key of a message.
+     *
+     * @param message
+     *            The message.
+     * @return The key, null if the message has none.
+     * @throws JMSException
+     *             If the properties of the message cannot be read.
+     */
+    private static Long readDedupKey(final Message message) throws JMSException {
+        final String dedupKey = message.getStringProperty(DedupStrategy.PROPERTY);
+        if (dedupKey != null) {
+            try {
+                return HashCode.fromString(dedupKey).asLong();
+            } catch (final IllegalArgumentException e) {
+                // Not sent by an uploader of this project, the key is hashed as is
+                return DedupStrategy.idKey(dedupKey);
+            }
+        }
+        final String recordId = message.getStringProperty(Outbox.RECORD_ID_PROPERTY);
+        return recordId == null ? null : DedupStrategy.idKey(recordId);
+    }
+
+    /**
+     * Records the latency of a stage from a time carried by a message until now.
+     *
+     * @param histograms
+     *            Where to record the latency.
+     * @param stage
+     *            The stage.
+     * @param message
+     *            The message.
+     * @param property
+     *            The property holding the start of the stage, in milliseconds since the epoch. Nothing is recorded if
+     *            the message does not have it.
+     * @throws JMSException
+     *             If the properties of the message cannot be read.
+     */
+    private static void recordSince(final PipelineLatencies histograms, final Stage stage, final Message message,
+                    final String property) throws JMSException {
+        if (message.propertyExists(property)) {
+            histograms.recordSince(stage, message.getLongProperty(property));
+        }
+    }
+
+    /**
+     * Hands the files received by one consumer over to the handler, and acknowledges them once handled.
+     */
+    private final class FileListener implements MessageListener {
+
+        /**
+         * The session of the consumer, null when the listener is run by a lane and acknowledges each message on its
+         * own.
+         */
+        private final Session session;
+
+        private final FileHandler handler;
+
+        private final ReceiverStatistics statistics;
+
+        /**
+         * Filled with each order received in binary format, as the consumer handles one message at a time.
+         */
+        private final Order order = new Order();
+
+        private FileListener(final Session session, final FileHandler handler, final ReceiverStatistics statistics) {
+            this.session = session;
+            this.handler = handler;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public void onMessage(final Message message) {
+            final long start = System.nanoTime();
+            final PipelineLatencies histograms = FileReceiver.this.latencies;
+            try {
+                if (histograms != null) {
+                    recordSince(histograms, Stage.TRANSIT, message, PipelineLatencies.SENT_AT_PROPERTY);
+                }
+                final DedupCache cache = FileReceiver.this.dedupCache;
+                final Long key = cache == null ? null : FileReceiver.readDedupKey(message);
+                if ((key != null) && cache.contains(key)) {
+                    this.acknowledge(message);
+                    this.statistics.recordDuplicate();
+                    return;
+                }
+                if ((this.handler instanceof OrderHandler) && FileReceiver.isBinary(message)) {
+                    this.handleOrders(FileReceiver.this.readBinaryOrders((BytesMessage) message));
+                } else if ((this.handler instanceof RawFileHandler) && FileReceiver.isRaw(message)) {
+                    final ByteSequence document = FileReceiver.this.readRawDocument((BytesMessage) message);
+                    ((RawFileHandler) this.handler).handleBytes(ByteBuffer
+                                    .wrap(document.getData(), document.getOffset(), document.getLength())
+                                    .asReadOnlyBuffer());
+                } else {
+                    this.handler.handle(FileReceiver.this.readFile(message));
+                }
+                this.acknowledge(message);
+                if (key != null) {
+                    cache.add(key);
+                }
+                final long elapsed = System.nanoTime() - start;
+                this.statistics.recordSuccess(elapsed);
+                if (histograms != null) {
+                    histograms.record(Stage.CONSUME, elapsed);
+                    recordSince(histograms, Stage.END_TO_END, message, PipelineLatencies.SUBMITTED_AT_PROPERTY);
+                }
+            } catch (final Exception e) {
+                this.statistics.recordFailure();
+                LOGGER.error("Cannot handle a message of {}", FileReceiver.this.getDestinationName(), e);
+                this.redeliver(message);
+            }
+        }
+
+        /**
+         * Hands the orders of a binary payload over to the handler, one at a time.
+         */
+        private void handleOrders(final ByteBuffer orders) throws Exception {
+            final OrderHandler orderHandler = (OrderHandler) this.handler;
+            OrderCodec.readHeader(orders);
+            while (orders.hasRemaining()) {
+                OrderCodec.decode(orders, this.order);
+                orderHandler.handleOrder(this.order);
+            }
+        }
+
+        /**
+         * Acknowledges a message handled, in the modes which need it.
+         */
+        private void acknowledge(final Message message) throws JMSException {
+            if ((this.session == null) || (FileReceiver.this.acknowledgeMode == Session.CLIENT_ACKNOWLEDGE)) {
+                message.acknowledge();
+            } else if (FileReceiver.this.acknowledgeMode == Session.SESSION_TRANSACTED) {
+                this.session.commit();
+            }
+        }
+
+        /**
+         * Asks for the redelivery of the messages not acknowledged yet, in the modes which allow it. A lane leaves the
+         * failed message unacknowledged in client acknowledge mode, and drops it otherwise.
+         */
+        private void redeliver(final Message message) {
+            try {
+                if (this.session == null) {
+                    if (FileReceiver.this.acknowledgeMode != Session.CLIENT_ACKNOWLEDGE) {
+                        message.acknowledge();
+                    }
+                } else if (FileReceiver.this.acknowledgeMode == Session.CLIENT_ACKNOWLEDGE) {
+                    this.session.recover();
+                } else if (FileReceiver.this.acknowledgeMode == Session.SESSION_TRANSACTED) {
+                    this.session.rollback();
+                }
+            } catch (final JMSException e) {
+                LOGGER.error("Cannot ask for the redelivery of a message of {}, it is redelivered once the receiver is "
+                                + "restarted", FileReceiver.this.getDestinationName(), e);
+            }
+        }
+    }
+
+    /**
+     * Hands each message over to the lane of its group. The consumers block while too many messages are waiting to be
+     * handled, so that a slow group does not make the others pile up in memory.
+     */
+    private static final class GroupDispatcher implements MessageListener {
+
+        private static final int MAX_PENDING_PER_LANE = 100;
+
+        private final ExecutorService[] lanes;
+
+        private final FileListener[] listeners;
+
+        private final Semaphore pending;
+
+        private volatile boolean stopped = false;
+
+        private GroupDispatcher(final ExecutorService[] lanes, final FileListener[] listeners) {
+            this.lanes = lanes;
+            this.listeners = listeners;
+            this.pending = new Semaphore(lanes.length * MAX_PENDING_PER_LANE);
+        }
+
+        @Override
+        public void onMessage(final Message message) {
+            if (this.stopped) {
+                // Left unacknowledged, to be redelivered
+                return;
+            }
+            final int lane = this.laneOf(message);
+            try {
+                this.pending.acquire();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                this.lanes[lane].execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            GroupDispatcher.this.listeners[lane].onMessage(message);
+                        } finally {
+                            GroupDispatcher.this.pending.release();
+                        }
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                // The receiver is stopping, the message is left unacknowledged
+                this.pending.release();
+            }
+        }
+
+        /**
+         * Chooses the lane of a message from its group, or from its identifier if it has no group. A message whose
+         * properties cannot be read goes to the first lane: left unacknowledged, it would not be redelivered while the
+         * receiver runs.
+         */
+        private int laneOf(final Message message) {
+            String key;
+            try {
+                key = message.getStringProperty(FileUploader.GROUP_ID_PROPERTY);
+                if (key == null) {
+                    key = message.getJMSMessageID();
+                }
+            } catch (final JMSException e) {
+                LOGGER.warn("Cannot read the group of a message, it is handled by the first lane", e);
+                key = null;
+            }
+            return key == null ? 0 : (key.hashCode() & Integer.MAX_VALUE) % this.lanes.length;
+        }
+
+        private void stop() {
+            this.stopped = true;
+        }
+    }
 }
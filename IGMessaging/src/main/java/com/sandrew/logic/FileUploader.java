@@ -1,27 +1,115 @@
 package com.sandrew.logic;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.InputStream;
 import java.net.URI;
+import java.nio.BufferUnderflowException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.JMSSecurityException;
 import javax.jms.Message;
-import javax.jms.MessageProducer;
 import javax.jms.Session;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stream.StreamSource;
 
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.util.ByteSequence;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 
+import com.google.common.base.Utf8;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+import com.sandrew.logic.OrderFieldReader.Field;
+import com.sandrew.logic.PipelineLatencies.Stage;
+
 /**
  * Posts a file as a string to the configured ActiveMQ broker. The file is expected to be an XML file. The broker should
- * be up an running before the file is uploaded.
+ * be up an running before the file is uploaded. A file holding many orders can be split into one message per order.
  */
-public final class FileUploader extends Communicator {
+public final class FileUploader extends Communicator implements AutoCloseable {
+
+    /**
+     * Name of the property holding the group of a message: the broker dispatches the messages of a group to a single
+     * consumer, in order.
+     */
+    public static final String GROUP_ID_PROPERTY = "JMSXGroupID";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileUploader.class);
+
+    private static final String XML_EXTENSION = ".xml";
+
+    private static final OrderFieldReader ACCOUNT_READER = new OrderFieldReader(EnumSet.of(Field.ACCOUNT));
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 100;
+
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 64 * 1024;
+
+    private static final long DEFAULT_CLOSE_TIMEOUT_MILLIS = 30_000L;
+
+    private static final int MAX_ROUTES = 1000;
+
+    private final OrderSplitter orderSplitter = new OrderSplitter();
+
+    private boolean splitOrders = false;
+
+    private PayloadCompression compression = null;
+
+    private PayloadFormat payloadFormat = PayloadFormat.TEXT;
+
+    private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+    private long closeTimeoutMillis = DEFAULT_CLOSE_TIMEOUT_MILLIS;
+
+    private volatile AsyncSender asyncSender;
+
+    private volatile Outbox outbox;
+
+    private DedupStrategy dedupStrategy = null;
+
+    private DedupCache dedupCache = null;
+
+    private PipelineLatencies latencies = null;
+
+    private PipelineMetrics metrics = null;
+
+    private OrderRouter router = null;
+
+    private boolean groupByAccount = false;
+
+    private boolean validateOrders = false;
+
+    // The destinations chosen by the router, bounded as their names come from the documents
+    private final Cache<String, Destination> routes = CacheBuilder.newBuilder().maximumSize(MAX_ROUTES).build();
 
     /**
      * Configure the file uploader, i.e. the broker information.
@@ -48,42 +136,368 @@ public final class FileUploader extends Communicator {
     }
 
     /**
-     * Uploads an XML file as String.
+     * @return true if the orders of a file are sent one message per order
+     */
+    public boolean isSplitOrders() {
+        return this.splitOrders;
+    }
+
+    /**
+     * @param splitOrders
+     *            true to send the orders of a file one message per order, false to send the whole file as one message,
+     *            which is the default behaviour
+     */
+    public void setSplitOrders(final boolean splitOrders) {
+        this.splitOrders = splitOrders;
+    }
+
+    /**
+     * @return how the files are sent to the broker
+     */
+    public PayloadFormat getPayloadFormat() {
+        return this.payloadFormat;
+    }
+
+    /**
+     * @param payloadFormat
+     *            how the files are sent to the broker, serialised again as text by default
+     */
+    public void setPayloadFormat(final PayloadFormat payloadFormat) {
+        this.payloadFormat = checkNotNull(payloadFormat);
+    }
+
+    /**
+     * @return the codec compressing the large payloads, null if the payloads are sent as text
+     */
+    public PayloadCompression getCompression() {
+        return this.compression;
+    }
+
+    /**
+     * @param compression
+     *            the codec compressing the large payloads into bytes messages, null to send all the payloads as text,
+     *            which is the default behaviour
+     */
+    public void setCompression(final PayloadCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * @return the number of characters from which a payload is compressed
+     */
+    public int getCompressionThreshold() {
+        return this.compressionThreshold;
+    }
+
+    /**
+     * @param compressionThreshold
+     *            the number of characters from which a payload is compressed, 64 KiB by default. The smaller payloads
+     *            do not shrink enough to be worth the time spent compressing them.
+     */
+    public void setCompressionThreshold(final int compressionThreshold) {
+        checkArgument(compressionThreshold >= 0, "The compression threshold cannot be negative");
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * @return how the deduplication key of a payload is computed, null if the payloads have no key
+     */
+    public DedupStrategy getDedupStrategy() {
+        return this.dedupStrategy;
+    }
+
+    /**
+     * @param dedupStrategy
+     *            how the deduplication key sent with each payload is computed, null to send no key, which is the
+     *            default behaviour
+     */
+    public void setDedupStrategy(final DedupStrategy dedupStrategy) {
+        this.dedupStrategy = dedupStrategy;
+    }
+
+    /**
+     * @return the cache of the keys of the payloads sent, null if the duplicates are sent
+     */
+    public DedupCache getDedupCache() {
+        return this.dedupCache;
+    }
+
+    /**
+     * @param dedupCache
+     *            the cache of the keys of the payloads sent, used when a deduplication strategy is set: a payload whose
+     *            key is in the cache is skipped. A key is added once its payload is accepted by the broker, so that a
+     *            file failing to be sent is not skipped when it is uploaded again. Null to send the duplicates, which
+     *            is the default behaviour.
+     */
+    public void setDedupCache(final DedupCache dedupCache) {
+        this.dedupCache = dedupCache;
+    }
+
+    /**
+     * @return the histograms where the latencies of the uploads are recorded, null if they are not measured
+     */
+    public PipelineLatencies getLatencies() {
+        return this.latencies;
+    }
+
+    /**
+     * @param latencies
+     *            the histograms where the latencies of the parsing, the serialisation and the sending of each payload
+     *            are recorded, and whose presence makes the messages carry the time they are sent and the submission
+     *            time of their order. Null to measure nothing, which is the default behaviour.
+     */
+    public void setLatencies(final PipelineLatencies latencies) {
+        this.latencies = latencies;
+    }
+
+    /**
+     * @return the counters of the uploads, null if they are not counted
+     */
+    public PipelineMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * @param metrics
+     *            the counters where the files uploaded, the files which failed, the messages and the bytes sent and the
+     *            messages in flight are recorded, null to count nothing, which is the default behaviour
+     */
+    public void setMetrics(final PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the rules choosing the destination of each message from its order, null if every message is sent to
+     *         the destination of the uploader
+     */
+    public OrderRouter getRouter() {
+        return this.router;
+    }
+
+    /**
+     * @param router
+     *            the rules choosing the destination of each message from its order, null to send every message to the
+     *            destination of the uploader, which is the default behaviour
+     */
+    public void setRouter(final OrderRouter router) {
+        this.router = router;
+    }
+
+    /**
+     * @return true if each message is grouped by the account of its order
+     */
+    public boolean isGroupByAccount() {
+        return this.groupByAccount;
+    }
+
+    /**
+     * @param groupByAccount
+     *            true to set the {@value #GROUP_ID_PROPERTY} property of each message to the account of its first
+     *            order, so that the orders of an account are consumed in sequence while the accounts are consumed in
+     *            parallel, false to send the messages without group, which is the default behaviour. Meant for the
+     *            orders sent one message per order.
+     */
+    public void setGroupByAccount(final boolean groupByAccount) {
+        this.groupByAccount = groupByAccount;
+    }
+
+    /**
+     * @return true if the documents are validated against the schema of the orders before being sent
+     */
+    public boolean isValidateOrders() {
+        return this.validateOrders;
+    }
+
+    /**
+     * Validates the documents against the schema of the orders before anything is sent, so that an invalid order, such
+     * as a non numeric size or an unknown action, fails the upload of its file instead of failing its consumer. A
+     * file is validated as it is read, then read again to be sent. A stream can only be read once, so it is held in
+     * memory while validated.
+     *
+     * @param validateOrders
+     *            true to validate the documents, false to only check that they are well formed, which is the default
+     *            behaviour
+     * @throws IllegalStateException
+     *             If the schema of the orders cannot be compiled.
+     */
+    public void setValidateOrders(final boolean validateOrders) {
+        if (validateOrders) {
+            OrderSchema.getSchema();
+        }
+        this.validateOrders = validateOrders;
+    }
+
+    /**
+     * @return the outbox where the payloads are appended instead of being sent, null if they are sent directly
+     */
+    public Outbox getOutbox() {
+        return this.outbox;
+    }
+
+    /**
+     * Appends the payloads to an outbox instead of sending them, so that the uploads succeed at the speed of the local
+     * disk even while the broker is down. The outbox is drained to the broker of this uploader by a background thread,
+     * until the outbox is closed.
+     *
+     * @param outbox
+     *            the outbox, null to send the payloads directly, which is the default behaviour. It cannot be drained
+     *            by another uploader.
+     * @throws IllegalStateException
+     *             If the outbox is closed or already drained by another uploader.
+     */
+    public void setOutbox(final Outbox outbox) {
+        if (outbox != null) {
+            outbox.startDrain(new OutboxSender());
+        }
+        this.outbox = outbox;
+    }
+
+    /**
+     * Uploads an XML file as String. When the orders are split, each order is sent as soon as it is read from the file,
+     * and the orders preceding a malformed part of the file are already sent when the parsing error is raised, unless
+     * the orders are validated first.
      *
      * @param fileToUpload
      *            The file to upload.
+     * @return The time spent in each stage of the upload.
      * @throws JMSException
      *             If there is a problem while creating either the connection or the session.
      * @throws ParserConfigurationException
      *             If the document builder cannot be created.
      * @throws SAXException
-     *             If the file cannot be properly parsed.
+     *             If the file cannot be properly parsed, or is not valid when the orders are validated.
      * @throws IOException
      *             If the file cannot be accessed.
      * @throws JMSSecurityException
      *             If the credential to the broker are not correct.
      */
-    public void uploadFile(final File fileToUpload)
+    public UploadTimings uploadFile(final File fileToUpload)
+                    throws JMSException, ParserConfigurationException, SAXException, IOException {
+        try (final FileInputStream fis = new FileInputStream(fileToUpload)) {
+            return this.upload(fis, fileToUpload);
+        }
+    }
+
+    /**
+     * Uploads an XML document read from a stream, such as the body of a request. The stream is read once, as the
+     * document is parsed, so that it is never held in memory as a whole when the serialisation is streamed and the
+     * orders are not validated. It is not closed.
+     *
+     * @param stream
+     *            The document to upload.
+     * @return The time spent in each stage of the upload.
+     * @throws JMSException
+     *             If there is a problem while creating either the connection or the session.
+     * @throws ParserConfigurationException
+     *             If the document builder cannot be created.
+     * @throws SAXException
+     *             If the document cannot be properly parsed, or is not valid when the orders are validated.
+     * @throws IOException
+     *             If the stream cannot be read.
+     * @throws JMSSecurityException
+     *             If the credential to the broker are not correct.
+     */
+    public UploadTimings uploadStream(final InputStream stream)
+                    throws JMSException, ParserConfigurationException, SAXException, IOException {
+        return this.upload(stream, null);
+    }
+
+    /**
+     * Validates an XML document if the orders are validated, then uploads it.
+     *
+     * @param stream
+     *            The document to upload.
+     * @param file
+     *            The file the stream reads, null if the stream does not read a file. The file is validated by itself
+     *            rather than holding the stream in memory.
+     * @return The time spent in each stage of the upload.
+     * @throws JMSException
+     *             If there is a problem while creating either the connection or the session.
+     * @throws ParserConfigurationException
+     *             If the document builder cannot be created.
+     * @throws SAXException
+     *             If the document cannot be properly parsed, or is not valid when the orders are validated.
+     * @throws IOException
+     *             If the stream cannot be read.
+     */
+    private UploadTimings upload(final InputStream stream, final File file)
+                    throws JMSException, ParserConfigurationException, SAXException, IOException {
+        final long start = System.nanoTime();
+        try {
+            final UploadTimings timings = new UploadTimings();
+            final InputStream document;
+            if (file == null) {
+                document = this.validate(stream, timings);
+            } else {
+                this.validate(file, timings);
+                document = stream;
+            }
+            this.sendStream(document, timings);
+            this.recordUploads(1, System.nanoTime() - start);
+            return timings;
+        } catch (final Exception e) {
+            this.recordFailure(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Uploads an XML document read from a stream, or appends it to the outbox if one is set.
+     *
+     * @param stream
+     *            The document to upload.
+     * @param timings
+     *            The time spent in each stage of the upload, completed with the stages of the sending.
+     * @throws JMSException
+     *             If there is a problem while creating either the connection or the session.
+     * @throws ParserConfigurationException
+     *             If the document builder cannot be created.
+     * @throws SAXException
+     *             If the document cannot be properly parsed.
+     * @throws IOException
+     *             If the stream cannot be read.
+     */
+    private void sendStream(final InputStream stream, final UploadTimings timings)
                     throws JMSException, ParserConfigurationException, SAXException, IOException {
-        final Destination destination = this.getDestination();
+        final Outbox journal = this.outbox;
+        if (journal != null) {
+            this.appendToOutbox(journal, stream, timings);
+            return;
+        }
+        final long connectStart = System.nanoTime();
 
         final Connection conn = this.getConnection();
-        final Session session = conn.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Session session = null;
 
         try {
-            // Get the file
-            final FileInputStream fis = new FileInputStream(fileToUpload);
+            final Session producerSession = conn.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            session = producerSession;
+            final RouteProducers producers = new RouteProducers(session);
+            producers.get(this.getRoute(null));
+            timings.recordConnect(System.nanoTime() - connectStart);
 
-            // Serialise it
-            final StringWriter stringOut = this.serializeFile(fis);
+            // Serialise the file and send the content as String
+            final long serializeStart = System.nanoTime();
+            this.sendDocument(stream, new MessageSink() {
 
-            // Send the content as String
-            final String payload = stringOut.toString();
-            final Message msg = session.createTextMessage(payload);
-            final MessageProducer producer = session.createProducer(destination);
+                @Override
+                Session getSession() {
+                    return producerSession;
+                }
 
-            producer.send(msg);
-            session.close();
+                @Override
+                void send(final Destination destination, final Message message, final HashCode key)
+                                throws JMSException {
+                    final long sendStart = System.nanoTime();
+                    producers.get(destination).send(message);
+                    final long sendNanos = System.nanoTime() - sendStart;
+                    timings.recordSend(sendNanos);
+                    FileUploader.this.recordLatency(Stage.SEND, sendNanos);
+                    FileUploader.this.markSent(key);
+                }
+            });
+            // The sends are interleaved with the parsing when the orders are split
+            timings.recordSerialize(System.nanoTime() - serializeStart - timings.getSendNanos());
         } finally {
             if (session != null) {
                 session.close();
@@ -93,4 +507,1318 @@ public final class FileUploader extends Communicator {
             }
         }
     }
+
+    /**
+     * Appends the payloads of an XML document to the outbox, once the whole document has been parsed.
+     *
+     * @param journal
+     *            The outbox.
+     * @param stream
+     *            The document to upload.
+     * @param timings
+     *            The time spent in each stage of the upload, completed with the time spent parsing the document and
+     *            appending its payloads.
+     * @throws JMSException
+     *             Never, the payloads are not sent.
+     * @throws ParserConfigurationException
+     *             If the document builder cannot be created.
+     * @throws SAXException
+     *             If the document cannot be properly parsed.
+     * @throws IOException
+     *             If the stream cannot be read or the payloads cannot be appended.
+     */
+    private void appendToOutbox(final Outbox journal, final InputStream stream, final UploadTimings timings)
+                    throws JMSException, ParserConfigurationException, SAXException, IOException {
+        final List<Outbox.Record> records = new ArrayList<>();
+        final List<HashCode> keys = new ArrayList<>();
+        final long serializeStart = System.nanoTime();
+        this.sendDocument(stream, new PayloadSink() {
+
+            @Override
+            public void accept(final String payload) {
+                final HashCode key = FileUploader.this.dedupKey(payload);
+                if (!FileUploader.this.isDuplicate(key)) {
+                    records.add(new Outbox.Record(PayloadFormat.TEXT, payload.getBytes(StandardCharsets.UTF_8)));
+                    keys.add(key);
+                }
+            }
+
+            @Override
+            public void acceptRaw(final byte[] document) {
+                final HashCode key = FileUploader.this.dedupKey(document);
+                if (!FileUploader.this.isDuplicate(key)) {
+                    records.add(new Outbox.Record(PayloadFormat.RAW, document));
+                    keys.add(key);
+                }
+            }
+
+            @Override
+            public void acceptBinary(final byte[] orders) {
+                final HashCode key = FileUploader.this.dedupKeyOfOrders(orders);
+                if (!FileUploader.this.isDuplicate(key)) {
+                    records.add(new Outbox.Record(PayloadFormat.BINARY, orders));
+                    keys.add(key);
+                }
+            }
+        });
+        timings.recordSerialize(System.nanoTime() - serializeStart);
+
+        final long appendStart = System.nanoTime();
+        journal.append(records);
+        timings.recordSend(System.nanoTime() - appendStart, records.size());
+        // The payloads are as good as sent once in the journal
+        for (final HashCode key : keys) {
+            this.markSent(key);
+        }
+    }
+
+    /**
+     * Validates a file against the schema of the orders, if the orders are validated. The file is read as it is
+     * validated, without being held in memory.
+     *
+     * @param file
+     *            The file.
+     * @param timings
+     *            The time spent in each stage of the upload, completed with the validation, null if not measured.
+     * @throws SAXException
+     *             If the file is not well formed or is not valid.
+     * @throws IOException
+     *             If the file cannot be read.
+     */
+    private void validate(final File file, final UploadTimings timings) throws SAXException, IOException {
+        if (this.validateOrders) {
+            final long start = System.nanoTime();
+            OrderSchema.validate(new StreamSource(file));
+            this.recordValidation(System.nanoTime() - start, timings);
+        }
+    }
+
+    /**
+     * Validates a document read from a stream against the schema of the orders, if the orders are validated. The
+     * stream can be read only once, so the document is held in memory to be read again once valid.
+     *
+     * @param stream
+     *            The document.
+     * @param timings
+     *            The time spent in each stage of the upload, completed with the validation.
+     * @return The stream to read the document from.
+     * @throws SAXException
+     *             If the document is not well formed or is not valid.
+     * @throws IOException
+     *             If the stream cannot be read.
+     */
+    private InputStream validate(final InputStream stream, final UploadTimings timings)
+                    throws SAXException, IOException {
+        if (!this.validateOrders) {
+            return stream;
+        }
+        final long start = System.nanoTime();
+        final byte[] document = ByteStreams.toByteArray(stream);
+        OrderSchema.validate(new StreamSource(new ByteArrayInputStream(document)));
+        this.recordValidation(System.nanoTime() - start, timings);
+        return new ByteArrayInputStream(document);
+    }
+
+    /**
+     * Records the time spent validating a document.
+     *
+     * @param elapsedNanos
+     *            The time spent.
+     * @param timings
+     *            The time spent in each stage of the upload, null if not measured.
+     */
+    private void recordValidation(final long elapsedNanos, final UploadTimings timings) {
+        if (timings != null) {
+            timings.recordValidate(elapsedNanos);
+        }
+        this.recordLatency(Stage.VALIDATE, elapsedNanos);
+    }
+
+    /**
+     * @return the maximum number of messages sent asynchronously but not acknowledged yet by the broker
+     */
+    public int getMaxInFlight() {
+        return this.maxInFlight;
+    }
+
+    /**
+     * @param maxInFlight
+     *            the maximum number of messages sent asynchronously but not acknowledged yet by the broker, only taken
+     *            into account before the first asynchronous upload
+     */
+    public void setMaxInFlight(final int maxInFlight) {
+        checkArgument(maxInFlight > 0, "The window must hold at least one message");
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @return the maximum time {@link #close()} waits for the broker to acknowledge the messages in flight
+     */
+    public long getCloseTimeoutMillis() {
+        return this.closeTimeoutMillis;
+    }
+
+    /**
+     * @param closeTimeoutMillis
+     *            the maximum time {@link #close()} waits for the broker to acknowledge the messages in flight, 30
+     *            seconds by default. The uploads still waiting for the broker afterwards fail.
+     */
+    public void setCloseTimeoutMillis(final long closeTimeoutMillis) {
+        checkArgument(closeTimeoutMillis >= 0, "The timeout cannot be negative");
+        this.closeTimeoutMillis = closeTimeoutMillis;
+    }
+
+    /**
+     * Uploads an XML file as String without waiting for the broker to acknowledge the messages. The file is read and
+     * serialised by the calling thread, which blocks while the number of messages in flight is at its maximum. All the
+     * asynchronous uploads of the uploader share one session.
+     *
+     * @param fileToUpload
+     *            The file to upload.
+     * @return The future completed when the broker has acknowledged every message of the file. It is completed
+     *         exceptionally if the file cannot be serialised or if a message is rejected, the failures are never
+     *         thrown by the method itself, with or without outbox. It is completed on the connection thread, so the
+     *         work depending on it should be run with the asynchronous methods of the future. When an outbox is set,
+     *         it is completed once the payloads are appended to the outbox. When the orders are validated, the file is
+     *         validated by the calling thread before any message is sent.
+     */
+    public CompletableFuture<Void> uploadFileAsync(final File fileToUpload) {
+        if (this.outbox != null) {
+            final CompletableFuture<Void> appended = new CompletableFuture<>();
+            try {
+                this.uploadFile(fileToUpload);
+                appended.complete(null);
+            } catch (JMSException | ParserConfigurationException | SAXException | IOException
+                            | IllegalStateException e) {
+                appended.completeExceptionally(e);
+            }
+            return appended;
+        }
+        final long start = System.nanoTime();
+        final List<CompletableFuture<Void>> sends = new ArrayList<>();
+        AsyncSender opened = null;
+        try (final FileInputStream fis = new FileInputStream(fileToUpload)) {
+            this.validate(fileToUpload, null);
+            final AsyncSender sender = this.getAsyncSender();
+            opened = sender;
+            this.sendDocument(fis, new MessageSink() {
+
+                @Override
+                Session getSession() {
+                    return sender.getSession();
+                }
+
+                @Override
+                void send(final Destination destination, final Message message, final HashCode key)
+                                throws JMSException {
+                    try {
+                        final long sendStart = System.nanoTime();
+                        final CompletableFuture<Void> sent = sender.send(destination, message);
+                        final PipelineMetrics counters = FileUploader.this.metrics;
+                        if (counters != null) {
+                            counters.recordSendStarted();
+                        }
+                        sends.add(sent);
+                        sent.whenComplete(new BiConsumer<Void, Throwable>() {
+
+                            @Override
+                            public void accept(final Void result, final Throwable failure) {
+                                if (counters != null) {
+                                    counters.recordSendCompleted();
+                                }
+                                if (failure == null) {
+                                    FileUploader.this.recordLatency(Stage.SEND, System.nanoTime() - sendStart);
+                                    FileUploader.this.markSent(key);
+                                }
+                            }
+                        });
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        final JMSException interrupted = new JMSException("Interrupted while waiting to send");
+                        interrupted.initCause(e);
+                        throw interrupted;
+                    }
+                }
+            });
+        } catch (JMSException | ParserConfigurationException | SAXException | IOException
+                        | IllegalStateException e) {
+            if ((e instanceof JMSException) && (opened != null)) {
+                // The session may have been closed by a connection failure, it is replaced on the next upload
+                opened.markFailed();
+            }
+            final CompletableFuture<Void> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e);
+            sends.add(failure);
+        }
+        final CompletableFuture<Void> uploaded = CompletableFuture
+                        .allOf(sends.toArray(new CompletableFuture<?>[sends.size()]));
+        if (this.metrics != null) {
+            uploaded.whenComplete(new BiConsumer<Void, Throwable>() {
+
+                @Override
+                public void accept(final Void result, final Throwable failure) {
+                    if (failure == null) {
+                        FileUploader.this.recordUploads(1, System.nanoTime() - start);
+                    } else {
+                        FileUploader.this.recordFailure(
+                                        failure instanceof CompletionException ? failure.getCause() : failure);
+                    }
+                }
+            });
+        }
+        return uploaded;
+    }
+
+    /**
+     * @return the number of messages sent asynchronously but not acknowledged yet by the broker
+     */
+    public int getInFlight() {
+        final AsyncSender sender = this.asyncSender;
+        return sender == null ? 0 : sender.getInFlight();
+    }
+
+    /**
+     * Waits until every message sent asynchronously has been acknowledged or rejected by the broker.
+     *
+     * @param timeout
+     *            Maximum time to wait.
+     * @param unit
+     *            Unit of the timeout.
+     * @return True if no message is in flight any more, false if the timeout elapsed first.
+     * @throws InterruptedException
+     *             If the thread is interrupted while waiting.
+     */
+    public boolean awaitAll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final AsyncSender sender = this.asyncSender;
+        return sender == null || sender.awaitAll(timeout, unit);
+    }
+
+    /**
+     * Waits until every message sent asynchronously has been acknowledged or rejected by the broker, for at most the
+     * {@link #setCloseTimeoutMillis(long) close timeout}, then hands the session used for the asynchronous uploads back
+     * to the pool. The uploads whose messages are still in flight fail.
+     *
+     * @throws JMSException
+     *             If the session cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws JMSException {
+        if (this.asyncSender == null) {
+            return;
+        }
+        try {
+            if (!this.asyncSender.awaitAll(this.closeTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("{} messages to {} still not acknowledged after {} ms, their uploads are failed",
+                                this.asyncSender.getInFlight(), this.getDestinationName(), this.closeTimeoutMillis);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.asyncSender.close();
+            this.asyncSender = null;
+        }
+    }
+
+    /**
+     * Gets the sender of the asynchronous uploads, opening its session on first use. A sender whose sends have failed
+     * is closed and replaced, so that the uploads recover once the broker is back.
+     *
+     * @return The asynchronous sender.
+     * @throws JMSException
+     *             If there is a problem while creating either the connection or the session.
+     */
+    private synchronized AsyncSender getAsyncSender() throws JMSException {
+        if ((this.asyncSender != null) && this.asyncSender.isFailed()) {
+            try {
+                this.asyncSender.close();
+            } catch (final JMSException e) {
+                LOGGER.warn("Cannot close the failed session of the asynchronous uploads", e);
+            } finally {
+                this.asyncSender = null;
+            }
+        }
+        if (this.asyncSender == null) {
+            this.asyncSender = new AsyncSender(this, this.maxInFlight);
+        }
+        return this.asyncSender;
+    }
+
+    /**
+     * Uploads the XML files of a directory, sorted by name, over one transacted session. See
+     * {@link #uploadFiles(List, int, long)}.
+     *
+     * @param directory
+     *            The directory holding the files, the files without the xml extension are ignored.
+     * @param batchSize
+     *            Maximum number of files sent before the transaction is committed.
+     * @param batchIntervalMillis
+     *            Maximum time after which the transaction is committed, whatever the number of files sent.
+     * @return The statistics of the batches and the files which failed.
+     * @throws IllegalArgumentException
+     *             If the file is not a directory which can be listed or the batch size is not strictly positive.
+     */
+    public BatchUploadReport uploadDirectory(final File directory, final int batchSize,
+                    final long batchIntervalMillis) {
+        return this.uploadFiles(listXmlFiles(directory), batchSize, batchIntervalMillis);
+    }
+
+    /**
+     * Lists the XML files of a directory, sorted by name.
+     *
+     * @param directory
+     *            The directory holding the files, the files without the xml extension are ignored.
+     * @return The XML files.
+     * @throws IllegalArgumentException
+     *             If the file is not a directory which can be listed.
+     */
+    public static List<File> listXmlFiles(final File directory) {
+        checkArgument(directory.isDirectory(), "%s is not a directory", directory);
+        final File[] files = directory.listFiles(new FileFilter() {
+
+            @Override
+            public boolean accept(final File file) {
+                return file.isFile() && StringUtils.endsWithIgnoreCase(file.getName(), XML_EXTENSION);
+            }
+        });
+        checkArgument(files != null, "%s cannot be listed", directory);
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Uploads XML files over one transacted session. The transaction is committed every batch size files, or when the
+     * batch interval is elapsed. A file which cannot be read or parsed is reported as failed and skipped, the files of
+     * a batch which cannot be sent or committed are reported as failed and the upload goes on with the next batch. When
+     * an outbox is set, the files are appended to it instead and reported as a single batch.
+     *
+     * @param filesToUpload
+     *            The files to upload.
+     * @param batchSize
+     *            Maximum number of files sent before the transaction is committed.
+     * @param batchIntervalMillis
+     *            Maximum time after which the transaction is committed, whatever the number of files sent.
+     * @return The statistics of the batches and the files which failed.
+     * @throws IllegalArgumentException
+     *             If the batch size is not strictly positive.
+     */
+    public BatchUploadReport uploadFiles(final List<File> filesToUpload, final int batchSize,
+                    final long batchIntervalMillis) {
+        checkArgument(batchSize > 0, "The batch size must be strictly positive");
+
+        final BatchUploadReport report = new BatchUploadReport();
+        if (this.outbox != null) {
+            this.appendFilesToOutbox(filesToUpload, report);
+            return report;
+        }
+        final TransactedBatch batch = new TransactedBatch(report, batchSize,
+                        TimeUnit.MILLISECONDS.toNanos(batchIntervalMillis));
+        try {
+            for (final File fileToUpload : filesToUpload) {
+                batch.send(fileToUpload);
+            }
+            batch.commit();
+        } finally {
+            batch.close(null);
+        }
+        return report;
+    }
+
+    /**
+     * Appends XML files to the outbox, reporting the files which cannot be read or parsed as failed.
+     *
+     * @param filesToUpload
+     *            The files to append.
+     * @param report
+     *            Where to report the appended files and the ones which failed.
+     */
+    private void appendFilesToOutbox(final List<File> filesToUpload, final BatchUploadReport report) {
+        final long start = System.nanoTime();
+        int fileCount = 0;
+        long byteCount = 0;
+        for (final File fileToUpload : filesToUpload) {
+            try {
+                this.uploadFile(fileToUpload);
+                fileCount++;
+                byteCount += fileToUpload.length();
+            } catch (JMSException | ParserConfigurationException | SAXException | IOException
+                            | IllegalStateException e) {
+                report.addFailure(fileToUpload, e);
+            }
+        }
+        if (fileCount > 0) {
+            report.addBatch(fileCount, byteCount, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Creates the message carrying a payload: a bytes message holding the compressed payload if the compression is
+     * enabled and the payload reaches the threshold, a text message otherwise.
+     *
+     * @param session
+     *            The session creating the message.
+     * @param payload
+     *            The payload.
+     * @param key
+     *            The deduplication key of the payload, null if it has none.
+     * @return The message.
+     * @throws JMSException
+     *             If the message cannot be created or the payload cannot be compressed.
+     */
+    private Message createMessage(final Session session, final String payload, final HashCode key)
+                    throws JMSException {
+        final long start = System.nanoTime();
+        final PayloadCompression codec = this.compression;
+        final Message message;
+        if ((codec == null) || (payload.length() < this.compressionThreshold)) {
+            message = session.createTextMessage(payload);
+        } else {
+            final BytesMessage bytesMessage = session.createBytesMessage();
+            try {
+                bytesMessage.writeBytes(codec.compress(payload));
+            } catch (final IOException e) {
+                final JMSException compressionFailure = new JMSException("Failed to compress the payload");
+                compressionFailure.initCause(e);
+                throw compressionFailure;
+            }
+            bytesMessage.setStringProperty(PayloadCompression.PROPERTY, codec.name());
+            message = bytesMessage;
+        }
+        if (this.latencies != null) {
+            setSubmittedAt(message, PipelineLatencies.findSubmittedAt(payload));
+        }
+        if (this.groupByAccount) {
+            try {
+                setGroupId(message, ACCOUNT_READER.read(payload));
+            } catch (final SAXException e) {
+                throw payloadFailure("Failed to read the account of the payload", e);
+            }
+        }
+        return this.setProperties(message, key, start);
+    }
+
+    /**
+     * Creates the bytes message carrying an original document.
+     *
+     * @param session
+     *            The session creating the message.
+     * @param document
+     *            The bytes of the document, owned by the message from now on.
+     * @param key
+     *            The deduplication key of the document, null if it has none.
+     * @return The message.
+     * @throws JMSException
+     *             If the message cannot be created.
+     */
+    private Message createRawMessage(final Session session, final byte[] document, final HashCode key)
+                    throws JMSException {
+        final long start = System.nanoTime();
+        final Message message = createBytesMessage(session, document, PayloadFormat.RAW);
+        if (this.groupByAccount) {
+            try {
+                setGroupId(message, ACCOUNT_READER.readDocument(document));
+            } catch (final SAXException e) {
+                throw payloadFailure("Failed to read the account of the document", e);
+            }
+        }
+        return this.setProperties(message, key, start);
+    }
+
+    /**
+     * Creates the bytes message carrying orders in binary format.
+     *
+     * @param session
+     *            The session creating the message.
+     * @param orders
+     *            The binary payload, owned by the message from now on.
+     * @param key
+     *            The deduplication key of the orders, null if they have none.
+     * @return The message.
+     * @throws JMSException
+     *             If the message cannot be created.
+     */
+    private Message createBinaryMessage(final Session session, final byte[] orders, final HashCode key)
+                    throws JMSException {
+        final long start = System.nanoTime();
+        final Message message = createBytesMessage(session, orders, PayloadFormat.BINARY);
+        if (this.latencies != null) {
+            setSubmittedAt(message, OrderCodec.findSubmittedAt(orders));
+        }
+        if (this.groupByAccount) {
+            try {
+                setGroupId(message, ACCOUNT_READER.readOrders(orders));
+            } catch (final IllegalArgumentException | BufferUnderflowException e) {
+                throw payloadFailure("Failed to read the account of the orders", e);
+            }
+        }
+        return this.setProperties(message, key, start);
+    }
+
+    /**
+     * Creates a bytes message tagged with its payload format.
+     *
+     * @param session
+     *            The session creating the message.
+     * @param payload
+     *            The bytes of the payload, owned by the message from now on.
+     * @param format
+     *            The format of the payload.
+     * @return The message.
+     * @throws JMSException
+     *             If the message cannot be created.
+     */
+    private static BytesMessage createBytesMessage(final Session session, final byte[] payload,
+                    final PayloadFormat format) throws JMSException {
+        final BytesMessage message = session.createBytesMessage();
+        if (message instanceof ActiveMQBytesMessage) {
+            // The array becomes the body of the message, instead of being copied into it
+            ((ActiveMQBytesMessage) message).setContent(new ByteSequence(payload));
+        } else {
+            message.writeBytes(payload);
+        }
+        message.setStringProperty(PayloadFormat.PROPERTY, format.name());
+        return message;
+    }
+
+    /**
+     * Sets the deduplication key of a message and, when the latencies are measured, the time it is sent, then records
+     * the time spent creating it.
+     *
+     * @param message
+     *            The message.
+     * @param key
+     *            The key, null if the payload has none.
+     * @param start
+     *            The time the creation of the message started, from {@link System#nanoTime()}.
+     * @return The message.
+     * @throws JMSException
+     *             If a property cannot be set.
+     */
+    private Message setProperties(final Message message, final HashCode key, final long start)
+                    throws JMSException {
+        if (key != null) {
+            message.setStringProperty(DedupStrategy.PROPERTY, key.toString());
+        }
+        final PipelineLatencies histograms = this.latencies;
+        if (histograms != null) {
+            // The message is sent right after being created
+            message.setLongProperty(PipelineLatencies.SENT_AT_PROPERTY, System.currentTimeMillis());
+            histograms.record(Stage.SERIALIZE, System.nanoTime() - start);
+        }
+        return message;
+    }
+
+    /**
+     * Sets the submission time of the order carried by a message.
+     *
+     * @param message
+     *            The message.
+     * @param submittedAt
+     *            The submission time, negative if the message does not carry a single order.
+     * @throws JMSException
+     *             If the property cannot be set.
+     */
+    private static void setSubmittedAt(final Message message, final long submittedAt) throws JMSException {
+        if (submittedAt >= 0) {
+            message.setLongProperty(PipelineLatencies.SUBMITTED_AT_PROPERTY, submittedAt);
+        }
+    }
+
+    /**
+     * Sets the group of a message to the account of its first order.
+     *
+     * @param message
+     *            The message.
+     * @param fields
+     *            The fields read from the first order.
+     * @throws JMSException
+     *             If the property cannot be set.
+     */
+    private static void setGroupId(final Message message, final String[] fields) throws JMSException {
+        final String account = fields[Field.ACCOUNT.ordinal()];
+        if (account != null) {
+            message.setStringProperty(GROUP_ID_PROPERTY, account);
+        }
+    }
+
+    /**
+     * Records the latency of a stage, if the latencies are measured.
+     *
+     * @param stage
+     *            The stage.
+     * @param elapsedNanos
+     *            The latency.
+     */
+    private void recordLatency(final Stage stage, final long elapsedNanos) {
+        final PipelineLatencies histograms = this.latencies;
+        if (histograms != null) {
+            histograms.record(stage, elapsedNanos);
+        }
+    }
+
+    /**
+     * Counts files uploaded, if the uploads are counted.
+     *
+     * @param fileCount
+     *            The number of files.
+     * @param elapsedNanos
+     *            The time spent uploading them.
+     */
+    private void recordUploads(final int fileCount, final long elapsedNanos) {
+        final PipelineMetrics counters = this.metrics;
+        if ((counters != null) && (fileCount > 0)) {
+            counters.recordUploads(fileCount, elapsedNanos);
+        }
+    }
+
+    /**
+     * Counts a file which could not be uploaded, if the uploads are counted.
+     *
+     * @param cause
+     *            Why it failed.
+     */
+    private void recordFailure(final Throwable cause) {
+        final PipelineMetrics counters = this.metrics;
+        if (counters != null) {
+            counters.recordFailure(cause);
+        }
+    }
+
+    /**
+     * Counts a message handed over to the broker, if the uploads are counted.
+     *
+     * @param payloadBytes
+     *            The size of its payload.
+     */
+    private void recordMessage(final long payloadBytes) {
+        final PipelineMetrics counters = this.metrics;
+        if (counters != null) {
+            counters.recordMessage(payloadBytes);
+        }
+    }
+
+    /**
+     * Gets the destination of a serialised payload.
+     *
+     * @param payload
+     *            The payload.
+     * @return The destination chosen by the router, the destination of the uploader if there is no router or no rule
+     *         matches.
+     * @throws JMSException
+     *             If the payload cannot be parsed by the router.
+     */
+    private Destination routeOf(final String payload) throws JMSException {
+        final OrderRouter rules = this.router;
+        if (rules == null) {
+            return this.getRoute(null);
+        }
+        try {
+            return this.getRoute(rules.route(payload));
+        } catch (final SAXException e) {
+            throw payloadFailure("Failed to route the payload", e);
+        }
+    }
+
+    /**
+     * Gets the destination of an original document.
+     *
+     * @param document
+     *            The bytes of the document.
+     * @return The destination chosen by the router, the destination of the uploader if there is no router or no rule
+     *         matches.
+     * @throws JMSException
+     *             If the document cannot be parsed by the router.
+     */
+    private Destination routeOfDocument(final byte[] document) throws JMSException {
+        final OrderRouter rules = this.router;
+        if (rules == null) {
+            return this.getRoute(null);
+        }
+        try {
+            return this.getRoute(rules.routeDocument(document));
+        } catch (final SAXException e) {
+            throw payloadFailure("Failed to route the payload", e);
+        }
+    }
+
+    /**
+     * Gets the destination of orders in binary format.
+     *
+     * @param orders
+     *            The binary payload.
+     * @return The destination chosen by the router, the destination of the uploader if there is no router or no rule
+     *         matches.
+     * @throws JMSException
+     *             If the payload cannot be decoded by the router.
+     */
+    private Destination routeOfOrders(final byte[] orders) throws JMSException {
+        final OrderRouter rules = this.router;
+        if (rules == null) {
+            return this.getRoute(null);
+        }
+        try {
+            return this.getRoute(rules.routeOrders(orders));
+        } catch (final IllegalArgumentException | BufferUnderflowException e) {
+            throw payloadFailure("Failed to route the payload", e);
+        }
+    }
+
+    /**
+     * Gets a destination from its name, creating it on first use or once evicted from the cache.
+     *
+     * @param destinationName
+     *            The name of the destination, null for the destination of the uploader.
+     * @return The destination.
+     */
+    private Destination getRoute(final String destinationName) {
+        final String name = destinationName == null ? this.getDestinationName() : destinationName;
+        Destination destination = this.routes.getIfPresent(name);
+        if (destination == null) {
+            // Creating it twice when racing another thread is harmless, both destinations are equal
+            destination = this.getDestination(name);
+            this.routes.put(name, destination);
+        }
+        return destination;
+    }
+
+    private static JMSException payloadFailure(final String reason, final Exception cause) {
+        final JMSException failure = new JMSException(reason);
+        failure.initCause(cause);
+        return failure;
+    }
+
+    /**
+     * Computes the deduplication key of a payload.
+     *
+     * @param payload
+     *            The payload.
+     * @return The key, null if no deduplication strategy is set.
+     */
+    private HashCode dedupKey(final String payload) {
+        final DedupStrategy strategy = this.dedupStrategy;
+        return strategy == null ? null : strategy.key(payload);
+    }
+
+    /**
+     * Computes the deduplication key of a document sent as is.
+     *
+     * @param document
+     *            The bytes of the document.
+     * @return The key, null if no deduplication strategy is set.
+     */
+    private HashCode dedupKey(final byte[] document) {
+        final DedupStrategy strategy = this.dedupStrategy;
+        return strategy == null ? null : strategy.key(document);
+    }
+
+    /**
+     * Computes the deduplication key of orders in binary format.
+     *
+     * @param orders
+     *            The binary payload.
+     * @return The key, null if no deduplication strategy is set.
+     */
+    private HashCode dedupKeyOfOrders(final byte[] orders) {
+        final DedupStrategy strategy = this.dedupStrategy;
+        return strategy == null ? null : strategy.keyOfOrders(orders);
+    }
+
+    /**
+     * Tells if a payload has been sent recently.
+     *
+     * @param key
+     *            The deduplication key of the payload, null if it has none.
+     * @return True if the key is in the cache.
+     */
+    private boolean isDuplicate(final HashCode key) {
+        final DedupCache cache = this.dedupCache;
+        return (cache != null) && (key != null) && cache.contains(key.asLong());
+    }
+
+    /**
+     * Adds the key of a payload accepted by the broker to the cache.
+     *
+     * @param key
+     *            The deduplication key of the payload, null if it has none.
+     */
+    private void markSent(final HashCode key) {
+        final DedupCache cache = this.dedupCache;
+        if ((cache != null) && (key != null)) {
+            cache.add(key.asLong());
+        }
+    }
+
+    /**
+     * Reads the bytes of a document and checks that it is well formed, in a single streaming pass which does not build
+     * anything from the content.
+     *
+     * @param stream
+     *            The document.
+     * @return The bytes of the document.
+     * @throws SAXException
+     *             If the document is not well formed.
+     * @throws IOException
+     *             If the document cannot be read.
+     */
+    private static byte[] readRawDocument(final InputStream stream) throws SAXException, IOException {
+        final byte[] document = ByteStreams.toByteArray(stream);
+        final XMLStreamReader reader = ParserCache.createStreamReader(new ByteArrayInputStream(document));
+        try {
+            while (reader.hasNext()) {
+                reader.next();
+            }
+        } catch (final XMLStreamException e) {
+            throw StreamingXmlSerializer.toParseException(e);
+        } finally {
+            try {
+                reader.close();
+            } catch (final XMLStreamException e) {
+                // Nothing left to release
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Serialises an XML document and hands it over as one payload, or as one payload per order if the orders are
+     * split.
+     *
+     * @param stream
+     *            The XML document.
+     * @param sink
+     *            Where to send the payloads.
+     * @throws JMSException
+     *             If the sink fails to send a payload.
+     * @throws ParserConfigurationException
+     *             If the document builder cannot be created.
+     * @throws SAXException
+     *             If the document cannot be properly parsed.
+     * @throws IOException
+     *             If the document cannot be read.
+     */
+    private void sendDocument(final InputStream stream, final PayloadSink payloadSink)
+                    throws JMSException, ParserConfigurationException, SAXException, IOException {
+        final PipelineLatencies histograms = this.latencies;
+        final PayloadSink sink = histograms == null ? payloadSink : new ParseTimingSink(payloadSink, histograms);
+        if (this.payloadFormat == PayloadFormat.RAW) {
+            sink.acceptRaw(readRawDocument(stream));
+        } else if (this.payloadFormat == PayloadFormat.BINARY) {
+            OrderCodec.encodeXml(stream, this.splitOrders, sink);
+        } else if (this.splitOrders) {
+            this.orderSplitter.split(stream, sink);
+        } else {
+            sink.accept(this.serializeFile(stream).toString());
+        }
+    }
+
+    /**
+     * Records the time spent reading each payload from the document: the time until the first payload, then the time
+     * between the end of the handling of a payload and the next one.
+     */
+    private static final class ParseTimingSink implements PayloadSink {
+
+        private final PayloadSink sink;
+
+        private final PipelineLatencies latencies;
+
+        private long readStart = System.nanoTime();
+
+        private ParseTimingSink(final PayloadSink sink, final PipelineLatencies latencies) {
+            this.sink = sink;
+            this.latencies = latencies;
+        }
+
+        @Override
+        public void accept(final String payload) throws JMSException {
+            this.latencies.record(Stage.PARSE, System.nanoTime() - this.readStart);
+            try {
+                this.sink.accept(payload);
+            } finally {
+                this.readStart = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void acceptRaw(final byte[] document) throws JMSException {
+            this.latencies.record(Stage.PARSE, System.nanoTime() - this.readStart);
+            try {
+                this.sink.acceptRaw(document);
+            } finally {
+                this.readStart = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void acceptBinary(final byte[] orders) throws JMSException {
+            this.latencies.record(Stage.PARSE, System.nanoTime() - this.readStart);
+            try {
+                this.sink.acceptBinary(orders);
+            } finally {
+                this.readStart = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Creates the message of each payload and sends it, skipping the payloads sent recently when a deduplication cache
+     * is set.
+     */
+    private abstract class MessageSink implements PayloadSink {
+
+        @Override
+        public final void accept(final String payload) throws JMSException {
+            final HashCode key = FileUploader.this.dedupKey(payload);
+            if (this.isDuplicate(key)) {
+                return;
+            }
+            final Destination destination = FileUploader.this.routeOf(payload);
+            final Session session = this.getSession();
+            final Message message;
+            // A session shared by several threads must not be used concurrently
+            synchronized (session) {
+                message = FileUploader.this.createMessage(session, payload, key);
+            }
+            this.send(destination, message, key);
+            if (FileUploader.this.metrics != null) {
+                FileUploader.this.recordMessage(Utf8.encodedLength(payload));
+            }
+        }
+
+        @Override
+        public final void acceptRaw(final byte[] document) throws JMSException {
+            final HashCode key = FileUploader.this.dedupKey(document);
+            if (this.isDuplicate(key)) {
+                return;
+            }
+            final Destination destination = FileUploader.this.routeOfDocument(document);
+            final Session session = this.getSession();
+            final Message message;
+            synchronized (session) {
+                message = FileUploader.this.createRawMessage(session, document, key);
+            }
+            this.send(destination, message, key);
+            FileUploader.this.recordMessage(document.length);
+        }
+
+        @Override
+        public final void acceptBinary(final byte[] orders) throws JMSException {
+            final HashCode key = FileUploader.this.dedupKeyOfOrders(orders);
+            if (this.isDuplicate(key)) {
+                return;
+            }
+            final Destination destination = FileUploader.this.routeOfOrders(orders);
+            final Session session = this.getSession();
+            final Message message;
+            synchronized (session) {
+                message = FileUploader.this.createBinaryMessage(session, orders, key);
+            }
+            this.send(destination, message, key);
+            FileUploader.this.recordMessage(orders.length);
+        }
+
+        /**
+         * Tells if a payload has been sent recently.
+         *
+         * @param key
+         *            The deduplication key of the payload, null if it has none.
+         * @return True if the payload must be skipped.
+         */
+        boolean isDuplicate(final HashCode key) {
+            return FileUploader.this.isDuplicate(key);
+        }
+
+        /**
+         * @return the session creating the messages
+         */
+        abstract Session getSession();
+
+        /**
+         * Sends a message.
+         *
+         * @param destination
+         *            The destination the message is routed to.
+         * @param message
+         *            The message.
+         * @param key
+         *            The deduplication key of its payload, to add to the cache once the broker has accepted it.
+         * @throws JMSException
+         *             If the message cannot be sent.
+         */
+        abstract void send(Destination destination, Message message, HashCode key) throws JMSException;
+    }
+
+    /**
+     * Sends the records of the outbox, over a connection opened on first use and opened again after a failure.
+     */
+    private final class OutboxSender implements Outbox.Sender {
+
+        private Connection conn;
+
+        private Session session;
+
+        private RouteProducers producers;
+
+        @Override
+        public void send(final String recordId, final PayloadFormat format, final byte[] payload)
+                        throws JMSException {
+            try {
+                if (this.session == null) {
+                    this.conn = FileUploader.this.getConnection();
+                    this.session = this.conn.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                    this.producers = new RouteProducers(this.session);
+                }
+                final Destination destination;
+                final Message message;
+                if (format == PayloadFormat.RAW) {
+                    destination = FileUploader.this.routeOfDocument(payload);
+                    message = FileUploader.this.createRawMessage(this.session, payload,
+                                    FileUploader.this.dedupKey(payload));
+                } else if (format == PayloadFormat.BINARY) {
+                    destination = FileUploader.this.routeOfOrders(payload);
+                    message = FileUploader.this.createBinaryMessage(this.session, payload,
+                                    FileUploader.this.dedupKeyOfOrders(payload));
+                } else {
+                    final String text = new String(payload, StandardCharsets.UTF_8);
+                    destination = FileUploader.this.routeOf(text);
+                    message = FileUploader.this.createMessage(this.session, text, FileUploader.this.dedupKey(text));
+                }
+                message.setStringProperty(Outbox.RECORD_ID_PROPERTY, recordId);
+                // Persistent messages are sent synchronously, the record is accepted once the send returns
+                final long sendStart = System.nanoTime();
+                this.producers.get(destination).send(message);
+                FileUploader.this.recordLatency(Stage.SEND, System.nanoTime() - sendStart);
+                FileUploader.this.recordMessage(payload.length);
+            } catch (final JMSException e) {
+                // The connection may be broken, a new one is opened for the next attempt
+                this.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (this.session != null) {
+                    this.session.close();
+                }
+                if (this.conn != null) {
+                    this.conn.close();
+                }
+            } catch (final JMSException e) {
+                // The connection is dropped anyway
+            } finally {
+                this.session = null;
+                this.conn = null;
+                this.producers = null;
+            }
+        }
+    }
+
+    /**
+     * Files sent in the current transaction.
+     */
+    private final class TransactedBatch extends MessageSink {
+
+        private final BatchUploadReport report;
+
+        private final int batchSize;
+
+        private final long batchIntervalNanos;
+
+        private final List<File> pendingFiles = new ArrayList<>();
+
+        private final Set<HashCode> pendingKeys = new HashSet<>();
+
+        private long pendingBytes;
+
+        private long batchStart;
+
+        private Connection conn;
+
+        private Session session;
+
+        private RouteProducers producers;
+
+        private int messagesOfFile;
+
+        private TransactedBatch(final BatchUploadReport report, final int batchSize, final long batchIntervalNanos) {
+            this.report = report;
+            this.batchSize = batchSize;
+            this.batchIntervalNanos = batchIntervalNanos;
+        }
+
+        /**
+         * Sends a file in the current transaction, committing it if the batch is full. If the file fails to be parsed
+         * after some of its orders have been sent, the transaction is rolled back and the other files of the batch
+         * are sent again.
+         */
+        private void send(final File file) {
+            try {
+                FileUploader.this.validate(file, null);
+            } catch (SAXException | IOException e) {
+                // Nothing of the file is sent yet
+                this.addFailure(file, e);
+                return;
+            }
+            try {
+                if (this.session == null) {
+                    this.conn = FileUploader.this.getConnection();
+                    this.session = this.conn.createSession(true, Session.SESSION_TRANSACTED);
+                    this.producers = new RouteProducers(this.session);
+                }
+            } catch (final JMSException e) {
+                this.addFailure(file, e);
+                this.close(e);
+                return;
+            }
+            if (this.pendingFiles.isEmpty()) {
+                this.batchStart = System.nanoTime();
+            }
+            this.messagesOfFile = 0;
+            try (final FileInputStream fis = new FileInputStream(file)) {
+                FileUploader.this.sendDocument(fis, this);
+            } catch (final JMSException e) {
+                this.addFailure(file, e);
+                this.fail(e);
+                return;
+            } catch (ParserConfigurationException | SAXException | IOException e) {
+                this.addFailure(file, e);
+                if (this.messagesOfFile > 0) {
+                    this.replay();
+                }
+                return;
+            }
+            this.pendingFiles.add(file);
+            this.pendingBytes += file.length();
+            if (this.pendingFiles.size() >= this.batchSize
+                            || System.nanoTime() - this.batchStart >= this.batchIntervalNanos) {
+                this.commit();
+            }
+        }
+
+        @Override
+        boolean isDuplicate(final HashCode key) {
+            return this.pendingKeys.contains(key) || super.isDuplicate(key);
+        }
+
+        @Override
+        Session getSession() {
+            return this.session;
+        }
+
+        @Override
+        void send(final Destination destination, final Message message, final HashCode key) throws JMSException {
+            final long sendStart = System.nanoTime();
+            this.producers.get(destination).send(message);
+            FileUploader.this.recordLatency(Stage.SEND, System.nanoTime() - sendStart);
+            this.messagesOfFile++;
+            if (key != null) {
+                this.pendingKeys.add(key);
+            }
+        }
+
+        /**
+         * Rolls back the current transaction, which holds part of a file which could not be parsed, and sends again
+         * the other files of the batch.
+         */
+        private void replay() {
+            final List<File> files = new ArrayList<>(this.pendingFiles);
+            this.pendingFiles.clear();
+            this.pendingKeys.clear();
+            this.pendingBytes = 0;
+            try {
+                this.session.rollback();
+            } catch (final JMSException e) {
+                for (final File file : files) {
+                    this.addFailure(file, e);
+                }
+                this.close(e);
+                return;
+            }
+            for (final File file : files) {
+                this.send(file);
+            }
+        }
+
+        /**
+         * Commits the current transaction, if any file has been sent.
+         */
+        private void commit() {
+            if (this.pendingFiles.isEmpty()) {
+                return;
+            }
+            try {
+                this.session.commit();
+            } catch (final JMSException e) {
+                this.fail(e);
+                return;
+            }
+            final long elapsed = System.nanoTime() - this.batchStart;
+            this.report.addBatch(this.pendingFiles.size(), this.pendingBytes, elapsed);
+            FileUploader.this.recordUploads(this.pendingFiles.size(), elapsed);
+            for (final HashCode key : this.pendingKeys) {
+                FileUploader.this.markSent(key);
+            }
+            this.pendingFiles.clear();
+            this.pendingKeys.clear();
+            this.pendingBytes = 0;
+        }
+
+        /**
+         * Rolls back the current transaction and reports its files as failed. The session is dropped, as the
+         * connection may be broken, and a new one is used for the next batch.
+         */
+        private void fail(final JMSException cause) {
+            for (final File file : this.pendingFiles) {
+                this.addFailure(file, cause);
+            }
+            this.pendingFiles.clear();
+            this.pendingKeys.clear();
+            this.pendingBytes = 0;
+            if (this.session != null) {
+                try {
+                    this.session.rollback();
+                } catch (final JMSException e) {
+                    // The transaction is lost anyway
+                    cause.addSuppressed(e);
+                }
+            }
+            this.close(cause);
+        }
+
+        /**
+         * Reports a file as failed.
+         */
+        private void addFailure(final File file, final Exception cause) {
+            this.report.addFailure(file, cause);
+            FileUploader.this.recordFailure(cause);
+        }
+
+        /**
+         * Closes the session and the connection of the batch.
+         *
+         * @param cause
+         *            The failure the batch is closed on, which the failure to close is added to as suppressed, null if
+         *            the batch is complete.
+         */
+        private void close(final Exception cause) {
+            try {
+                if (this.session != null) {
+                    this.session.close();
+                }
+                if (this.conn != null) {
+                    this.conn.close();
+                }
+            } catch (final JMSException e) {
+                if (cause == null) {
+                    LOGGER.warn("Cannot close the session of a batch", e);
+                } else {
+                    cause.addSuppressed(e);
+                }
+            } finally {
+                this.session = null;
+                this.conn = null;
+                this.producers = null;
+            }
+        }
+    }
 }
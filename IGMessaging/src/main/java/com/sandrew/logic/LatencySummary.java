@@ -0,0 +1,94 @@
+package com.sandrew.logic;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Percentiles of the latencies of a stage of the pipeline, in microseconds.
+ */
+public final class LatencySummary {
+
+    private final long count;
+
+    private final double mean;
+
+    private final long p50;
+
+    private final long p90;
+
+    private final long p99;
+
+    private final long p999;
+
+    private final long max;
+
+    /**
+     * Reads the percentiles of a histogram.
+     *
+     * @param histogram
+     *            The histogram, in microseconds.
+     */
+    public LatencySummary(final Histogram histogram) {
+        this.count = histogram.getTotalCount();
+        this.mean = this.count == 0 ? 0 : histogram.getMean();
+        this.p50 = histogram.getValueAtPercentile(50);
+        this.p90 = histogram.getValueAtPercentile(90);
+        this.p99 = histogram.getValueAtPercentile(99);
+        this.p999 = histogram.getValueAtPercentile(99.9);
+        this.max = histogram.getMaxValue();
+    }
+
+    /**
+     * @return the number of latencies recorded
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return the mean latency
+     */
+    public double getMean() {
+        return this.mean;
+    }
+
+    /**
+     * @return the median latency
+     */
+    public long getP50() {
+        return this.p50;
+    }
+
+    /**
+     * @return the 90th percentile
+     */
+    public long getP90() {
+        return this.p90;
+    }
+
+    /**
+     * @return the 99th percentile
+     */
+    public long getP99() {
+        return this.p99;
+    }
+
+    /**
+     * @return the 99.9th percentile
+     */
+    public long getP999() {
+        return this.p999;
+    }
+
+    /**
+     * @return the maximum latency
+     */
+    public long getMax() {
+        return this.max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus", this.count, this.p50, this.p90,
+                        this.p99, this.p999, this.max);
+    }
+}
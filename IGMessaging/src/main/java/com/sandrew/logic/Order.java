@@ -0,0 +1,153 @@
+package com.sandrew.logic;
+
+/**
+ * An order, as held by the {@code Order} elements of the files. The instances are mutable so that one of them can be
+ * filled again for each order decoded, without allocating: the text fields are kept in builders reused from one order
+ * to the next.
+ */
+public final class Order {
+
+    /**
+     * Side of an order.
+     */
+    public enum Action {
+
+        /**
+         * Buying order.
+         */
+        BUY,
+
+        /**
+         * Selling order.
+         */
+        SELL
+    }
+
+    private final StringBuilder account = new StringBuilder();
+
+    private long submittedAt;
+
+    private long receivedAt;
+
+    private final StringBuilder market = new StringBuilder();
+
+    private Action action;
+
+    private long size;
+
+    /**
+     * @return the account placing the order, valid until the order is filled again
+     */
+    public CharSequence getAccount() {
+        return this.account;
+    }
+
+    /**
+     * @param account
+     *            the account placing the order, copied
+     */
+    public void setAccount(final CharSequence account) {
+        this.account.setLength(0);
+        this.account.append(account);
+    }
+
+    /**
+     * @return the time the order was submitted, in milliseconds since the epoch
+     */
+    public long getSubmittedAt() {
+        return this.submittedAt;
+    }
+
+    /**
+     * @param submittedAt
+     *            the time the order was submitted, in milliseconds since the epoch
+     */
+    public void setSubmittedAt(final long submittedAt) {
+        this.submittedAt = submittedAt;
+    }
+
+    /**
+     * @return the time the order was received, in milliseconds since the epoch
+     */
+    public long getReceivedAt() {
+        return this.receivedAt;
+    }
+
+    /**
+     * @param receivedAt
+     *            the time the order was received, in milliseconds since the epoch
+     */
+    public void setReceivedAt(final long receivedAt) {
+        this.receivedAt = receivedAt;
+    }
+
+    /**
+     * @return the market of the order, valid until the order is filled again
+     */
+    public CharSequence getMarket() {
+        return this.market;
+    }
+
+    /**
+     * @param market
+     *            the market of the order, copied
+     */
+    public void setMarket(final CharSequence market) {
+        this.market.setLength(0);
+        this.market.append(market);
+    }
+
+    /**
+     * @return the side of the order
+     */
+    public Action getAction() {
+        return this.action;
+    }
+
+    /**
+     * @param action
+     *            the side of the order
+     */
+    public void setAction(final Action action) {
+        this.action = action;
+    }
+
+    /**
+     * @return the size of the order
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * @param size
+     *            the size of the order
+     */
+    public void setSize(final long size) {
+        this.size = size;
+    }
+
+    /**
+     * Gives access to the builder of the account, for the decoder to fill it in place.
+     *
+     * @return The builder of the account.
+     */
+    StringBuilder accountBuilder() {
+        return this.account;
+    }
+
+    /**
+     * Gives access to the builder of the market, for the decoder to fill it in place.
+     *
+     * @return The builder of the market.
+     */
+    StringBuilder marketBuilder() {
+        return this.market;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s %d %s submitted at %d, received at %d", this.account, this.action, this.size,
+                        this.market, this.submittedAt, this.receivedAt);
+    }
+}
@@ -0,0 +1,497 @@
+package com.sandrew.logic;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.jms.JMSException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Compact binary encoding of the orders, sent instead of their XML when the payload format is
+ * {@link PayloadFormat#BINARY}, so that the consumers can read the orders without parsing any XML.
+ * <p>
+ * A payload is a version byte followed by the orders, each of them encoded as:
+ * <ul>
+ * <li>the account, as its UTF-8 length as unsigned varint then its UTF-8 bytes</li>
+ * <li>the submission time, as zigzag varint</li>
+ * <li>the reception time minus the submission time, as zigzag varint</li>
+ * <li>the market, as the account</li>
+ * <li>the action, as its ordinal on one byte</li>
+ * <li>the size, as zigzag varint</li>
+ * </ul>
+ * An order of the sample file takes 23 bytes instead of about 210. Encoding and decoding do not allocate, but for the
+ * growth of the builders of a reused {@link Order}.
+ */
+public final class OrderCodec {
+
+    /**
+     * Version of the encoding, the first byte of a payload.
+     */
+    public static final byte VERSION = 1;
+
+    /**
+     * Name of the element holding the account of an order, spelled as in the order files.
+     */
+    static final String ACCOUNT_ELEMENT = "accont";
+
+    static final String SUBMITTED_AT_ELEMENT = "SubmittedAt";
+
+    static final String RECEIVED_AT_ELEMENT = "ReceivedAt";
+
+    static final String MARKET_ELEMENT = "market";
+
+    static final String ACTION_ELEMENT = "action";
+
+    static final String SIZE_ELEMENT = "size";
+
+    /**
+     * Name of the root element of the XML documents holding several orders decoded.
+     */
+    static final String ORDERS_ELEMENT = "Orders";
+
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+
+    private static final Order.Action[] ACTIONS = Order.Action.values();
+
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private static final int MAX_VARINT_BYTES = 10;
+
+    private static final String[] FIELDS = { ACCOUNT_ELEMENT, SUBMITTED_AT_ELEMENT, RECEIVED_AT_ELEMENT,
+                    MARKET_ELEMENT, ACTION_ELEMENT, SIZE_ELEMENT };
+
+    private static final int ALL_FIELDS = (1 << FIELDS.length) - 1;
+
+    private OrderCodec() {
+    }
+
+    /**
+     * Writes the header of a payload.
+     *
+     * @param buffer
+     *            Where to write the header.
+     * @throws java.nio.BufferOverflowException
+     *             If the buffer is full.
+     */
+    public static void writeHeader(final ByteBuffer buffer) {
+        buffer.put(VERSION);
+    }
+
+    /**
+     * Reads the header of a payload.
+     *
+     * @param buffer
+     *            The payload, positioned at its start.
+     * @throws IllegalArgumentException
+     *             If the payload has another version.
+     * @throws java.nio.BufferUnderflowException
+     *             If the payload is empty.
+     */
+    public static void readHeader(final ByteBuffer buffer) {
+        final byte version = buffer.get();
+        checkArgument(version == VERSION, "Unknown binary order version %s", version);
+    }
+
+    /**
+     * Gets the maximum size of an encoded order.
+     *
+     * @param order
+     *            The order.
+     * @return The maximum number of bytes {@link #encode(Order, ByteBuffer)} writes.
+     */
+    public static int maxEncodedLength(final Order order) {
+        // A char takes at most 3 bytes, a surrogate pair 4
+        return 3 * (order.getAccount().length() + order.getMarket().length()) + 5 * MAX_VARINT_BYTES + 1;
+    }
+
+    /**
+     * Encodes an order.
+     *
+     * @param order
+     *            The order, with an action.
+     * @param buffer
+     *            Where to write the order.
+     * @throws IllegalArgumentException
+     *             If the order has no action.
+     * @throws java.nio.BufferOverflowException
+     *             If the buffer is too small.
+     */
+    public static void encode(final Order order, final ByteBuffer buffer) {
+        checkArgument(order.getAction() != null, "The order has no action");
+        writeString(order.getAccount(), buffer);
+        writeVarLong(zigzag(order.getSubmittedAt()), buffer);
+        writeVarLong(zigzag(order.getReceivedAt() - order.getSubmittedAt()), buffer);
+        writeString(order.getMarket(), buffer);
+        buffer.put((byte) order.getAction().ordinal());
+        writeVarLong(zigzag(order.getSize()), buffer);
+    }
+
+    /**
+     * Decodes the next order of a payload.
+     *
+     * @param buffer
+     *            The payload, positioned at the order.
+     * @param order
+     *            The order to fill.
+     * @throws IllegalArgumentException
+     *             If the order is malformed.
+     * @throws java.nio.BufferUnderflowException
+     *             If the order is truncated.
+     */
+    public static void decode(final ByteBuffer buffer, final Order order) {
+        readString(buffer, order.accountBuilder());
+        final long submittedAt = unzigzag(readVarLong(buffer));
+        order.setSubmittedAt(submittedAt);
+        order.setReceivedAt(submittedAt + unzigzag(readVarLong(buffer)));
+        readString(buffer, order.marketBuilder());
+        final int action = buffer.get();
+        checkArgument(action >= 0 && action < ACTIONS.length, "Unknown action %s", action);
+        order.setAction(ACTIONS[action]);
+        order.setSize(unzigzag(readVarLong(buffer)));
+    }
+
+    /**
+     * Converts the orders of an XML document into binary payloads, reading the document as a stream. An order holds
+     * the six fields of the orders, in any order, and nothing else.
+     *
+     * @param stream
+     *            The XML document.
+     * @param perOrder
+     *            True to hand each order over as its own payload as soon as it is read, false to hand all the orders
+     *            of the document over as one payload.
+     * @param sink
+     *            Where to send the payloads, through {@link PayloadSink#acceptBinary(byte[])}.
+     * @return The number of orders found.
+     * @throws JMSException
+     *             If the sink fails to send a payload.
+     * @throws SAXException
+     *             If the document cannot be properly parsed, holds no order, or an order which cannot be encoded.
+     * @throws IOException
+     *             If the document cannot be read.
+     */
+    public static int encodeXml(final InputStream stream, final boolean perOrder, final PayloadSink sink)
+                    throws JMSException, SAXException, IOException {
+        final Order order = new Order();
+        ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+        writeHeader(buffer);
+        int orders = 0;
+        XMLStreamReader reader = null;
+        try {
+            reader = ParserCache.createStreamReader(stream);
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT
+                                && OrderSplitter.DEFAULT_ORDER_ELEMENT.equals(reader.getLocalName())) {
+                    readOrder(reader, order);
+                    buffer = ensureCapacity(buffer, maxEncodedLength(order));
+                    encode(order, buffer);
+                    orders++;
+                    if (perOrder) {
+                        sink.acceptBinary(Arrays.copyOf(buffer.array(), buffer.position()));
+                        buffer.clear();
+                        writeHeader(buffer);
+                    }
+                }
+            }
+        } catch (final XMLStreamException e) {
+            throw StreamingXmlSerializer.toParseException(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final XMLStreamException e) {
+                    // Nothing left to release
+                }
+            }
+        }
+        if (orders == 0) {
+            throw new SAXException("No " + OrderSplitter.DEFAULT_ORDER_ELEMENT + " element found in the document");
+        }
+        if (!perOrder) {
+            sink.acceptBinary(Arrays.copyOf(buffer.array(), buffer.position()));
+        }
+        return orders;
+    }
+
+    /**
+     * Converts a binary payload back into an XML document: an order element, or an orders element holding them if the
+     * payload holds several orders.
+     *
+     * @param payload
+     *            The payload, positioned at its start.
+     * @return The XML document.
+     * @throws IllegalArgumentException
+     *             If the payload is malformed.
+     * @throws java.nio.BufferUnderflowException
+     *             If the payload is truncated.
+     */
+    public static String toXml(final ByteBuffer payload) {
+        readHeader(payload);
+        final Order order = new Order();
+        final StringBuilder xml = new StringBuilder(XML_DECLARATION);
+        decode(payload, order);
+        final boolean single = !payload.hasRemaining();
+        if (!single) {
+            xml.append('<').append(ORDERS_ELEMENT).append('>');
+        }
+        appendXml(order, xml);
+        while (payload.hasRemaining()) {
+            decode(payload, order);
+            appendXml(order, xml);
+        }
+        if (!single) {
+            xml.append("</").append(ORDERS_ELEMENT).append('>');
+        }
+        return xml.toString();
+    }
+
+    /**
+     * Reads the submission time of a payload holding a single order.
+     *
+     * @param payload
+     *            The payload.
+     * @return The submission time, or -1 if the payload holds several orders.
+     */
+    static long findSubmittedAt(final byte[] payload) {
+        final ByteBuffer buffer = ByteBuffer.wrap(payload);
+        readHeader(buffer);
+        final Order order = new Order();
+        decode(buffer, order);
+        return buffer.hasRemaining() ? -1 : order.getSubmittedAt();
+    }
+
+    /**
+     * Reads the fields of the current order element.
+     *
+     * @param reader
+     *            The reader, positioned at the start of the order.
+     * @param order
+     *            The order to fill.
+     * @throws SAXException
+     *             If the order lacks a field, has another one, or has a value which cannot be encoded.
+     */
+    private static void readOrder(final XMLStreamReader reader, final Order order)
+                    throws XMLStreamException, SAXException {
+        int fields = 0;
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            final String name = reader.getLocalName();
+            final String value = reader.getElementText().trim();
+            final int field = fieldIndex(name);
+            if (field < 0) {
+                throw new SAXException("The " + name + " element of an order cannot be sent in binary format");
+            }
+            fields |= 1 << field;
+            try {
+                switch (name) {
+                case ACCOUNT_ELEMENT:
+                    order.setAccount(value);
+                    break;
+                case SUBMITTED_AT_ELEMENT:
+                    order.setSubmittedAt(Long.parseLong(value));
+                    break;
+                case RECEIVED_AT_ELEMENT:
+                    order.setReceivedAt(Long.parseLong(value));
+                    break;
+                case MARKET_ELEMENT:
+                    order.setMarket(value);
+                    break;
+                case ACTION_ELEMENT:
+                    order.setAction(Order.Action.valueOf(value));
+                    break;
+                default:
+                    order.setSize(Long.parseLong(value));
+                    break;
+                }
+            } catch (final IllegalArgumentException e) {
+                // Thrown for the numbers as well
+                throw new SAXException("Invalid " + name + " of an order: " + value, e);
+            }
+        }
+        if (fields != ALL_FIELDS) {
+            for (int i = 0; i < FIELDS.length; i++) {
+                if ((fields & (1 << i)) == 0) {
+                    throw new SAXException("An order has no " + FIELDS[i] + " element");
+                }
+            }
+        }
+    }
+
+    private static int fieldIndex(final String name) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Appends the XML of an order.
+     *
+     * @param order
+     *            The order.
+     * @param xml
+     *            Where to append it.
+     */
+    private static void appendXml(final Order order, final StringBuilder xml) {
+        xml.append('<').append(OrderSplitter.DEFAULT_ORDER_ELEMENT).append('>');
+        appendElement(xml, ACCOUNT_ELEMENT, order.getAccount());
+        appendElement(xml, SUBMITTED_AT_ELEMENT, Long.toString(order.getSubmittedAt()));
+        appendElement(xml, RECEIVED_AT_ELEMENT, Long.toString(order.getReceivedAt()));
+        appendElement(xml, MARKET_ELEMENT, order.getMarket());
+        appendElement(xml, ACTION_ELEMENT, order.getAction().name());
+        appendElement(xml, SIZE_ELEMENT, Long.toString(order.getSize()));
+        xml.append("</").append(OrderSplitter.DEFAULT_ORDER_ELEMENT).append('>');
+    }
+
+    /**
+     * Appends an element holding text. Only the markup characters are escaped: the other ones, surrogate pairs
+     * included, are kept as they are since the document is encoded as a whole.
+     */
+    private static void appendElement(final StringBuilder xml, final String name, final CharSequence value) {
+        xml.append('<').append(name).append('>');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '&') {
+                xml.append("&amp;");
+            } else if (c == '<') {
+                xml.append("&lt;");
+            } else if (c == '>') {
+                xml.append("&gt;");
+            } else {
+                xml.append(c);
+            }
+        }
+        xml.append("</").append(name).append('>');
+    }
+
+    /**
+     * Gets a buffer with room for more bytes, growing it if needed.
+     *
+     * @param buffer
+     *            The buffer.
+     * @param needed
+     *            The number of bytes to write.
+     * @return The buffer, or a bigger copy of it.
+     */
+    private static ByteBuffer ensureCapacity(final ByteBuffer buffer, final int needed) {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        final ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + needed));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    /**
+     * Writes a string as its UTF-8 length followed by its UTF-8 bytes. An unpaired surrogate is written as a
+     * question mark, as the standard encoder does.
+     */
+    private static void writeString(final CharSequence value, final ByteBuffer buffer) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (isSurrogatePair(value, i)) {
+                length += 4;
+                i++;
+            } else {
+                length += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        writeVarLong(length, buffer);
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (isSurrogatePair(value, i)) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static boolean isSurrogatePair(final CharSequence value, final int index) {
+        return Character.isHighSurrogate(value.charAt(index)) && (index + 1 < value.length())
+                        && Character.isLowSurrogate(value.charAt(index + 1));
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(CharSequence, ByteBuffer)} into a builder, replacing its content.
+     */
+    private static void readString(final ByteBuffer buffer, final StringBuilder value) {
+        final long length = readVarLong(buffer);
+        checkArgument(length >= 0 && length <= buffer.remaining(), "Invalid string length %s", length);
+        final int end = buffer.position() + (int) length;
+        value.setLength(0);
+        while (buffer.position() < end) {
+            final int b = buffer.get();
+            if (b >= 0) {
+                value.append((char) b);
+            } else if ((b & 0xE0) == 0xC0) {
+                value.append((char) (((b & 0x1F) << 6) | (buffer.get() & 0x3F)));
+            } else if ((b & 0xF0) == 0xE0) {
+                value.append((char) (((b & 0x0F) << 12) | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F)));
+            } else {
+                value.appendCodePoint(((b & 0x07) << 18) | ((buffer.get() & 0x3F) << 12)
+                                | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F));
+            }
+        }
+        checkArgument(buffer.position() == end, "Truncated UTF-8 sequence");
+    }
+
+    private static void writeVarLong(final long value, final ByteBuffer buffer) {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            buffer.put((byte) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        buffer.put((byte) remaining);
+    }
+
+    private static long readVarLong(final ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint longer than 64 bits");
+    }
+
+    private static long zigzag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,221 @@
+package com.sandrew.logic;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Reads some text fields of the first order of a payload, to choose how to send the payload without parsing more of it
+ * than needed. The plain orders written by the serialiser are merely scanned, the other XML payloads are read as a
+ * stream until the fields are found, and the binary payloads have their first order decoded. A reader is immutable
+ * and can be shared by several threads.
+ */
+final class OrderFieldReader {
+
+    /**
+     * Text field of an order.
+     */
+    enum Field {
+
+        ACCOUNT(OrderCodec.ACCOUNT_ELEMENT),
+
+        MARKET(OrderCodec.MARKET_ELEMENT),
+
+        ACTION(OrderCodec.ACTION_ELEMENT);
+
+        private final String element;
+
+        private final String startTag;
+
+        private final String endTag;
+
+        Field(final String element) {
+            this.element = element;
+            this.startTag = "<" + element + ">";
+            this.endTag = "</" + element + ">";
+        }
+
+        /**
+         * Reads the field of a decoded order.
+         */
+        private String valueOf(final Order order) {
+            switch (this) {
+            case ACCOUNT:
+                return order.getAccount().toString();
+            case MARKET:
+                return order.getMarket().toString();
+            default:
+                return order.getAction().name();
+            }
+        }
+    }
+
+    private static final Field[] FIELDS = Field.values();
+
+    private static final String ORDER_START = "<" + OrderSplitter.DEFAULT_ORDER_ELEMENT + ">";
+
+    private static final String ORDER_END = "</" + OrderSplitter.DEFAULT_ORDER_ELEMENT + ">";
+
+    private final boolean[] readFields = new boolean[FIELDS.length];
+
+    private final int fieldCount;
+
+    /**
+     * @param fields
+     *            The fields to read.
+     * @throws IllegalArgumentException
+     *             If there is no field to read.
+     */
+    OrderFieldReader(final Set<Field> fields) {
+        checkArgument(!fields.isEmpty(), "No field to read");
+        for (final Field field : fields) {
+            this.readFields[field.ordinal()] = true;
+        }
+        this.fieldCount = fields.size();
+    }
+
+    /**
+     * Reads the fields of a serialised XML payload.
+     *
+     * @param payload
+     *            The payload, holding one order or a document of orders.
+     * @return The values of the fields, by ordinal, null for the fields not read or missing from the first order.
+     * @throws SAXException
+     *             If the payload cannot be properly parsed.
+     */
+    String[] read(final String payload) throws SAXException {
+        final String[] values = this.scan(payload);
+        if (values != null) {
+            return values;
+        }
+        return this.read(ParserCache.createStreamReader(new StringReader(payload)));
+    }
+
+    /**
+     * Reads the fields of an original XML document.
+     *
+     * @param document
+     *            The bytes of the document.
+     * @return The values of the fields, by ordinal, null for the fields not read or missing from the first order.
+     * @throws SAXException
+     *             If the document cannot be properly parsed.
+     */
+    String[] readDocument(final byte[] document) throws SAXException {
+        return this.read(ParserCache.createStreamReader(new ByteArrayInputStream(document)));
+    }
+
+    /**
+     * Reads the fields of orders in binary format, by decoding the first one only.
+     *
+     * @param orders
+     *            The binary payload.
+     * @return The values of the fields, by ordinal, null for the fields not read.
+     * @throws IllegalArgumentException
+     *             If the payload is not in a supported version of the binary format.
+     * @throws java.nio.BufferUnderflowException
+     *             If the payload is truncated.
+     */
+    String[] readOrders(final byte[] orders) {
+        final ByteBuffer buffer = ByteBuffer.wrap(orders);
+        OrderCodec.readHeader(buffer);
+        final Order order = new Order();
+        OrderCodec.decode(buffer, order);
+        final String[] values = new String[FIELDS.length];
+        for (final Field field : FIELDS) {
+            if (this.readFields[field.ordinal()]) {
+                values[field.ordinal()] = field.valueOf(order);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Reads the fields from the first order of a payload without parsing it, which is much cheaper than creating a
+     * stream reader for the small payloads of the orders sent one message per order. Only the plain elements written
+     * by the serialiser are read this way.
+     *
+     * @return The values of the fields, null if the payload must be parsed: the order has attributes, is preceded by
+     *         a comment or a document type, or a field is missing, has attributes or holds markup or entities.
+     */
+    private String[] scan(final String payload) {
+        final int start = payload.indexOf(ORDER_START);
+        final int end = payload.indexOf(ORDER_END, start + 1);
+        if ((start < 0) || (end < 0) || (payload.lastIndexOf("<!", end) >= 0)) {
+            return null;
+        }
+        final String[] values = new String[FIELDS.length];
+        for (final Field field : FIELDS) {
+            if (!this.readFields[field.ordinal()]) {
+                continue;
+            }
+            final int open = payload.indexOf(field.startTag, start);
+            if ((open < 0) || (open > end)) {
+                return null;
+            }
+            final int valueStart = open + field.startTag.length();
+            final int close = payload.indexOf('<', valueStart);
+            if (!payload.startsWith(field.endTag, close) || (payload.lastIndexOf('&', close) >= valueStart)) {
+                return null;
+            }
+            values[field.ordinal()] = payload.substring(valueStart, close).trim();
+        }
+        return values;
+    }
+
+    /**
+     * Reads the fields from the first order of a payload, then closes the reader.
+     */
+    private String[] read(final XMLStreamReader reader) throws SAXException {
+        final String[] values = new String[FIELDS.length];
+        try {
+            int missing = this.fieldCount;
+            boolean inOrder = false;
+            while ((missing > 0) && reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    final String name = reader.getLocalName();
+                    if (OrderSplitter.DEFAULT_ORDER_ELEMENT.equals(name)) {
+                        inOrder = true;
+                    } else if (inOrder) {
+                        final int field = this.fieldIndex(name);
+                        if ((field >= 0) && (values[field] == null)) {
+                            values[field] = reader.getElementText().trim();
+                            missing--;
+                        }
+                    }
+                } else if ((event == XMLStreamConstants.END_ELEMENT)
+                                && OrderSplitter.DEFAULT_ORDER_ELEMENT.equals(reader.getLocalName())) {
+                    // Only the first order is read
+                    break;
+                }
+            }
+        } catch (final XMLStreamException e) {
+            throw StreamingXmlSerializer.toParseException(e);
+        } finally {
+            try {
+                reader.close();
+            } catch (final XMLStreamException e) {
+                // Nothing left to release
+            }
+        }
+        return values;
+    }
+
+    private int fieldIndex(final String element) {
+        for (final Field field : FIELDS) {
+            if (this.readFields[field.ordinal()] && field.element.equals(element)) {
+                return field.ordinal();
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,21 @@
+package com.sandrew.logic;
+
+/**
+ * Processes the files received from the broker, taking the orders sent in binary format as decoded orders, without
+ * any XML parsing. The other handlers get the binary orders converted back into XML.
+ */
+public interface OrderHandler extends FileHandler {
+
+    /**
+     * Processes an order sent in binary format, once per order of the message. When the receiver runs several
+     * consumers, this method is called concurrently.
+     *
+     * @param order
+     *            The order. It is filled again with the next order received by the consumer, it must not be used once
+     *            the method returns.
+     * @throws Exception
+     *             If the order cannot be processed. The whole message is redelivered, including the orders already
+     *             processed, in the modes which allow it.
+     */
+    void handleOrder(Order order) throws Exception;
+}
@@ -0,0 +1,237 @@
+package com.sandrew.logic;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.xml.sax.SAXException;
+
+import com.google.common.base.CharMatcher;
+import com.sandrew.logic.OrderFieldReader.Field;
+
+/**
+ * Chooses the destination of each message from the content of its order, so that the orders can be fanned out, for
+ * instance one destination per market or per side, and their consumers scaled independently.
+ * <p>
+ * The rules are separated by semicolons and each of them reads {@code field=value->destination}:
+ * <ul>
+ * <li>the field is account, market or action</li>
+ * <li>the value is compared to the field of the order, {@code *} matching any value</li>
+ * <li>the destination is the name of a queue, or of a topic if the uploader posts to a topic, in which {@code {}} is
+ * replaced by the value of the field</li>
+ * </ul>
+ * As the values come from the documents, a value is only put in a destination name if it is made of letters, digits,
+ * underscores, dots and dashes; a rule matching any value does not match the other values.
+ * The first rule matching the order wins, and the message is sent to the destination of the uploader if none matches.
+ * For instance {@code action=SELL->orders.sell; market=*->orders.{}} sends the selling orders to orders.sell and the
+ * other ones to one destination per market.
+ * <p>
+ * The rules are compiled once: the consecutive rules on the same field are looked up in a single map. Only the fields
+ * used by the rules are read from a payload, which is merely scanned when it is a plain serialised order, and read as
+ * a stream only until they are found otherwise. A message holding several orders is routed by its first order, so
+ * fanning out is meant for the orders sent one message per order. A router is immutable and can be shared by several
+ * uploaders.
+ */
+public final class OrderRouter {
+
+    private static final Field[] FIELDS = Field.values();
+
+    private static final String ANY_VALUE = "*";
+
+    private static final String PLACEHOLDER = "{}";
+
+    private static final String ARROW = "->";
+
+    private static final CharMatcher DESTINATION_CHARS = CharMatcher.inRange('a', 'z').or(CharMatcher.inRange('A', 'Z'))
+                    .or(CharMatcher.inRange('0', '9')).or(CharMatcher.anyOf("_.-")).precomputed();
+
+    private final String rules;
+
+    private final Route[] routes;
+
+    private final OrderFieldReader reader;
+
+    /**
+     * Compiles routing rules.
+     *
+     * @param rules
+     *            The rules, in the format described above.
+     * @throws IllegalArgumentException
+     *             If there is no rule, or a rule is malformed or has an unknown field.
+     */
+    public OrderRouter(final String rules) {
+        checkArgument(StringUtils.isNotBlank(rules), "No routing rule");
+        this.rules = rules.trim();
+        final List<Route> compiled = new ArrayList<>();
+        final Set<Field> usedFields = EnumSet.noneOf(Field.class);
+        Route current = null;
+        for (final String rule : StringUtils.split(rules, ';')) {
+            if (StringUtils.isBlank(rule)) {
+                continue;
+            }
+            final int equals = rule.indexOf('=');
+            final int arrow = rule.indexOf(ARROW, equals + 1);
+            checkArgument(equals > 0 && arrow > equals, "Routing rule not of the form field=value->destination: %s",
+                            rule);
+            final Field field = parseField(rule.substring(0, equals).trim());
+            final String value = rule.substring(equals + 1, arrow).trim();
+            final String destination = rule.substring(arrow + ARROW.length()).trim();
+            checkArgument(!value.isEmpty() && !destination.isEmpty(), "Incomplete routing rule: %s", rule);
+            if ((current == null) || (current.field != field) || current.matchesAny()) {
+                current = new Route(field);
+                compiled.add(current);
+            }
+            if (ANY_VALUE.equals(value)) {
+                current.setAnyDestination(destination);
+            } else {
+                checkArgument(!destination.contains(PLACEHOLDER), "Only the rules matching any value can use %s: %s",
+                                PLACEHOLDER, rule);
+                current.addDestination(value, destination);
+            }
+            usedFields.add(field);
+        }
+        checkArgument(!compiled.isEmpty(), "No routing rule");
+        this.routes = compiled.toArray(new Route[compiled.size()]);
+        this.reader = new OrderFieldReader(usedFields);
+    }
+
+    /**
+     * @return the rules, as given
+     */
+    public String getRules() {
+        return this.rules;
+    }
+
+    /**
+     * Routes a serialised XML payload.
+     *
+     * @param payload
+     *            The payload, holding one order or a document of orders.
+     * @return The name of the destination of the payload, null if no rule matches.
+     * @throws SAXException
+     *             If the payload cannot be properly parsed.
+     */
+    public String route(final String payload) throws SAXException {
+        return this.route(this.reader.read(payload));
+    }
+
+    /**
+     * Routes an original XML document.
+     *
+     * @param document
+     *            The bytes of the document.
+     * @return The name of the destination of the document, null if no rule matches.
+     * @throws SAXException
+     *             If the document cannot be properly parsed.
+     */
+    public String routeDocument(final byte[] document) throws SAXException {
+        return this.route(this.reader.readDocument(document));
+    }
+
+    /**
+     * Routes orders in binary format, by decoding the first one only.
+     *
+     * @param orders
+     *            The binary payload.
+     * @return The name of the destination of the orders, null if no rule matches.
+     * @throws IllegalArgumentException
+     *             If the payload is not in a supported version of the binary format.
+     * @throws java.nio.BufferUnderflowException
+     *             If the payload is truncated.
+     */
+    public String routeOrders(final byte[] orders) {
+        return this.route(this.reader.readOrders(orders));
+    }
+
+    @Override
+    public String toString() {
+        return this.rules;
+    }
+
+    /**
+     * Applies the rules to the fields of an order.
+     */
+    private String route(final String[] values) {
+        for (final Route route : this.routes) {
+            final String value = values[route.field.ordinal()];
+            if (value != null) {
+                final String destination = route.destinationOf(value);
+                if (destination != null) {
+                    return destination;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Field parseField(final String name) {
+        for (final Field field : FIELDS) {
+            if (field.name().equalsIgnoreCase(name)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Unknown field to route on: " + name);
+    }
+
+    /**
+     * Consecutive rules on the same field, the rule matching any value coming last.
+     */
+    private static final class Route {
+
+        private final Field field;
+
+        private final Map<String, String> destinations = new HashMap<>();
+
+        private String anyPrefix;
+
+        private String anySuffix;
+
+        private Route(final Field field) {
+            this.field = field;
+        }
+
+        private boolean matchesAny() {
+            return this.anyPrefix != null;
+        }
+
+        private void addDestination(final String value, final String destination) {
+            // The first rule wins
+            if (!this.destinations.containsKey(value)) {
+                this.destinations.put(value, destination);
+            }
+        }
+
+        private void setAnyDestination(final String destination) {
+            final int placeholder = destination.indexOf(PLACEHOLDER);
+            if (placeholder < 0) {
+                this.anyPrefix = destination;
+            } else {
+                this.anyPrefix = destination.substring(0, placeholder);
+                this.anySuffix = destination.substring(placeholder + PLACEHOLDER.length());
+            }
+        }
+
+        /**
+         * @return the destination of a value, null if no rule matches it
+         */
+        private String destinationOf(final String value) {
+            final String destination = this.destinations.get(value);
+            if ((destination != null) || (this.anyPrefix == null)) {
+                return destination;
+            }
+            if (this.anySuffix == null) {
+                return this.anyPrefix;
+            }
+            if (value.isEmpty() || !DESTINATION_CHARS.matchesAllOf(value)) {
+                return null;
+            }
+            return this.anyPrefix + value + this.anySuffix;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.sandrew.logic;
+
+import java.io.IOException;
+import java.net.URL;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Schema of the order documents, validating a document before any of its orders is sent. Compiling the schema costs
+ * far more than validating a small file, so it is compiled once, when the validation is first enabled, and shared by
+ * every thread. The validators are not thread safe: each thread keeps its own and resets it before each use.
+ * <p>
+ * The schema is compiled outside of the class initialiser, so that a missing or invalid schema fails each call with
+ * an {@link IllegalStateException} instead of leaving the class unusable.
+ */
+final class OrderSchema {
+
+    private static final String SCHEMA_RESOURCE = "order.xsd";
+
+    private static volatile Schema schema;
+
+    private static final ThreadLocal<Validator> VALIDATORS = new ThreadLocal<>();
+
+    private OrderSchema() {
+    }
+
+    /**
+     * Validates a document as it is read, without building it in memory.
+     *
+     * @param document
+     *            The document.
+     * @throws SAXException
+     *             If the document is not well formed or is not valid, with the location of the first error.
+     * @throws IOException
+     *             If the document cannot be read.
+     * @throws IllegalStateException
+     *             If the schema is missing or invalid.
+     */
+    static void validate(final Source document) throws SAXException, IOException {
+        Validator validator = VALIDATORS.get();
+        if (validator == null) {
+            validator = getSchema().newValidator();
+            VALIDATORS.set(validator);
+        } else {
+            validator.reset();
+        }
+        validator.validate(document);
+    }
+
+    /**
+     * Gets the schema, compiling it on the first call, so that a missing or invalid schema is reported as soon as the
+     * validation is enabled rather than on the first upload.
+     *
+     * @return The compiled schema, which is thread safe.
+     * @throws IllegalStateException
+     *             If the schema is missing or invalid.
+     */
+    static Schema getSchema() {
+        Schema compiled = schema;
+        if (compiled == null) {
+            synchronized (OrderSchema.class) {
+                compiled = schema;
+                if (compiled == null) {
+                    compiled = compile();
+                    schema = compiled;
+                }
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Compiles the schema from the class path.
+     *
+     * @return The compiled schema.
+     * @throws IllegalStateException
+     *             If the schema is missing or invalid.
+     */
+    private static Schema compile() {
+        final URL resource = OrderSchema.class.getResource(SCHEMA_RESOURCE);
+        if (resource == null) {
+            throw new IllegalStateException("The schema " + SCHEMA_RESOURCE + " is not on the class path");
+        }
+        try {
+            return SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(resource);
+        } catch (final SAXException e) {
+            throw new IllegalStateException("The schema " + SCHEMA_RESOURCE + " is invalid", e);
+        }
+    }
+}
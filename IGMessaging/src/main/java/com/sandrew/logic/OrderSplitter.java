@@ -0,0 +1,152 @@
+package com.sandrew.logic;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.jms.JMSException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang.StringUtils;
+import org.xml.sax.SAXException;
+
+/**
+ * Splits an XML document holding many orders into one document per order. The document is read as a stream and every
+ * order is handed over as soon as its end tag is parsed, so that only one order is held in memory at a time and the
+ * first orders can be sent while the rest of the document is still being read.
+ */
+public final class OrderSplitter {
+
+    /**
+     * Name of the element holding an order.
+     */
+    public static final String DEFAULT_ORDER_ELEMENT = "Order";
+
+    private final String orderElement;
+
+    /**
+     * Creates a splitter of the {@value #DEFAULT_ORDER_ELEMENT} elements.
+     */
+    public OrderSplitter() {
+        this(DEFAULT_ORDER_ELEMENT);
+    }
+
+    /**
+     * Creates a splitter.
+     *
+     * @param orderElement
+     *            The local name of the elements to extract.
+     * @throws IllegalArgumentException
+     *             If the element name is blank or null.
+     */
+    public OrderSplitter(final String orderElement) {
+        checkArgument(StringUtils.isNotBlank(orderElement));
+        this.orderElement = orderElement;
+    }
+
+    /**
+     * Splits a document. The orders nested in an order are not extracted on their own. Each order declares the
+     * namespaces its ancestors declared, so that it stays namespace well-formed on its own. Since the orders are
+     * handed over while the document is read, the ones before a malformed part of the document have already been
+     * accepted by the sink when the parsing error is raised.
+     *
+     * @param stream
+     *            The XML document.
+     * @param sink
+     *            Where to send each order, serialised as a standalone document.
+     * @return The number of orders found.
+     * @throws JMSException
+     *             If the sink fails to send an order.
+     * @throws SAXException
+     *             If the document cannot be properly parsed, or holds no order.
+     * @throws IOException
+     *             If the document cannot be read.
+     */
+    public int split(final InputStream stream, final PayloadSink sink)
+                    throws JMSException, SAXException, IOException {
+        int orders = 0;
+        XMLStreamReader reader = null;
+        // Namespaces declared by each element enclosing the current position, the innermost first
+        final Deque<Map<String, String>> ancestorNamespaces = new ArrayDeque<>();
+        try {
+            reader = ParserCache.createStreamReader(stream);
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (this.orderElement.equals(reader.getLocalName())) {
+                        // The whole order is read, up to its end tag
+                        final StringWriter order = new StringWriter();
+                        StreamingXmlSerializer.serializeElement(reader, order, inScope(ancestorNamespaces));
+                        sink.accept(order.toString());
+                        orders++;
+                    } else {
+                        ancestorNamespaces.push(declaredNamespaces(reader));
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    ancestorNamespaces.pop();
+                }
+            }
+        } catch (final XMLStreamException e) {
+            throw StreamingXmlSerializer.toParseException(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final XMLStreamException e) {
+                    // Nothing left to release
+                }
+            }
+        }
+        if (orders == 0) {
+            throw new SAXException("No " + this.orderElement + " element found in the document");
+        }
+        return orders;
+    }
+
+    /**
+     * Gets the namespaces declared by the current element.
+     *
+     * @return The namespace URIs by prefix, the empty prefix being the default namespace.
+     */
+    private static Map<String, String> declaredNamespaces(final XMLStreamReader reader) {
+        if (reader.getNamespaceCount() == 0) {
+            return Collections.emptyMap();
+        }
+        final Map<String, String> namespaces = new HashMap<>();
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            namespaces.put(StringUtils.defaultString(reader.getNamespacePrefix(i)),
+                            StringUtils.defaultString(reader.getNamespaceURI(i)));
+        }
+        return namespaces;
+    }
+
+    /**
+     * Gets the namespaces in scope below the elements.
+     *
+     * @param ancestorNamespaces
+     *            The namespaces declared by each element, the innermost first.
+     * @return The namespace URIs by prefix, without the default namespace if it is undeclared.
+     */
+    private static Map<String, String> inScope(final Deque<Map<String, String>> ancestorNamespaces) {
+        // Sorted so that the same order is always written the same way
+        final Map<String, String> namespaces = new TreeMap<>();
+        for (final Iterator<Map<String, String>> it = ancestorNamespaces.descendingIterator(); it.hasNext();) {
+            namespaces.putAll(it.next());
+        }
+        if (StringUtils.EMPTY.equals(namespaces.get(StringUtils.EMPTY))) {
+            namespaces.remove(StringUtils.EMPTY);
+        }
+        return namespaces;
+    }
+}
@@ -0,0 +1,781 @@
+package com.sandrew.logic;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.jms.JMSException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Journal of the payloads waiting to be sent to the broker, kept on the local disk so that the uploads go on while the
+ * broker is down. The payloads are appended to memory mapped segment files, at the speed of the local disk, and a
+ * drain thread sends them to the broker in order, retrying with an exponential backoff until the broker accepts them.
+ * A checkpoint records the position of the first payload not sent yet, and the journal is resumed from there when the
+ * outbox is opened again after a restart. The segments are deleted once all their payloads are sent.
+ * <p>
+ * A payload is appended once the whole file holding it has been parsed. It survives the crash of the process as soon
+ * as it is appended, as the operating system writes the mapped pages back to the disk, and the crash of the machine
+ * only if the writes are forced. An append interrupted by a crash is detected by its checksum and dropped when the
+ * outbox is opened again.
+ * <p>
+ * A payload is sent at least once, not exactly once: if the process stops after a payload has been sent but before the
+ * checkpoint has moved past it, it is sent again on restart, and the broker gets two copies. The outbox does not drop
+ * them itself. Every attempt carries the same {@link #RECORD_ID_PROPERTY} property, so that the receiver can drop the
+ * copies, as {@link FileReceiver} does when given a {@link DedupCache}.
+ */
+public final class Outbox implements AutoCloseable {
+
+    /**
+     * Name of the message property identifying a payload of the outbox, the same on every attempt to send it.
+     */
+    public static final String RECORD_ID_PROPERTY = "IGOutboxRecordId";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Outbox.class);
+
+    /**
+     * Default size of a segment file, in bytes.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final long INITIAL_RETRY_DELAY_MILLIS = 100;
+
+    private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final long STOP_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * A record starts with the length of its body, which is written last, and the checksum of its body. The body is
+     * the ordinal of the payload format followed by the payload.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * A checkpoint is written alternately in two slots, so that a torn write leaves the previous one intact. A slot
+     * holds a sequence number, the segment and the position of the first record not sent, and their checksum.
+     */
+    private static final int CHECKPOINT_SLOT_SIZE = 24;
+
+    private static final int CHECKPOINT_CONTENT_SIZE = 20;
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private static final String LOCK_FILE = "lock";
+
+    private static final String ID_FILE = "outbox.id";
+
+    private static final PayloadFormat[] FORMATS = PayloadFormat.values();
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final String outboxId;
+
+    private final FileChannel lockChannel;
+
+    private final FileLock lock;
+
+    private final MappedByteBuffer checkpoint;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    private final OutboxStatistics statistics = new OutboxStatistics();
+
+    private Segment writeSegment;
+
+    private int writePosition;
+
+    private Segment readSegment;
+
+    private int readPosition;
+
+    private long checkpointSequence;
+
+    /**
+     * Only changed under the lock, but read without it, so that a status display never waits for an append.
+     */
+    private volatile long pendingRecords;
+
+    private boolean forceWrites = false;
+
+    private boolean closed = false;
+
+    /**
+     * True once the journal is flushed by {@link #close()}, after which the drain thread must not touch it even if it
+     * has not stopped in time.
+     */
+    private boolean journalClosed = false;
+
+    private Sender sender;
+
+    private Thread drainThread;
+
+    /**
+     * Opens the outbox of a directory with segments of the default size, creating it if needed.
+     *
+     * @param directory
+     *            The directory of the journal.
+     * @throws IOException
+     *             If the journal cannot be read or created, or is already opened.
+     */
+    public Outbox(final File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the outbox of a directory, creating it if needed. The records which were not sent when it was closed are
+     * found again, and will be sent once an uploader drains the outbox.
+     *
+     * @param directory
+     *            The directory of the journal.
+     * @param segmentSize
+     *            Size of a segment file in bytes. A payload larger than that gets a segment of its own.
+     * @throws IOException
+     *             If the journal cannot be read or created, or is already opened by this process or another one.
+     * @throws IllegalArgumentException
+     *             If the segment size cannot hold a record.
+     */
+    public Outbox(final File directory, final int segmentSize) throws IOException {
+        checkArgument(segmentSize > HEADER_SIZE, "The segments must be larger than %s bytes", HEADER_SIZE);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create the outbox directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.lockChannel = FileChannel.open(new File(directory, LOCK_FILE).toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE);
+        try {
+            this.lock = this.lockChannel.tryLock();
+            if (this.lock == null) {
+                throw new IOException("The outbox " + directory + " is used by another process");
+            }
+            this.outboxId = this.readOutboxId();
+            this.checkpoint = this.mapCheckpoint();
+            this.recover();
+        } catch (IOException | RuntimeException e) {
+            this.lockChannel.close();
+            if (e instanceof OverlappingFileLockException) {
+                throw new IOException("The outbox " + directory + " is already opened", e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the directory of the journal
+     */
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * @return the statistics of the appends and of the drain
+     */
+    public OutboxStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    /**
+     * @return the number of records appended but not sent yet
+     */
+    public long getPendingRecords() {
+        return this.pendingRecords;
+    }
+
+    /**
+     * @return true if every append and checkpoint is flushed to the disk
+     */
+    public synchronized boolean isForceWrites() {
+        return this.forceWrites;
+    }
+
+    /**
+     * @param forceWrites
+     *            true to flush every append and checkpoint to the disk, so that they survive the crash of the machine
+     *            and not only the crash of the process. A flush costs a disk write, which is much slower than the
+     *            append itself. False by default.
+     */
+    public synchronized void setForceWrites(final boolean forceWrites) {
+        this.forceWrites = forceWrites;
+    }
+
+    /**
+     * Appends payloads to the journal and wakes the drain thread up. The payloads are appended all together or not at
+     * all: if one of them cannot be written, the ones before it are dropped.
+     *
+     * @param records
+     *            The payloads, appended in order.
+     * @throws IOException
+     *             If a new segment file cannot be created, in which case none of the payloads is appended.
+     * @throws IllegalStateException
+     *             If the outbox is closed.
+     */
+    void append(final List<Record> records) throws IOException {
+        final long start = System.nanoTime();
+        synchronized (this) {
+            checkState(!this.closed, "The outbox %s is closed", this.directory);
+            // The drain thread does not see the records before the lock is released, so they can still be dropped
+            final Segment firstSegment = this.writeSegment;
+            final int firstPosition = this.writePosition;
+            try {
+                for (final Record record : records) {
+                    this.write(record);
+                }
+                if (this.forceWrites) {
+                    this.writeSegment.buffer.force();
+                }
+            } catch (IOException | RuntimeException e) {
+                this.rollBack(firstSegment, firstPosition);
+                throw e;
+            }
+            this.pendingRecords += records.size();
+            this.notifyAll();
+        }
+        this.statistics.recordAppend(records.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Starts the thread sending the records to the broker.
+     *
+     * @param recordSender
+     *            What sends a record to the broker.
+     * @throws IllegalStateException
+     *             If the outbox is closed or already drained.
+     */
+    synchronized void startDrain(final Sender recordSender) {
+        checkState(!this.closed, "The outbox %s is closed", this.directory);
+        checkState(this.drainThread == null, "The outbox %s is already drained by another uploader", this.directory);
+        this.sender = recordSender;
+        this.drainThread = new ThreadFactoryBuilder().setNameFormat("outbox-drain-%d").setDaemon(true).build()
+                        .newThread(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                Outbox.this.drain();
+                            }
+                        });
+        this.drainThread.start();
+    }
+
+    /**
+     * Stops the drain thread and closes the journal. The records not sent yet stay in the journal and are sent after
+     * the outbox is opened again. A drain thread blocked in a send for longer than 10 seconds has its connection
+     * closed, and the record being sent is sent again after the outbox is opened again.
+     *
+     * @throws IOException
+     *             If the lock of the directory cannot be released.
+     */
+    @Override
+    public void close() throws IOException {
+        final Thread thread;
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.notifyAll();
+            thread = this.drainThread;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            Uninterruptibles.joinUninterruptibly(thread, STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (thread.isAlive()) {
+                LOGGER.warn("The drain thread of the outbox {} is still sending after {} ms, closing its connection",
+                                this.directory, STOP_TIMEOUT_MILLIS);
+            }
+            this.sender.close();
+        }
+        synchronized (this) {
+            this.journalClosed = true;
+            for (final Segment segment : this.segments.values()) {
+                segment.buffer.force();
+            }
+            this.checkpoint.force();
+        }
+        try {
+            this.lock.release();
+        } finally {
+            this.lockChannel.close();
+        }
+    }
+
+    /**
+     * Sends the records until the outbox is closed, each one until the broker accepts it.
+     */
+    private void drain() {
+        try {
+            Record record;
+            while ((record = this.nextRecord()) != null) {
+                long delayMillis = INITIAL_RETRY_DELAY_MILLIS;
+                while (!this.trySend(record, delayMillis == INITIAL_RETRY_DELAY_MILLIS)) {
+                    this.statistics.recordRetry();
+                    if (!this.awaitRetry(delayMillis)) {
+                        // Closed, the record is sent again after a restart
+                        return;
+                    }
+                    delayMillis = Math.min(delayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+                }
+                this.completed(record);
+                this.statistics.recordDrain();
+            }
+        } catch (final InterruptedException e) {
+            // Closed, the record being sent is sent again after a restart
+        }
+    }
+
+    /**
+     * Waits before the next attempt to send a record, unless the outbox is closed meanwhile. The interruption of the
+     * drain thread is not relied upon, as the client of the broker may swallow it.
+     *
+     * @param delayMillis
+     *            The delay before the next attempt.
+     * @return True if the record should be sent again, false if the outbox is closed.
+     * @throws InterruptedException
+     *             If the drain thread is interrupted while waiting.
+     */
+    private synchronized boolean awaitRetry(final long delayMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        while (!this.closed && (remainingNanos > 0)) {
+            TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+            remainingNanos = deadline - System.nanoTime();
+        }
+        return !this.closed;
+    }
+
+    /**
+     * Attempts to send a record.
+     *
+     * @param record
+     *            The record.
+     * @param firstAttempt
+     *            True to report the failure, which is not reported again for the next attempts.
+     * @return True if the broker accepted the record.
+     */
+    private boolean trySend(final Record record, final boolean firstAttempt) {
+        try {
+            this.sender.send(this.outboxId + ':' + record.segment + ':' + record.position, record.format,
+                            record.payload);
+            return true;
+        } catch (JMSException | RuntimeException e) {
+            if (firstAttempt) {
+                LOGGER.warn("Failed to send a record of the outbox {}, retrying until the broker accepts it",
+                                this.directory, e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Waits for the next record to send, deleting the segments left behind.
+     *
+     * @return The record, or null if the outbox is closed.
+     * @throws InterruptedException
+     *             If the outbox is closed while waiting.
+     */
+    private synchronized Record nextRecord() throws InterruptedException {
+        while (!this.closed && !this.journalClosed) {
+            if ((this.readSegment == this.writeSegment) && (this.readPosition == this.writePosition)) {
+                this.wait();
+                continue;
+            }
+            final ByteBuffer buffer = this.readSegment.buffer.duplicate();
+            final int length = this.readPosition + HEADER_SIZE <= buffer.capacity() ? buffer.getInt(this.readPosition)
+                            : 0;
+            if (length == 0) {
+                // The rest of the segment was too small for the next record, which starts the next segment
+                final Segment drained = this.readSegment;
+                this.readSegment = this.segments.higherEntry(drained.index).getValue();
+                this.readPosition = 0;
+                this.writeCheckpoint();
+                this.segments.remove(drained.index);
+                unmap(drained.buffer);
+                if (!drained.file.delete()) {
+                    LOGGER.error("Failed to delete the drained outbox segment {}", drained.file);
+                }
+                continue;
+            }
+            buffer.position(this.readPosition + HEADER_SIZE);
+            final PayloadFormat format = FORMATS[buffer.get()];
+            final byte[] payload = new byte[length - 1];
+            buffer.get(payload);
+            return new Record(this.readSegment.index, this.readPosition, format, payload);
+        }
+        return null;
+    }
+
+    /**
+     * Moves the checkpoint past a record sent to the broker.
+     *
+     * @param record
+     *            The record, the one at the checkpoint.
+     */
+    private synchronized void completed(final Record record) {
+        if (this.journalClosed) {
+            // The outbox was closed during the send, the record is sent again after a restart
+            return;
+        }
+        this.readPosition = record.position + HEADER_SIZE + 1 + record.payload.length;
+        this.pendingRecords--;
+        this.writeCheckpoint();
+    }
+
+    /**
+     * Drops the records of a failed append, so that they are neither sent nor found again after a restart. The
+     * segments created by the append are deleted and the end of the journal is moved back to where the append started.
+     *
+     * @param firstSegment
+     *            The segment written when the append started.
+     * @param firstPosition
+     *            The position of the first record of the append in that segment.
+     */
+    private void rollBack(final Segment firstSegment, final int firstPosition) {
+        while (this.segments.lastKey() > firstSegment.index) {
+            final Segment created = this.segments.pollLastEntry().getValue();
+            // Emptied first, in case the file cannot be deleted and is opened again after a restart
+            created.buffer.putInt(0, 0);
+            unmap(created.buffer);
+            if (!created.file.delete()) {
+                LOGGER.error("Failed to delete the outbox segment {} of a failed append", created.file);
+            }
+        }
+        if (firstPosition + HEADER_SIZE <= firstSegment.buffer.capacity()) {
+            firstSegment.buffer.putInt(firstPosition, 0);
+            if (this.forceWrites) {
+                firstSegment.buffer.force();
+            }
+        }
+        this.writeSegment = firstSegment;
+        this.writePosition = firstPosition;
+    }
+
+    /**
+     * Writes a record at the end of the journal, in a new segment if it does not fit in the current one. The body is
+     * written first and its length last, followed by an empty header, so that a record is only seen once complete.
+     *
+     * @param record
+     *            The record.
+     * @throws IOException
+     *             If a new segment file cannot be created.
+     */
+    private void write(final Record record) throws IOException {
+        final int recordSize = HEADER_SIZE + 1 + record.payload.length;
+        if (this.writePosition + recordSize > this.writeSegment.buffer.capacity()) {
+            if (this.forceWrites) {
+                this.writeSegment.buffer.force();
+            }
+            this.writeSegment = this.createSegment(this.writeSegment.index + 1,
+                            Math.max(this.segmentSize, recordSize + HEADER_SIZE));
+            this.writePosition = 0;
+        }
+        final ByteBuffer buffer = this.writeSegment.buffer.duplicate();
+        buffer.position(this.writePosition + HEADER_SIZE);
+        buffer.put((byte) record.format.ordinal());
+        buffer.put(record.payload);
+        if (buffer.remaining() >= HEADER_SIZE) {
+            buffer.putInt(0);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(record.format.ordinal());
+        crc.update(record.payload);
+        buffer.putInt(this.writePosition + 4, (int) crc.getValue());
+        buffer.putInt(this.writePosition, 1 + record.payload.length);
+        this.writePosition += recordSize;
+    }
+
+    /**
+     * Opens the segments left by the previous run, deletes the ones already sent and finds the end of the journal.
+     *
+     * @throws IOException
+     *             If a segment cannot be read.
+     */
+    private void recover() throws IOException {
+        final File[] files = this.directory.listFiles(new FileFilter() {
+
+            @Override
+            public boolean accept(final File file) {
+                return file.isFile() && file.getName().endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Failed to list the outbox directory " + this.directory);
+        }
+        for (final File file : files) {
+            final String name = file.getName();
+            final long index = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            this.segments.put(index, this.openSegment(index, file));
+        }
+
+        final long[] checkpointed = this.readCheckpoint();
+        while (!this.segments.isEmpty() && (this.segments.firstKey() < checkpointed[0])) {
+            final Segment drained = this.segments.pollFirstEntry().getValue();
+            unmap(drained.buffer);
+            if (!drained.file.delete()) {
+                throw new IOException("Failed to delete the drained outbox segment " + drained.file);
+            }
+        }
+        if (this.segments.isEmpty()) {
+            // The indexes are never reused, as they identify the records sent before
+            this.writeSegment = this.createSegment(Math.max(checkpointed[0] + 1, 0), this.segmentSize);
+            this.readSegment = this.writeSegment;
+            return;
+        }
+
+        this.readSegment = this.segments.firstEntry().getValue();
+        this.readPosition = this.readSegment.index == checkpointed[0] ? (int) checkpointed[1] : 0;
+        for (final Segment segment : this.segments.values()) {
+            this.writeSegment = segment;
+            this.writePosition = this.scan(segment, segment == this.readSegment ? this.readPosition : 0);
+        }
+    }
+
+    /**
+     * Counts the complete records of a segment from a position, and cuts the segment off at the first incomplete one.
+     *
+     * @param segment
+     *            The segment.
+     * @param start
+     *            The position of the first record.
+     * @return The position following the last complete record.
+     */
+    private int scan(final Segment segment, final int start) {
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        int position = start;
+        while (position + HEADER_SIZE <= buffer.capacity()) {
+            final int length = buffer.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            if ((length < 0) || (length > buffer.capacity() - position - HEADER_SIZE)
+                            || (buffer.getInt(position + 4) != checksum(buffer, position + HEADER_SIZE, length))) {
+                // Torn by a crash in the middle of the append, the next appends overwrite it
+                buffer.putInt(position, 0);
+                break;
+            }
+            this.pendingRecords++;
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    /**
+     * Releases the mapping of a segment before its file is deleted: a mapped file cannot be deleted on Windows, and
+     * its disk space is only freed elsewhere once the buffer is garbage collected. The buffer must not be used
+     * afterwards. If the mapping cannot be released, the buffer is unmapped by the garbage collector.
+     *
+     * @param buffer
+     *            The mapping of the segment.
+     */
+    private static void unmap(final MappedByteBuffer buffer) {
+        try {
+            final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.debug("Cannot release the mapping of an outbox segment", e);
+        }
+    }
+
+    private static int checksum(final ByteBuffer buffer, final int position, final int length) {
+        final byte[] body = new byte[length];
+        final ByteBuffer bodyBuffer = buffer.duplicate();
+        bodyBuffer.position(position);
+        bodyBuffer.get(body);
+        final CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Reads the identifier of the outbox, generated when it is created. It makes the identifiers of the records unique
+     * across the outboxes sending to the same destination.
+     *
+     * @return The identifier.
+     * @throws IOException
+     *             If the identifier cannot be read or written.
+     */
+    private String readOutboxId() throws IOException {
+        final File idFile = new File(this.directory, ID_FILE);
+        if (idFile.isFile()) {
+            return Files.asCharSource(idFile, StandardCharsets.UTF_8).read().trim();
+        }
+        final String id = UUID.randomUUID().toString();
+        Files.asCharSink(idFile, StandardCharsets.UTF_8).write(id);
+        return id;
+    }
+
+    private MappedByteBuffer mapCheckpoint() throws IOException {
+        try (final FileChannel channel = FileChannel.open(new File(this.directory, CHECKPOINT_FILE).toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(MapMode.READ_WRITE, 0, 2 * CHECKPOINT_SLOT_SIZE);
+        }
+    }
+
+    /**
+     * Reads the valid checkpoint slot with the highest sequence number.
+     *
+     * @return The segment and the position of the first record not sent, -1 and 0 if no checkpoint was written.
+     */
+    private long[] readCheckpoint() {
+        final long[] checkpointed = { -1, 0 };
+        for (int slot = 0; slot < 2; slot++) {
+            final int offset = slot * CHECKPOINT_SLOT_SIZE;
+            final long sequence = this.checkpoint.getLong(offset);
+            if ((sequence > this.checkpointSequence)
+                            && (this.checkpoint.getInt(offset + CHECKPOINT_CONTENT_SIZE) == checksum(this.checkpoint,
+                                            offset, CHECKPOINT_CONTENT_SIZE))) {
+                this.checkpointSequence = sequence;
+                checkpointed[0] = this.checkpoint.getLong(offset + 8);
+                checkpointed[1] = this.checkpoint.getInt(offset + 16);
+            }
+        }
+        return checkpointed;
+    }
+
+    /**
+     * Writes the read position in the slot not holding the last checkpoint.
+     */
+    private void writeCheckpoint() {
+        this.checkpointSequence++;
+        final int offset = (int) (this.checkpointSequence % 2) * CHECKPOINT_SLOT_SIZE;
+        this.checkpoint.putLong(offset, this.checkpointSequence);
+        this.checkpoint.putLong(offset + 8, this.readSegment.index);
+        this.checkpoint.putInt(offset + 16, this.readPosition);
+        this.checkpoint.putInt(offset + CHECKPOINT_CONTENT_SIZE,
+                        checksum(this.checkpoint, offset, CHECKPOINT_CONTENT_SIZE));
+        if (this.forceWrites) {
+            this.checkpoint.force();
+        }
+    }
+
+    private Segment createSegment(final long index, final int size) throws IOException {
+        final File file = new File(this.directory, String.format("%019d%s", index, SEGMENT_SUFFIX));
+        final MappedByteBuffer buffer;
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The file is extended with zeros, which read as the end of the journal
+            buffer = channel.map(MapMode.READ_WRITE, 0, size);
+        }
+        final Segment segment = new Segment(index, file, buffer);
+        this.segments.put(index, segment);
+        return segment;
+    }
+
+    private Segment openSegment(final long index, final File file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)) {
+            return new Segment(index, file, channel.map(MapMode.READ_WRITE, 0, channel.size()));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d pending record(s), %s", this.directory, this.getPendingRecords(),
+                        this.statistics);
+    }
+
+    /**
+     * Sends the records of the outbox to the broker, from the drain thread.
+     */
+    interface Sender {
+
+        /**
+         * Sends a record to the broker, waiting for the broker to accept it.
+         *
+         * @param recordId
+         *            The identifier of the record, to set as the {@link Outbox#RECORD_ID_PROPERTY} property.
+         * @param format
+         *            The format of the payload.
+         * @param payload
+         *            The payload, owned by the sender.
+         * @throws JMSException
+         *             If the record cannot be sent, it is sent again later.
+         */
+        void send(String recordId, PayloadFormat format, byte[] payload) throws JMSException;
+
+        /**
+         * Releases the connection of the sender, once the drain thread is stopped.
+         */
+        void close();
+    }
+
+    /**
+     * A payload appended to the journal or read back from it.
+     */
+    static final class Record {
+
+        private final long segment;
+
+        private final int position;
+
+        private final PayloadFormat format;
+
+        private final byte[] payload;
+
+        /**
+         * Creates a record to append.
+         *
+         * @param format
+         *            The format of the payload.
+         * @param payload
+         *            The payload.
+         */
+        Record(final PayloadFormat format, final byte[] payload) {
+            this(-1, -1, format, payload);
+        }
+
+        private Record(final long segment, final int position, final PayloadFormat format, final byte[] payload) {
+            this.segment = segment;
+            this.position = position;
+            this.format = format;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * A memory mapped segment file, named after its index.
+     */
+    private static final class Segment {
+
+        private final long index;
+
+        private final File file;
+
+        private final MappedByteBuffer buffer;
+
+        private Segment(final long index, final File file, final MappedByteBuffer buffer) {
+            this.index = index;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.sandrew.logic;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of an outbox, updated by the uploaders and the drain thread without locking.
+ */
+public final class OutboxStatistics {
+
+    private final long startNanos = System.nanoTime();
+
+    private final LongAdder appendedRecords = new LongAdder();
+
+    private final LongAdder appendNanos = new LongAdder();
+
+    private final AtomicLong maxAppendNanos = new AtomicLong();
+
+    private final LongAdder drainedRecords = new LongAdder();
+
+    private final LongAdder retries = new LongAdder();
+
+    /**
+     * Records records appended to the journal.
+     *
+     * @param recordCount
+     *            Number of records appended together.
+     * @param elapsedNanos
+     *            Time spent appending them.
+     */
+    void recordAppend(final int recordCount, final long elapsedNanos) {
+        this.appendedRecords.add(recordCount);
+        this.appendNanos.add(elapsedNanos);
+        this.maxAppendNanos.accumulateAndGet(elapsedNanos, Math::max);
+    }
+
+    /**
+     * Records a record sent to the broker.
+     */
+    void recordDrain() {
+        this.drainedRecords.increment();
+    }
+
+    /**
+     * Records a failed attempt to send a record to the broker.
+     */
+    void recordRetry() {
+        this.retries.increment();
+    }
+
+    /**
+     * @return the number of records appended to the journal
+     */
+    public long getAppendedRecords() {
+        return this.appendedRecords.sum();
+    }
+
+    /**
+     * @return the average time spent appending a record, in microseconds
+     */
+    public double getAverageAppendLatencyMicros() {
+        final long appended = this.getAppendedRecords();
+        return appended == 0 ? 0 : this.appendNanos.sum() / (appended * (double) TimeUnit.MICROSECONDS.toNanos(1));
+    }
+
+    /**
+     * @return the longest time spent appending records at once, in microseconds
+     */
+    public double getMaxAppendLatencyMicros() {
+        return this.maxAppendNanos.get() / (double) TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    /**
+     * @return the number of records sent to the broker
+     */
+    public long getDrainedRecords() {
+        return this.drainedRecords.sum();
+    }
+
+    /**
+     * @return the number of records sent to the broker per second since the outbox was opened
+     */
+    public double getDrainedRecordsPerSecond() {
+        final long elapsedNanos = System.nanoTime() - this.startNanos;
+        return elapsedNanos == 0 ? 0
+                        : (this.getDrainedRecords() * (double) TimeUnit.SECONDS.toNanos(1)) / elapsedNanos;
+    }
+
+    /**
+     * @return the number of failed attempts to send a record to the broker
+     */
+    public long getRetries() {
+        return this.retries.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d record(s) appended (avg %.1f us, max %.0f us), %d drained (%.1f rec/s), %d retries",
+                        this.getAppendedRecords(), this.getAverageAppendLatencyMicros(),
+                        this.getMaxAppendLatencyMicros(), this.getDrainedRecords(), this.getDrainedRecordsPerSecond(),
+                        this.getRetries());
+    }
+}
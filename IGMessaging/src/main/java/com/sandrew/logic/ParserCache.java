@@ -0,0 +1,117 @@
+package com.sandrew.logic;
+
+import java.io.InputStream;
+import java.io.Reader;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xml.sax.SAXParseException;
+
+/**
+ * Parsers shared by the uploads and the downloads. Looking the factories up and creating the parsers cost more than
+ * parsing a small file, so they are created once: the factories are shared by every thread, and each thread keeps its
+ * own document builder, which is not thread safe, and resets it before each use. The document builders come from the
+ * parser of the JDK: the Xerces found first on the class path is older than JAXP 1.5 and cannot reset them.
+ */
+final class ParserCache {
+
+    private static final String REPORT_CDATA_PROPERTY = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private static final String JDK_DOCUMENT_BUILDER_FACTORY =
+                    "com.sun.org.apache.xerces.internal.jaxp.DocumentBuilderFactoryImpl";
+
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory
+                    .newInstance(JDK_DOCUMENT_BUILDER_FACTORY, ParserCache.class.getClassLoader());
+
+    /**
+     * Cleared once a builder cannot be reset, so that the reset is not tried again before each document.
+     */
+    private static volatile boolean resetSupported = true;
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDERS = new ThreadLocal<>();
+
+    private ParserCache() {
+    }
+
+    /**
+     * Gets the document builder of the calling thread, in its initial state. It must not be handed over to another
+     * thread.
+     *
+     * @return The document builder.
+     * @throws ParserConfigurationException
+     *             If the document builder cannot be created.
+     */
+    static DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+        DocumentBuilder builder = DOCUMENT_BUILDERS.get();
+        if ((builder != null) && resetSupported) {
+            try {
+                builder.reset();
+                return builder;
+            } catch (final UnsupportedOperationException e) {
+                // Parsers older than JAXP 1.5 cannot be reset, a new one is needed for each document
+                resetSupported = false;
+            }
+        }
+        // The factory itself is not thread safe
+        synchronized (DOCUMENT_BUILDER_FACTORY) {
+            builder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+        }
+        DOCUMENT_BUILDERS.set(builder);
+        return builder;
+    }
+
+    /**
+     * Creates a stream reader of an XML stream.
+     *
+     * @param stream
+     *            The XML stream.
+     * @return The reader, positioned at the start of the document.
+     * @throws SAXParseException
+     *             If the start of the stream cannot be read.
+     */
+    static XMLStreamReader createStreamReader(final InputStream stream) throws SAXParseException {
+        try {
+            return INPUT_FACTORY.createXMLStreamReader(stream);
+        } catch (final XMLStreamException e) {
+            throw StreamingXmlSerializer.toParseException(e);
+        }
+    }
+
+    /**
+     * Creates a stream reader of XML characters.
+     *
+     * @param reader
+     *            The XML characters.
+     * @return The reader, positioned at the start of the document.
+     * @throws SAXParseException
+     *             If the start of the characters cannot be read.
+     */
+    static XMLStreamReader createStreamReader(final Reader reader) throws SAXParseException {
+        try {
+            return INPUT_FACTORY.createXMLStreamReader(reader);
+        } catch (final XMLStreamException e) {
+            throw StreamingXmlSerializer.toParseException(e);
+        }
+    }
+
+    /**
+     * Creates the factory of the stream readers, which is thread safe once configured.
+     *
+     * @return The factory.
+     */
+    private static XMLInputFactory createInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        if (factory.isPropertySupported(REPORT_CDATA_PROPERTY)) {
+            factory.setProperty(REPORT_CDATA_PROPERTY, Boolean.TRUE);
+        }
+        return factory;
+    }
+}
@@ -0,0 +1,112 @@
+package com.sandrew.logic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Codecs compressing the payloads sent as bytes messages. The codec of a compressed message is named by its
+ * {@link #PROPERTY} property, so that the receiver knows how to decompress it.
+ */
+public enum PayloadCompression {
+
+    /**
+     * GZIP format, the codec of the HTTP content encoding of the same name.
+     */
+    GZIP {
+
+        @Override
+        OutputStream compressing(final OutputStream out) throws IOException {
+            return new GZIPOutputStream(out);
+        }
+
+        @Override
+        InputStream decompressing(final InputStream in) throws IOException {
+            return new GZIPInputStream(in);
+        }
+    },
+
+    /**
+     * ZLIB format, slightly smaller and faster than GZIP as it has no file header and a cheaper checksum.
+     */
+    DEFLATE {
+
+        @Override
+        OutputStream compressing(final OutputStream out) {
+            return new DeflaterOutputStream(out);
+        }
+
+        @Override
+        InputStream decompressing(final InputStream in) {
+            return new InflaterInputStream(in);
+        }
+    };
+
+    /**
+     * Name of the message property holding the codec of a compressed payload.
+     */
+    public static final String PROPERTY = "IGContentEncoding";
+
+    /**
+     * Wraps a stream so that what is written to it is compressed.
+     *
+     * @param out
+     *            Where to write the compressed bytes.
+     * @return The compressing stream.
+     * @throws IOException
+     *             If the header of the format cannot be written.
+     */
+    abstract OutputStream compressing(OutputStream out) throws IOException;
+
+    /**
+     * Wraps a stream so that what is read from it is decompressed.
+     *
+     * @param in
+     *            The compressed bytes.
+     * @return The decompressing stream.
+     * @throws IOException
+     *             If the header of the format cannot be read.
+     */
+    abstract InputStream decompressing(InputStream in) throws IOException;
+
+    /**
+     * Compresses a payload, encoded in UTF-8.
+     *
+     * @param payload
+     *            The payload.
+     * @return The compressed payload.
+     * @throws IOException
+     *             If the payload cannot be compressed.
+     */
+    public byte[] compress(final String payload) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length() / 4);
+        try (final OutputStream out = this.compressing(bytes)) {
+            out.write(payload.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decompresses a payload compressed by {@link #compress(String)}.
+     *
+     * @param compressed
+     *            The compressed payload.
+     * @return The payload.
+     * @throws IOException
+     *             If the bytes are not in the format of the codec.
+     */
+    public String decompress(final byte[] compressed) throws IOException {
+        try (final InputStream in = this.decompressing(new ByteArrayInputStream(compressed))) {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.sandrew.logic;
+
+/**
+ * How the XML files are sent to the broker.
+ */
+public enum PayloadFormat {
+
+    /**
+     * The file is serialised again and sent as a text message, or as a compressed bytes message.
+     */
+    TEXT,
+
+    /**
+     * The file is checked to be well formed and its original bytes are sent as a bytes message. The orders of the file
+     * are not split and the payload is not compressed.
+     */
+    RAW,
+
+    /**
+     * The orders of the file are converted into the compact binary encoding of {@link OrderCodec} and sent as a bytes
+     * message, so that the consumers read them without parsing XML. The orders hold their six fields and nothing
+     * else. The payload is not compressed.
+     */
+    BINARY;
+
+    /**
+     * Name of the message property holding the format of a payload sent as bytes, absent from the text messages.
+     */
+    public static final String PROPERTY = "IGPayloadFormat";
+}
@@ -0,0 +1,40 @@
+package com.sandrew.logic;
+
+import javax.jms.JMSException;
+
+/**
+ * Receives the serialised payloads produced from an XML file, one per message to send. A sink accepts the payloads of
+ * every {@link PayloadFormat}, whichever the uploader is configured with.
+ */
+public interface PayloadSink {
+
+    /**
+     * Accepts a payload.
+     *
+     * @param payload
+     *            The serialised XML document.
+     * @throws JMSException
+     *             If the payload cannot be sent.
+     */
+    void accept(String payload) throws JMSException;
+
+    /**
+     * Accepts a document sent as is, without being serialised again.
+     *
+     * @param document
+     *            The bytes of the XML document, checked to be well formed.
+     * @throws JMSException
+     *             If the document cannot be sent.
+     */
+    void acceptRaw(byte[] document) throws JMSException;
+
+    /**
+     * Accepts orders converted into the binary encoding of {@link OrderCodec}.
+     *
+     * @param orders
+     *            The binary payload, holding one order or all the orders of the document.
+     * @throws JMSException
+     *             If the payload cannot be sent.
+     */
+    void acceptBinary(byte[] orders) throws JMSException;
+}
@@ -0,0 +1,240 @@
+package com.sandrew.logic;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency histograms of the stages of the pipeline, shared by the uploaders and the receivers. The latencies are
+ * recorded without locking nor allocating, in microseconds with three significant digits, and read as the percentiles
+ * of the last interval and of all the intervals since the start.
+ * <p>
+ * The uploaders stamp the messages with the time they are sent, {@link #SENT_AT_PROPERTY}, and the submission time of
+ * the order they carry, {@link #SUBMITTED_AT_PROPERTY}, so that the receivers can measure the broker transit and the
+ * end-to-end latency. These are wall clock times: across hosts, they are only as accurate as the clock
+ * synchronisation.
+ */
+public final class PipelineLatencies {
+
+    /**
+     * Name of the message property holding the time the message was sent, in milliseconds since the epoch.
+     */
+    public static final String SENT_AT_PROPERTY = "IGSentAt";
+
+    /**
+     * Name of the message property holding the submission time of the order carried by the message, in milliseconds
+     * since the epoch, absent if the payload holds no single order.
+     */
+    public static final String SUBMITTED_AT_PROPERTY = "IGSubmittedAt";
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private static final String SUBMITTED_AT_START_TAG = "<SubmittedAt>";
+
+    private static final String SUBMITTED_AT_END_TAG = "</SubmittedAt>";
+
+    /**
+     * Stages of the pipeline.
+     */
+    public enum Stage {
+
+        /**
+         * Validating a document against the schema of the orders, on the upload side, before any of its orders is
+         * sent.
+         */
+        VALIDATE,
+
+        /**
+         * Reading, parsing and serialising the XML of a payload, on the upload side.
+         */
+        PARSE,
+
+        /**
+         * Creating the message of a payload, including its compression.
+         */
+        SERIALIZE,
+
+        /**
+         * Sending a message until the broker accepts it.
+         */
+        SEND,
+
+        /**
+         * From the time a message is sent until it is received.
+         */
+        TRANSIT,
+
+        /**
+         * Reading and handling a message received.
+         */
+        CONSUME,
+
+        /**
+         * From the submission time of an order until its message is handled.
+         */
+        END_TO_END
+    }
+
+    private final Map<Stage, Recorder> recorders = new EnumMap<>(Stage.class);
+
+    private final Map<Stage, Histogram> pendingIntervals = new EnumMap<>(Stage.class);
+
+    private final Map<Stage, Histogram> lastIntervals = new EnumMap<>(Stage.class);
+
+    private final Map<Stage, Histogram> totals = new EnumMap<>(Stage.class);
+
+    private final Map<Stage, Histogram> recycled = new EnumMap<>(Stage.class);
+
+    private long intervalStartMillis = System.currentTimeMillis();
+
+    private long lastIntervalMillis;
+
+    /**
+     * Creates empty histograms.
+     */
+    public PipelineLatencies() {
+        for (final Stage stage : Stage.values()) {
+            this.recorders.put(stage, new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS));
+            this.pendingIntervals.put(stage, newHistogram());
+            this.lastIntervals.put(stage, newHistogram());
+            this.totals.put(stage, newHistogram());
+        }
+    }
+
+    /**
+     * Records the latency of a stage. The latencies beyond an hour are recorded as an hour, the negative ones, caused
+     * by clocks out of synchronisation, as zero.
+     *
+     * @param stage
+     *            The stage.
+     * @param elapsedNanos
+     *            The latency.
+     */
+    public void record(final Stage stage, final long elapsedNanos) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+        this.recorders.get(stage).recordValue(Math.max(0, Math.min(micros, HIGHEST_TRACKABLE_MICROS)));
+    }
+
+    /**
+     * Records the latency of a stage from a wall clock time until now.
+     *
+     * @param stage
+     *            The stage.
+     * @param startMillis
+     *            The start of the stage, in milliseconds since the epoch.
+     */
+    public void recordSince(final Stage stage, final long startMillis) {
+        this.record(stage, TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - startMillis));
+    }
+
+    /**
+     * Ends the current interval: its latencies become the last interval and a new one starts.
+     */
+    public synchronized void rollInterval() {
+        this.drain();
+        for (final Stage stage : Stage.values()) {
+            final Histogram pending = this.pendingIntervals.get(stage);
+            this.pendingIntervals.put(stage, this.lastIntervals.get(stage));
+            this.lastIntervals.put(stage, pending);
+            this.pendingIntervals.get(stage).reset();
+        }
+        final long now = System.currentTimeMillis();
+        this.lastIntervalMillis = now - this.intervalStartMillis;
+        this.intervalStartMillis = now;
+    }
+
+    /**
+     * @return the duration of the last interval, in milliseconds
+     */
+    public synchronized long getLastIntervalMillis() {
+        return this.lastIntervalMillis;
+    }
+
+    /**
+     * @return the latencies of each stage in the last interval
+     */
+    public synchronized Map<Stage, LatencySummary> getLastInterval() {
+        return summarize(this.lastIntervals);
+    }
+
+    /**
+     * @return the latencies of each stage since the start, up to now
+     */
+    public synchronized Map<Stage, LatencySummary> getTotal() {
+        this.drain();
+        return summarize(this.totals);
+    }
+
+    /**
+     * Describes the latencies of the last interval, for a log line.
+     *
+     * @return The percentiles of the stages having latencies, empty if none has.
+     */
+    public synchronized String describeLastInterval() {
+        final StringBuilder description = new StringBuilder();
+        for (final Map.Entry<Stage, LatencySummary> entry : this.getLastInterval().entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                if (description.length() > 0) {
+                    description.append(", ");
+                }
+                description.append(entry.getKey().name().toLowerCase()).append(' ').append(entry.getValue());
+            }
+        }
+        return description.toString();
+    }
+
+    /**
+     * Moves the latencies recorded since the last call into the current interval and the totals.
+     */
+    private void drain() {
+        for (final Stage stage : Stage.values()) {
+            final Histogram interval = this.recorders.get(stage).getIntervalHistogram(this.recycled.get(stage));
+            this.pendingIntervals.get(stage).add(interval);
+            this.totals.get(stage).add(interval);
+            this.recycled.put(stage, interval);
+        }
+    }
+
+    private static Map<Stage, LatencySummary> summarize(final Map<Stage, Histogram> histograms) {
+        final Map<Stage, LatencySummary> summaries = new EnumMap<>(Stage.class);
+        for (final Map.Entry<Stage, Histogram> entry : histograms.entrySet()) {
+            summaries.put(entry.getKey(), new LatencySummary(entry.getValue()));
+        }
+        return summaries;
+    }
+
+    private static Histogram newHistogram() {
+        return new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * Reads the submission time of the order of a payload by searching its text, without parsing it again. Only a
+     * {@code <SubmittedAt>} element written without prefix nor attributes is found; the serialiser keeps the prefix and
+     * the attributes of the source document, so an order whose element has any is not measured.
+     *
+     * @param payload
+     *            The payload.
+     * @return The submission time in milliseconds since the epoch, or -1 if the payload holds no such element or more
+     *         than one, if the element is not closed, or if its text, once trimmed, is not a whole number.
+     */
+    static long findSubmittedAt(final String payload) {
+        final int start = payload.indexOf(SUBMITTED_AT_START_TAG);
+        if ((start < 0) || (payload.indexOf(SUBMITTED_AT_START_TAG, start + 1) >= 0)) {
+            return -1;
+        }
+        final int end = payload.indexOf(SUBMITTED_AT_END_TAG, start);
+        if (end < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(payload.substring(start + SUBMITTED_AT_START_TAG.length(), end).trim());
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.sandrew.logic;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the uploads, shared by the uploaders of an application and updated without locking, so that they can
+ * stay enabled on the hot path: recording a message costs a few striped additions.
+ */
+public final class PipelineMetrics {
+
+    private final LongAdder uploads = new LongAdder();
+
+    private final LongAdder uploadNanos = new LongAdder();
+
+    private final AtomicLong maxUploadNanos = new AtomicLong();
+
+    private final LongAdder messages = new LongAdder();
+
+    private final LongAdder bytes = new LongAdder();
+
+    private final LongAdder inFlight = new LongAdder();
+
+    private final ConcurrentMap<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+    /**
+     * Records files uploaded.
+     *
+     * @param fileCount
+     *            The number of files.
+     * @param elapsedNanos
+     *            The time spent uploading them.
+     */
+    void recordUploads(final int fileCount, final long elapsedNanos) {
+        this.uploads.add(fileCount);
+        this.uploadNanos.add(elapsedNanos);
+        this.maxUploadNanos.accumulateAndGet(elapsedNanos / fileCount, Math::max);
+    }
+
+    /**
+     * Records a file which could not be uploaded.
+     *
+     * @param cause
+     *            Why it failed, counted by its class.
+     */
+    void recordFailure(final Throwable cause) {
+        final String type = cause.getClass().getSimpleName();
+        LongAdder counter = this.failures.get(type);
+        if (counter == null) {
+            final LongAdder newCounter = new LongAdder();
+            counter = this.failures.putIfAbsent(type, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.increment();
+    }
+
+    /**
+     * Records a message handed over to the broker.
+     *
+     * @param payloadBytes
+     *            The size of its payload, before compression.
+     */
+    void recordMessage(final long payloadBytes) {
+        this.messages.increment();
+        this.bytes.add(payloadBytes);
+    }
+
+    /**
+     * Records a message sent asynchronously and not acknowledged yet.
+     */
+    void recordSendStarted() {
+        this.inFlight.increment();
+    }
+
+    /**
+     * Records a message sent asynchronously and acknowledged or rejected by the broker.
+     */
+    void recordSendCompleted() {
+        this.inFlight.decrement();
+    }
+
+    /**
+     * @return the number of files uploaded
+     */
+    public long getUploads() {
+        return this.uploads.sum();
+    }
+
+    /**
+     * @return the average time spent uploading a file, in microseconds
+     */
+    public double getAverageUploadMicros() {
+        final long uploaded = this.getUploads();
+        return uploaded == 0 ? 0 : this.uploadNanos.sum() / (uploaded * (double) TimeUnit.MICROSECONDS.toNanos(1));
+    }
+
+    /**
+     * @return the longest time spent uploading a file, in microseconds, averaged over their batch for the files
+     *         uploaded in batches
+     */
+    public double getMaxUploadMicros() {
+        return this.maxUploadNanos.get() / (double) TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    /**
+     * @return the number of messages handed over to the broker
+     */
+    public long getMessages() {
+        return this.messages.sum();
+    }
+
+    /**
+     * @return the size of the payloads handed over to the broker, before compression
+     */
+    public long getBytes() {
+        return this.bytes.sum();
+    }
+
+    /**
+     * @return the number of messages sent asynchronously but not acknowledged yet by the broker
+     */
+    public long getInFlight() {
+        return this.inFlight.sum();
+    }
+
+    /**
+     * @return the number of files which could not be uploaded, by simple name of the exception raised
+     */
+    public Map<String, Long> getFailures() {
+        final Map<String, Long> counts = new TreeMap<>();
+        for (final Map.Entry<String, LongAdder> entry : this.failures.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of files which could not be uploaded
+     */
+    public long getFailureCount() {
+        long count = 0;
+        for (final LongAdder counter : this.failures.values()) {
+            count += counter.sum();
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d upload(s) (avg %.0f us, max %.0f us), %d failed %s, %d message(s), %d byte(s),"
+                        + " %d in flight", this.getUploads(), this.getAverageUploadMicros(), this.getMaxUploadMicros(),
+                        this.getFailureCount(), this.getFailures(), this.getMessages(), this.getBytes(),
+                        this.getInFlight());
+    }
+}
@@ -0,0 +1,85 @@
+package com.sandrew.logic;
+
+/**
+ * Tuning of the connection pool shared by the communicators talking to the same broker with the same credentials.
+ */
+public final class PoolSettings {
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 1;
+
+    private static final int DEFAULT_MAX_SESSIONS_PER_CONNECTION = 500;
+
+    private static final int DEFAULT_IDLE_TIMEOUT_MILLIS = 30_000;
+
+    private static final long DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS = 30_000L;
+
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    private int maxSessionsPerConnection = DEFAULT_MAX_SESSIONS_PER_CONNECTION;
+
+    private int idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+    private long healthCheckIntervalMillis = DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS;
+
+    /**
+     * @return the maximum number of physical connections opened to the broker
+     */
+    public int getMaxConnections() {
+        return this.maxConnections;
+    }
+
+    /**
+     * @param maxConnections
+     *            the maximum number of physical connections opened to the broker
+     */
+    public void setMaxConnections(final int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @return the maximum number of sessions borrowed at the same time from one connection
+     */
+    public int getMaxSessionsPerConnection() {
+        return this.maxSessionsPerConnection;
+    }
+
+    /**
+     * @param maxSessionsPerConnection
+     *            the maximum number of sessions borrowed at the same time from one connection
+     */
+    public void setMaxSessionsPerConnection(final int maxSessionsPerConnection) {
+        this.maxSessionsPerConnection = maxSessionsPerConnection;
+    }
+
+    /**
+     * @return the time after which an unused connection is closed
+     */
+    public int getIdleTimeoutMillis() {
+        return this.idleTimeoutMillis;
+    }
+
+    /**
+     * @param idleTimeoutMillis
+     *            the time after which an unused connection is closed
+     */
+    public void setIdleTimeoutMillis(final int idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * @return the interval between two checks of the pooled connections, a value lower or equal to zero disables the
+     *         background check
+     */
+    public long getHealthCheckIntervalMillis() {
+        return this.healthCheckIntervalMillis;
+    }
+
+    /**
+     * @param healthCheckIntervalMillis
+     *            the interval between two checks of the pooled connections, a value lower or equal to zero disables
+     *            the background check
+     */
+    public void setHealthCheckIntervalMillis(final long healthCheckIntervalMillis) {
+        this.healthCheckIntervalMillis = healthCheckIntervalMillis;
+    }
+}
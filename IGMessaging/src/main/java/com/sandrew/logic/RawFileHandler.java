@@ -0,0 +1,22 @@
+package com.sandrew.logic;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Processes the files received from the broker, taking the files sent in raw format as bytes. The other handlers get
+ * the raw files parsed and serialised again, as the files sent as text.
+ */
+public interface RawFileHandler extends FileHandler {
+
+    /**
+     * Processes a file sent in raw format. When the receiver runs several consumers, this method is called
+     * concurrently.
+     *
+     * @param file
+     *            The bytes of the original XML file, in the encoding it declares. The buffer is read only and is not
+     *            copied from the message, it must not be used once the method returns.
+     * @throws Exception
+     *             If the file cannot be processed.
+     */
+    void handleBytes(ByteBuffer file) throws Exception;
+}
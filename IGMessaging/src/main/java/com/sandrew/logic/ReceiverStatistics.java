@@ -0,0 +1,104 @@
+package com.sandrew.logic;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of a running receiver, updated by the consumers without locking.
+ */
+public final class ReceiverStatistics {
+
+    private final long startNanos = System.nanoTime();
+
+    private final LongAdder handledMessages = new LongAdder();
+
+    private final LongAdder failedMessages = new LongAdder();
+
+    private final LongAdder duplicateMessages = new LongAdder();
+
+    private final LongAdder handlerNanos = new LongAdder();
+
+    private final AtomicLong maxHandlerNanos = new AtomicLong();
+
+    /**
+     * Records a message successfully handled.
+     *
+     * @param elapsedNanos
+     *            Time spent handling the message.
+     */
+    void recordSuccess(final long elapsedNanos) {
+        this.handledMessages.increment();
+        this.handlerNanos.add(elapsedNanos);
+        this.maxHandlerNanos.accumulateAndGet(elapsedNanos, Math::max);
+    }
+
+    /**
+     * Records a message which could not be handled.
+     */
+    void recordFailure() {
+        this.failedMessages.increment();
+    }
+
+    /**
+     * Records a message dropped as a duplicate of a message already handled.
+     */
+    void recordDuplicate() {
+        this.duplicateMessages.increment();
+    }
+
+    /**
+     * @return the number of messages successfully handled
+     */
+    public long getHandledMessages() {
+        return this.handledMessages.sum();
+    }
+
+    /**
+     * @return the number of messages which could not be handled
+     */
+    public long getFailedMessages() {
+        return this.failedMessages.sum();
+    }
+
+    /**
+     * @return the number of messages dropped as duplicates of messages already handled
+     */
+    public long getDuplicateMessages() {
+        return this.duplicateMessages.sum();
+    }
+
+    /**
+     * @return the number of messages handled per second since the receiver started
+     */
+    public double getMessagesPerSecond() {
+        final long elapsedNanos = System.nanoTime() - this.startNanos;
+        return elapsedNanos == 0 ? 0
+                        : (this.getHandledMessages() * (double) TimeUnit.SECONDS.toNanos(1)) / elapsedNanos;
+    }
+
+    /**
+     * @return the average time spent handling a message, in microseconds
+     */
+    public double getAverageHandlerLatencyMicros() {
+        final long handled = this.getHandledMessages();
+        return handled == 0 ? 0 : this.handlerNanos.sum() / (handled * (double) TimeUnit.MICROSECONDS.toNanos(1));
+    }
+
+    /**
+     * @return the longest time spent handling a message, in microseconds
+     */
+    public double getMaxHandlerLatencyMicros() {
+        return this.maxHandlerNanos.get() / (double) TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                        "%d message(s) handled (%.1f msg/s), %d failed, %d duplicate(s), handler latency avg %.0f us,"
+                                        + " max %.0f us",
+                        this.getHandledMessages(), this.getMessagesPerSecond(), this.getFailedMessages(),
+                        this.getDuplicateMessages(), this.getAverageHandlerLatencyMicros(),
+                        this.getMaxHandlerLatencyMicros());
+    }
+}
@@ -0,0 +1,47 @@
+package com.sandrew.logic;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+/**
+ * Producers of a session, one per destination the messages are routed to. Each producer is created on first use and
+ * kept until the session is closed, which closes the producers as well. Like the session, it must not be used by
+ * several threads at the same time.
+ */
+final class RouteProducers {
+
+    private final Session session;
+
+    private final Map<Destination, MessageProducer> producers = new HashMap<>();
+
+    /**
+     * @param session
+     *            The session creating the producers.
+     */
+    RouteProducers(final Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Gets the producer of a destination, creating it on first use.
+     *
+     * @param destination
+     *            The destination.
+     * @return The producer.
+     * @throws JMSException
+     *             If the producer cannot be created.
+     */
+    MessageProducer get(final Destination destination) throws JMSException {
+        MessageProducer producer = this.producers.get(destination);
+        if (producer == null) {
+            producer = this.session.createProducer(destination);
+            this.producers.put(destination, producer);
+        }
+        return producer;
+    }
+}
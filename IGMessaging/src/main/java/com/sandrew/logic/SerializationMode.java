@@ -0,0 +1,17 @@
+package com.sandrew.logic;
+
+/**
+ * How the XML files are checked and serialised before being sent.
+ */
+public enum SerializationMode {
+
+    /**
+     * The file is parsed and written through event by event, the memory used does not depend on the size of the file.
+     */
+    STREAMING,
+
+    /**
+     * The whole file is loaded as a DOM document before being serialised.
+     */
+    DOM
+}
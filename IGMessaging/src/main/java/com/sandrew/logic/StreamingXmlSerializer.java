@@ -0,0 +1,279 @@
+package com.sandrew.logic;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang.StringUtils;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Serialises an XML stream while it is being parsed, without building the document in memory. The parser checks that
+ * the stream is well formed and every event is written through as soon as it is read, so the memory used does not
+ * depend on the size of the document. The output is the one of the DOM serialiser: an XML declaration followed by the
+ * document, with empty elements collapsed and the same escaping.
+ */
+final class StreamingXmlSerializer {
+
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+
+    /**
+     * Pseudo event marking an end element already written as part of an empty element.
+     */
+    private static final int EMPTY_ELEMENT_CLOSED = -1;
+
+    private StreamingXmlSerializer() {
+    }
+
+    /**
+     * Writes the document read by the reader, starting from its current position.
+     *
+     * @param reader
+     *            The reader of the document, positioned at the start of the document.
+     * @param out
+     *            Where to write the document.
+     * @throws SAXParseException
+     *             If the document is not well formed.
+     * @throws IOException
+     *             If the document cannot be read or written.
+     */
+    static void serialize(final XMLStreamReader reader, final Writer out) throws SAXParseException, IOException {
+        try {
+            out.write(XML_DECLARATION);
+            if (reader.hasNext()) {
+                copy(reader, reader.next(), out, false, Collections.<String, String> emptyMap());
+            }
+            out.flush();
+        } catch (final XMLStreamException e) {
+            throw toParseException(e);
+        } finally {
+            try {
+                reader.close();
+            } catch (final XMLStreamException e) {
+                // Nothing left to release
+            }
+        }
+    }
+
+    /**
+     * Writes the element the reader is positioned on as a standalone document. The reader is left on the end of the
+     * element, so that the caller can go on reading the rest of the document. A stream reader cannot list the
+     * namespaces in scope, so the caller gives the ones declared on the ancestors of the element, which are declared
+     * again on it unless it overrides them.
+     *
+     * @param reader
+     *            The reader of the document, positioned at the start of an element.
+     * @param out
+     *            Where to write the element.
+     * @param inheritedNamespaces
+     *            The namespaces declared on the ancestors of the element and still in scope, by prefix, the empty
+     *            prefix being the default namespace.
+     * @throws SAXParseException
+     *             If the element is not well formed.
+     * @throws IOException
+     *             If the element cannot be read or written.
+     */
+    static void serializeElement(final XMLStreamReader reader, final Writer out,
+                    final Map<String, String> inheritedNamespaces) throws SAXParseException, IOException {
+        try {
+            out.write(XML_DECLARATION);
+            copy(reader, reader.getEventType(), out, true, inheritedNamespaces);
+            out.flush();
+        } catch (final XMLStreamException e) {
+            throw toParseException(e);
+        }
+    }
+
+    /**
+     * Writes the events read, starting with the current one.
+     *
+     * @param reader
+     *            The reader of the document.
+     * @param firstEvent
+     *            The current event of the reader.
+     * @param out
+     *            Where to write the events.
+     * @param singleElement
+     *            True to stop at the end of the current element, false to go on until the end of the document.
+     * @param inheritedNamespaces
+     *            The namespaces to declare on the first element written.
+     */
+    private static void copy(final XMLStreamReader reader, final int firstEvent, final Writer out,
+                    final boolean singleElement, final Map<String, String> inheritedNamespaces)
+                    throws XMLStreamException, IOException {
+        boolean startTagOpened = false;
+        int depth = 0;
+        int event = firstEvent;
+        while (true) {
+            if (startTagOpened) {
+                startTagOpened = false;
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    out.write("/>");
+                    depth--;
+                    event = EMPTY_ELEMENT_CLOSED;
+                } else {
+                    out.write('>');
+                }
+            }
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                writeStartTag(reader, out,
+                                depth == 0 ? inheritedNamespaces : Collections.<String, String> emptyMap());
+                startTagOpened = true;
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                out.write("</");
+                out.write(getQualifiedName(reader.getPrefix(), reader.getLocalName()));
+                out.write('>');
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+                // Whitespaces outside of the root element are dropped, as the DOM serialiser does
+                if (depth > 0) {
+                    writeEscaped(out, reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength(),
+                                    false);
+                }
+                break;
+            case XMLStreamConstants.CDATA:
+                out.write("<![CDATA[");
+                out.write(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                out.write("]]>");
+                break;
+            case XMLStreamConstants.COMMENT:
+                out.write("<!--");
+                out.write(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                out.write("-->");
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                out.write("<?");
+                out.write(reader.getPITarget());
+                if (StringUtils.isNotEmpty(reader.getPIData())) {
+                    out.write(' ');
+                    out.write(reader.getPIData());
+                }
+                out.write("?>");
+                break;
+            case XMLStreamConstants.DTD:
+                out.write(reader.getText());
+                out.write('\n');
+                break;
+            default:
+                break;
+            }
+            if ((singleElement && depth == 0) || !reader.hasNext()) {
+                return;
+            }
+            event = reader.next();
+        }
+    }
+
+    /**
+     * Converts a parsing error of the stream reader into the exception raised by the DOM parser, so that the callers
+     * handle both serialisation modes the same way.
+     *
+     * @param e
+     *            The error of the stream reader.
+     * @return The equivalent SAX exception.
+     */
+    static SAXParseException toParseException(final XMLStreamException e) {
+        // The stream reader keeps the error of the underlying stream as nested exception, without chaining it
+        if ((e.getCause() == null) && (e.getNestedException() != null)) {
+            e.initCause(e.getNestedException());
+        }
+        final Location location = e.getLocation();
+        final SAXParseException parseException;
+        if (location == null) {
+            parseException = new SAXParseException(e.getMessage(), null, null, -1, -1, e);
+        } else {
+            parseException = new SAXParseException(e.getMessage(), location.getPublicId(), location.getSystemId(),
+                            location.getLineNumber(), location.getColumnNumber(), e);
+        }
+        return parseException;
+    }
+
+    /**
+     * Writes the start tag of the current element, without closing it.
+     *
+     * @param inheritedNamespaces
+     *            The namespaces to declare on the element on top of its own declarations, by prefix.
+     */
+    private static void writeStartTag(final XMLStreamReader reader, final Writer out,
+                    final Map<String, String> inheritedNamespaces) throws IOException {
+        out.write('<');
+        out.write(getQualifiedName(reader.getPrefix(), reader.getLocalName()));
+        final Set<String> declaredPrefixes = new HashSet<>();
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            final String prefix = StringUtils.defaultString(reader.getNamespacePrefix(i));
+            declaredPrefixes.add(prefix);
+            writeNamespace(out, prefix, reader.getNamespaceURI(i));
+        }
+        for (final Map.Entry<String, String> namespace : inheritedNamespaces.entrySet()) {
+            if (declaredPrefixes.add(namespace.getKey())) {
+                writeNamespace(out, namespace.getKey(), namespace.getValue());
+            }
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            out.write(' ');
+            out.write(getQualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)));
+            writeAttributeValue(out, reader.getAttributeValue(i));
+        }
+    }
+
+    private static void writeNamespace(final Writer out, final String prefix, final String namespaceUri)
+                    throws IOException {
+        out.write(prefix.isEmpty() ? " xmlns" : " xmlns:" + prefix);
+        writeAttributeValue(out, StringUtils.defaultString(namespaceUri));
+    }
+
+    private static void writeAttributeValue(final Writer out, final String value) throws IOException {
+        out.write("=\"");
+        writeEscaped(out, value.toCharArray(), 0, value.length(), true);
+        out.write('"');
+    }
+
+    private static String getQualifiedName(final String prefix, final String localName) {
+        return StringUtils.isEmpty(prefix) ? localName : prefix + ':' + localName;
+    }
+
+    private static void writeEscaped(final Writer out, final char[] text, final int start, final int length,
+                    final boolean inAttribute) throws IOException {
+        int flushed = start;
+        final int end = start + length;
+        for (int i = start; i < end; i++) {
+            final String replacement;
+            switch (text[i]) {
+            case '&':
+                replacement = "&amp;";
+                break;
+            case '<':
+                replacement = "&lt;";
+                break;
+            case '>':
+                replacement = inAttribute ? null : "&gt;";
+                break;
+            case '"':
+                replacement = inAttribute ? "&quot;" : null;
+                break;
+            default:
+                replacement = null;
+                break;
+            }
+            if (replacement != null) {
+                out.write(text, flushed, i - flushed);
+                out.write(replacement);
+                flushed = i + 1;
+            }
+        }
+        out.write(text, flushed, end - flushed);
+    }
+}
@@ -0,0 +1,122 @@
+package com.sandrew.logic;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in each stage of the upload of a file.
+ */
+public final class UploadTimings {
+
+    private long validateNanos;
+
+    private long connectNanos;
+
+    private long serializeNanos;
+
+    private long sendNanos;
+
+    private int messages;
+
+    /**
+     * Records the time spent validating the file against the schema of the orders.
+     *
+     * @param elapsedNanos
+     *            The time spent.
+     */
+    void recordValidate(final long elapsedNanos) {
+        this.validateNanos += elapsedNanos;
+    }
+
+    /**
+     * Records the time spent getting the connection, the session and the producer.
+     *
+     * @param elapsedNanos
+     *            The time spent.
+     */
+    void recordConnect(final long elapsedNanos) {
+        this.connectNanos += elapsedNanos;
+    }
+
+    /**
+     * Records the time spent parsing and serialising the file.
+     *
+     * @param elapsedNanos
+     *            The time spent.
+     */
+    void recordSerialize(final long elapsedNanos) {
+        this.serializeNanos += elapsedNanos;
+    }
+
+    /**
+     * Records the time spent sending a message.
+     *
+     * @param elapsedNanos
+     *            The time spent.
+     */
+    void recordSend(final long elapsedNanos) {
+        this.recordSend(elapsedNanos, 1);
+    }
+
+    /**
+     * Records the time spent sending messages, or appending them to the outbox, at once.
+     *
+     * @param elapsedNanos
+     *            The time spent.
+     * @param messageCount
+     *            The number of messages.
+     */
+    void recordSend(final long elapsedNanos, final int messageCount) {
+        this.sendNanos += elapsedNanos;
+        this.messages += messageCount;
+    }
+
+    /**
+     * @return the time spent sending the messages, in nanoseconds
+     */
+    long getSendNanos() {
+        return this.sendNanos;
+    }
+
+    /**
+     * @return the time spent validating the file against the schema of the orders, in microseconds, 0 if the orders
+     *         are not validated
+     */
+    public long getValidateMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(this.validateNanos);
+    }
+
+    /**
+     * @return the time spent getting the connection, the session and the producer, in microseconds
+     */
+    public long getConnectMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(this.connectNanos);
+    }
+
+    /**
+     * @return the time spent parsing and serialising the file, in microseconds
+     */
+    public long getSerializeMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(this.serializeNanos);
+    }
+
+    /**
+     * @return the time spent sending the messages, in microseconds
+     */
+    public long getSendMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(this.sendNanos);
+    }
+
+    /**
+     * @return the number of messages sent
+     */
+    public int getMessages() {
+        return this.messages;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d message(s), validate %d us, connect %d us, serialise %d us, send %d us",
+                        this.messages, this.getValidateMicros(), this.getConnectMicros(), this.getSerializeMicros(),
+                        this.getSendMicros());
+    }
+}
@@ -0,0 +1,75 @@
+package com.sandrew.metrics;
+
+import java.util.Map;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+
+import org.apache.activemq.ActiveMQConnection;
+import org.apache.activemq.jms.pool.PooledConnection;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+
+import com.sandrew.logic.ConnectionPools;
+
+/**
+ * Health of the brokers the application is connected to. Each broker is checked with a connection borrowed from the
+ * pool the communicators use, whose transport is already open, so a check costs no round trip to the broker unless
+ * the pooled connection has to be opened again. The health is unknown until a broker has been connected to.
+ */
+public class BrokerHealthIndicator extends AbstractHealthIndicator {
+
+    @Override
+    protected void doHealthCheck(final Health.Builder builder) {
+        final Map<String, ConnectionFactory> factories = ConnectionPools.getConnectionFactories();
+        if (factories.isEmpty()) {
+            builder.unknown().withDetail("brokers", "none connected yet");
+            return;
+        }
+        boolean up = true;
+        for (final Map.Entry<String, ConnectionFactory> entry : factories.entrySet()) {
+            try {
+                builder.withDetail(entry.getKey(), check(entry.getValue()));
+            } catch (final JMSException e) {
+                up = false;
+                builder.withDetail(entry.getKey(), "down: " + e.getMessage());
+            }
+        }
+        if (up) {
+            builder.up();
+        } else {
+            builder.down();
+        }
+    }
+
+    /**
+     * Checks the transport of a pooled connection.
+     *
+     * @param factory
+     *            The pooled connection factory.
+     * @return The state of the connection.
+     * @throws JMSException
+     *             If the broker cannot be reached.
+     */
+    private static String check(final ConnectionFactory factory) throws JMSException {
+        final Connection conn = factory.createConnection();
+        try {
+            final Connection physical = conn instanceof PooledConnection ? ((PooledConnection) conn).getConnection()
+                            : conn;
+            if (!(physical instanceof ActiveMQConnection)) {
+                return "up";
+            }
+            final ActiveMQConnection activeMqConnection = (ActiveMQConnection) physical;
+            if (activeMqConnection.isClosed() || activeMqConnection.isTransportFailed()) {
+                final JMSException failure = new JMSException("The transport to the broker has failed");
+                failure.initCause(activeMqConnection.getFirstFailureError());
+                throw failure;
+            }
+            final String brokerName = activeMqConnection.getBrokerName();
+            return brokerName == null ? "up" : "up, broker " + brokerName;
+        } finally {
+            conn.close();
+        }
+    }
+}
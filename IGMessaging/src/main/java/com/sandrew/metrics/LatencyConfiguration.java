@@ -0,0 +1,31 @@
+package com.sandrew.metrics;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.sandrew.logic.PipelineLatencies;
+
+/**
+ * Latency histograms shared by the uploaders and the receivers of an application, exposed as the latencies endpoint
+ * and logged periodically.
+ */
+@Configuration
+public class LatencyConfiguration {
+
+    @Bean
+    public PipelineLatencies pipelineLatencies() {
+        return new PipelineLatencies();
+    }
+
+    @Bean
+    public LatencyEndpoint latencyEndpoint(final PipelineLatencies latencies) {
+        return new LatencyEndpoint(latencies);
+    }
+
+    @Bean
+    public LatencyReporter latencyReporter(final PipelineLatencies latencies,
+                    @Value("${latency.report-interval-seconds:60}") final long intervalSeconds) {
+        return new LatencyReporter(latencies, intervalSeconds);
+    }
+}
@@ -0,0 +1,38 @@
+package com.sandrew.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+
+import com.sandrew.logic.PipelineLatencies;
+
+/**
+ * Exposes the percentiles of the latencies of each stage of the pipeline, in microseconds, over the last reporting
+ * interval and since the start.
+ */
+public class LatencyEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+    private final PipelineLatencies latencies;
+
+    /**
+     * Creates the endpoint, not sensitive as it exposes no data of the orders.
+     *
+     * @param latencies
+     *            The histograms to expose.
+     */
+    public LatencyEndpoint(final PipelineLatencies latencies) {
+        super("latencies", false);
+        this.latencies = latencies;
+    }
+
+    @Override
+    public Map<String, Object> invoke() {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("unit", "microseconds");
+        result.put("intervalMillis", this.latencies.getLastIntervalMillis());
+        result.put("interval", this.latencies.getLastInterval());
+        result.put("total", this.latencies.getTotal());
+        return result;
+    }
+}
@@ -0,0 +1,83 @@
+package com.sandrew.metrics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sandrew.logic.PipelineLatencies;
+
+/**
+ * Ends a latency interval periodically and logs its percentiles, unless nothing was recorded during the interval.
+ */
+public class LatencyReporter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LatencyReporter.class);
+
+    private final PipelineLatencies latencies;
+
+    private final long intervalSeconds;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Configures the reporter.
+     *
+     * @param latencies
+     *            The histograms to report.
+     * @param intervalSeconds
+     *            The duration of an interval.
+     * @throws IllegalArgumentException
+     *             If the interval is not strictly positive.
+     */
+    public LatencyReporter(final PipelineLatencies latencies, final long intervalSeconds) {
+        checkArgument(intervalSeconds > 0, "The report interval must be strictly positive");
+        this.latencies = latencies;
+        this.intervalSeconds = intervalSeconds;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder().setNameFormat("latency-reporter").setDaemon(true).build());
+    }
+
+    /**
+     * Starts reporting.
+     */
+    @PostConstruct
+    public void start() {
+        this.scheduler.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                LatencyReporter.this.report();
+            }
+        }, this.intervalSeconds, this.intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops reporting.
+     */
+    @PreDestroy
+    public void stop() {
+        this.scheduler.shutdownNow();
+    }
+
+    private void report() {
+        // An exception would cancel the next reports
+        try {
+            this.latencies.rollInterval();
+            final String description = this.latencies.describeLastInterval();
+            if (!description.isEmpty()) {
+                LOGGER.info("Latencies over {}s: {}", this.intervalSeconds, description);
+            }
+        } catch (final RuntimeException e) {
+            LOGGER.error("Failed to report the latencies", e);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.sandrew.metrics;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.sandrew.logic.PipelineMetrics;
+
+/**
+ * Counters of the uploads shared by the uploaders of an application, exposed with the other actuator metrics, and the
+ * health of the brokers the application is connected to.
+ */
+@Configuration
+public class PipelineMetricsConfiguration {
+
+    @Bean
+    public PipelineMetrics pipelineMetrics() {
+        return new PipelineMetrics();
+    }
+
+    @Bean
+    public PipelinePublicMetrics pipelinePublicMetrics(final PipelineMetrics metrics) {
+        return new PipelinePublicMetrics(metrics);
+    }
+
+    @Bean
+    public BrokerHealthIndicator brokerHealthIndicator() {
+        return new BrokerHealthIndicator();
+    }
+}
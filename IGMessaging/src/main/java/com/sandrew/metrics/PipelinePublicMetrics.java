@@ -0,0 +1,49 @@
+package com.sandrew.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import com.sandrew.logic.ConnectionPools;
+import com.sandrew.logic.PipelineMetrics;
+
+/**
+ * Exposes the counters of the uploads and the usage of the connection pools in the metrics endpoint. The values are
+ * read when the endpoint is queried, nothing is done on the hot path.
+ */
+public class PipelinePublicMetrics implements PublicMetrics {
+
+    private final PipelineMetrics metrics;
+
+    /**
+     * Creates the metrics.
+     *
+     * @param metrics
+     *            The counters of the uploads.
+     */
+    public PipelinePublicMetrics(final PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> result = new ArrayList<>();
+        result.add(new Metric<Long>("counter.pipeline.uploads", this.metrics.getUploads()));
+        result.add(new Metric<Double>("gauge.pipeline.uploads.mean-micros", this.metrics.getAverageUploadMicros()));
+        result.add(new Metric<Double>("gauge.pipeline.uploads.max-micros", this.metrics.getMaxUploadMicros()));
+        result.add(new Metric<Long>("counter.pipeline.uploads.failed", this.metrics.getFailureCount()));
+        for (final Map.Entry<String, Long> failure : this.metrics.getFailures().entrySet()) {
+            result.add(new Metric<Long>("counter.pipeline.uploads.failed." + failure.getKey(), failure.getValue()));
+        }
+        result.add(new Metric<Long>("counter.pipeline.messages", this.metrics.getMessages()));
+        result.add(new Metric<Long>("counter.pipeline.bytes", this.metrics.getBytes()));
+        result.add(new Metric<Long>("gauge.pipeline.in-flight", this.metrics.getInFlight()));
+        result.add(new Metric<Integer>("gauge.pipeline.pool.connections", ConnectionPools.getOpenedConnections()));
+        result.add(new Metric<Integer>("gauge.pipeline.pool.max-connections", ConnectionPools.getMaxConnections()));
+        return result;
+    }
+}
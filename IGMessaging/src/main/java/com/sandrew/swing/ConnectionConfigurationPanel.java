@@ -5,8 +5,10 @@ import static com.google.common.base.Preconditions.checkArgument;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
+import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 
 import javax.swing.JCheckBox;
 import javax.swing.JLabel;
@@ -16,6 +18,7 @@ import javax.swing.JTextField;
 
 import org.apache.commons.lang.StringUtils;
 
+import com.google.common.hash.Hashing;
 import com.sandrew.logic.FileUploader;
 
 /**
@@ -39,6 +42,10 @@ public final class ConnectionConfigurationPanel extends JPanel {
 
     private final JLabel labelIsTopic = new JLabel("Send to Topic: ");
 
+    private final JLabel labelSplitOrders = new JLabel("One Message Per Order: ");
+
+    private final JLabel labelOutboxDirectory = new JLabel("Outbox Directory: ");
+
     private final JTextField textBrokerURI = new JTextField(this.textFieldSize);
 
     private final JTextField textUserName = new JTextField(this.textFieldSize);
@@ -49,6 +56,10 @@ public final class ConnectionConfigurationPanel extends JPanel {
 
     private final JCheckBox checkDestinationName = new JCheckBox();
 
+    private final JCheckBox checkSplitOrders = new JCheckBox();
+
+    private final JTextField textOutboxDirectory = new JTextField(this.textFieldSize);
+
     /**
      * Creates a new connection configuration panel.
      */
@@ -94,6 +105,20 @@ public final class ConnectionConfigurationPanel extends JPanel {
         this.add(this.labelIsTopic, constraints);
         constraints.gridx = 1;
         this.add(this.checkDestinationName, constraints);
+
+        // Split Orders
+        constraints.gridx = 0;
+        constraints.gridy += 1;
+        this.add(this.labelSplitOrders, constraints);
+        constraints.gridx = 1;
+        this.add(this.checkSplitOrders, constraints);
+
+        // Outbox Directory
+        constraints.gridx = 0;
+        constraints.gridy += 1;
+        this.add(this.labelOutboxDirectory, constraints);
+        constraints.gridx = 1;
+        this.add(this.textOutboxDirectory, constraints);
     }
 
     /**
@@ -113,8 +138,29 @@ public final class ConnectionConfigurationPanel extends JPanel {
             throw new IllegalArgumentException("The Destination cannot be null");
         }
         final URI brokerUri = new URI(this.textBrokerURI.getText());
-        return new FileUploader(brokerUri, this.textUserName.getText(), new String(this.textUserPassword.getPassword()),
-                        this.textDestinationName.getText(), this.checkDestinationName.isSelected());
+        final FileUploader fileUploader = new FileUploader(brokerUri, this.textUserName.getText(),
+                        new String(this.textUserPassword.getPassword()), this.textDestinationName.getText(),
+                        this.checkDestinationName.isSelected());
+        fileUploader.setSplitOrders(this.checkSplitOrders.isSelected());
+        return fileUploader;
+    }
+
+    /**
+     * Gets the directory of the outbox of the configured destination. Each broker and destination has its own outbox
+     * under the directory entered, so that the files waiting for a destination are never sent to another one after
+     * the connection is configured again.
+     *
+     * @return The directory of the outbox, null if the files are sent directly.
+     */
+    public File getOutboxDirectory() {
+        if (StringUtils.isBlank(this.textOutboxDirectory.getText())) {
+            return null;
+        }
+        final String destination = this.textBrokerURI.getText() + ' '
+                        + (this.checkDestinationName.isSelected() ? "topic" : "queue") + ' '
+                        + this.textDestinationName.getText();
+        return new File(this.textOutboxDirectory.getText(),
+                        Hashing.murmur3_128().hashString(destination, StandardCharsets.UTF_8).toString());
     }
 
     /**
@@ -6,9 +6,24 @@ import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jms.JMSException;
 import javax.jms.JMSSecurityException;
@@ -22,9 +37,12 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JTextField;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.UIManager;
 import javax.swing.border.BevelBorder;
 import javax.swing.filechooser.FileNameExtensionFilter;
@@ -33,7 +51,10 @@ import javax.xml.parsers.ParserConfigurationException;
 import org.apache.commons.lang.StringUtils;
 import org.xml.sax.SAXException;
 
+import com.sandrew.logic.BatchUploadReport;
 import com.sandrew.logic.FileUploader;
+import com.sandrew.logic.Outbox;
+import com.sandrew.logic.PipelineMetrics;
 
 /**
  * GUI presented to upload a file.
@@ -50,7 +71,17 @@ public final class FileUploaderGui extends JFrame {
 
     private final int STATUS_BAR_HEIGHT = 16;
 
-    private File selectedFile;
+    private static final int BATCH_SIZE = 100;
+
+    private static final long BATCH_INTERVAL_MILLIS = 1000L;
+
+    private static final int STATUS_REFRESH_MILLIS = 1000;
+
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(200L);
+
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private File[] selectedFiles;
 
     private final JLabel labelSelectFile = new JLabel("Select File: ");
 
@@ -60,6 +91,10 @@ public final class FileUploaderGui extends JFrame {
 
     private final JButton buttonUploadFile = new JButton("Upload");
 
+    private final JProgressBar progressBar = new JProgressBar(0, 100);
+
+    private final JButton buttonCancelUpload = new JButton("Cancel");
+
     private final JMenuBar menuBar;
 
     private final JPanel panelStatusPanel = new JPanel();
@@ -68,6 +103,14 @@ public final class FileUploaderGui extends JFrame {
 
     private FileUploader fileUploader;
 
+    private Outbox outbox;
+
+    private final PipelineMetrics metrics = new PipelineMetrics();
+
+    private UploadWorker uploadWorker;
+
+    private String uploadStatus;
+
     public FileUploaderGui() {
         this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         UIManager.put("FileChooser.readOnly", Boolean.TRUE);
@@ -81,6 +124,9 @@ public final class FileUploaderGui extends JFrame {
         // Button
         this.buttonUploadFile.addActionListener(this.getUploadFileAction());
         this.buttonSelectFile.addActionListener(this.getFileSelectorAction());
+        this.buttonCancelUpload.addActionListener(this.getCancelUploadAction());
+        this.buttonCancelUpload.setEnabled(false);
+        this.progressBar.setStringPainted(true);
 
         // Layout
         final JPanel mainPanel = new JPanel();
@@ -93,6 +139,8 @@ public final class FileUploaderGui extends JFrame {
         mainPanel.add(panelFilePanel);
         final JPanel panelUploadButtoPanel = new JPanel();
         panelUploadButtoPanel.add(this.buttonUploadFile);
+        panelUploadButtoPanel.add(this.progressBar);
+        panelUploadButtoPanel.add(this.buttonCancelUpload);
         mainPanel.add(panelUploadButtoPanel);
 
         this.getContentPane().setLayout(new BorderLayout());
@@ -104,6 +152,15 @@ public final class FileUploaderGui extends JFrame {
         this.setSize(FRAME_WIDTH, FRAME_HEIGHT);
 
         this.checkConnection();
+
+        // The status bar shows the files waiting in the outbox and the progress of the uploads
+        new Timer(STATUS_REFRESH_MILLIS, new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                FileUploaderGui.this.checkConnection();
+            }
+        }).start();
     }
 
     /**
@@ -132,13 +189,20 @@ public final class FileUploaderGui extends JFrame {
 
             @Override
             public void actionPerformed(ActionEvent e) {
+                if (FileUploaderGui.this.uploadWorker != null) {
+                    JOptionPane.showMessageDialog(FileUploaderGui.this,
+                                    "Please wait for the uploads to finish or cancel them", "Configure Connection",
+                                    JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
                 final ConnectionConfigurationPanel configureConnectionPanel = ConnectionConfigurationPanel
                                 .getInstance();
                 final int result = JOptionPane.showConfirmDialog(FileUploaderGui.this, configureConnectionPanel,
                                 "Configure Connection", JOptionPane.OK_CANCEL_OPTION);
                 if (result == JOptionPane.OK_OPTION) {
                     try {
-                        FileUploaderGui.this.fileUploader = configureConnectionPanel.getFileUploader();
+                        FileUploaderGui.this.configureUploader(configureConnectionPanel.getFileUploader(),
+                                        configureConnectionPanel.getOutboxDirectory());
                     } catch (final URISyntaxException e1) {
                         JOptionPane.showMessageDialog(FileUploaderGui.this,
                                         "The URI to the broker is not well formatted", "Connection Failure",
@@ -146,6 +210,10 @@ public final class FileUploaderGui extends JFrame {
                     } catch (final IllegalArgumentException e2) {
                         JOptionPane.showMessageDialog(FileUploaderGui.this, "The destination cannot be null",
                                         "Connection Failure", JOptionPane.ERROR_MESSAGE);
+                    } catch (final IOException e3) {
+                        JOptionPane.showMessageDialog(FileUploaderGui.this,
+                                        "Failed to open the outbox: " + e3.getMessage(), "Connection Failure",
+                                        JOptionPane.ERROR_MESSAGE);
                     }
                     FileUploaderGui.this.checkConnection();
                 }
@@ -155,7 +223,42 @@ public final class FileUploaderGui extends JFrame {
     }
 
     /**
-     * Gets the action performed when the upload button is hit.
+     * Replaces the uploader. The previous one is closed with its outbox, the files of the outbox are sent once the
+     * same destination is configured again. The messages sent by the uploader are counted to show the throughput of
+     * the uploads.
+     *
+     * @param uploader
+     *            The new uploader.
+     * @param outboxDirectory
+     *            The directory of the outbox of the new uploader, null to send the files directly.
+     * @throws IOException
+     *             If the outbox cannot be opened, the connection is left unconfigured then.
+     */
+    private void configureUploader(final FileUploader uploader, final File outboxDirectory) throws IOException {
+        if (this.outbox != null) {
+            this.outbox.close();
+            this.outbox = null;
+        }
+        if (this.fileUploader != null) {
+            try {
+                this.fileUploader.close();
+            } catch (final JMSException e) {
+                // The session of the previous uploader is dropped anyway
+            }
+            this.fileUploader = null;
+        }
+        if (outboxDirectory != null) {
+            final Outbox newOutbox = new Outbox(outboxDirectory);
+            uploader.setOutbox(newOutbox);
+            this.outbox = newOutbox;
+        }
+        uploader.setMetrics(this.metrics);
+        this.fileUploader = uploader;
+    }
+
+    /**
+     * Gets the action performed when the upload button is hit. The selected files are queued and uploaded in the
+     * background, so that further files can be selected and queued while the previous ones are being uploaded.
      *
      * @return The action for the upload button.
      */
@@ -165,25 +268,8 @@ public final class FileUploaderGui extends JFrame {
             @Override
             public void actionPerformed(ActionEvent e) {
                 if (FileUploaderGui.this.fileUploader != null) {
-                    if (FileUploaderGui.this.selectedFile != null) {
-                        try {
-                            FileUploaderGui.this.fileUploader.uploadFile(FileUploaderGui.this.selectedFile);
-                            // FileUploaderGui.this.cleanUpUserInput();
-                        } catch (final JMSSecurityException e2) {
-                            JOptionPane.showMessageDialog(FileUploaderGui.this,
-                                            "Unable to connect to the broker: wrong credentials", "Upload Failure",
-                                            JOptionPane.ERROR_MESSAGE);
-                            return;
-                        } catch (JMSException | ParserConfigurationException | SAXException | IOException e1) {
-                            e1.printStackTrace();
-                            JOptionPane.showMessageDialog(FileUploaderGui.this,
-                                            "Failed to upload the file: " + e1.getMessage(), "Upload Failure",
-                                            JOptionPane.ERROR_MESSAGE);
-                            return;
-                        }
-                        JOptionPane.showMessageDialog(FileUploaderGui.this, "File successfully uploaded",
-                                        "Upload Success", JOptionPane.INFORMATION_MESSAGE);
-
+                    if (FileUploaderGui.this.selectedFiles != null) {
+                        FileUploaderGui.this.queueUpload();
                     } else {
                         JOptionPane.showMessageDialog(FileUploaderGui.this, "Please select a file", "Upload Failure",
                                         JOptionPane.WARNING_MESSAGE);
@@ -197,6 +283,109 @@ public final class FileUploaderGui extends JFrame {
         };
     }
 
+    /**
+     * Gets the action performed when the cancel button is hit.
+     *
+     * @return The action for the cancel button.
+     */
+    private ActionListener getCancelUploadAction() {
+        return new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (FileUploaderGui.this.uploadWorker != null) {
+                    FileUploaderGui.this.uploadWorker.cancel(false);
+                    FileUploaderGui.this.buttonCancelUpload.setEnabled(false);
+                }
+            }
+        };
+    }
+
+    /**
+     * Queues the selected files and the XML files of the selected directories, starting a worker if none is running.
+     * A single file is uploaded on its own, the files of a larger selection in batches.
+     */
+    private void queueUpload() {
+        final List<File> files = new ArrayList<>();
+        try {
+            for (final File file : this.selectedFiles) {
+                if (file.isDirectory()) {
+                    files.addAll(FileUploader.listXmlFiles(file));
+                } else {
+                    files.add(file);
+                }
+            }
+        } catch (final IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Upload Failure", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (files.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No XML file to upload", "Upload Failure",
+                            JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        if ((this.uploadWorker == null) || !this.uploadWorker.enqueue(files)) {
+            final UploadWorker worker = new UploadWorker(this.fileUploader);
+            worker.enqueue(files);
+            worker.addPropertyChangeListener(new PropertyChangeListener() {
+
+                @Override
+                public void propertyChange(final PropertyChangeEvent event) {
+                    if ("progress".equals(event.getPropertyName())) {
+                        FileUploaderGui.this.progressBar.setValue((Integer) event.getNewValue());
+                    }
+                }
+            });
+            this.uploadWorker = worker;
+            this.progressBar.setValue(0);
+            this.buttonCancelUpload.setEnabled(true);
+            worker.execute();
+        }
+        this.cleanUpUserInput();
+    }
+
+    /**
+     * Called once a worker has stopped uploading, to report the uploads.
+     *
+     * @param worker
+     *            The worker.
+     * @param filesDone
+     *            The number of files the worker has uploaded or failed to upload.
+     * @param failures
+     *            The files which failed, with the cause of their failure.
+     */
+    private void uploadFinished(final UploadWorker worker, final int filesDone, final Map<File, Exception> failures) {
+        if (this.uploadWorker == worker) {
+            this.uploadWorker = null;
+            this.uploadStatus = null;
+            this.buttonCancelUpload.setEnabled(false);
+            this.progressBar.setValue(0);
+            this.checkConnection();
+        }
+        if (worker.isCancelled()) {
+            JOptionPane.showMessageDialog(this, "Upload cancelled after " + filesDone + " of "
+                            + worker.totalFiles.get() + " file(s)", "Upload Cancelled",
+                            JOptionPane.INFORMATION_MESSAGE);
+        } else if (failures.isEmpty()) {
+            JOptionPane.showMessageDialog(this, filesDone + (this.outbox == null
+                            ? " file(s) successfully uploaded" : " file(s) successfully stored in the outbox"),
+                            "Upload Success", JOptionPane.INFORMATION_MESSAGE);
+        } else {
+            final StringBuilder message = new StringBuilder();
+            message.append(failures.size()).append(" of ").append(filesDone)
+                            .append(" file(s) failed:");
+            for (final Map.Entry<File, Exception> failure : failures.entrySet()) {
+                message.append('\n').append(failure.getKey().getName()).append(": ");
+                if (failure.getValue() instanceof JMSSecurityException) {
+                    message.append("unable to connect to the broker, wrong credentials");
+                } else {
+                    message.append(failure.getValue().getMessage());
+                }
+            }
+            JOptionPane.showMessageDialog(this, message.toString(), "Upload Failure", JOptionPane.WARNING_MESSAGE);
+        }
+    }
+
     /**
      * Gets the action triggered when the upload button is hit.
      *
@@ -210,11 +399,17 @@ public final class FileUploaderGui extends JFrame {
                 final JFileChooser chooserFileToUpload = new JFileChooser();
                 final FileNameExtensionFilter filter = new FileNameExtensionFilter("XML Files", "xml");
                 chooserFileToUpload.setFileFilter(filter);
-                chooserFileToUpload.setFileSelectionMode(JFileChooser.FILES_ONLY);
-                chooserFileToUpload.setDialogTitle("Choose File To Upload");
-                if (chooserFileToUpload.showOpenDialog(FileUploaderGui.this) == JFileChooser.APPROVE_OPTION) {
-                    FileUploaderGui.this.selectedFile = chooserFileToUpload.getSelectedFile();
-                    FileUploaderGui.this.textFilePath.setText(FileUploaderGui.this.selectedFile.getAbsolutePath());
+                chooserFileToUpload.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+                chooserFileToUpload.setMultiSelectionEnabled(true);
+                chooserFileToUpload.setDialogTitle("Choose Files Or Directories To Upload");
+                if (chooserFileToUpload.showOpenDialog(FileUploaderGui.this) == JFileChooser.APPROVE_OPTION
+                                && chooserFileToUpload.getSelectedFiles().length > 0) {
+                    FileUploaderGui.this.selectedFiles = chooserFileToUpload.getSelectedFiles();
+                    final List<String> paths = new ArrayList<>();
+                    for (final File file : FileUploaderGui.this.selectedFiles) {
+                        paths.add(file.getAbsolutePath());
+                    }
+                    FileUploaderGui.this.textFilePath.setText(StringUtils.join(paths, File.pathSeparator));
                 } else {
                     FileUploaderGui.this.cleanUpUserInput();
                 }
@@ -240,26 +435,240 @@ public final class FileUploaderGui extends JFrame {
     }
 
     /**
-     * Checks if the connection has been configured ad gives a visual clue.
+     * Checks if the connection has been configured ad gives a visual clue, followed by the progress of the uploads.
      */
     private void checkConnection() {
+        String status;
         if (this.fileUploader == null) {
-            this.labelStatusLabel.setText("The connection is NOT configured");
+            status = "The connection is NOT configured";
             this.panelStatusPanel.setBackground(Color.RED);
-        } else {
-            this.labelStatusLabel.setText("The connection is configured");
+        } else if (this.outbox == null) {
+            status = "The connection is configured";
             this.panelStatusPanel.setBackground(Color.GREEN);
+        } else {
+            final long pendingRecords = this.outbox.getPendingRecords();
+            status = "The connection is configured, " + pendingRecords + " message(s) waiting in the outbox";
+            this.panelStatusPanel.setBackground(pendingRecords == 0 ? Color.GREEN : Color.ORANGE);
         }
+        if (this.uploadStatus != null) {
+            status += " - " + this.uploadStatus;
+        }
+        this.labelStatusLabel.setText(status);
     }
 
     /**
      * Cleans up the information entered by the user.
      */
     private void cleanUpUserInput() {
-        FileUploaderGui.this.selectedFile = null;
+        FileUploaderGui.this.selectedFiles = null;
         FileUploaderGui.this.textFilePath.setText(StringUtils.EMPTY);
     }
 
+    /**
+     * Uploads the selections queued by the user in the background, one after the other, and publishes the bytes read,
+     * the messages sent and the throughput to the status bar. A single file is read through a stream counting its
+     * bytes, the files of a larger selection are sent in transacted batches and their bytes counted once each batch is
+     * committed. Cancelling the worker stops the file being read, or the selection before its next batch, and drops the
+     * selections still queued; the orders already sent are not recalled.
+     * <p>
+     * The counts of the uploads are only touched by the thread of the worker, which hands a copy of them over to the
+     * event dispatch thread once it stops.
+     */
+    private final class UploadWorker extends SwingWorker<Void, String> {
+
+        private final FileUploader uploader;
+
+        private final Queue<List<File>> selections = new ArrayDeque<>();
+
+        private boolean closed;
+
+        private final AtomicInteger totalFiles = new AtomicInteger();
+
+        private final AtomicLong totalBytes = new AtomicLong();
+
+        private final Map<File, Exception> failures = new LinkedHashMap<>();
+
+        private int filesDone;
+
+        private long bytesDone;
+
+        private final long startNanos = System.nanoTime();
+
+        private final long startMessages = FileUploaderGui.this.metrics.getMessages();
+
+        private long lastProgressNanos;
+
+        private UploadWorker(final FileUploader uploader) {
+            this.uploader = uploader;
+        }
+
+        /**
+         * Queues files.
+         *
+         * @param files
+         *            The files to upload.
+         * @return True if the files are queued, false if the worker is stopping and a new one must be started.
+         */
+        private boolean enqueue(final List<File> files) {
+            long bytes = 0;
+            for (final File file : files) {
+                bytes += file.length();
+            }
+            synchronized (this.selections) {
+                if (this.closed || this.isCancelled()) {
+                    return false;
+                }
+                this.totalFiles.addAndGet(files.size());
+                this.totalBytes.addAndGet(bytes);
+                this.selections.add(files);
+            }
+            return true;
+        }
+
+        /**
+         * @return the next selection to upload, null once the queue is empty, after which no selection is accepted
+         */
+        private List<File> nextSelection() {
+            synchronized (this.selections) {
+                final List<File> files = this.selections.poll();
+                this.closed = files == null;
+                return files;
+            }
+        }
+
+        @Override
+        protected Void doInBackground() {
+            try {
+                List<File> files;
+                while (!this.isCancelled() && ((files = this.nextSelection()) != null)) {
+                    if (files.size() == 1) {
+                        this.uploadFile(files.get(0));
+                    } else {
+                        this.uploadBatches(files);
+                    }
+                }
+            } finally {
+                synchronized (this.selections) {
+                    this.closed = true;
+                }
+                final int filesDone = this.filesDone;
+                final Map<File, Exception> failures = new LinkedHashMap<>(this.failures);
+                // Reported once the worker has really stopped, which is not the case yet when it is done cancelling
+                SwingUtilities.invokeLater(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        FileUploaderGui.this.uploadFinished(UploadWorker.this, filesDone, failures);
+                    }
+                });
+            }
+            return null;
+        }
+
+        private void uploadFile(final File file) {
+            final long bytesBefore = this.bytesDone;
+            long bytesUploaded = file.length();
+            try (final InputStream stream = new ProgressInputStream(new FileInputStream(file))) {
+                this.uploader.uploadStream(stream);
+            } catch (JMSException | ParserConfigurationException | SAXException | IOException
+                            | IllegalStateException e) {
+                if (this.isCancelled()) {
+                    return;
+                }
+                this.failures.put(file, e);
+                // Not counted, so that the progress only reaches 100% once all the files are uploaded
+                bytesUploaded = 0;
+            }
+            this.bytesDone = bytesBefore + bytesUploaded;
+            this.filesDone++;
+            this.publishProgress(true);
+        }
+
+        private void uploadBatches(final List<File> files) {
+            for (int from = 0; (from < files.size()) && !this.isCancelled(); from += BATCH_SIZE) {
+                final List<File> batch = files.subList(from, Math.min(from + BATCH_SIZE, files.size()));
+                final BatchUploadReport report = this.uploader.uploadFiles(batch, BATCH_SIZE, BATCH_INTERVAL_MILLIS);
+                this.failures.putAll(report.getFailedFiles());
+                for (final File file : batch) {
+                    // The failed files are not counted, as for a single file
+                    if (!report.getFailedFiles().containsKey(file)) {
+                        this.bytesDone += file.length();
+                    }
+                }
+                this.filesDone += batch.size();
+                this.publishProgress(true);
+            }
+        }
+
+        /**
+         * Publishes the progress of the uploads, at most every progress interval unless forced.
+         */
+        private void publishProgress(final boolean force) {
+            final long now = System.nanoTime();
+            if (!force && ((now - this.lastProgressNanos) < PROGRESS_INTERVAL_NANOS)) {
+                return;
+            }
+            this.lastProgressNanos = now;
+            final long total = this.totalBytes.get();
+            this.setProgress(total == 0 ? 100 : (int) Math.min(100, (this.bytesDone * 100) / total));
+            final double seconds = Math.max(now - this.startNanos, 1) / 1e9;
+            final long messages = FileUploaderGui.this.metrics.getMessages() - this.startMessages;
+            this.publish(String.format("%d of %d file(s), %.1f of %.1f MB, %.1f MB/s, %.0f msg/s", this.filesDone,
+                            this.totalFiles.get(), this.bytesDone / BYTES_PER_MEGABYTE, total / BYTES_PER_MEGABYTE,
+                            this.bytesDone / BYTES_PER_MEGABYTE / seconds, messages / seconds));
+        }
+
+        @Override
+        protected void process(final List<String> statuses) {
+            if (FileUploaderGui.this.uploadWorker == this) {
+                FileUploaderGui.this.uploadStatus = statuses.get(statuses.size() - 1);
+                FileUploaderGui.this.checkConnection();
+            }
+        }
+
+        /**
+         * Stream of a file counting the bytes read, which stops the upload once the worker is cancelled.
+         */
+        private final class ProgressInputStream extends FilterInputStream {
+
+            private ProgressInputStream(final InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                final int b = super.read();
+                this.readCounted(b < 0 ? -1 : 1);
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                return this.readCounted(super.read(b, off, len));
+            }
+
+            /**
+             * Counts bytes read.
+             *
+             * @param read
+             *            The number of bytes read, negative at the end of the stream.
+             * @return The number of bytes read.
+             * @throws InterruptedIOException
+             *             If the worker is cancelled.
+             */
+            private int readCounted(final int read) throws InterruptedIOException {
+                if (UploadWorker.this.isCancelled()) {
+                    throw new InterruptedIOException("Upload cancelled");
+                }
+                if (read > 0) {
+                    UploadWorker.this.bytesDone += read;
+                    UploadWorker.this.publishProgress(false);
+                }
+                return read;
+            }
+        }
+    }
+
     public static void main(String[] args) {
         SwingUtilities.invokeLater(new Runnable() {
 
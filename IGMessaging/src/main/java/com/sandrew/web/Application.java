@@ -2,11 +2,17 @@ package com.sandrew.web;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Import;
+
+import com.sandrew.broker.EmbeddedBrokerConfiguration;
+import com.sandrew.metrics.LatencyConfiguration;
+import com.sandrew.metrics.PipelineMetricsConfiguration;
 
 /**
  * Entry point of the web application
  */
 @SpringBootApplication
+@Import({ LatencyConfiguration.class, PipelineMetricsConfiguration.class, EmbeddedBrokerConfiguration.class })
 public class Application {
 
     public static void main(final String[] args) {
@@ -1,7 +1,24 @@
 package com.sandrew.web;
 
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.sandrew.logic.FileUploader;
+import com.sandrew.logic.DedupStrategy;
+import com.sandrew.logic.OrderRouter;
+import com.sandrew.logic.PayloadCompression;
+import com.sandrew.logic.PayloadFormat;
+import com.sandrew.logic.PipelineLatencies;
+import com.sandrew.logic.PipelineMetrics;
+
 public class ConnectionConfiguration {
 
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final long DEFAULT_BATCH_INTERVAL_MILLIS = 1000L;
+
     private String brokerUri;
 
     private String userName;
@@ -14,8 +31,30 @@ public class ConnectionConfiguration {
 
     private boolean isTopic = false;
 
+    private boolean splitOrders = false;
+
+    private PayloadCompression compression = null;
+
+    private PayloadFormat payloadFormat = PayloadFormat.TEXT;
+
+    private DedupStrategy dedupStrategy = null;
+
+    private String routes = null;
+
+    private boolean groupByAccount = false;
+
+    private boolean validateOrders = false;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private long batchIntervalMillis = DEFAULT_BATCH_INTERVAL_MILLIS;
+
     private String message = null;
 
+    private String batchReport = null;
+
+    private String transferReport = null;
+
     /**
      * @return the brokerUri
      */
@@ -106,6 +145,116 @@ public class ConnectionConfiguration {
         this.isTopic = isTopic;
     }
 
+    /**
+     * @return true if the orders of the file are sent one message per order
+     */
+    public boolean getSplitOrders() {
+        return this.splitOrders;
+    }
+
+    /**
+     * @param splitOrders
+     *            true to send the orders of the file one message per order
+     */
+    public void setSplitOrders(final boolean splitOrders) {
+        this.splitOrders = splitOrders;
+    }
+
+    /**
+     * @return the codec compressing the large payloads, null if the payloads are sent as text
+     */
+    public PayloadCompression getCompression() {
+        return this.compression;
+    }
+
+    /**
+     * @param compression
+     *            the codec compressing the large payloads, null to send the payloads as text
+     */
+    public void setCompression(final PayloadCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * @return how the files are sent to the broker
+     */
+    public PayloadFormat getPayloadFormat() {
+        return this.payloadFormat;
+    }
+
+    /**
+     * @param payloadFormat
+     *            how the files are sent to the broker
+     */
+    public void setPayloadFormat(final PayloadFormat payloadFormat) {
+        this.payloadFormat = payloadFormat;
+    }
+
+    /**
+     * @return how the deduplication key of a payload is computed, null if the payloads have no key
+     */
+    public DedupStrategy getDedupStrategy() {
+        return this.dedupStrategy;
+    }
+
+    /**
+     * @param dedupStrategy
+     *            how the deduplication key sent with each payload is computed, null to send no key. The payloads
+     *            whose key was uploaded recently with the same connection information are skipped.
+     */
+    public void setDedupStrategy(final DedupStrategy dedupStrategy) {
+        this.dedupStrategy = dedupStrategy;
+    }
+
+    /**
+     * @return the rules choosing the destination of each message from its order, blank if every message is sent to
+     *         the destination
+     */
+    public String getRoutes() {
+        return this.routes;
+    }
+
+    /**
+     * @param routes
+     *            the rules choosing the destination of each message from its order, see {@link OrderRouter}. Blank
+     *            to send every message to the destination, which is the default behaviour.
+     */
+    public void setRoutes(final String routes) {
+        this.routes = routes;
+    }
+
+    /**
+     * @return true if each message is grouped by the account of its order
+     */
+    public boolean getGroupByAccount() {
+        return this.groupByAccount;
+    }
+
+    /**
+     * @param groupByAccount
+     *            true to group each message by the account of its order, so that the orders of an account are
+     *            consumed in sequence
+     */
+    public void setGroupByAccount(final boolean groupByAccount) {
+        this.groupByAccount = groupByAccount;
+    }
+
+    /**
+     * @return true if the documents are validated against the schema of the orders before being sent
+     */
+    public boolean getValidateOrders() {
+        return this.validateOrders;
+    }
+
+    /**
+     * @param validateOrders
+     *            true to validate the documents against the schema of the orders before sending anything, so that an
+     *            invalid file is rejected as a whole
+     */
+    public void setValidateOrders(final boolean validateOrders) {
+        this.validateOrders = validateOrders;
+    }
+
     /**
      * @return the message
      */
@@ -121,4 +270,99 @@ public class ConnectionConfiguration {
         this.message = message;
     }
 
+    /**
+     * @return the maximum number of files committed at once when the file path is a directory
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * @param batchSize
+     *            the maximum number of files committed at once when the file path is a directory
+     */
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the maximum time between two commits when the file path is a directory
+     */
+    public long getBatchIntervalMillis() {
+        return this.batchIntervalMillis;
+    }
+
+    /**
+     * @param batchIntervalMillis
+     *            the maximum time between two commits when the file path is a directory
+     */
+    public void setBatchIntervalMillis(final long batchIntervalMillis) {
+        this.batchIntervalMillis = batchIntervalMillis;
+    }
+
+    /**
+     * @return the report of the batch upload
+     */
+    public String getBatchReport() {
+        return this.batchReport;
+    }
+
+    /**
+     * @param batchReport
+     *            the report of the batch upload to set
+     */
+    public void setBatchReport(final String batchReport) {
+        this.batchReport = batchReport;
+    }
+
+    /**
+     * @return the size, duration and throughput of the files streamed in the request
+     */
+    public String getTransferReport() {
+        return this.transferReport;
+    }
+
+    /**
+     * @param transferReport
+     *            the size, duration and throughput of the files streamed in the request to set
+     */
+    public void setTransferReport(final String transferReport) {
+        this.transferReport = transferReport;
+    }
+
+    /**
+     * Creates a file uploader configured with the connection information.
+     *
+     * @param latencies
+     *            The histograms where the latencies of the uploads are recorded, null to measure nothing.
+     * @param metrics
+     *            The counters of the uploads, null to count nothing.
+     * @return The file uploader.
+     * @throws URISyntaxException
+     *             If the URI to the broker is not well formatted.
+     * @throws IllegalArgumentException
+     *             If the destination is blank or null, or the routing rules are malformed.
+     * @throws NullPointerException
+     *             If the URI to the broker is null;
+     */
+    public FileUploader createFileUploader(final PipelineLatencies latencies, final PipelineMetrics metrics)
+                    throws URISyntaxException {
+        final FileUploader uploader = new FileUploader(new URI(this.brokerUri), this.userName, this.password,
+                        this.destination, this.isTopic);
+        uploader.setSplitOrders(this.splitOrders);
+        uploader.setGroupByAccount(this.groupByAccount);
+        uploader.setValidateOrders(this.validateOrders);
+        uploader.setCompression(this.compression);
+        uploader.setDedupStrategy(this.dedupStrategy);
+        if (StringUtils.isNotBlank(this.routes)) {
+            uploader.setRouter(new OrderRouter(this.routes));
+        }
+        uploader.setLatencies(latencies);
+        uploader.setMetrics(metrics);
+        if (this.payloadFormat != null) {
+            uploader.setPayloadFormat(this.payloadFormat);
+        }
+        return uploader;
+    }
+
 }
@@ -0,0 +1,176 @@
+package com.sandrew.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.servlet.http.HttpServletRequest;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadBase;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.fileupload.util.Streams;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.bind.WebDataBinder;
+import org.xml.sax.SAXException;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
+import com.google.common.io.CountingInputStream;
+import com.sandrew.logic.FileUploader;
+import com.sandrew.logic.UploadTimings;
+
+/**
+ * Uploads the files sent in a multipart request. The request is streamed: each file is parsed and sent to the broker
+ * as its part is read from the connection, without being buffered in memory or on disk first. The connection fields
+ * must therefore come before the files in the request.
+ */
+@Service
+public class MultipartUploadService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MultipartUploadService.class);
+
+    private final ServletFileUpload fileUpload = new ServletFileUpload();
+
+    private final UploaderRegistry uploaders;
+
+    /**
+     * Creates the service.
+     *
+     * @param maxFileSize
+     *            Maximum size of a file in bytes, negative for no limit.
+     * @param maxRequestSize
+     *            Maximum size of a request in bytes, negative for no limit.
+     * @param uploaders
+     *            The uploaders of the connection configurations.
+     */
+    public MultipartUploadService(@Value("${upload.multipart.max-file-size:104857600}") final long maxFileSize,
+                    @Value("${upload.multipart.max-request-size:209715200}") final long maxRequestSize,
+                    final UploaderRegistry uploaders) {
+        this.fileUpload.setFileSizeMax(maxFileSize);
+        this.fileUpload.setSizeMax(maxRequestSize);
+        this.fileUpload.setHeaderEncoding(StandardCharsets.UTF_8.name());
+        this.uploaders = uploaders;
+    }
+
+    /**
+     * Uploads the files of a request. The outcome is reported in the connection configuration.
+     *
+     * @param request
+     *            The multipart request.
+     * @param connectionConfiguration
+     *            Where the connection fields of the request are bound and the outcome is reported.
+     */
+    public void upload(final HttpServletRequest request, final ConnectionConfiguration connectionConfiguration) {
+        final MutablePropertyValues fields = new MutablePropertyValues();
+        final List<String> fileNames = new ArrayList<>();
+        final List<String> transfers = new ArrayList<>();
+        FileUploader uploader = null;
+        try {
+            final FileItemIterator items = this.fileUpload.getItemIterator(request);
+            while (items.hasNext()) {
+                final FileItemStream item = items.next();
+                try (final InputStream stream = item.openStream()) {
+                    if (item.isFormField()) {
+                        fields.add(item.getFieldName(), Streams.asString(stream, StandardCharsets.UTF_8.name()));
+                    } else if (StringUtils.isNotEmpty(item.getName())) {
+                        if (uploader == null) {
+                            new WebDataBinder(connectionConfiguration).bind(fields);
+                            final String missingField = findMissingField(connectionConfiguration);
+                            if (missingField != null) {
+                                connectionConfiguration.setMessage(missingField);
+                                return;
+                            }
+                            uploader = this.uploaders.getUploader(connectionConfiguration);
+                        }
+                        fileNames.add(item.getName());
+                        transfers.add(item.getName() + ": " + this.uploadPart(uploader, stream));
+                    }
+                }
+            }
+            if (uploader == null) {
+                new WebDataBinder(connectionConfiguration).bind(fields);
+                connectionConfiguration.setMessage("No file in the request");
+            }
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            connectionConfiguration.setMessage("Failed to set up broker: " + e.getMessage());
+        } catch (FileUploadException | JMSException | ParserConfigurationException | SAXException | IOException e) {
+            connectionConfiguration.setMessage(this.describeFailure(e));
+            LOGGER.error("Failed to upload the files of a multipart request", e);
+        } finally {
+            connectionConfiguration.setFilePath(Joiner.on(", ").join(fileNames));
+            if (!transfers.isEmpty()) {
+                connectionConfiguration.setTransferReport(Joiner.on(System.lineSeparator()).join(transfers));
+            }
+        }
+    }
+
+    /**
+     * Checks that the connection fields needed to create an uploader are set. They must come before the first file.
+     *
+     * @param connectionConfiguration
+     *            The connection fields bound so far.
+     * @return The message for the user if a field is missing, null otherwise.
+     */
+    private static String findMissingField(final ConnectionConfiguration connectionConfiguration) {
+        if (StringUtils.isBlank(connectionConfiguration.getBrokerUri())) {
+            return "The broker URI is missing";
+        }
+        if (StringUtils.isBlank(connectionConfiguration.getDestination())) {
+            return "The destination is missing";
+        }
+        return null;
+    }
+
+    /**
+     * Uploads the file of a part.
+     *
+     * @param uploader
+     *            The uploader configured from the connection fields.
+     * @param stream
+     *            The content of the part.
+     * @return The size, duration and throughput of the transfer.
+     */
+    private String uploadPart(final FileUploader uploader, final InputStream stream)
+                    throws JMSException, ParserConfigurationException, SAXException, IOException {
+        final long start = System.nanoTime();
+        final CountingInputStream countingStream = new CountingInputStream(stream);
+        final UploadTimings timings = uploader.uploadStream(countingStream);
+        final long elapsedNanos = System.nanoTime() - start;
+        final double bytesPerSecond = elapsedNanos == 0 ? 0
+                        : (countingStream.getCount() * (double) TimeUnit.SECONDS.toNanos(1)) / elapsedNanos;
+        return String.format("%d bytes in %d ms (%.0f bytes/s), %s", countingStream.getCount(),
+                        TimeUnit.NANOSECONDS.toMillis(elapsedNanos), bytesPerSecond, timings);
+    }
+
+    /**
+     * Describes why an upload failed. The size limits are raised while the parser reads the part, so they can be
+     * wrapped into a parsing error.
+     *
+     * @param e
+     *            The error.
+     * @return The message for the user.
+     */
+    private String describeFailure(final Exception e) {
+        for (final Throwable cause : Throwables.getCausalChain(e)) {
+            if ((cause instanceof FileUploadBase.FileSizeLimitExceededException)
+                            || (cause instanceof FileUploadBase.SizeLimitExceededException)) {
+                return "Upload too large: " + cause.getMessage();
+            }
+        }
+        return "Failed to upload file: " + e.getMessage();
+    }
+}
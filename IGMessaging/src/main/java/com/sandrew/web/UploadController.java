@@ -2,19 +2,31 @@ package com.sandrew.web;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.jms.JMSException;
+import javax.servlet.http.HttpServletRequest;
 import javax.xml.parsers.ParserConfigurationException;
 
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
 import org.xml.sax.SAXException;
 
+import com.sandrew.broker.EmbeddedBroker;
+import com.sandrew.logic.BatchUploadReport;
 import com.sandrew.logic.FileUploader;
 
 /**
@@ -23,8 +35,37 @@ import com.sandrew.logic.FileUploader;
 @Controller
 public class UploadController {
 
+    private final UploadJobService uploadJobService;
+
+    private final MultipartUploadService multipartUploadService;
+
+    private final UploaderRegistry uploaders;
+
+    private final EmbeddedBroker embeddedBroker;
+
+    /**
+     * Creates the controller.
+     *
+     * @param uploadJobService
+     *            The service running the uploads in the background.
+     * @param multipartUploadService
+     *            The service streaming the files sent in the requests.
+     * @param uploaders
+     *            The uploaders of the connection configurations.
+     * @param embeddedBroker
+     *            The broker embedded in the application, if it is enabled.
+     */
+    public UploadController(final UploadJobService uploadJobService,
+                    final MultipartUploadService multipartUploadService, final UploaderRegistry uploaders,
+                    final ObjectProvider<EmbeddedBroker> embeddedBroker) {
+        this.uploadJobService = uploadJobService;
+        this.multipartUploadService = multipartUploadService;
+        this.uploaders = uploaders;
+        this.embeddedBroker = embeddedBroker.getIfAvailable();
+    }
+
     /**
-     * Serves the form to get the connection and file information.
+     * Serves the form to get the connection and file information, offering the embedded broker if it is enabled.
      *
      * @param model
      *            The holder of the information.
@@ -32,12 +73,17 @@ public class UploadController {
      */
     @GetMapping("/upload")
     public String uploadForm(final Model model) {
-        model.addAttribute("uploadConf", new ConnectionConfiguration());
+        final ConnectionConfiguration connectionConfiguration = new ConnectionConfiguration();
+        if (this.embeddedBroker != null) {
+            connectionConfiguration.setBrokerUri(this.embeddedBroker.getVmUri().toString());
+        }
+        model.addAttribute("uploadConf", connectionConfiguration);
         return "SubmissionForm";
     }
 
     /**
-     * Uploads the file and serves the response.
+     * Uploads the file and serves the response. If the file path is a directory, all its XML files are uploaded in
+     * batches.
      * 
      * @param connectionConfiguration
      *            The connection and file information coming from the request.
@@ -46,22 +92,103 @@ public class UploadController {
     @PostMapping("/upload")
     public String uploadFile(@ModelAttribute final ConnectionConfiguration connectionConfiguration) {
 
-        URI brokerUri = null;
+        final FileUploader uploader;
         try {
-            brokerUri = new URI(connectionConfiguration.getBrokerUri());
+            uploader = this.uploaders.getUploader(connectionConfiguration);
         } catch (final URISyntaxException e) {
             connectionConfiguration.setMessage("Failed to set up broker: " + e.getMessage());
             e.printStackTrace();
+            return "Result";
+        }
+        final File file = new File(connectionConfiguration.getFilePath());
+        if (file.isDirectory()) {
+            try {
+                final BatchUploadReport report = uploader.uploadDirectory(file,
+                                connectionConfiguration.getBatchSize(),
+                                connectionConfiguration.getBatchIntervalMillis());
+                if (!report.getFailedFiles().isEmpty()) {
+                    connectionConfiguration
+                                    .setMessage("Failed to upload " + report.getFailedFiles().size() + " file(s)");
+                }
+                connectionConfiguration.setBatchReport(report.toString());
+            } catch (final IllegalArgumentException e) {
+                connectionConfiguration.setMessage("Failed to upload directory: " + e.getMessage());
+            }
+            return "Result";
         }
-        final FileUploader uploader = new FileUploader(brokerUri, connectionConfiguration.getUserName(),
-                        connectionConfiguration.getPassword(), connectionConfiguration.getDestination(),
-                        connectionConfiguration.getIsTopic());
         try {
-            uploader.uploadFile(new File(connectionConfiguration.getFilePath()));
+            uploader.uploadFile(file);
         } catch (JMSException | ParserConfigurationException | SAXException | IOException e) {
             connectionConfiguration.setMessage("Failed to upload file: " + e.getMessage());
             e.printStackTrace();
         }
         return "Result";
     }
+
+    /**
+     * Uploads the files sent in a multipart request, streaming them to the broker as they are received.
+     *
+     * @param request
+     *            The multipart request, with the connection fields before the files.
+     * @param model
+     *            The model of the result page.
+     * @return The result page.
+     */
+    @PostMapping(path = "/upload/multipart", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public String uploadMultipart(final HttpServletRequest request, final Model model) {
+        final ConnectionConfiguration connectionConfiguration = new ConnectionConfiguration();
+        this.multipartUploadService.upload(request, connectionConfiguration);
+        model.addAttribute("connectionConfiguration", connectionConfiguration);
+        return "Result";
+    }
+
+    /**
+     * Queues the upload of the file and returns straight away. The upload runs on a bounded pool of workers.
+     *
+     * @param connectionConfiguration
+     *            The connection and file information coming from the request.
+     * @return The queued job, an error if the connection information is missing or not valid, or a service
+     *         unavailable status if too many uploads are already queued.
+     */
+    @PostMapping("/upload/async")
+    @ResponseBody
+    public ResponseEntity<?> uploadFileAsync(@ModelAttribute final ConnectionConfiguration connectionConfiguration) {
+        if (StringUtils.isBlank(connectionConfiguration.getBrokerUri())) {
+            return ResponseEntity.badRequest().body(Collections.singletonMap("error", "The broker URI is missing"));
+        }
+        if (StringUtils.isBlank(connectionConfiguration.getDestination())) {
+            return ResponseEntity.badRequest().body(Collections.singletonMap("error", "The destination is missing"));
+        }
+        if (StringUtils.isBlank(connectionConfiguration.getFilePath())) {
+            return ResponseEntity.badRequest().body(Collections.singletonMap("error", "The file path is missing"));
+        }
+        try {
+            final UploadJob job = this.uploadJobService.submit(connectionConfiguration);
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                            .header(HttpHeaders.LOCATION, "/upload/jobs/" + job.getId()).body(job);
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                            .body(Collections.singletonMap("error", "Failed to set up broker: " + e.getMessage()));
+        } catch (final RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1")
+                            .body(Collections.singletonMap("error", "Too many uploads in progress"));
+        }
+    }
+
+    /**
+     * Serves the state of an upload queued with {@link #uploadFileAsync(ConnectionConfiguration)}.
+     *
+     * @param id
+     *            The identifier of the job.
+     * @return The job, or a not found status if it is unknown or expired.
+     */
+    @GetMapping("/upload/jobs/{id}")
+    @ResponseBody
+    public ResponseEntity<UploadJob> getUploadJob(@PathVariable final String id) {
+        final UploadJob job = this.uploadJobService.getJob(id);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(job);
+    }
 }
@@ -0,0 +1,137 @@
+package com.sandrew.web;
+
+import java.util.concurrent.TimeUnit;
+
+import com.sandrew.logic.UploadTimings;
+
+/**
+ * State of an upload running in the background, serialised as JSON by the status endpoint.
+ */
+public final class UploadJob {
+
+    /**
+     * Steps of the life of a job.
+     */
+    public enum State {
+        QUEUED, RUNNING, SUCCEEDED, FAILED
+    }
+
+    private final String id;
+
+    private final String filePath;
+
+    private final long submittedAt = System.currentTimeMillis();
+
+    private final long submittedNanos = System.nanoTime();
+
+    private volatile State state = State.QUEUED;
+
+    private volatile long queuedMicros;
+
+    private volatile long runMicros;
+
+    private volatile UploadTimings timings;
+
+    private volatile String message;
+
+    /**
+     * Creates a queued job.
+     *
+     * @param id
+     *            The identifier of the job.
+     * @param filePath
+     *            The path of the file to upload.
+     */
+    UploadJob(final String id, final String filePath) {
+        this.id = id;
+        this.filePath = filePath;
+    }
+
+    /**
+     * Marks the job as picked up by a worker.
+     *
+     * @return The time at which the job started, in nanoseconds.
+     */
+    long start() {
+        final long startNanos = System.nanoTime();
+        this.queuedMicros = TimeUnit.NANOSECONDS.toMicros(startNanos - this.submittedNanos);
+        this.state = State.RUNNING;
+        return startNanos;
+    }
+
+    /**
+     * Marks the job as done.
+     *
+     * @param startNanos
+     *            The time at which the job started.
+     * @param succeeded
+     *            True if the upload succeeded.
+     * @param uploadTimings
+     *            The time spent in each stage of the upload, null if not known.
+     * @param resultMessage
+     *            The outcome of the upload.
+     */
+    void finish(final long startNanos, final boolean succeeded, final UploadTimings uploadTimings,
+                    final String resultMessage) {
+        this.runMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        this.timings = uploadTimings;
+        this.message = resultMessage;
+        this.state = succeeded ? State.SUCCEEDED : State.FAILED;
+    }
+
+    /**
+     * @return the id
+     */
+    public String getId() {
+        return this.id;
+    }
+
+    /**
+     * @return the filePath
+     */
+    public String getFilePath() {
+        return this.filePath;
+    }
+
+    /**
+     * @return the time at which the job was submitted, in milliseconds since the epoch
+     */
+    public long getSubmittedAt() {
+        return this.submittedAt;
+    }
+
+    /**
+     * @return the state
+     */
+    public State getState() {
+        return this.state;
+    }
+
+    /**
+     * @return the time spent waiting for a worker, in microseconds
+     */
+    public long getQueuedMicros() {
+        return this.queuedMicros;
+    }
+
+    /**
+     * @return the time spent running the upload, in microseconds
+     */
+    public long getRunMicros() {
+        return this.runMicros;
+    }
+
+    /**
+     * @return the time spent in each stage of the upload, null until the upload is done
+     */
+    public UploadTimings getTimings() {
+        return this.timings;
+    }
+
+    /**
+     * @return the outcome of the upload, null until the upload is done
+     */
+    public String getMessage() {
+        return this.message;
+    }
+}
@@ -0,0 +1,151 @@
+package com.sandrew.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+import javax.jms.JMSException;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.xml.sax.SAXException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sandrew.logic.BatchUploadReport;
+import com.sandrew.logic.FileUploader;
+import com.sandrew.logic.UploadTimings;
+
+/**
+ * Runs the uploads in the background on a bounded pool of workers, so that a slow broker does not hold the threads
+ * of the web server. Once all the workers are busy and the queue is full, new uploads are rejected instead of piling
+ * up. The finished jobs are kept for a while so that their outcome can be queried.
+ */
+@Service
+public class UploadJobService {
+
+    private final ThreadPoolExecutor executor;
+
+    private final Cache<String, UploadJob> jobs;
+
+    private final UploaderRegistry uploaders;
+
+    /**
+     * Creates the pool of workers.
+     *
+     * @param workers
+     *            Number of uploads running at the same time.
+     * @param queueCapacity
+     *            Number of uploads waiting for a worker before new ones are rejected.
+     * @param maxJobs
+     *            Number of jobs kept for the status endpoint.
+     * @param jobRetentionMinutes
+     *            How long a job is kept for the status endpoint.
+     * @param uploaders
+     *            The uploaders of the connection configurations.
+     */
+    public UploadJobService(@Value("${upload.async.workers:4}") final int workers,
+                    @Value("${upload.async.queue-capacity:100}") final int queueCapacity,
+                    @Value("${upload.async.max-jobs:10000}") final int maxJobs,
+                    @Value("${upload.async.job-retention-minutes:60}") final int jobRetentionMinutes,
+                    final UploaderRegistry uploaders) {
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<Runnable>(queueCapacity),
+                        new ThreadFactoryBuilder().setNameFormat("upload-worker-%d").setDaemon(true).build(),
+                        new ThreadPoolExecutor.AbortPolicy());
+        this.jobs = CacheBuilder.newBuilder().maximumSize(maxJobs)
+                        .expireAfterWrite(jobRetentionMinutes, TimeUnit.MINUTES).build();
+        this.uploaders = uploaders;
+    }
+
+    /**
+     * Queues the upload of a file, or of the XML files of a directory.
+     *
+     * @param connectionConfiguration
+     *            The connection and file information.
+     * @return The queued job.
+     * @throws URISyntaxException
+     *             If the URI to the broker is not well formatted.
+     * @throws IllegalArgumentException
+     *             If the destination is blank or null.
+     * @throws RejectedExecutionException
+     *             If all the workers are busy and the queue is full.
+     */
+    public UploadJob submit(final ConnectionConfiguration connectionConfiguration) throws URISyntaxException {
+        final FileUploader uploader = this.uploaders.getUploader(connectionConfiguration);
+        final UploadJob job = new UploadJob(UUID.randomUUID().toString(), connectionConfiguration.getFilePath());
+        this.jobs.put(job.getId(), job);
+        try {
+            this.executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    UploadJobService.this.run(job, uploader, connectionConfiguration);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            this.jobs.invalidate(job.getId());
+            throw e;
+        }
+        return job;
+    }
+
+    /**
+     * Gets a job.
+     *
+     * @param id
+     *            The identifier of the job.
+     * @return The job, null if unknown or expired.
+     */
+    public UploadJob getJob(final String id) {
+        return this.jobs.getIfPresent(id);
+    }
+
+    /**
+     * Stops the workers, letting the running uploads complete.
+     */
+    @PreDestroy
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * Runs the upload of a job.
+     */
+    private void run(final UploadJob job, final FileUploader uploader,
+                    final ConnectionConfiguration connectionConfiguration) {
+        final long start = job.start();
+        final File file = new File(connectionConfiguration.getFilePath());
+        if (file.isDirectory()) {
+            try {
+                final BatchUploadReport report = uploader.uploadDirectory(file,
+                                connectionConfiguration.getBatchSize(),
+                                connectionConfiguration.getBatchIntervalMillis());
+                job.finish(start, report.getFailedFiles().isEmpty(), null, report.toString());
+            } catch (final IllegalArgumentException e) {
+                job.finish(start, false, null, "Failed to upload directory: " + e.getMessage());
+            } catch (final RuntimeException e) {
+                job.finish(start, false, null, "Failed to upload directory: " + e);
+                throw e;
+            }
+            return;
+        }
+        try {
+            final UploadTimings timings = uploader.uploadFile(file);
+            job.finish(start, true, timings, "Upload Success");
+        } catch (JMSException | ParserConfigurationException | SAXException | IOException e) {
+            job.finish(start, false, null, "Failed to upload file: " + e.getMessage());
+        } catch (final RuntimeException e) {
+            job.finish(start, false, null, "Failed to upload file: " + e);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.sandrew.web;
+
+import java.net.URISyntaxException;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+import javax.jms.JMSException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalListeners;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.sandrew.broker.EmbeddedBroker;
+import com.sandrew.logic.DedupCache;
+import com.sandrew.logic.DedupStrategy;
+import com.sandrew.logic.FileUploader;
+import com.sandrew.logic.PayloadCompression;
+import com.sandrew.logic.PayloadFormat;
+import com.sandrew.logic.PipelineLatencies;
+import com.sandrew.logic.PipelineMetrics;
+
+/**
+ * Keeps the uploaders configured by the requests, so that the submissions repeating the same connection information
+ * reuse a ready uploader, with its routing rules compiled and its destinations resolved, over the warm connections of
+ * its pool instead of setting one up each time. The registry is bounded and the uploaders idle for too long are
+ * evicted and closed. The evicted uploaders are closed by a background thread, as closing one waits for its messages
+ * still in flight and the eviction happens on the thread of a request. An uploader can be shared by concurrent
+ * requests, and one evicted while uploading goes on: the synchronous uploads borrow their connection from the pool on
+ * each call.
+ * <p>
+ * An uploader with a deduplication strategy gets a cache of its own, so that a payload submitted again with the same
+ * connection information is skipped. The keys are forgotten along with the uploader once it is evicted.
+ */
+@Component
+public class UploaderRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UploaderRegistry.class);
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+    private final ExecutorService closer = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("uploader-closer-%d").setDaemon(true).build());
+
+    private final Cache<UploaderKey, FileUploader> uploaders;
+
+    private final int dedupMaxKeys;
+
+    private final long dedupTtlMinutes;
+
+    private final PipelineLatencies latencies;
+
+    private final PipelineMetrics metrics;
+
+    /**
+     * The broker embedded in the application, if it is enabled. It is not used, but injecting it makes the registry
+     * depend on it, so that Spring closes the uploaders before stopping the broker. A provider would not record the
+     * dependency, and the broker is optional, which rules out a constructor argument.
+     */
+    @Autowired(required = false)
+    private EmbeddedBroker embeddedBroker;
+
+    /**
+     * Creates the registry.
+     *
+     * @param maxUploaders
+     *            Number of uploaders kept, the least recently used one is evicted beyond.
+     * @param idleMinutes
+     *            How long an uploader is kept without being used.
+     * @param dedupMaxKeys
+     *            Maximum number of deduplication keys remembered by each uploader with a deduplication strategy.
+     * @param dedupTtlMinutes
+     *            How long a deduplication key is remembered, unless the maximum number of keys is reached first.
+     * @param latencies
+     *            The histograms where the latencies of the uploads are recorded.
+     * @param metrics
+     *            The counters of the uploads.
+     */
+    public UploaderRegistry(@Value("${upload.uploaders.max-size:32}") final int maxUploaders,
+                    @Value("${upload.uploaders.idle-minutes:10}") final int idleMinutes,
+                    @Value("${upload.dedup-max-keys:100000}") final int dedupMaxKeys,
+                    @Value("${upload.dedup-ttl-minutes:60}") final long dedupTtlMinutes,
+                    final PipelineLatencies latencies, final PipelineMetrics metrics) {
+        final RemovalListener<UploaderKey, FileUploader> closing = new RemovalListener<UploaderKey, FileUploader>() {
+
+            @Override
+            public void onRemoval(final RemovalNotification<UploaderKey, FileUploader> notification) {
+                UploaderRegistry.close(notification.getValue());
+            }
+        };
+        this.uploaders = CacheBuilder.newBuilder().maximumSize(maxUploaders)
+                        .expireAfterAccess(idleMinutes, TimeUnit.MINUTES)
+                        .removalListener(RemovalListeners.asynchronous(closing, this.closer)).build();
+        this.dedupMaxKeys = dedupMaxKeys;
+        this.dedupTtlMinutes = dedupTtlMinutes;
+        this.latencies = latencies;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the uploader of a connection configuration, creating it on first use.
+     *
+     * @param connectionConfiguration
+     *            The connection information.
+     * @return The uploader.
+     * @throws URISyntaxException
+     *             If the URI to the broker is not well formatted.
+     * @throws IllegalArgumentException
+     *             If the destination is blank or null, or the routing rules are malformed.
+     * @throws NullPointerException
+     *             If the URI to the broker is null;
+     */
+    public FileUploader getUploader(final ConnectionConfiguration connectionConfiguration) throws URISyntaxException {
+        try {
+            return this.uploaders.get(new UploaderKey(connectionConfiguration), new Callable<FileUploader>() {
+
+                @Override
+                public FileUploader call() throws URISyntaxException {
+                    final FileUploader uploader = connectionConfiguration.createFileUploader(
+                                    UploaderRegistry.this.latencies, UploaderRegistry.this.metrics);
+                    if (uploader.getDedupStrategy() != null) {
+                        uploader.setDedupCache(new DedupCache(UploaderRegistry.this.dedupMaxKeys,
+                                        UploaderRegistry.this.dedupTtlMinutes, TimeUnit.MINUTES));
+                    }
+                    return uploader;
+                }
+            });
+        } catch (final ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), URISyntaxException.class);
+            throw new IllegalStateException(e.getCause());
+        } catch (final UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the number of uploaders kept.
+     *
+     * @return The number of uploaders.
+     */
+    public long size() {
+        return this.uploaders.size();
+    }
+
+    /**
+     * Closes all the uploaders, waiting for at most a minute.
+     */
+    @PreDestroy
+    public void shutdown() {
+        this.uploaders.invalidateAll();
+        this.uploaders.cleanUp();
+        this.closer.shutdown();
+        try {
+            if (!this.closer.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("The uploaders are still closing after {} s", SHUTDOWN_TIMEOUT_SECONDS);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void close(final FileUploader uploader) {
+        try {
+            uploader.close();
+        } catch (final JMSException e) {
+            LOGGER.error("Failed to close the evicted uploader of {}", uploader.getDestinationName(), e);
+        }
+    }
+
+    /**
+     * The fields of a connection configuration used to create an uploader, the file and the batch settings are not
+     * part of it.
+     */
+    private static final class UploaderKey {
+
+        private final String brokerUri;
+
+        private final String userName;
+
+        private final String password;
+
+        private final String destination;
+
+        private final boolean isTopic;
+
+        private final boolean splitOrders;
+
+        private final boolean groupByAccount;
+
+        private final boolean validateOrders;
+
+        private final PayloadCompression compression;
+
+        private final PayloadFormat payloadFormat;
+
+        private final DedupStrategy dedupStrategy;
+
+        private final String routes;
+
+        private UploaderKey(final ConnectionConfiguration connectionConfiguration) {
+            this.brokerUri = connectionConfiguration.getBrokerUri();
+            this.userName = connectionConfiguration.getUserName();
+            this.password = connectionConfiguration.getPassword();
+            this.destination = connectionConfiguration.getDestination();
+            this.isTopic = connectionConfiguration.getIsTopic();
+            this.splitOrders = connectionConfiguration.getSplitOrders();
+            this.groupByAccount = connectionConfiguration.getGroupByAccount();
+            this.validateOrders = connectionConfiguration.getValidateOrders();
+            this.compression = connectionConfiguration.getCompression();
+            this.payloadFormat = connectionConfiguration.getPayloadFormat();
+            this.dedupStrategy = connectionConfiguration.getDedupStrategy();
+            this.routes = connectionConfiguration.getRoutes();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof UploaderKey)) {
+                return false;
+            }
+            final UploaderKey other = (UploaderKey) obj;
+            return (this.isTopic == other.isTopic) && (this.splitOrders == other.splitOrders)
+                            && (this.groupByAccount == other.groupByAccount)
+                            && (this.validateOrders == other.validateOrders)
+                            && Objects.equals(this.brokerUri, other.brokerUri)
+                            && Objects.equals(this.userName, other.userName)
+                            && Objects.equals(this.password, other.password)
+                            && Objects.equals(this.destination, other.destination)
+                            && (this.compression == other.compression) && (this.payloadFormat == other.payloadFormat)
+                            && (this.dedupStrategy == other.dedupStrategy) && Objects.equals(this.routes, other.routes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.brokerUri, this.userName, this.password, this.destination, this.isTopic,
+                            this.splitOrders, this.groupByAccount, this.validateOrders, this.compression,
+                            this.payloadFormat, this.dedupStrategy, this.routes);
+        }
+    }
+}
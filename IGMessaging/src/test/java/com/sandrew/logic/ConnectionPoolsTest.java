@@ -0,0 +1,103 @@
+package com.sandrew.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Session;
+
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Connections closed once idle, without any thread keeping the JVM alive.
+ */
+public class ConnectionPoolsTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private BrokerService broker;
+
+    private URI brokerUri;
+
+    @Before
+    public void setUp() throws Exception {
+        this.broker = new BrokerService();
+        this.broker.setPersistent(false);
+        this.broker.setUseJmx(false);
+        this.broker.setUseShutdownHook(false);
+        this.broker.addConnector("tcp://localhost:0");
+        this.broker.start();
+        this.broker.waitUntilStarted();
+        this.brokerUri = this.broker.getTransportConnectors().get(0).getConnectUri();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ConnectionPools.shutdown();
+        this.broker.stop();
+        this.broker.waitUntilStopped();
+    }
+
+    @Test
+    public void closesTheIdleConnections() throws Exception {
+        final PoolSettings settings = new PoolSettings();
+        settings.setIdleTimeoutMillis(100);
+        settings.setHealthCheckIntervalMillis(50);
+        final ConnectionFactory factory = ConnectionPools.getConnectionFactory(this.brokerUri, null, null, settings);
+        final Connection connection = factory.createConnection();
+        connection.createSession(false, Session.AUTO_ACKNOWLEDGE).close();
+        connection.close();
+        assertEquals(1, ConnectionPools.getOpenedConnections());
+
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while ((ConnectionPools.getOpenedConnections() > 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, ConnectionPools.getOpenedConnections());
+        assertNoThreadKeepsTheJvmAlive();
+    }
+
+    @Test
+    public void leavesNoThreadOnceShutDown() throws Exception {
+        final ConnectionFactory factory = ConnectionPools.getConnectionFactory(this.brokerUri, null, null,
+                        new PoolSettings());
+        final Connection connection = factory.createConnection();
+        connection.createSession(false, Session.AUTO_ACKNOWLEDGE).close();
+        connection.close();
+        ConnectionPools.shutdown();
+        assertEquals(0, ConnectionPools.getOpenedConnections());
+        assertNoThreadKeepsTheJvmAlive();
+    }
+
+    /**
+     * Checks that neither the evictor of commons-pool nor the transport of a client connection are running as
+     * non-daemon threads, the threads of the broker itself are ignored.
+     */
+    private static void assertNoThreadKeepsTheJvmAlive() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        String thread = findClientThread();
+        while ((thread != null) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+            thread = findClientThread();
+        }
+        assertTrue("Non-daemon thread still running: " + thread, thread == null);
+    }
+
+    private static String findClientThread() {
+        for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+            final String name = thread.getName();
+            if (thread.isAlive() && !thread.isDaemon() && (name.startsWith("commons-pool-evictor")
+                            || name.startsWith("ActiveMQ Transport: tcp://localhost"))) {
+                return name;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,74 @@
+package com.sandrew.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Keys remembered and forgotten by the generations of the cache.
+ */
+public class DedupCacheTest {
+
+    @Test
+    public void remembersTheAddedKeys() {
+        final DedupCache cache = new DedupCache(100, 1, TimeUnit.HOURS);
+        cache.add(42L);
+        cache.add(-1L);
+        cache.add(0L);
+        assertTrue(cache.contains(42L));
+        assertTrue(cache.contains(-1L));
+        assertTrue(cache.contains(0L));
+        assertFalse(cache.contains(43L));
+        assertEquals(3, cache.size());
+        assertEquals(4, cache.getLookups());
+        assertEquals(3, cache.getHits());
+    }
+
+    @Test
+    public void addsAKeyOnce() {
+        final DedupCache cache = new DedupCache(100, 1, TimeUnit.HOURS);
+        cache.add(42L);
+        cache.add(42L);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void forgetsTheOldestKeysWhenFull() {
+        final DedupCache cache = new DedupCache(8, 1, TimeUnit.HOURS);
+        for (long key = 1; key <= 100; key++) {
+            cache.add(key);
+            assertTrue(cache.size() <= cache.getMaxKeys());
+        }
+        assertFalse(cache.contains(1L));
+        assertTrue(cache.contains(100L));
+    }
+
+    @Test
+    public void forgetsTheExpiredKeys() throws InterruptedException {
+        final DedupCache cache = new DedupCache(100, 60, TimeUnit.MILLISECONDS);
+        cache.add(42L);
+        // A key lives at most a third longer than the time to live
+        Thread.sleep(200);
+        assertFalse(cache.contains(42L));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void renewsAKeyAddedAgain() throws InterruptedException {
+        final DedupCache cache = new DedupCache(100, 600, TimeUnit.MILLISECONDS);
+        cache.add(42L);
+        Thread.sleep(500);
+        cache.add(42L);
+        Thread.sleep(500);
+        assertTrue(cache.contains(42L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsACacheTooSmallForItsGenerations() {
+        new DedupCache(3, 1, TimeUnit.HOURS);
+    }
+}
@@ -0,0 +1,129 @@
+package com.sandrew.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Messages left unacknowledged by the lanes of the groups when the receiver stops.
+ */
+public class FileReceiverLanesTest {
+
+    private static final String QUEUE = "test.lanes";
+
+    /**
+     * More than the lane holds, so that the consumer is still receiving when the receiver stops.
+     */
+    private static final int FILES = 150;
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private BrokerService broker;
+
+    private URI brokerUri;
+
+    private FileReceiver receiver;
+
+    private final Set<String> handled = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void setUp() throws Exception {
+        this.broker = new BrokerService();
+        this.broker.setPersistent(false);
+        this.broker.setUseJmx(false);
+        this.broker.setUseShutdownHook(false);
+        this.broker.addConnector("tcp://localhost:0");
+        this.broker.start();
+        this.broker.waitUntilStarted();
+        this.brokerUri = this.broker.getTransportConnectors().get(0).getConnectUri();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.receiver != null) {
+            this.receiver.stop();
+        }
+        ConnectionPools.shutdown();
+        this.broker.stop();
+        this.broker.waitUntilStopped();
+    }
+
+    @Test
+    public void redeliversTheMessagesNotHandledOnceStopped() throws Exception {
+        try (final FileUploader uploader = new FileUploader(this.brokerUri, null, null, QUEUE, false)) {
+            for (int i = 0; i < FILES; i++) {
+                uploader.uploadStream(new ByteArrayInputStream(order(i).getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final FileReceiver stopped = this.startReceiver(new FileHandler() {
+
+            @Override
+            public void handle(final String file) throws InterruptedException {
+                blocked.countDown();
+                release.await();
+                FileReceiverLanesTest.this.handled.add(file);
+            }
+        });
+        assertTrue(blocked.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        final Thread stopping = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    stopped.stop();
+                } catch (final JMSException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        stopping.start();
+        // Lets the stop reach the lanes before they handle the messages dispatched to them
+        Thread.sleep(200);
+        release.countDown();
+        stopping.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        assertTrue(this.handled.size() < FILES);
+
+        this.receiver = this.startReceiver(new FileHandler() {
+
+            @Override
+            public void handle(final String file) {
+                FileReceiverLanesTest.this.handled.add(file);
+            }
+        });
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while ((this.handled.size() < FILES) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        assertEquals(FILES, this.handled.size());
+    }
+
+    private FileReceiver startReceiver(final FileHandler handler) throws Exception {
+        final FileReceiver newReceiver = new FileReceiver(this.brokerUri, null, null, QUEUE, false);
+        newReceiver.setGroupLanes(1);
+        newReceiver.start(handler);
+        return newReceiver;
+    }
+
+    private static String order(final int size) {
+        return "<Order><accont>AX001</accont><SubmittedAt>1507060723641</SubmittedAt>"
+                        + "<ReceivedAt>1507060723642</ReceivedAt><market>VOD.L</market><action>BUY</action><size>"
+                        + size + "</size></Order>";
+    }
+}
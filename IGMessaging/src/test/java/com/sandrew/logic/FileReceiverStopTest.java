@@ -0,0 +1,122 @@
+package com.sandrew.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Sessions and connection of the consumers all closed when the receiver stops, even if closing some of them fails.
+ */
+public class FileReceiverStopTest {
+
+    private final List<String> closed = new ArrayList<>();
+
+    private final List<JMSException> closeFailures = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        ConnectionPools.shutdown();
+    }
+
+    @Test
+    public void closesEverySessionBeforeThrowingTheFirstFailure() throws Exception {
+        this.closeFailures.add(new JMSException("first"));
+        this.closeFailures.add(null);
+        this.closeFailures.add(new JMSException("third"));
+        final FileReceiver receiver = this.createReceiver();
+        receiver.setConsumerCount(3);
+        receiver.start(new ConsoleFileHandler());
+        try {
+            receiver.stop();
+            fail("The failures were not reported");
+        } catch (final JMSException e) {
+            assertSame(this.closeFailures.get(0), e);
+        }
+        assertEquals("[session 0, session 1, session 2, connection]", this.closed.toString());
+        assertFalse(receiver.isStarted());
+    }
+
+    @Test
+    public void closesTheConnectionWhenNoSessionFails() throws Exception {
+        final FileReceiver receiver = this.createReceiver();
+        receiver.setConsumerCount(2);
+        receiver.start(new ConsoleFileHandler());
+        receiver.stop();
+        assertEquals("[session 0, session 1, connection]", this.closed.toString());
+    }
+
+    /**
+     * Creates a receiver whose connection records the closed sessions, failing with the planned failures.
+     */
+    private FileReceiver createReceiver() {
+        return new FileReceiver(URI.create("tcp://localhost:1"), null, null, "test.stop", false) {
+
+            @Override
+            public Connection getConnection() {
+                return proxy(Connection.class, new InvocationHandler() {
+
+                    private int sessions = 0;
+
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        if ("createSession".equals(method.getName())) {
+                            return FileReceiverStopTest.this.createSession(this.sessions++);
+                        }
+                        if ("close".equals(method.getName())) {
+                            FileReceiverStopTest.this.closed.add("connection");
+                        }
+                        return null;
+                    }
+                });
+            }
+        };
+    }
+
+    private Session createSession(final int index) {
+        return proxy(Session.class, new InvocationHandler() {
+
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws JMSException {
+                if ("createConsumer".equals(method.getName())) {
+                    return proxy(MessageConsumer.class, new InvocationHandler() {
+
+                        @Override
+                        public Object invoke(final Object consumer, final Method consumerMethod,
+                                        final Object[] consumerArgs) {
+                            return null;
+                        }
+                    });
+                }
+                if ("close".equals(method.getName())) {
+                    FileReceiverStopTest.this.closed.add("session " + index);
+                    if ((index < FileReceiverStopTest.this.closeFailures.size())
+                                    && (FileReceiverStopTest.this.closeFailures.get(index) != null)) {
+                        throw FileReceiverStopTest.this.closeFailures.get(index);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(FileReceiverStopTest.class.getClassLoader(), new Class<?>[] { type },
+                        handler));
+    }
+}
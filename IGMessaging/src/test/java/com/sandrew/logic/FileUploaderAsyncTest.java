@@ -0,0 +1,138 @@
+package com.sandrew.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+import org.apache.activemq.broker.region.policy.PolicyMap;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Asynchronous uploads across a restart of the broker, and closing an uploader whose messages are not acknowledged.
+ */
+public class FileUploaderAsyncTest {
+
+    private static final String QUEUE = "test.async";
+
+    private static final String ORDER = "<Order><accont>AX001</accont><SubmittedAt>1507060723641</SubmittedAt>"
+                    + "<ReceivedAt>1507060723642</ReceivedAt><market>VOD.L</market><action>BUY</action>"
+                    + "<size>100</size></Order>";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private BrokerService broker;
+
+    private URI brokerUri;
+
+    private FileUploader uploader;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        this.broker = startBroker("tcp://localhost:0");
+        this.brokerUri = this.broker.getTransportConnectors().get(0).getConnectUri();
+        this.uploader = new FileUploader(this.brokerUri, null, null, QUEUE, false);
+        this.file = this.folder.newFile("order.xml");
+        Files.write(this.file.toPath(), ORDER.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.uploader.close();
+        ConnectionPools.shutdown();
+        this.broker.stop();
+        this.broker.waitUntilStopped();
+    }
+
+    @Test
+    public void uploadsAgainOnceTheBrokerIsRestarted() throws Exception {
+        this.uploader.uploadFileAsync(this.file).get(10, TimeUnit.SECONDS);
+        assertEquals(1, this.enqueued());
+
+        this.broker.stop();
+        this.broker.waitUntilStopped();
+        try {
+            this.uploader.uploadFileAsync(this.file).get(10, TimeUnit.SECONDS);
+            fail("The upload succeeded without broker");
+        } catch (final ExecutionException e) {
+            // Expected, the session of the asynchronous uploads is broken
+        }
+
+        this.broker = startBroker(this.brokerUri.toString());
+        this.uploader.uploadFileAsync(this.file).get(10, TimeUnit.SECONDS);
+        assertEquals(1, this.enqueued());
+        assertTrue(this.uploader.awaitAll(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failsTheUploadsStillInFlightOnceTheCloseTimesOut() throws Exception {
+        // The broker holds the acknowledgements back once the queue is full
+        final PolicyEntry policy = new PolicyEntry();
+        policy.setMemoryLimit(16 * 1024);
+        policy.setProducerFlowControl(true);
+        final PolicyMap policies = new PolicyMap();
+        policies.setDefaultEntry(policy);
+        this.broker.setDestinationPolicy(policies);
+        final char[] padding = new char[4 * 1024];
+        Arrays.fill(padding, ' ');
+        Files.write(this.file.toPath(), (ORDER + new String(padding)).getBytes(StandardCharsets.UTF_8));
+
+        final List<CompletableFuture<Void>> uploads = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            uploads.add(this.uploader.uploadFileAsync(this.file));
+        }
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while ((this.uploader.getInFlight() == 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        assertTrue(this.uploader.getInFlight() > 0);
+
+        this.uploader.setCloseTimeoutMillis(100);
+        final long start = System.nanoTime();
+        this.uploader.close();
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        try {
+            CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[uploads.size()])).get(10,
+                            TimeUnit.SECONDS);
+            fail("Every upload succeeded although the queue was full");
+        } catch (final ExecutionException e) {
+            // Expected, the uploads still in flight are failed
+        }
+    }
+
+    private long enqueued() throws Exception {
+        return this.broker.getDestination(new ActiveMQQueue(QUEUE)).getDestinationStatistics().getEnqueues()
+                        .getCount();
+    }
+
+    private static BrokerService startBroker(final String connector) throws Exception {
+        final BrokerService broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setUseShutdownHook(false);
+        broker.addConnector(connector);
+        broker.start();
+        broker.waitUntilStarted();
+        return broker;
+    }
+}
@@ -0,0 +1,158 @@
+package com.sandrew.logic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.JMSException;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+/**
+ * Orders encoded into the binary format and decoded back, on their own and from XML documents.
+ */
+public class OrderCodecTest {
+
+    private static final String FIRST_ORDER = "<Order><accont>AX001</accont><SubmittedAt>1507060723641</SubmittedAt>"
+                    + "<ReceivedAt>1507060723642</ReceivedAt><market>VOD.L</market><action>BUY</action>"
+                    + "<size>100</size></Order>";
+
+    private static final String SECOND_ORDER = "<Order><market>BP.L</market><size>-5</size><action>SELL</action>"
+                    + "<ReceivedAt>1507060723640</ReceivedAt><accont>AX&amp;002</accont>"
+                    + "<SubmittedAt>1507060723650</SubmittedAt></Order>";
+
+    @Test
+    public void decodesTheEncodedOrders() {
+        final Order order = order("\u00e9t\u00e9 \u20ac \ud83d\ude00", -1L, Long.MAX_VALUE, "", Order.Action.SELL,
+                        Long.MIN_VALUE);
+        final ByteBuffer buffer = ByteBuffer.allocate(2 * OrderCodec.maxEncodedLength(order) + 1);
+        OrderCodec.writeHeader(buffer);
+        OrderCodec.encode(order, buffer);
+        OrderCodec.encode(order("AX001", 1507060723641L, 1507060723642L, "VOD.L", Order.Action.BUY, 100), buffer);
+        buffer.flip();
+
+        final Order decoded = new Order();
+        OrderCodec.readHeader(buffer);
+        OrderCodec.decode(buffer, decoded);
+        assertEquals(order.toString(), decoded.toString());
+        OrderCodec.decode(buffer, decoded);
+        assertEquals("AX001 BUY 100 VOD.L submitted at 1507060723641, received at 1507060723642",
+                        decoded.toString());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void writesAnUnpairedSurrogateAsAQuestionMark() {
+        final Order order = order("A\ud83dB", 0, 0, "M", Order.Action.BUY, 1);
+        final ByteBuffer buffer = ByteBuffer.allocate(OrderCodec.maxEncodedLength(order));
+        OrderCodec.encode(order, buffer);
+        buffer.flip();
+        final Order decoded = new Order();
+        OrderCodec.decode(buffer, decoded);
+        assertEquals("A?B", decoded.getAccount().toString());
+    }
+
+    @Test
+    public void convertsADocumentIntoOnePayload() throws Exception {
+        final List<byte[]> payloads = encodeXml("<Orders>" + FIRST_ORDER + SECOND_ORDER + "</Orders>", false);
+        assertEquals(1, payloads.size());
+        assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Orders>" + FIRST_ORDER
+                        + "<Order><accont>AX&amp;002</accont><SubmittedAt>1507060723650</SubmittedAt>"
+                        + "<ReceivedAt>1507060723640</ReceivedAt><market>BP.L</market><action>SELL</action>"
+                        + "<size>-5</size></Order></Orders>", OrderCodec.toXml(ByteBuffer.wrap(payloads.get(0))));
+        assertEquals(-1, OrderCodec.findSubmittedAt(payloads.get(0)));
+    }
+
+    @Test
+    public void convertsADocumentIntoOnePayloadPerOrder() throws Exception {
+        final List<byte[]> payloads = encodeXml("<Orders>" + FIRST_ORDER + SECOND_ORDER + "</Orders>", true);
+        assertEquals(2, payloads.size());
+        assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + FIRST_ORDER,
+                        OrderCodec.toXml(ByteBuffer.wrap(payloads.get(0))));
+        assertEquals(1507060723641L, OrderCodec.findSubmittedAt(payloads.get(0)));
+        assertEquals(1507060723650L, OrderCodec.findSubmittedAt(payloads.get(1)));
+        assertArrayEquals(payloads.get(0), encodeXml(FIRST_ORDER, false).get(0));
+    }
+
+    @Test
+    public void rejectsAnOrderWithAMissingField() throws Exception {
+        assertRejected(FIRST_ORDER.replace("<size>100</size>", ""), "An order has no size element");
+    }
+
+    @Test
+    public void rejectsAnOrderWithAnotherField() throws Exception {
+        assertRejected(FIRST_ORDER.replace("<size>", "<comment>none</comment><size>"),
+                        "The comment element of an order cannot be sent in binary format");
+    }
+
+    @Test
+    public void rejectsAnInvalidValue() throws Exception {
+        assertRejected(FIRST_ORDER.replace("BUY", "HOLD"), "Invalid action of an order: HOLD");
+    }
+
+    @Test
+    public void rejectsADocumentWithoutOrder() throws Exception {
+        assertRejected("<Orders/>", "No Order element found in the document");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnotherVersion() {
+        OrderCodec.readHeader(ByteBuffer.wrap(new byte[] { OrderCodec.VERSION + 1 }));
+    }
+
+    private static Order order(final String account, final long submittedAt, final long receivedAt,
+                    final String market, final Order.Action action, final long size) {
+        final Order order = new Order();
+        order.setAccount(account);
+        order.setSubmittedAt(submittedAt);
+        order.setReceivedAt(receivedAt);
+        order.setMarket(market);
+        order.setAction(action);
+        order.setSize(size);
+        return order;
+    }
+
+    private static List<byte[]> encodeXml(final String document, final boolean perOrder)
+                    throws JMSException, SAXException, IOException {
+        final List<byte[]> payloads = new ArrayList<>();
+        final int orders = OrderCodec.encodeXml(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)),
+                        perOrder, new PayloadSink() {
+
+                            @Override
+                            public void accept(final String payload) {
+                                fail("Text payload handed over by the binary codec");
+                            }
+
+                            @Override
+                            public void acceptRaw(final byte[] document) {
+                                fail("Raw document handed over by the binary codec");
+                            }
+
+                            @Override
+                            public void acceptBinary(final byte[] payload) {
+                                payloads.add(payload);
+                            }
+                        });
+        assertTrue(orders > 0);
+        return payloads;
+    }
+
+    private static void assertRejected(final String document, final String message) throws Exception {
+        try {
+            encodeXml(document, false);
+            fail("The document was converted");
+        } catch (final SAXException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+}
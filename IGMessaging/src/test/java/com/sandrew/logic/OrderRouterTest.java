@@ -0,0 +1,110 @@
+package com.sandrew.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Parsing of the routing rules, and the destinations they give to the orders in each payload format.
+ */
+public class OrderRouterTest {
+
+    private static final String BUY_VOD = order("AX001", "VOD.L", "BUY");
+
+    private static final String SELL_VOD = order("AX001", "VOD.L", "SELL");
+
+    private static final String BUY_BP = order("AX002", "BP.L", "BUY");
+
+    @Test
+    public void appliesTheFirstMatchingRule() throws Exception {
+        final OrderRouter router = new OrderRouter(" action=SELL->orders.sell; market=*->orders.{}.in ");
+        assertEquals("orders.sell", router.route(SELL_VOD));
+        assertEquals("orders.VOD.L.in", router.route(BUY_VOD));
+        assertEquals("orders.BP.L.in", router.route(BUY_BP));
+        assertEquals("action=SELL->orders.sell; market=*->orders.{}.in", router.getRules());
+    }
+
+    @Test
+    public void keepsTheFirstRuleOfAValue() throws Exception {
+        final OrderRouter router = new OrderRouter("market=VOD.L->first;market=VOD.L->second;market=*->any");
+        assertEquals("first", router.route(BUY_VOD));
+        assertEquals("any", router.route(BUY_BP));
+    }
+
+    @Test
+    public void keepsTheRulesAfterARuleMatchingAnyValue() throws Exception {
+        final OrderRouter router = new OrderRouter("account=*->all;account=AX002->never");
+        assertEquals("all", router.route(BUY_BP));
+    }
+
+    @Test
+    public void returnsNullWhenNoRuleMatches() throws Exception {
+        final OrderRouter router = new OrderRouter("Market=BP.L->orders.bp;;");
+        assertNull(router.route(BUY_VOD));
+        assertEquals("orders.bp", router.route(BUY_BP));
+    }
+
+    @Test
+    public void keepsTheUnsafeValuesOutOfTheDestinationNames() throws Exception {
+        final OrderRouter router = new OrderRouter("market=*->orders.{};account=*->orders.other");
+        // A composite destination, and a wildcard one
+        assertEquals("orders.other", router.route(order("AX001", "VOD.L,secret", "BUY")));
+        assertEquals("orders.other", router.route(order("AX001", "VOD.>", "BUY")));
+        assertEquals("orders.BP_2-L", router.route(order("AX001", "BP_2-L", "BUY")));
+        assertNull(new OrderRouter("market=*->orders.{}").route(order("AX001", "VOD L", "BUY")));
+        assertEquals("orders.all", new OrderRouter("market=*->orders.all").route(order("AX001", "VOD L", "BUY")));
+    }
+
+    @Test
+    public void routesADocumentByItsFirstOrder() throws Exception {
+        final OrderRouter router = new OrderRouter("market=*->orders.{}");
+        final String document = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Orders>" + BUY_BP + BUY_VOD + "</Orders>";
+        assertEquals("orders.BP.L", router.route(document));
+        assertEquals("orders.BP.L", router.routeDocument(document.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void routesBinaryOrders() {
+        final Order order = new Order();
+        order.setAccount("AX001");
+        order.setMarket("VOD.L");
+        order.setAction(Order.Action.SELL);
+        final ByteBuffer buffer = ByteBuffer.allocate(1 + OrderCodec.maxEncodedLength(order));
+        OrderCodec.writeHeader(buffer);
+        OrderCodec.encode(order, buffer);
+        final OrderRouter router = new OrderRouter("action=SELL->orders.sell");
+        assertEquals("orders.sell", router.routeOrders(Arrays.copyOf(buffer.array(), buffer.position())));
+    }
+
+    @Test
+    public void rejectsTheMalformedRules() {
+        assertRejected("  ; ", "No routing rule");
+        assertRejected("market->orders", "Routing rule not of the form field=value->destination: market->orders");
+        assertRejected("market=VOD.L", "Routing rule not of the form field=value->destination: market=VOD.L");
+        assertRejected("market= ->orders", "Incomplete routing rule: market= ->orders");
+        assertRejected("size=100->orders", "Unknown field to route on: size");
+        assertRejected("market=VOD.L->orders.{}",
+                        "Only the rules matching any value can use {}: market=VOD.L->orders.{}");
+    }
+
+    private static String order(final String account, final String market, final String action) {
+        return "<Order><accont>" + account + "</accont><SubmittedAt>1507060723641</SubmittedAt>"
+                        + "<ReceivedAt>1507060723642</ReceivedAt><market>" + market + "</market><action>" + action
+                        + "</action><size>100</size></Order>";
+    }
+
+    private static void assertRejected(final String rules, final String message) {
+        try {
+            new OrderRouter(rules);
+            fail("The rules were accepted: " + rules);
+        } catch (final IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.sandrew.logic;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+/**
+ * Documents accepted and rejected by the schema of the orders.
+ */
+public class OrderSchemaTest {
+
+    private static final String ORDER = "<Order><accont>AX001</accont><SubmittedAt>1507060723641</SubmittedAt>"
+                    + "<ReceivedAt>1507060723642</ReceivedAt><market>VOD.L</market><action>BUY</action>"
+                    + "<size>100</size></Order>";
+
+    @Test
+    public void compilesTheSchemaOnce() {
+        assertSame(OrderSchema.getSchema(), OrderSchema.getSchema());
+    }
+
+    @Test
+    public void acceptsASingleOrder() throws Exception {
+        validate(ORDER);
+    }
+
+    @Test
+    public void acceptsAListOfOrdersWithTheirFieldsInAnyOrder() throws Exception {
+        validate("<Orders>" + ORDER + "<Order><size>5</size><action>SELL</action><market>BP.L</market>"
+                        + "<ReceivedAt>2</ReceivedAt><SubmittedAt>1</SubmittedAt><accont>AX002</accont></Order>"
+                        + "</Orders>");
+        validate("<Orders/>");
+    }
+
+    @Test
+    public void rejectsAnUnknownAction() throws Exception {
+        assertInvalid(ORDER.replace("BUY", "HOLD"));
+    }
+
+    @Test
+    public void rejectsANonNumericSize() throws Exception {
+        assertInvalid(ORDER.replace("<size>100</size>", "<size>many</size>"));
+    }
+
+    @Test
+    public void rejectsABlankMarket() throws Exception {
+        assertInvalid(ORDER.replace("VOD.L", "  "));
+    }
+
+    @Test
+    public void rejectsAMissingField() throws Exception {
+        assertInvalid(ORDER.replace("<accont>AX001</accont>", ""));
+    }
+
+    @Test
+    public void rejectsAnotherField() throws Exception {
+        assertInvalid(ORDER.replace("<size>", "<comment>none</comment><size>"));
+    }
+
+    @Test
+    public void rejectsADocumentNotWellFormed() throws Exception {
+        assertInvalid(ORDER.replace("</Order>", ""));
+    }
+
+    private static void validate(final String document) throws Exception {
+        OrderSchema.validate(new StreamSource(new StringReader(document)));
+    }
+
+    private static void assertInvalid(final String document) throws Exception {
+        try {
+            validate(document);
+            fail("The document was accepted: " + document);
+        } catch (final SAXException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.sandrew.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Documents split into one standalone document per order.
+ */
+public class OrderSplitterTest {
+
+    private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+
+    private static final String ORDER = "<Order><accont>AX001</accont><size>100</size></Order>";
+
+    @Test
+    public void splitsEachOrder() throws Exception {
+        final List<String> orders = split("<Orders>" + ORDER + "\n<Order><accont>AX002</accont><size/></Order>"
+                        + "</Orders>");
+        assertEquals(2, orders.size());
+        assertEquals(DECLARATION + ORDER, orders.get(0));
+        assertEquals(DECLARATION + "<Order><accont>AX002</accont><size/></Order>", orders.get(1));
+    }
+
+    @Test
+    public void declaresTheNamespacesOfTheAncestors() throws Exception {
+        final List<String> orders = split("<Orders xmlns=\"urn:orders\" xmlns:p=\"urn:x\"><Batch xmlns:q=\"urn:q\">"
+                        + "<Order p:id=\"1\"><p:account>AX001</p:account><size>100</size></Order>"
+                        + "<Order xmlns:p=\"urn:y\"><p:account>AX002</p:account></Order></Batch></Orders>");
+        assertEquals(2, orders.size());
+        assertEquals(DECLARATION + "<Order xmlns=\"urn:orders\" xmlns:p=\"urn:x\" xmlns:q=\"urn:q\" p:id=\"1\">"
+                        + "<p:account>AX001</p:account><size>100</size></Order>", orders.get(0));
+        assertEquals(DECLARATION + "<Order xmlns:p=\"urn:y\" xmlns=\"urn:orders\" xmlns:q=\"urn:q\">"
+                        + "<p:account>AX002</p:account></Order>", orders.get(1));
+
+        final Element order = parse(orders.get(0));
+        assertEquals("urn:orders", order.getNamespaceURI());
+        assertEquals("urn:x", order.getFirstChild().getNamespaceURI());
+        assertEquals("urn:orders", order.getLastChild().getNamespaceURI());
+        assertEquals("1", order.getAttributeNS("urn:x", "id"));
+        assertEquals("urn:y", parse(orders.get(1)).getFirstChild().getNamespaceURI());
+    }
+
+    @Test
+    public void keepsTheDefaultNamespaceUndeclared() throws Exception {
+        final List<String> orders = split("<Orders xmlns=\"urn:orders\"><Batch xmlns=\"\">" + ORDER
+                        + "</Batch></Orders>");
+        assertEquals(DECLARATION + ORDER, orders.get(0));
+    }
+
+    @Test
+    public void forgetsTheNamespacesOfTheClosedElements() throws Exception {
+        final List<String> orders = split("<Orders><Batch xmlns:p=\"urn:x\"/>" + ORDER + "</Orders>");
+        assertEquals(DECLARATION + ORDER, orders.get(0));
+    }
+
+    @Test
+    public void rejectsADocumentWithoutOrder() throws Exception {
+        try {
+            split("<Orders/>");
+            fail("The document was split");
+        } catch (final SAXException e) {
+            assertEquals("No Order element found in the document", e.getMessage());
+        }
+    }
+
+    private static List<String> split(final String document) throws JMSException, SAXException, IOException {
+        final List<String> orders = new ArrayList<>();
+        new OrderSplitter().split(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)),
+                        new PayloadSink() {
+
+                            @Override
+                            public void accept(final String payload) {
+                                orders.add(payload);
+                            }
+
+                            @Override
+                            public void acceptRaw(final byte[] document) {
+                                fail("Raw document handed over by the splitter");
+                            }
+
+                            @Override
+                            public void acceptBinary(final byte[] binaryOrders) {
+                                fail("Binary orders handed over by the splitter");
+                            }
+                        });
+        return orders;
+    }
+
+    private static Element parse(final String order) throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(order)))
+                        .getDocumentElement();
+    }
+}
@@ -0,0 +1,254 @@
+package com.sandrew.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Appending to the outbox, draining it, and opening it again after a stop or a crash.
+ */
+public class OutboxTest {
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void drainsTheRecordsInOrder() throws Exception {
+        final RecordingSender sender = new RecordingSender(Integer.MAX_VALUE);
+        try (final Outbox outbox = new Outbox(this.folder.getRoot())) {
+            outbox.startDrain(sender);
+            outbox.append(records("a", "b"));
+            outbox.append(records("c"));
+            awaitPending(outbox, 0);
+            assertEquals(3, outbox.getStatistics().getDrainedRecords());
+        }
+        assertEquals(Arrays.asList("a", "b", "c"), sender.getPayloads());
+        assertEquals(3, new HashSet<>(sender.getRecordIds()).size());
+        assertTrue(sender.isClosed());
+    }
+
+    @Test
+    public void resumesFromTheCheckpointWhenOpenedAgain() throws Exception {
+        final RecordingSender failingSender = new RecordingSender(2);
+        try (final Outbox outbox = new Outbox(this.folder.getRoot())) {
+            outbox.startDrain(failingSender);
+            outbox.append(records("a", "b", "c", "d"));
+            awaitPending(outbox, 2);
+        }
+        assertEquals(Arrays.asList("a", "b"), failingSender.getPayloads());
+
+        final RecordingSender sender = new RecordingSender(Integer.MAX_VALUE);
+        try (final Outbox outbox = new Outbox(this.folder.getRoot())) {
+            assertEquals(2, outbox.getPendingRecords());
+            outbox.startDrain(sender);
+            awaitPending(outbox, 0);
+        }
+        assertEquals(Arrays.asList("c", "d"), sender.getPayloads());
+        // The identifiers stay unique across the runs, so that the receivers can drop the copies
+        assertTrue(Collections.disjoint(failingSender.getRecordIds(), sender.getRecordIds()));
+    }
+
+    @Test
+    public void dropsAnAppendTornByACrash() throws Exception {
+        try (final Outbox outbox = new Outbox(this.folder.getRoot())) {
+            outbox.append(records("first"));
+            outbox.append(records("second"));
+        }
+        // Flip the last byte of the second record, as if its pages were only partly written back
+        final File segment = this.segmentFiles()[0];
+        final int secondRecordEnd = 2 * (8 + 1) + "first".length() + "second".length();
+        try (final RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(secondRecordEnd - 1);
+            final int last = file.read();
+            file.seek(secondRecordEnd - 1);
+            file.write(last ^ 1);
+        }
+
+        final RecordingSender sender = new RecordingSender(Integer.MAX_VALUE);
+        try (final Outbox outbox = new Outbox(this.folder.getRoot())) {
+            assertEquals(1, outbox.getPendingRecords());
+            // The torn record is overwritten by the next append
+            outbox.append(records("third"));
+            outbox.startDrain(sender);
+            awaitPending(outbox, 0);
+        }
+        assertEquals(Arrays.asList("first", "third"), sender.getPayloads());
+    }
+
+    @Test
+    public void deletesTheDrainedSegments() throws Exception {
+        final RecordingSender sender = new RecordingSender(Integer.MAX_VALUE);
+        // Two records do not fit in a segment, so each record gets one of its own
+        try (final Outbox outbox = new Outbox(this.folder.getRoot(), 32)) {
+            outbox.append(records("record-0", "record-1", "record-2", "record-3"));
+            assertEquals(4, this.segmentFiles().length);
+            outbox.startDrain(sender);
+            awaitPending(outbox, 0);
+            // The last segment is kept for the next appends
+            assertEquals(1, this.segmentFiles().length);
+        }
+        assertEquals(4, sender.getPayloads().size());
+    }
+
+    @Test
+    public void dropsTheWholeBatchWhenASegmentCannotBeCreated() throws Exception {
+        final RecordingSender sender = new RecordingSender(Integer.MAX_VALUE);
+        try (final Outbox outbox = new Outbox(this.folder.getRoot(), 32)) {
+            outbox.append(records("record-0"));
+            // The third segment of the next batch cannot be created, the second one is created then
+            final File created = this.segmentFile(1);
+            final File blocker = this.segmentFile(2);
+            assertTrue(blocker.createNewFile());
+            try {
+                outbox.append(records("record-1", "record-2", "record-3"));
+                fail("The batch was appended");
+            } catch (final IOException e) {
+                assertEquals(1, outbox.getPendingRecords());
+            }
+            assertFalse(created.exists());
+            assertTrue(blocker.delete());
+
+            outbox.append(records("record-4"));
+            assertEquals(2, outbox.getPendingRecords());
+            outbox.startDrain(sender);
+            awaitPending(outbox, 0);
+        }
+        assertEquals(Arrays.asList("record-0", "record-4"), sender.getPayloads());
+    }
+
+    @Test
+    public void findsNoRecordOfAFailedBatchWhenOpenedAgain() throws Exception {
+        try (final Outbox outbox = new Outbox(this.folder.getRoot(), 32)) {
+            assertTrue(this.segmentFile(1).createNewFile());
+            try {
+                outbox.append(records("record-0", "record-1"));
+                fail("The batch was appended");
+            } catch (final IOException e) {
+                assertEquals(0, outbox.getPendingRecords());
+            }
+            assertTrue(this.segmentFile(1).delete());
+        }
+        try (final Outbox outbox = new Outbox(this.folder.getRoot(), 32)) {
+            assertEquals(0, outbox.getPendingRecords());
+        }
+    }
+
+    @Test
+    public void closesWithoutWaitingForTheRetryDelay() throws Exception {
+        final RecordingSender sender = new RecordingSender(0);
+        final Outbox outbox = new Outbox(this.folder.getRoot());
+        outbox.startDrain(sender);
+        outbox.append(records("a"));
+        // The delay between two attempts is then at least 800 ms
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while ((outbox.getStatistics().getRetries() < 4) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        final long start = System.nanoTime();
+        outbox.close();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+
+        try (final Outbox reopened = new Outbox(this.folder.getRoot())) {
+            assertEquals(1, reopened.getPendingRecords());
+        }
+    }
+
+    private File[] segmentFiles() {
+        return this.folder.getRoot().listFiles(new FileFilter() {
+
+            @Override
+            public boolean accept(final File file) {
+                return file.getName().endsWith(".segment");
+            }
+        });
+    }
+
+    private File segmentFile(final long index) {
+        return new File(this.folder.getRoot(), String.format("%019d.segment", index));
+    }
+
+    private static List<Outbox.Record> records(final String... payloads) {
+        final List<Outbox.Record> records = new ArrayList<>();
+        for (final String payload : payloads) {
+            records.add(new Outbox.Record(PayloadFormat.TEXT, payload.getBytes(StandardCharsets.UTF_8)));
+        }
+        return records;
+    }
+
+    private static void awaitPending(final Outbox outbox, final long pendingRecords)
+                    throws InterruptedException, IOException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while ((outbox.getPendingRecords() != pendingRecords) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        assertEquals(pendingRecords, outbox.getPendingRecords());
+    }
+
+    /**
+     * Accepts a number of records, then fails like a broker which is down. It swallows the interruptions, as the
+     * client of the broker may do.
+     */
+    private static final class RecordingSender implements Outbox.Sender {
+
+        private final int acceptedRecords;
+
+        private final List<String> payloads = new ArrayList<>();
+
+        private final List<String> recordIds = new ArrayList<>();
+
+        private volatile boolean closed = false;
+
+        private RecordingSender(final int acceptedRecords) {
+            this.acceptedRecords = acceptedRecords;
+        }
+
+        @Override
+        public synchronized void send(final String recordId, final PayloadFormat format, final byte[] payload)
+                        throws JMSException {
+            Thread.interrupted();
+            if (this.payloads.size() >= this.acceptedRecords) {
+                throw new JMSException("The broker is down");
+            }
+            this.recordIds.add(recordId);
+            this.payloads.add(new String(payload, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+
+        private synchronized List<String> getPayloads() {
+            return new ArrayList<>(this.payloads);
+        }
+
+        private synchronized List<String> getRecordIds() {
+            return new ArrayList<>(this.recordIds);
+        }
+
+        private boolean isClosed() {
+            return this.closed;
+        }
+    }
+}
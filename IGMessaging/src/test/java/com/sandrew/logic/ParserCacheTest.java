@@ -0,0 +1,57 @@
+package com.sandrew.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+/**
+ * Document builders kept by each thread and reset between documents.
+ */
+public class ParserCacheTest {
+
+    @Test
+    public void reusesTheBuilderOfTheThread() throws Exception {
+        final DocumentBuilder builder = ParserCache.getDocumentBuilder();
+        assertEquals("Order", builder.parse(new InputSource(new StringReader("<Order/>"))).getDocumentElement()
+                        .getNodeName());
+        assertSame(builder, ParserCache.getDocumentBuilder());
+        assertEquals("Orders", ParserCache.getDocumentBuilder().parse(new InputSource(new StringReader("<Orders/>")))
+                        .getDocumentElement().getNodeName());
+        assertSame(builder, ParserCache.getDocumentBuilder());
+    }
+
+    @Test
+    public void usesTheParserOfTheJdk() throws Exception {
+        assertTrue(ParserCache.getDocumentBuilder().getClass().getName()
+                        .startsWith("com.sun.org.apache.xerces.internal."));
+    }
+
+    @Test
+    public void givesEachThreadItsOwnBuilder() throws Exception {
+        final AtomicReference<Object> other = new AtomicReference<>();
+        final Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    other.set(ParserCache.getDocumentBuilder());
+                } catch (final Exception e) {
+                    other.set(e);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        assertTrue(other.get() instanceof DocumentBuilder);
+        assertNotSame(ParserCache.getDocumentBuilder(), other.get());
+    }
+}
@@ -0,0 +1,160 @@
+package com.sandrew.logic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Files uploaded in each payload format and received through a broker.
+ */
+public class PayloadFormatTest {
+
+    private static final String QUEUE = "test.formats";
+
+    private static final String FIRST_ORDER = "<Order><accont>AX001</accont><SubmittedAt>1507060723641</SubmittedAt>"
+                    + "<ReceivedAt>1507060723642</ReceivedAt><market>VOD.L</market><action>BUY</action>"
+                    + "<size>100</size></Order>";
+
+    private static final String SECOND_ORDER = "<Order><accont>AX002</accont><SubmittedAt>1507060723650</SubmittedAt>"
+                    + "<ReceivedAt>1507060723655</ReceivedAt><market>BP.L</market><action>SELL</action>"
+                    + "<size>5</size></Order>";
+
+    private static final String DOCUMENT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Orders>" + FIRST_ORDER
+                    + SECOND_ORDER + "</Orders>";
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private BrokerService broker;
+
+    private FileUploader uploader;
+
+    private FileReceiver receiver;
+
+    private File file;
+
+    private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        this.broker = new BrokerService();
+        this.broker.setPersistent(false);
+        this.broker.setUseJmx(false);
+        this.broker.setUseShutdownHook(false);
+        this.broker.addConnector("tcp://localhost:0");
+        this.broker.start();
+        this.broker.waitUntilStarted();
+        final URI brokerUri = this.broker.getTransportConnectors().get(0).getConnectUri();
+        this.uploader = new FileUploader(brokerUri, null, null, QUEUE, false);
+        this.receiver = new FileReceiver(brokerUri, null, null, QUEUE, false);
+        this.file = this.folder.newFile("orders.xml");
+        Files.write(this.file.toPath(), DOCUMENT.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.receiver.stop();
+        this.uploader.close();
+        ConnectionPools.shutdown();
+        this.broker.stop();
+        this.broker.waitUntilStopped();
+    }
+
+    @Test
+    public void deliversTheSameDocumentAsTextAndRaw() throws Exception {
+        this.receiver.start(new FileHandler() {
+
+            @Override
+            public void handle(final String file) {
+                PayloadFormatTest.this.received.add(file);
+            }
+        });
+        this.uploader.uploadFile(this.file);
+        final Object text = this.next();
+        this.uploader.setPayloadFormat(PayloadFormat.RAW);
+        this.uploader.uploadFile(this.file);
+        assertEquals(text, this.next());
+    }
+
+    @Test
+    public void handsTheOriginalBytesOverToARawHandler() throws Exception {
+        this.receiver.start(new RawFileHandler() {
+
+            @Override
+            public void handle(final String file) {
+                PayloadFormatTest.this.received.add(file);
+            }
+
+            @Override
+            public void handleBytes(final ByteBuffer file) {
+                final byte[] bytes = new byte[file.remaining()];
+                file.get(bytes);
+                PayloadFormatTest.this.received.add(bytes);
+            }
+        });
+        this.uploader.setPayloadFormat(PayloadFormat.RAW);
+        this.uploader.uploadFile(this.file);
+        assertArrayEquals(DOCUMENT.getBytes(StandardCharsets.UTF_8), (byte[]) this.next());
+    }
+
+    @Test
+    public void deliversTheBinaryOrdersAsXml() throws Exception {
+        this.receiver.start(new FileHandler() {
+
+            @Override
+            public void handle(final String file) {
+                PayloadFormatTest.this.received.add(file);
+            }
+        });
+        this.uploader.setPayloadFormat(PayloadFormat.BINARY);
+        this.uploader.uploadFile(this.file);
+        assertEquals(DOCUMENT, this.next());
+    }
+
+    @Test
+    public void handsTheBinaryOrdersOverToAnOrderHandler() throws Exception {
+        this.receiver.start(new OrderHandler() {
+
+            @Override
+            public void handle(final String file) {
+                PayloadFormatTest.this.received.add(file);
+            }
+
+            @Override
+            public void handleOrder(final Order order) {
+                PayloadFormatTest.this.received.add(order.toString());
+            }
+        });
+        this.uploader.setPayloadFormat(PayloadFormat.BINARY);
+        this.uploader.uploadFile(this.file);
+        assertEquals("AX001 BUY 100 VOD.L submitted at 1507060723641, received at 1507060723642", this.next());
+        assertEquals("AX002 SELL 5 BP.L submitted at 1507060723650, received at 1507060723655", this.next());
+        assertNull(this.received.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private Object next() throws InterruptedException {
+        final Object file = this.received.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (file == null) {
+            throw new AssertionError("Nothing received within " + TIMEOUT_SECONDS + " seconds");
+        }
+        return file;
+    }
+}